@@ -0,0 +1,125 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Inputs for the benchmarks, shaped like captured ASTRI responses.
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * Work order lists carry the fields WorkOrderJsonReader reports for the
+ * infrastructure type plus the extra fields ASTRI sends that are skipped
+ * (nested objects, arrays, numbers). Text values mix plain ASCII with the
+ * escapes and markup seen in vendor names and remarks. A fixed seed keeps
+ * every run on the same bytes.
+ */
+final class BenchmarkFixtures {
+    private static final String[] CATEGORIES = {"Design", "Construction", "As Built", "Documentation"};
+    private static final String[] STATUSES = {"draft", "submitted", "approved", "rejected", "in_progress", "done"};
+    private static final String[] VENDORS = {
+        "PT Telkom Akses", "PT Len Telekomunikasi Indonesia", "CV Karya \\\"Mandiri\\\" Utama",
+        "PT Fiber & Network Solusi", "PT Surya <Optik> Nusantara", "PT Jaringan Prima \\u00c9lite"
+    };
+    private static final String[] AREAS = {"Jakarta Selatan", "Bekasi", "Tangerang", "Bandung", "Surabaya", "Medan"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * A work order list response of the given size for cluster, subfeeder or feeder.
+     */
+    static String workOrderListJson(String infrastructureType, int count) {
+        Random random = new Random(42);
+        String[] fields = WorkOrderJsonReader.fieldsFor(infrastructureType);
+        StringBuilder json = new StringBuilder(count * 1200);
+        json.append("{\"success\":true,\"count\":").append(count)
+            .append(",\"count_all\":").append(count * 7 + 3)
+            .append(",\"data\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(100000 + i);
+            for (String field : fields) {
+                json.append(",\"").append(field).append("\":");
+                appendValue(json, field, i, random);
+            }
+            // Fields ASTRI sends that the reader skips
+            json.append(",\"attachments\":[{\"id\":").append(i)
+                .append(",\"file\":\"https:\\/\\/astri.example\\/files\\/").append(uuid(random)).append(".kmz\"}]")
+                .append(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(106.8 + random.nextDouble()).append(',').append(-6.2 - random.nextDouble()).append("]}")
+                .append(",\"progress\":").append(random.nextInt(101))
+                .append(",\"is_active\":").append(random.nextBoolean())
+                .append(",\"deleted_at\":null}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendValue(StringBuilder json, String field, int i, Random random) {
+        if (field.equals("uuid")) {
+            json.append('"').append(uuid(random)).append('"');
+        } else if (field.equals("number")) {
+            json.append("\"WO\\/ALL\\/2025\\/DOCU\\/").append(1 + random.nextInt(52)).append("\\/").append(50000 + i).append('"');
+        } else if (field.startsWith("category")) {
+            json.append('"').append(CATEGORIES[random.nextInt(CATEGORIES.length)]).append('"');
+        } else if (field.equals("latest_status_name")) {
+            json.append('"').append(STATUSES[random.nextInt(STATUSES.length)]).append('"');
+        } else if (field.contains("vendor")) {
+            // Some work orders have no subcontractor
+            if (field.contains("subcont") && random.nextInt(3) == 0) {
+                json.append("null");
+            } else {
+                json.append('"').append(VENDORS[random.nextInt(VENDORS.length)]).append('"');
+            }
+        } else if (field.endsWith("_at")) {
+            json.append("\"2025-").append(String.format("%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)))
+                .append("T08:").append(String.format("%02d:%02d", random.nextInt(60), random.nextInt(60))).append(".000000Z\"");
+        } else if (field.endsWith("_area")) {
+            json.append('"').append(AREAS[random.nextInt(AREAS.length)]).append('"');
+        } else if (field.endsWith("_plant_code")) {
+            json.append("\"P").append(1000 + random.nextInt(9000)).append('"');
+        } else if (field.endsWith("_topology")) {
+            json.append(random.nextBoolean() ? "\"Ring\"" : "\"Star\"");
+        } else if (field.endsWith("_name")) {
+            json.append("\"").append(AREAS[random.nextInt(AREAS.length)]).append(" Cluster ").append(i)
+                .append(random.nextInt(5) == 0 ? " \\/ Phase 2\\nRemarks: \\\"urgent\\\"" : "").append('"');
+        } else {
+            json.append("\"JKT-").append(field.length()).append('-').append(10000 + i).append('"');
+        }
+    }
+
+    private static String uuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    /**
+     * Text typical of BOQ descriptions and remarks: plain, or with quotes, markup and line breaks.
+     */
+    static String text(boolean markup) {
+        if (!markup) {
+            return "Kabel FO 24 Core ADSS span 100 meter untuk Cluster Jakarta Selatan tahap 2";
+        }
+        return "Kabel \"FO\" 24 Core <ADSS> span 100m & tiang 7m\nCatatan: 'urgent'\tC:\\astri\\boq";
+    }
+
+    /**
+     * Copy sample_kml.kml (bundled from the project root) to a temp file.
+     */
+    static Path sampleKml(Path dir) throws IOException {
+        Path kml = dir.resolve("sample_kml.kml");
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/sample_kml.kml")) {
+            if (in == null) {
+                throw new IOException("sample_kml.kml is not on the classpath");
+            }
+            Files.copy(in, kml, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return kml;
+    }
+}
@@ -0,0 +1,70 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The escapeXml/escapeJson variants side by side on the same text.
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * The escapeXml versions are the replace-chain copies in the clients;
+ * appendEscaped is the single-pass writer used for work order XML and
+ * JsonBodyWriter.escape the single-pass JSON escape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EscapeBenchmark {
+
+    @Param({"false", "true"})
+    public boolean markup;
+
+    private String text;
+    private WorkOrderClient workOrderClient;
+    private KmzDownloadClient kmzClient;
+    private StringBuilder out;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkFixtures.text(markup);
+        workOrderClient = new WorkOrderClient();
+        kmzClient = new KmzDownloadClient();
+        out = new StringBuilder(256);
+    }
+
+    @Benchmark
+    public String escapeXmlWorkOrderClient() {
+        return workOrderClient.escapeXml(text);
+    }
+
+    @Benchmark
+    public String escapeXmlKmzDownloadClient() {
+        return kmzClient.escapeXml(text);
+    }
+
+    @Benchmark
+    public StringBuilder appendEscapedXmlWriter() {
+        out.setLength(0);
+        WorkOrderXmlWriter.appendEscaped(out, text);
+        return out;
+    }
+
+    @Benchmark
+    public String escapeJsonBodyWriter() {
+        return JsonBodyWriter.escape(text);
+    }
+}
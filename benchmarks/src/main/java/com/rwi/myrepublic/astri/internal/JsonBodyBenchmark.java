@@ -0,0 +1,71 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request bodies built for BOQ lines (astri_add_boq_drm) and work order updates.
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * Bodies are UTF-8 bytes from JsonBodyWriter, as handed to the BodyPublisher.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBodyBenchmark {
+
+    @Param({"false", "true"})
+    public boolean markup;
+
+    private BoqClient boqClient;
+    private WorkOrderUpdateClient updateClient;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        boqClient = new BoqClient();
+        updateClient = new WorkOrderUpdateClient();
+        text = BenchmarkFixtures.text(markup);
+    }
+
+    @Benchmark
+    public byte[] boqBuildJsonBody() {
+        return boqClient.buildJsonBody(
+            "cluster_code", "JKT-CL-00123", "PT Telkom Akses", "CV Karya Mandiri Utama",
+            "Kabel FO 24 Core ADSS", text, 1250.5, 12.0, text,
+            "Phase 2", "Jakarta Selatan", "P1024", null, 187500.25);
+    }
+
+    @Benchmark
+    public byte[] jsonBodyWriterStringField() {
+        try (JsonBodyWriter json = JsonBodyWriter.begin()) {
+            return json.field("description", text).toBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonBodyWriterDecimalField() {
+        try (JsonBodyWriter json = JsonBodyWriter.begin()) {
+            return json.field("quantity_material", 1250.5, 2).toBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] workOrderUpdateBuildJsonBody() {
+        return updateClient.buildJsonBody("WO/ALL/2025/DOCU/16/54556", "submitted", text);
+    }
+}
@@ -0,0 +1,72 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * KMZ -> KML extraction of a downloaded document, to a file (kml_file_path
+ * mode) and into memory (kml_content mode).
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * The KMZ is sample_kml.kml zipped by KmzWriter at the default level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KmzExtractBenchmark {
+
+    private Path dir;
+    private Path kmz;
+    private Path kml;
+    private StringBuilder content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("astri-bench-");
+        kmz = dir.resolve("sample.kmz");
+        KmzWriter.writeKmz(BenchmarkFixtures.sampleKml(dir), kmz, -1);
+        kml = dir.resolve("extracted.kml");
+        content = new StringBuilder();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Path extractKml() throws IOException {
+        KmzDownloadClient.extractKml(kmz, kml);
+        return kml;
+    }
+
+    @Benchmark
+    public int readKml() throws IOException {
+        // Capacity is kept across invocations, as a fresh builder would be sized from the entry
+        content.setLength(0);
+        KmzDownloadClient.readKml(kmz, content);
+        return content.length();
+    }
+}
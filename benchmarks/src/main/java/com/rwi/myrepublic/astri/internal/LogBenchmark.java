@@ -0,0 +1,49 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AstriLog statements on the calling thread.
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * Runs at astri.log.level=INFO: debug() is the disabled path every client
+ * call goes through; info() queues an event for the writer thread, which
+ * writes to a throwaway file. A full ring drops events, so info() measures
+ * the enqueue, not the disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dastri.log.level=INFO", "-Dastri.log.file=target/log-benchmark/astri.log"})
+public class LogBenchmark {
+
+    private final String uuid = "7f3c2a9e-1b4d-4c8e-9a6f-2d5e8b1c0f47";
+    private int status = 200;
+
+    @Benchmark
+    public void debugDisabled() {
+        AstriLog.debug("[WorkOrderClient] Response status: {}, uuid: {}", status, uuid);
+    }
+
+    @Benchmark
+    public boolean samplePayloadDisabled() {
+        return AstriLog.samplePayload();
+    }
+
+    @Benchmark
+    public void infoEnabled() {
+        AstriLog.info("[WorkOrderClient] Response status: {}, uuid: {}", status, uuid);
+    }
+}
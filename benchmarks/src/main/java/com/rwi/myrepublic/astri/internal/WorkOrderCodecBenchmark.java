@@ -0,0 +1,83 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work order list response JSON -> <response> XML, as done for
+ * astri_get_work_orders, and its parts on their own.
+ * NOT exposed to Magik - used only by the benchmarks module.
+ *
+ * tokenize is the bare JsonTokenizer pass (what replaced the old
+ * extractJsonValue/splitJsonObjects scans), read adds field matching in
+ * WorkOrderJsonReader, convertJsonToXml is the full WorkOrderClient path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkOrderCodecBenchmark {
+
+    @Param({"cluster", "feeder"})
+    public String infrastructureType;
+
+    @Param({"50", "1000"})
+    public int workOrders;
+
+    private String json;
+    private WorkOrderClient client;
+    private WorkOrderJsonReader reader;
+
+    @Setup
+    public void setUp() {
+        json = BenchmarkFixtures.workOrderListJson(infrastructureType, workOrders);
+        client = new WorkOrderClient();
+        reader = new WorkOrderJsonReader(infrastructureType);
+    }
+
+    @Benchmark
+    public String convertJsonToXml() {
+        return client.convertJsonToXml(json, infrastructureType);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        reader.read(new StringReader(json), new WorkOrderJsonReader.Handler() {
+            @Override
+            public void headerField(String name, CharSequence value) {
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void workOrder(String[] fieldNames, CharSequence[] values) {
+                blackhole.consume(values);
+            }
+        });
+    }
+
+    @Benchmark
+    public int tokenize() throws IOException {
+        JsonTokenizer tokenizer = new JsonTokenizer(new StringReader(json));
+        int tokens = 0;
+        while (tokenizer.next() != JsonTokenizer.Token.END_DOCUMENT) {
+            tokens++;
+        }
+        return tokens;
+    }
+}
@@ -2,8 +2,17 @@ package com.rwi.myrepublic.astri;
 
 import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
 import com.rwi.myrepublic.astri.internal.BoqClient;
+import com.rwi.myrepublic.astri.internal.JsonBodyWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * ASTRI BOQ (Bill of Quantities) DRM procedures exposed to Magik.
@@ -11,6 +20,8 @@ import com.rwi.myrepublic.astri.internal.BoqClient;
  */
 public class AstriBoqProcs {
 
+    private static final Pattern SUCCESS_TRUE = Pattern.compile("\"success\"\\s*:\\s*true");
+
     /**
      * Add BOQ DRM to ASTRI API (supports cluster, subfeeder, and feeder).
      *
@@ -53,7 +64,8 @@ public class AstriBoqProcs {
                                           Object areaPlantCode,
                                           Object overridePriceMaterial,
                                           Object overridePriceService) {
-        System.out.println("=== DEBUG: astri_add_boq_drm called ===");
+        AstriLog.debug("astri_add_boq_drm called");
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_add_boq_drm");
         BoqClient client = null;
         try {
             // Handle _unset (null) values from Magik
@@ -76,40 +88,150 @@ public class AstriBoqProcs {
             String areaStr = (area == null) ? null : MagikInteropUtils.fromMagikString(area);
             String areaPlantCodeStr = (areaPlantCode == null) ? null : MagikInteropUtils.fromMagikString(areaPlantCode);
 
-            System.out.println("Parameters: infra_type=" + infraTypeStr + ", infra_type_code=" + infraTypeCodeStr +
-                             ", vendor=" + vendorNameStr + ", equipment=" + equipmentNameStr);
-            System.out.println("Quantities: material=" + quantityMaterialDbl + ", service=" + quantityServiceDbl);
+            AstriLog.debug("Parameters: infra_type={}, infra_type_code={}, vendor={}, equipment={}",
+                           infraTypeStr, infraTypeCodeStr, vendorNameStr, equipmentNameStr);
+            AstriLog.debug("Quantities: material={}, service={}", quantityMaterialDbl, quantityServiceDbl);
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new BoqClient();
             String jsonResponse = client.addBoqDrm(
                 infraTypeStr, infraTypeCodeStr, vendorNameStr, subcontVendorNameStr, equipmentNameStr,
                 descriptionStr, quantityMaterialDbl, quantityServiceDbl, remarksStr,
                 phaseStr, areaStr, areaPlantCodeStr, overridePriceMaterialDbl, overridePriceServiceDbl
             );
+            call.skip();
 
-            System.out.println("=== DEBUG: BOQ DRM added successfully ===");
+            AstriLog.debug("BOQ DRM added successfully");
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("=== DEBUG: ERROR in addBoqDrm ===");
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in addBoqDrm: {}", e.getMessage(), e);
 
             // Return error as JSON string with proper format
-            String errorJson = "{\"success\":false,\"error\":\"" + escapeJson(e.getMessage()) + "\"}";
+            String errorJson = "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}";
             return MagikInteropUtils.toMagikString(errorJson);
         } finally {
             if (client != null) {
                 try {
                     client.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing client: " + e.getMessage());
+                    AstriLog.warn("Error closing client: {}", e.getMessage());
+                }
+            }
+            call.end();
+        }
+    }
+
+    /**
+     * Add many BOQ DRM lines for one infrastructure code in a single call.
+     *
+     * Creates global Magik procedure: astri_add_boq_drm_batch(infra_type, infra_type_code,
+     *                                   items_vector, _optional max_parallel)
+     *
+     * The POSTs are pipelined over the shared transport with at most max_parallel
+     * requests in flight, instead of one blocking astri_add_boq_drm call per line.
+     *
+     * @param proc The Magik proc object
+     * @param infraType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param infraTypeCode Infrastructure type code shared by all lines (Magik string)
+     * @param items Magik vector of property_lists (e.g. rope.as_simple_vector()), one per line, with keys:
+     *              :vendor_name, :subcont_vendor_name, :equipment_name, :description,
+     *              :quantity_material, :quantity_service, :remarks, :phase, :area,
+     *              :area_plant_code, :override_price_material, :override_price_service
+     * @param maxParallel Optional maximum concurrent requests (Magik integer),
+     *                    defaults to astri.boq.batch.parallel
+     * @return String - JSON response:
+     *         {"success":true/false, "count":N, "success_count":N, "error_count":N,
+     *          "results":[{...API response for line 1...}, {...line 2...}, ...]}
+     *         results are in input order; "success" is true only if every line succeeded
+     */
+    @MagikProc(@Name("astri_add_boq_drm_batch"))
+    public static Object addBoqDrmBatch(Object proc,
+                                        Object infraType,
+                                        Object infraTypeCode,
+                                        Object items,
+                                        @Optional Object maxParallel) {
+        AstriLog.debug("astri_add_boq_drm_batch called");
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_add_boq_drm_batch");
+        try {
+            String infraTypeStr = (infraType == null) ? "cluster" : MagikInteropUtils.fromMagikString(infraType);
+            String infraTypeCodeStr = (infraTypeCode == null) ? null : MagikInteropUtils.fromMagikString(infraTypeCode);
+            int parallel = (maxParallel == null)
+                ? AstriConfig.getInstance().getBoqBatchParallel()
+                : MagikInteropUtils.fromMagikInteger(maxParallel);
+
+            Object[] itemArray = MagikPropertyLists.toArray(items);
+            List<BoqClient.BoqLine> lines = new ArrayList<>(itemArray.length);
+            for (Object item : itemArray) {
+                Map<String, Object> fields = MagikPropertyLists.toMap(item);
+                lines.add(new BoqClient.BoqLine(
+                    MagikPropertyLists.getString(fields, "vendor_name"),
+                    MagikPropertyLists.getString(fields, "subcont_vendor_name"),
+                    MagikPropertyLists.getString(fields, "equipment_name"),
+                    MagikPropertyLists.getString(fields, "description"),
+                    convertMagikNumberToDouble(fields.get("quantity_material")),
+                    convertMagikNumberToDouble(fields.get("quantity_service")),
+                    MagikPropertyLists.getString(fields, "remarks"),
+                    MagikPropertyLists.getString(fields, "phase"),
+                    MagikPropertyLists.getString(fields, "area"),
+                    MagikPropertyLists.getString(fields, "area_plant_code"),
+                    convertMagikNumberToDouble(fields.get("override_price_material")),
+                    convertMagikNumberToDouble(fields.get("override_price_service"))
+                ));
+            }
+
+            AstriLog.debug("Parameters: infra_type={}, infra_type_code={}, lines={}, max_parallel={}",
+                           infraTypeStr, infraTypeCodeStr, lines.size(), parallel);
+
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+            List<String> responses = new BoqClient().addBoqDrmBatch(infraTypeStr, infraTypeCodeStr, lines, parallel);
+            call.skip();
+
+            int successCount = 0;
+            StringBuilder results = new StringBuilder();
+            for (String response : responses) {
+                String trimmed = (response == null) ? "" : response.trim();
+                if (results.length() > 0) {
+                    results.append(",");
+                }
+                if (trimmed.startsWith("{")) {
+                    results.append(trimmed);
+                    if (SUCCESS_TRUE.matcher(trimmed).find()) {
+                        successCount++;
+                    }
+                } else {
+                    // Not a JSON object (e.g. an HTML gateway error page)
+                    results.append("{\"success\":false,\"error\":\"")
+                           .append(JsonBodyWriter.escape(trimmed.isEmpty() ? "Empty API response" : trimmed))
+                           .append("\"}");
                 }
             }
-            System.out.println("=== DEBUG: astri_add_boq_drm completed ===");
+            int errorCount = responses.size() - successCount;
+
+            AstriLog.info("BOQ DRM batch done: {} ok, {} failed", successCount, errorCount);
+
+            String jsonResponse = "{\"success\":" + (errorCount == 0) +
+                                  ",\"count\":" + responses.size() +
+                                  ",\"success_count\":" + successCount +
+                                  ",\"error_count\":" + errorCount +
+                                  ",\"results\":[" + results + "]}";
+            Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in addBoqDrmBatch: {}", e.getMessage(), e);
+
+            String errorJson = "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}";
+            return MagikInteropUtils.toMagikString(errorJson);
+        } finally {
+            call.end();
         }
     }
 
@@ -137,25 +259,9 @@ public class AstriBoqProcs {
                 Integer intValue = MagikInteropUtils.fromMagikInteger(magikNumber);
                 return intValue.doubleValue();
             } catch (Exception e2) {
-                System.err.println("Warning: Could not convert Magik number to Double: " + e2.getMessage());
+                AstriLog.warn("Could not convert Magik number to Double: {}", e2.getMessage());
                 return null;
             }
         }
     }
-
-
-    /**
-     * Escape special characters in JSON strings.
-     *
-     * @param str String to escape
-     * @return Escaped string safe for JSON
-     */
-    private static String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
-    }
 }
@@ -1,71 +1,327 @@
 package com.rwi.myrepublic.astri;
 
+import com.rwi.myrepublic.astri.internal.AstriEndpoint;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Configuration singleton for ASTRI API integration.
  * Loads configuration from astri_config.properties on classpath.
+ * A file named by -Dastri.config.file is read on top of it, and any astri.*
+ * JVM system property overrides both.
+ *
+ * The settings are published as an immutable Snapshot, with the values every
+ * request needs (base URLs, auth header, per-endpoint timeouts) parsed once.
+ * The properties file is watched when it is on disk (astri.config.file, or the
+ * classpath copy in an exploded build) and reloaded when it changes, unless
+ * astri.config.reload.enabled=false. A reload that fails to parse keeps the
+ * previous snapshot. Clients take snapshot() once per request; settings read
+ * when a component starts (HTTP transport, circuits, rate limits, log file,
+ * KMZ cache, metrics) still need a restart.
  */
 public class AstriConfig {
     private static AstriConfig instance;
-    private Properties props;
+
+    // Editors write a file in several steps; wait for them to finish before reloading
+    private static final long RELOAD_SETTLE_MILLIS = 200;
+
+    private final Path watchedFile;
+    private final List<Consumer<Snapshot>> reloadListeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot;
 
     private AstriConfig() {
-        props = new Properties();
+        String external = System.getProperty("astri.config.file", "").trim();
+        this.watchedFile = !external.isEmpty() ? Paths.get(external).toAbsolutePath() : classpathFile();
+        this.snapshot = new Snapshot(loadProperties());
+
+        if (watchedFile != null && Boolean.parseBoolean(
+                property("astri.config.reload.enabled", "true").trim())) {
+            Thread watcher = new Thread(this::watch, "astri-config-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    public static AstriConfig getInstance() {
+        if (instance == null) {
+            synchronized (AstriConfig.class) {
+                if (instance == null) {
+                    instance = new AstriConfig();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The current settings. Take it once per request, so that one request
+     * never mixes values from before and after a reload.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Called with the new snapshot after every successful reload (on the watcher thread).
+     */
+    public void addReloadListener(Consumer<Snapshot> listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Read the configuration again and publish it if it changed.
+     *
+     * @return true if a new snapshot was published
+     */
+    public boolean reload() {
+        Snapshot next;
+        try {
+            next = new Snapshot(loadProperties());
+        } catch (RuntimeException e) {
+            AstriLog.warn("ASTRI configuration not reloaded, keeping the previous settings: {}", e.toString());
+            return false;
+        }
+        if (next.props.equals(snapshot.props)) {
+            return false;
+        }
+        snapshot = next;
+        for (Consumer<Snapshot> listener : reloadListeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                AstriLog.warn("ASTRI configuration reload listener failed: {}", e);
+            }
+        }
+        AstriLog.info("ASTRI configuration reloaded from {}", watchedFile != null ? watchedFile : "classpath");
+        return true;
+    }
+
+    private Properties loadProperties() {
+        Properties props = new Properties();
         try (InputStream in = getClass().getClassLoader()
                 .getResourceAsStream("astri_config.properties")) {
             if (in != null) {
                 props.load(in);
             }
         } catch (IOException e) {
+            // Not AstriLog - logging is configured from this file
             System.err.println("Warning: Could not load astri_config.properties, using defaults");
         }
+
+        String external = System.getProperty("astri.config.file", "").trim();
+        if (!external.isEmpty()) {
+            try (InputStream in = Files.newInputStream(Paths.get(external))) {
+                props.load(in);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not load " + external + ", using astri_config.properties");
+            }
+        }
+
+        // -Dastri.* system properties win over the file, e.g. to point
+        // astri.api.base.url / astri.dm.base.url at the testkit mock server
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("astri.")) {
+                props.setProperty(name, System.getProperty(name));
+            }
+        }
+        return props;
     }
 
-    public static AstriConfig getInstance() {
-        if (instance == null) {
-            synchronized (AstriConfig.class) {
-                if (instance == null) {
-                    instance = new AstriConfig();
+    /**
+     * The classpath astri_config.properties if it is a plain file (not inside the bundle jar).
+     */
+    private Path classpathFile() {
+        URL url = getClass().getClassLoader().getResource("astri_config.properties");
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void watch() {
+        Path dir = watchedFile.getParent();
+        Path name = watchedFile.getFileName();
+        try (WatchService watcher = dir.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = pollChanged(key, name);
+                if (!key.reset()) {
+                    AstriLog.warn("ASTRI configuration directory {} is gone, no longer watching it", dir);
+                    return;
+                }
+                if (changed) {
+                    Thread.sleep(RELOAD_SETTLE_MILLIS);
+                    // Fold the events of the rest of the write into this reload
+                    for (WatchKey more = watcher.poll(); more != null; more = watcher.poll()) {
+                        pollChanged(more, name);
+                        more.reset();
+                    }
+                    reload();
                 }
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        } catch (IOException | RuntimeException e) {
+            AstriLog.warn("ASTRI configuration is not watched for changes: {}", e.toString());
         }
-        return instance;
+    }
+
+    private static boolean pollChanged(WatchKey key, Path name) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private String property(String key) {
+        return snapshot.props.getProperty(key);
+    }
+
+    private String property(String key, String defaultValue) {
+        return snapshot.props.getProperty(key, defaultValue);
     }
 
     public String getApiBaseUrl() {
-        return props.getProperty("astri.api.base.url",
-            "http://172.17.75.22/astri-api-v2/v4");
+        return snapshot.apiBaseUrl;
     }
 
     public String getDmBaseUrl() {
-        return props.getProperty("astri.dm.base.url",
-            "http://172.17.75.22/astri-dm/v4");
+        return snapshot.dmBaseUrl;
     }
 
     public String getUsername() {
-        return props.getProperty("astri.username", "smallworld");
+        return property("astri.username", "smallworld");
     }
 
     public String getPassword() {
-        return props.getProperty("astri.password", "Smallworld@2025!");
+        return property("astri.password", "Smallworld@2025!");
     }
 
     public long getRequestTimeout() {
-        return Long.parseLong(props.getProperty("astri.timeout.request", "30000"));
+        return Long.parseLong(property("astri.timeout.request", "30000"));
+    }
+
+    /**
+     * Request timeout in milliseconds of one endpoint.
+     * Overridable per endpoint: astri.timeout.request.&lt;endpoint&gt;.
+     */
+    public long getRequestTimeout(String endpoint) {
+        return getEndpointLong("astri.timeout.request", endpoint, 30000);
     }
 
     public long getConnectionTimeout() {
-        return Long.parseLong(props.getProperty("astri.timeout.connection", "10000"));
+        return snapshot.connectionTimeout.toMillis();
+    }
+
+    /**
+     * Preferred HTTP version for the shared transport.
+     * HTTP_2 falls back to HTTP/1.1 automatically when the server does not support it.
+     */
+    public java.net.http.HttpClient.Version getHttpVersion() {
+        String version = property("astri.http.version", "HTTP_2").trim();
+        if ("HTTP_1_1".equalsIgnoreCase(version)) {
+            return java.net.http.HttpClient.Version.HTTP_1_1;
+        }
+        return java.net.http.HttpClient.Version.HTTP_2;
+    }
+
+    /**
+     * Whether JSON requests ask for gzip/deflate compressed responses.
+     */
+    public boolean isHttpCompressionEnabled() {
+        return Boolean.parseBoolean(property("astri.http.compression.enabled", "true").trim());
+    }
+
+    /**
+     * Number of threads in the shared transport executor (0 = elastic pool).
+     */
+    public int getHttpExecutorThreads() {
+        return Integer.parseInt(property("astri.http.executor.threads", "0"));
+    }
+
+    /**
+     * Default number of concurrent POSTs for astri_add_boq_drm_batch.
+     */
+    public int getBoqBatchParallel() {
+        return Integer.parseInt(property("astri.boq.batch.parallel", "8"));
+    }
+
+    /**
+     * Default number of concurrent page requests for astri_get_all_work_orders.
+     */
+    public int getWorkOrderFetchParallel() {
+        return Integer.parseInt(property("astri.workorder.fetch.parallel", "4"));
+    }
+
+    /**
+     * Records per page requested by astri_sync_work_orders.
+     */
+    public int getWorkOrderSyncPageSize() {
+        return Integer.parseInt(property("astri.workorder.sync.page.size", "100").trim());
+    }
+
+    /**
+     * Query parameters that make the work order list newest-first by updated_at,
+     * for astri_sync_work_orders to stop at its watermark.
+     */
+    public String getWorkOrderSyncOrderParams() {
+        return property("astri.workorder.sync.order.params", "sort_by=updated_at&sort_order=desc").trim();
+    }
+
+    /**
+     * Whether synced work orders are kept on disk (astri.workorder.store.enabled).
+     */
+    public boolean isWorkOrderStoreEnabled() {
+        return Boolean.parseBoolean(property("astri.workorder.store.enabled", "true").trim());
+    }
+
+    /**
+     * Directory of the work order store (default: workorder_store under the download directory).
+     */
+    public String getWorkOrderStoreDir() {
+        String dir = property("astri.workorder.store.dir");
+        if (dir != null && !dir.trim().isEmpty()) {
+            return dir.trim();
+        }
+        return getDownloadDir() + "/workorder_store";
     }
 
     public String getDownloadDir() {
         // Use SMALLWORLD_GIS environment variable to create dynamic path
         // Save to parent directory: %SMALLWORLD_GIS%/../kml_files
         String smallworldGis = System.getenv("SMALLWORLD_GIS");
-        System.out.println("DEBUG: SMALLWORLD_GIS env var: " + smallworldGis);
+        AstriLog.debug("SMALLWORLD_GIS env var: {}", smallworldGis);
 
         if (smallworldGis != null && !smallworldGis.isEmpty()) {
             // Get parent directory of SMALLWORLD_GIS
@@ -74,18 +330,292 @@ public class AstriConfig {
 
             if (parentDir != null) {
                 String kmlDir = parentDir.getAbsolutePath() + "/kml_files";
-                System.out.println("DEBUG: Using KML directory (parent of SMALLWORLD_GIS): " + kmlDir);
+                AstriLog.debug("Using KML directory (parent of SMALLWORLD_GIS): {}", kmlDir);
                 return kmlDir;
             } else {
-                System.out.println("DEBUG: Could not get parent directory, using SMALLWORLD_GIS directly");
+                AstriLog.debug("Could not get parent directory, using SMALLWORLD_GIS directly");
                 String kmlDir = smallworldGis + "/kml_files";
                 return kmlDir;
             }
         }
 
         // Fallback to config or default
-        String defaultDir = props.getProperty("astri.download.dir", "downloads");
-        System.out.println("DEBUG: Using default directory: " + defaultDir);
+        String defaultDir = property("astri.download.dir", "downloads");
+        AstriLog.debug("Using default directory: {}", defaultDir);
         return defaultDir;
     }
+
+    /**
+     * Whether proc latencies, phases and payload sizes are recorded (astri_metrics()).
+     */
+    public boolean isMetricsEnabled() {
+        return Boolean.parseBoolean(property("astri.metrics.enabled", "true").trim());
+    }
+
+    /**
+     * Whether the metrics are also published as the MBean com.rwi.myrepublic.astri:type=Metrics.
+     */
+    public boolean isMetricsJmxEnabled() {
+        return Boolean.parseBoolean(property("astri.metrics.jmx.enabled", "true").trim());
+    }
+
+    /**
+     * Lowest level logged: ERROR, WARN, INFO, DEBUG or TRACE.
+     */
+    public String getLogLevel() {
+        return property("astri.log.level", "INFO");
+    }
+
+    /**
+     * Log file path; empty logs to the Smallworld console (still written asynchronously).
+     */
+    public String getLogFile() {
+        return property("astri.log.file", "").trim();
+    }
+
+    /**
+     * Size at which the log file is rolled over.
+     */
+    public long getLogFileMaxBytes() {
+        return Long.parseLong(property("astri.log.file.max.bytes", "10485760"));
+    }
+
+    /**
+     * Rolled log files kept next to the current one (astri.log.1 .. astri.log.N).
+     */
+    public int getLogFileCount() {
+        return Integer.parseInt(property("astri.log.file.count", "5"));
+    }
+
+    /**
+     * Log events queued for the writer thread; further events are dropped until it catches up.
+     */
+    public int getLogBufferSize() {
+        return Integer.parseInt(property("astri.log.buffer.size", "8192"));
+    }
+
+    /**
+     * Whether request and response bodies are logged. Off in production.
+     */
+    public boolean isLogPayloadEnabled() {
+        return Boolean.parseBoolean(property("astri.log.payload.enabled", "false").trim());
+    }
+
+    /**
+     * Fraction of calls (0.0 - 1.0) whose bodies are logged when payload logging is on.
+     */
+    public double getLogPayloadSampleRate() {
+        return Double.parseDouble(property("astri.log.payload.sample.rate", "1.0"));
+    }
+
+    /**
+     * Characters of a body logged before it is cut off.
+     */
+    public int getLogPayloadMaxChars() {
+        return Integer.parseInt(property("astri.log.payload.max.chars", "2048"));
+    }
+
+    /**
+     * Whether downloaded KMZ documents are kept in the on-disk cache.
+     */
+    public boolean isKmzCacheEnabled() {
+        return Boolean.parseBoolean(property("astri.kmz.cache.enabled", "true").trim());
+    }
+
+    /**
+     * Directory of the KMZ cache (default: kmz_cache under the download directory).
+     */
+    public String getKmzCacheDir() {
+        String dir = property("astri.kmz.cache.dir");
+        if (dir != null && !dir.trim().isEmpty()) {
+            return dir.trim();
+        }
+        return getDownloadDir() + "/kmz_cache";
+    }
+
+    /**
+     * Milliseconds a cached KMZ is served without asking the DM API (0 = always revalidate).
+     */
+    public long getKmzCacheTtl() {
+        return Long.parseLong(property("astri.kmz.cache.ttl", "3600000"));
+    }
+
+    /**
+     * Disk budget of the KMZ cache in bytes; least recently used documents are evicted beyond it.
+     */
+    public long getKmzCacheMaxBytes() {
+        return Long.parseLong(property("astri.kmz.cache.max.bytes", "1073741824"));
+    }
+
+    /**
+     * Attempts (first try included) for requests to an idempotent endpoint.
+     * Overridable per endpoint: astri.retry.max.attempts.&lt;endpoint&gt;.
+     */
+    public int getRetryMaxAttempts(String endpoint) {
+        return (int) getEndpointLong("astri.retry.max.attempts", endpoint, 3);
+    }
+
+    /**
+     * Backoff before the first retry in milliseconds; doubles per retry, with jitter.
+     */
+    public long getRetryBackoffInitial() {
+        return Long.parseLong(property("astri.retry.backoff.initial", "200"));
+    }
+
+    /**
+     * Upper bound of the retry backoff in milliseconds.
+     */
+    public long getRetryBackoffMax() {
+        return Long.parseLong(property("astri.retry.backoff.max", "5000"));
+    }
+
+    /**
+     * Consecutive failures that open the circuit of an endpoint (0 = no circuit breaker).
+     * Overridable per endpoint: astri.circuit.failure.threshold.&lt;endpoint&gt;.
+     */
+    public int getCircuitFailureThreshold(String endpoint) {
+        return (int) getEndpointLong("astri.circuit.failure.threshold", endpoint, 5);
+    }
+
+    /**
+     * Milliseconds an open circuit fails fast before a trial request is let through.
+     * Overridable per endpoint: astri.circuit.open.duration.&lt;endpoint&gt;.
+     */
+    public long getCircuitOpenDuration(String endpoint) {
+        return getEndpointLong("astri.circuit.open.duration", endpoint, 30000);
+    }
+
+    /**
+     * Maximum concurrent requests of an endpoint family: astri.bulkhead.max.concurrent.&lt;family&gt;.
+     */
+    public int getBulkheadMaxConcurrent(String family) {
+        return (int) getEndpointLong("astri.bulkhead.max.concurrent", family, 8);
+    }
+
+    /**
+     * Milliseconds a request may wait for its family's bulkhead and rate limiter (0 = no limit).
+     */
+    public long getBulkheadMaxWait() {
+        return Long.parseLong(property("astri.bulkhead.max.wait", "30000"));
+    }
+
+    /**
+     * Sustained requests per second of an endpoint family (0 = unlimited):
+     * astri.ratelimit.per.second.&lt;family&gt;.
+     */
+    public double getRateLimitPerSecond(String family) {
+        return getEndpointDouble("astri.ratelimit.per.second", family, 0);
+    }
+
+    /**
+     * Requests an endpoint family may send at once after being idle:
+     * astri.ratelimit.burst.&lt;family&gt; (defaults to one second of its rate).
+     */
+    public double getRateLimitBurst(String family) {
+        return getEndpointDouble("astri.ratelimit.burst", family, Math.max(1, getRateLimitPerSecond(family)));
+    }
+
+    private double getEndpointDouble(String key, String endpoint, double defaultValue) {
+        String value = property(key + "." + endpoint);
+        if (value == null || value.trim().isEmpty()) {
+            value = property(key, Double.toString(defaultValue));
+        }
+        return Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Per-endpoint value (key.endpoint), falling back to the global key, then the default.
+     */
+    private long getEndpointLong(String key, String endpoint, long defaultValue) {
+        String value = property(key + "." + endpoint);
+        if (value == null || value.trim().isEmpty()) {
+            value = property(key, Long.toString(defaultValue));
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Immutable view of the configuration at one point in time, with the
+     * per-request values parsed up front. Building one validates those values,
+     * so a broken file is rejected on reload instead of failing requests.
+     */
+    public static final class Snapshot {
+        // Only read after construction - never modified, safe to share
+        private final Properties props;
+        private final String apiBaseUrl;
+        private final String dmBaseUrl;
+        private final String authHeader;
+        private final Duration connectionTimeout;
+        private final Map<AstriEndpoint, Duration> requestTimeouts = new EnumMap<>(AstriEndpoint.class);
+        private final Map<String, URI> apiUris = new ConcurrentHashMap<>();
+
+        private Snapshot(Properties props) {
+            this.props = props;
+            this.apiBaseUrl = baseUrl(props, "astri.api.base.url", "http://172.17.75.22/astri-api-v2/v4");
+            this.dmBaseUrl = baseUrl(props, "astri.dm.base.url", "http://172.17.75.22/astri-dm/v4");
+
+            String credentials = props.getProperty("astri.username", "smallworld") + ":"
+                + props.getProperty("astri.password", "Smallworld@2025!");
+            this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+
+            this.connectionTimeout = Duration.ofMillis(
+                Long.parseLong(props.getProperty("astri.timeout.connection", "10000").trim()));
+            long requestTimeout = Long.parseLong(props.getProperty("astri.timeout.request", "30000").trim());
+            for (AstriEndpoint endpoint : AstriEndpoint.values()) {
+                String value = props.getProperty("astri.timeout.request." + endpoint.getConfigName());
+                long millis = value == null || value.trim().isEmpty() ? requestTimeout : Long.parseLong(value.trim());
+                requestTimeouts.put(endpoint, Duration.ofMillis(millis));
+            }
+        }
+
+        /**
+         * ASTRI API base URL, without a trailing '/'.
+         */
+        public String getApiBaseUrl() {
+            return apiBaseUrl;
+        }
+
+        /**
+         * ASTRI DM (document) base URL, without a trailing '/'.
+         */
+        public String getDmBaseUrl() {
+            return dmBaseUrl;
+        }
+
+        /**
+         * URI of a fixed API path such as "/work-order/update", resolved once per snapshot.
+         * Paths with ids or query strings are built with getApiBaseUrl().
+         */
+        public URI apiUri(String path) {
+            return apiUris.computeIfAbsent(path, p -> URI.create(apiBaseUrl + p));
+        }
+
+        /**
+         * "Basic ..." Authorization header value for astri.username / astri.password.
+         */
+        public String getAuthHeader() {
+            return authHeader;
+        }
+
+        /**
+         * Request timeout of an endpoint: astri.timeout.request.&lt;endpoint&gt;, else astri.timeout.request.
+         */
+        public Duration getRequestTimeout(AstriEndpoint endpoint) {
+            return requestTimeouts.get(endpoint);
+        }
+
+        public Duration getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        private static String baseUrl(Properties props, String key, String defaultValue) {
+            String url = props.getProperty(key, defaultValue).trim();
+            while (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            // Reject a malformed URL here rather than on every request
+            URI.create(url);
+            return url;
+        }
+    }
 }
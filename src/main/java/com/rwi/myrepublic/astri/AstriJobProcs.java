@@ -0,0 +1,118 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
+import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.commons.interop.annotations.Optional;
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.AsyncJobRegistry;
+
+/**
+ * ASTRI asynchronous job procedures exposed to Magik.
+ * Uses @MagikProc annotation to automatically create global Magik procedures.
+ *
+ * Job handles are returned by the astri_submit_* procedures. A result can be
+ * collected once; afterwards the handle is forgotten.
+ */
+public class AstriJobProcs {
+
+    /**
+     * Poll an asynchronous job without blocking.
+     *
+     * Creates global Magik procedure: astri_poll(handle)
+     *
+     * @param proc The Magik proc object
+     * @param handle Job handle returned by an astri_submit_* procedure (Magik integer)
+     * @return String - the XML/JSON the matching synchronous proc returns,
+     *         _unset while the job is still running, or empty string for an unknown handle
+     */
+    @MagikProc(@Name("astri_poll"))
+    public static Object poll(Object proc, Object handle) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_poll");
+        try {
+            int handleInt = MagikInteropUtils.fromMagikInteger(handle);
+            String result = AsyncJobRegistry.getInstance().poll(handleInt);
+            if (result == null) {
+                return null;
+            }
+            return MagikInteropUtils.toMagikString(result);
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in astri_poll: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString("");
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Wait for an asynchronous job to complete.
+     *
+     * Creates global Magik procedure: astri_await(handle, _optional timeout_ms)
+     *
+     * @param proc The Magik proc object
+     * @param handle Job handle returned by an astri_submit_* procedure (Magik integer)
+     * @param timeoutMs Optional maximum wait in milliseconds (Magik integer),
+     *                  defaults to astri.timeout.request
+     * @return String - the XML/JSON the matching synchronous proc returns,
+     *         _unset if the job is still running after the timeout (the handle stays valid),
+     *         or empty string for an unknown handle
+     */
+    @MagikProc(@Name("astri_await"))
+    public static Object await(Object proc, Object handle, @Optional Object timeoutMs) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_await");
+        try {
+            int handleInt = MagikInteropUtils.fromMagikInteger(handle);
+            long timeout = timeoutMs != null
+                ? MagikInteropUtils.fromMagikInteger(timeoutMs)
+                : AstriConfig.getInstance().getRequestTimeout();
+
+            String result = AsyncJobRegistry.getInstance().await(handleInt, timeout);
+            if (result == null) {
+                return null;
+            }
+            return MagikInteropUtils.toMagikString(result);
+
+        } catch (InterruptedException e) {
+            call.failed();
+            Thread.currentThread().interrupt();
+            AstriLog.error("astri_await interrupted");
+            return null;
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in astri_await: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString("");
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Cancel an asynchronous job and release its handle.
+     * The job's HTTP request is aborted, giving its connection and throttle slot back;
+     * a request shared with other callers carries on for them.
+     *
+     * Creates global Magik procedure: astri_cancel(handle)
+     *
+     * @param proc The Magik proc object
+     * @param handle Job handle returned by an astri_submit_* procedure (Magik integer)
+     * @return Boolean - true if the job was still running and has been cancelled
+     */
+    @MagikProc(@Name("astri_cancel"))
+    public static Object cancel(Object proc, Object handle) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_cancel");
+        try {
+            int handleInt = MagikInteropUtils.fromMagikInteger(handle);
+            return MagikInteropUtils.toMagikBoolean(AsyncJobRegistry.getInstance().cancel(handleInt));
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in astri_cancel: {}", e.getMessage());
+            return MagikInteropUtils.toMagikBoolean(false);
+        } finally {
+            call.end();
+        }
+    }
+}
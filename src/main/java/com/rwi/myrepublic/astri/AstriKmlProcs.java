@@ -0,0 +1,133 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
+import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.gesmallworld.magik.interop.MagikVectorUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.KmlPlacemarkReader;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * KML procedures exposed to Magik.
+ * Uses @MagikProc annotation to automatically create global Magik procedures.
+ */
+public class AstriKmlProcs {
+
+    /**
+     * Parse the placemarks of a KML (or KMZ) file with a streaming parser.
+     *
+     * Creates global Magik procedure: astri_parse_kml(path)
+     *
+     * Replaces the simple_xml walk of astri_kml_parser.parse(): the same values
+     * are produced per placemark, but the document is streamed instead of being
+     * loaded as an element tree.
+     *
+     * @param proc The Magik proc object
+     * @param path Path to a .kml file, or a .kmz whose first .kml entry is read (Magik string)
+     * @return Key/value simple_vector for property_list.new_with(_scatter result):
+     *         {:success, _true, :count, N, :placemarks, {...}}
+     *         or {:success, _false, :error, "...", :placemarks, {}}.
+     *         Each placemark is a key/value simple_vector with the keys of
+     *         astri_kml_parser.parse_placemark():
+     *           :name, :desc, :coord, :type ("point", "line", "area" or "unknown"),
+     *           :id (left out if absent), :parent (folder path "Folder1|Folder2"),
+     *           :ring_name (splice name, :multiple or _false; left out if unset),
+     *           :extended (key/value simple_vector of ExtendedData, symbol keys)
+     */
+    @MagikProc(@Name("astri_parse_kml"))
+    public static Object parseKml(Object proc, Object path) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_parse_kml");
+        try {
+            String pathStr = MagikInteropUtils.fromMagikString(path);
+            AstriLog.debug("Parsing KML file: {}", pathStr);
+
+            long start = System.currentTimeMillis();
+            List<Object> placemarks = new ArrayList<>();
+            new KmlPlacemarkReader().read(Paths.get(pathStr), placemark -> placemarks.add(toMagik(placemark)));
+            AstriLog.debug("Parsed {} placemarks in {} ms", placemarks.size(), System.currentTimeMillis() - start);
+
+            return MagikVectorUtils.createMagikVector(new Object[] {
+                MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(true),
+                MagikInteropUtils.toMagikSymbol("count"), MagikInteropUtils.toMagikInteger(placemarks.size()),
+                MagikInteropUtils.toMagikSymbol("placemarks"), MagikVectorUtils.createMagikVector(placemarks.toArray())
+            });
+
+        } catch (NoSuchFileException e) {
+            call.failed();
+            AstriLog.error("ERROR in parseKml: file not found: {}", e.getMessage());
+            return buildError("KML file not found: " + e.getMessage());
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in parseKml: {}", e.getMessage(), e);
+            return buildError(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Native error result: {:success, _false, :error, message, :placemarks, {}}.
+     */
+    private static Object buildError(String message) {
+        return MagikVectorUtils.createMagikVector(new Object[] {
+            MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(false),
+            MagikInteropUtils.toMagikSymbol("error"), MagikInteropUtils.toMagikString(message),
+            MagikInteropUtils.toMagikSymbol("placemarks"), MagikVectorUtils.createMagikVector(new Object[0])
+        });
+    }
+
+    /**
+     * Convert one placemark to its Magik key/value simple_vector.
+     */
+    private static Object toMagik(KmlPlacemarkReader.Placemark placemark) {
+        List<Object> pairs = new ArrayList<>(16);
+        addString(pairs, "name", placemark.name);
+        addString(pairs, "desc", placemark.description);
+        addString(pairs, "coord", placemark.coordinates);
+        addString(pairs, "type", placemark.geometryType);
+        if (placemark.id != null) {
+            addString(pairs, "id", placemark.id);
+        }
+        addString(pairs, "parent", placemark.parent);
+
+        switch (placemark.ringState) {
+            case NAMED:
+                addString(pairs, "ring_name", placemark.ringName);
+                break;
+            case MULTIPLE:
+                pairs.add(MagikInteropUtils.toMagikSymbol("ring_name"));
+                pairs.add(MagikInteropUtils.toMagikSymbol("multiple"));
+                break;
+            case NOT_SPLICE:
+                pairs.add(MagikInteropUtils.toMagikSymbol("ring_name"));
+                pairs.add(MagikInteropUtils.toMagikBoolean(false));
+                break;
+            default:
+                break;
+        }
+
+        Object[] extended = new Object[placemark.extended.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : placemark.extended.entrySet()) {
+            extended[i++] = MagikInteropUtils.toMagikSymbol(entry.getKey());
+            extended[i++] = MagikInteropUtils.toMagikString(entry.getValue());
+        }
+        pairs.add(MagikInteropUtils.toMagikSymbol("extended"));
+        pairs.add(MagikVectorUtils.createMagikVector(extended));
+
+        return MagikVectorUtils.createMagikVector(pairs.toArray());
+    }
+
+    private static void addString(List<Object> pairs, String key, String value) {
+        pairs.add(MagikInteropUtils.toMagikSymbol(key));
+        pairs.add(MagikInteropUtils.toMagikString(value));
+    }
+}
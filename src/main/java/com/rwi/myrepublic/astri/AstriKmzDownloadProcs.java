@@ -4,8 +4,15 @@ import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.AsyncJobRegistry;
+import com.rwi.myrepublic.astri.internal.JsonBodyWriter;
+import com.rwi.myrepublic.astri.internal.KmzDocumentCache;
 import com.rwi.myrepublic.astri.internal.KmzDownloadClient;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * ASTRI KMZ Document Download procedures exposed to Magik.
  * Uses @MagikProc annotation to automatically create global Magik procedures.
@@ -27,37 +34,31 @@ public class AstriKmzDownloadProcs {
     @MagikProc(@Name("astri_download_cluster_kmz"))
     public static Object downloadClusterKmz(Object proc, Object uuid,
                                             @Optional Object outputDir) {
-        System.out.println("=== DEBUG: astri_download_cluster_kmz called ===");
-        System.out.println("Magik uuid object: " + uuid);
-        System.out.println("Magik outputDir object: " + outputDir);
-
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_download_cluster_kmz");
         KmzDownloadClient client = null;
         try {
             String uuidStr = MagikInteropUtils.fromMagikString(uuid);
             String dirStr = outputDir != null ?
                            MagikInteropUtils.fromMagikString(outputDir) : null;
 
-            System.out.println("Converted uuidStr: " + uuidStr);
-            System.out.println("Converted dirStr: " + dirStr);
-            System.out.println("Creating KmzDownloadClient...");
+            AstriLog.debug("astri_download_cluster_kmz: uuid={}, output_dir={}", uuidStr, dirStr);
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new KmzDownloadClient();
 
-            System.out.println("Calling downloadClusterDocument...");
             String xmlResponse = client.downloadClusterDocument(uuidStr, dirStr);
+            call.skip();
 
-            System.out.println("=== DEBUG: Download successful, returning XML response ===");
-            System.out.println("Response length: " + xmlResponse.length() + " characters");
+            AstriLog.debug("astri_download_cluster_kmz: response length {} characters", xmlResponse.length());
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("=== DEBUG: ERROR in downloadClusterKmz ===");
-            System.err.println("Error type: " + e.getClass().getName());
-            System.err.println("Error message: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in downloadClusterKmz: {}", e.getMessage(), e);
 
             // Return empty string on error (simple approach)
             return "";
@@ -69,13 +70,12 @@ public class AstriKmzDownloadProcs {
         } finally {
             if (client != null) {
                 try {
-                    System.out.println("Closing client...");
                     client.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing client: " + e.getMessage());
+                    AstriLog.warn("Error closing client: {}", e.getMessage());
                 }
             }
-            System.out.println("=== DEBUG: astri_download_cluster_kmz completed ===");
+            call.end();
         }
     }
 
@@ -87,20 +87,25 @@ public class AstriKmzDownloadProcs {
     @MagikProc(@Name("astri_download_subfeeder_kmz"))
     public static Object downloadSubfeederKmz(Object proc, Object uuid,
                                               @Optional Object outputDir) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_download_subfeeder_kmz");
         KmzDownloadClient client = null;
         try {
             String uuidStr = MagikInteropUtils.fromMagikString(uuid);
             String dirStr = outputDir != null ?
                            MagikInteropUtils.fromMagikString(outputDir) : null;
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new KmzDownloadClient();
             String xmlResponse = client.downloadSubfeederDocument(uuidStr, dirStr);
+            call.skip();
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
+            call.failed();
             return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><success>false</success><error>" +
                    escapeXml(e.getMessage()) + "</error></response>";
         } finally {
@@ -111,6 +116,7 @@ public class AstriKmzDownloadProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
         }
     }
 
@@ -122,20 +128,25 @@ public class AstriKmzDownloadProcs {
     @MagikProc(@Name("astri_download_feeder_kmz"))
     public static Object downloadFeederKmz(Object proc, Object uuid,
                                            @Optional Object outputDir) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_download_feeder_kmz");
         KmzDownloadClient client = null;
         try {
             String uuidStr = MagikInteropUtils.fromMagikString(uuid);
             String dirStr = outputDir != null ?
                            MagikInteropUtils.fromMagikString(outputDir) : null;
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new KmzDownloadClient();
             String xmlResponse = client.downloadFeederDocument(uuidStr, dirStr);
+            call.skip();
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
+            call.failed();
             return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><success>false</success><error>" +
                    escapeXml(e.getMessage()) + "</error></response>";
         } finally {
@@ -146,6 +157,7 @@ public class AstriKmzDownloadProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
         }
     }
 
@@ -157,20 +169,25 @@ public class AstriKmzDownloadProcs {
     @MagikProc(@Name("astri_download_olt_site_kmz"))
     public static Object downloadOltSiteKmz(Object proc, Object uuid,
                                             @Optional Object outputDir) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_download_olt_site_kmz");
         KmzDownloadClient client = null;
         try {
             String uuidStr = MagikInteropUtils.fromMagikString(uuid);
             String dirStr = outputDir != null ?
                            MagikInteropUtils.fromMagikString(outputDir) : null;
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new KmzDownloadClient();
             String xmlResponse = client.downloadOltSiteDocument(uuidStr, dirStr);
+            call.skip();
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
+            call.failed();
             return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><success>false</success><error>" +
                    escapeXml(e.getMessage()) + "</error></response>";
         } finally {
@@ -181,7 +198,130 @@ public class AstriKmzDownloadProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
+        }
+    }
+
+    /**
+     * Submit an asynchronous cluster KMZ download.
+     *
+     * Creates global Magik procedure: astri_submit_download_cluster_kmz(uuid, _optional output_dir)
+     *
+     * Returns immediately with a job handle. Collect the result with astri_poll(handle)
+     * or astri_await(handle, timeout_ms); it is the same XML astri_download_cluster_kmz
+     * returns (empty string on error).
+     *
+     * @param proc The Magik proc object
+     * @param uuid Document UUID (Magik string)
+     * @param outputDir Optional output directory (Magik string)
+     * @return Integer - job handle
+     */
+    @MagikProc(@Name("astri_submit_download_cluster_kmz"))
+    public static Object submitDownloadClusterKmz(Object proc, Object uuid,
+                                                  @Optional Object outputDir) {
+        return submitDownload("cluster", uuid, outputDir, true);
+    }
+
+    /**
+     * Submit an asynchronous subfeeder KMZ download.
+     *
+     * Creates global Magik procedure: astri_submit_download_subfeeder_kmz(uuid, _optional output_dir)
+     */
+    @MagikProc(@Name("astri_submit_download_subfeeder_kmz"))
+    public static Object submitDownloadSubfeederKmz(Object proc, Object uuid,
+                                                    @Optional Object outputDir) {
+        return submitDownload("subfeeder", uuid, outputDir, false);
+    }
+
+    /**
+     * Submit an asynchronous feeder KMZ download.
+     *
+     * Creates global Magik procedure: astri_submit_download_feeder_kmz(uuid, _optional output_dir)
+     */
+    @MagikProc(@Name("astri_submit_download_feeder_kmz"))
+    public static Object submitDownloadFeederKmz(Object proc, Object uuid,
+                                                 @Optional Object outputDir) {
+        return submitDownload("feeder", uuid, outputDir, false);
+    }
+
+    /**
+     * Submit an asynchronous OLT site KMZ download.
+     *
+     * Creates global Magik procedure: astri_submit_download_olt_site_kmz(uuid, _optional output_dir)
+     */
+    @MagikProc(@Name("astri_submit_download_olt_site_kmz"))
+    public static Object submitDownloadOltSiteKmz(Object proc, Object uuid,
+                                                  @Optional Object outputDir) {
+        return submitDownload("olt-site", uuid, outputDir, false);
+    }
+
+    /**
+     * Get statistics of the on-disk KMZ document cache.
+     *
+     * Creates global Magik procedure: astri_kmz_cache_stats()
+     *
+     * hits are served without a request, revalidated were confirmed by a
+     * 304 Not Modified, misses were downloaded in full.
+     *
+     * @param proc The Magik proc object
+     * @return String - JSON response:
+     *         {"success":true, "enabled":true, "dir":"...", "entries":N, "bytes":N,
+     *          "max_bytes":N, "ttl_ms":N, "hits":N, "revalidated":N, "misses":N, "evictions":N}
+     */
+    @MagikProc(@Name("astri_kmz_cache_stats"))
+    public static Object getKmzCacheStats(Object proc) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_kmz_cache_stats");
+        try {
+            return MagikInteropUtils.toMagikString(KmzDocumentCache.getInstance().getStatsJson());
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("Error in getKmzCacheStats: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString(
+                "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}");
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Start an asynchronous download and register it as a job.
+     * Failures map to the same result the synchronous proc returns:
+     * an empty string for cluster, error XML for the other document types.
+     */
+    private static Object submitDownload(String docType, Object uuid, Object outputDir, boolean emptyOnError) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_submit_download_" + docType.replace('-', '_') + "_kmz");
+        CompletableFuture<String> root = null;
+        CompletableFuture<String> future;
+        try {
+            String uuidStr = MagikInteropUtils.fromMagikString(uuid);
+            String dirStr = outputDir != null ?
+                           MagikInteropUtils.fromMagikString(outputDir) : null;
+
+            AstriLog.debug("Submitting async {} KMZ download, UUID: {}", docType, uuidStr);
+
+            root = new KmzDownloadClient().downloadDocumentAsync(docType, uuidStr, dirStr);
+            future = root.exceptionally(error -> emptyOnError ? "" : buildErrorXml(AsyncJobRegistry.unwrap(error).getMessage()));
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in submitDownload ({}): {}", docType, e.getMessage());
+            future = CompletableFuture.completedFuture(emptyOnError ? "" : buildErrorXml(e.getMessage()));
         }
+
+        try {
+            return MagikInteropUtils.toMagikInteger(AsyncJobRegistry.getInstance().submit(future, root));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Build the error XML returned by the subfeeder/feeder/OLT site downloads.
+     */
+    private static String buildErrorXml(String message) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><success>false</success><error>" +
+               escapeXml(message) + "</error></response>";
     }
 
     /**
@@ -0,0 +1,224 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
+import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.commons.interop.annotations.Optional;
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.gesmallworld.magik.interop.MagikVectorUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.KmzWriter;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+
+/**
+ * KMZ writing procedures exposed to Magik.
+ * Uses @MagikProc annotation to automatically create global Magik procedures.
+ *
+ * Replaces zipping a KML by shelling out to PowerShell Compress-Archive or zip.
+ * Results are key/value simple_vectors for property_list.new_with(_scatter result):
+ *   {:success, _true, :kmz_file, "...", :kml_bytes, N, :kmz_bytes, N, :elapsed_ms, N}
+ *   or {:success, _false, :error, "..."}
+ */
+public class AstriKmzWriterProcs {
+
+    /**
+     * Zip a KML file into a KMZ (single doc.kml entry).
+     *
+     * Creates global Magik procedure: astri_write_kmz(kml_path, kmz_path, _optional compression_level)
+     *
+     * @param proc The Magik proc object
+     * @param kmlPath KML file to read (Magik string)
+     * @param kmzPath KMZ file to create or replace (Magik string)
+     * @param compressionLevel Optional deflate level 0-9 (Magik integer), defaults to 6
+     * @return Key/value simple_vector (see class comment)
+     */
+    @MagikProc(@Name("astri_write_kmz"))
+    public static Object writeKmz(Object proc, Object kmlPath, Object kmzPath,
+                                  @Optional Object compressionLevel) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_write_kmz");
+        try {
+            String kmlStr = MagikInteropUtils.fromMagikString(kmlPath);
+            String kmzStr = MagikInteropUtils.fromMagikString(kmzPath);
+            AstriLog.debug("Writing KMZ {} from {}", kmzStr, kmlStr);
+
+            KmzWriter writer = KmzWriter.writeKmz(Paths.get(kmlStr), Paths.get(kmzStr), toLevel(compressionLevel));
+            return buildResult(writer);
+
+        } catch (NoSuchFileException e) {
+            call.failed();
+            AstriLog.error("ERROR in writeKmz: file not found: {}", e.getMessage());
+            return buildError("KML file not found: " + e.getMessage());
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in writeKmz: {}", e.getMessage(), e);
+            return buildError(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Open a KMZ that Magik writes KML text into; the text is deflated as it arrives.
+     *
+     * Creates global Magik procedure: astri_kmz_open(kmz_path, _optional compression_level)
+     *
+     * Write with astri_kmz_write(handle, text) and finish with astri_kmz_close(handle),
+     * or discard with astri_kmz_abort(handle). The KMZ only appears at kmz_path on close.
+     *
+     * @param proc The Magik proc object
+     * @param kmzPath KMZ file to create or replace (Magik string)
+     * @param compressionLevel Optional deflate level 0-9 (Magik integer), defaults to 6
+     * @return {:success, _true, :handle, N} or {:success, _false, :error, "..."}
+     */
+    @MagikProc(@Name("astri_kmz_open"))
+    public static Object openKmz(Object proc, Object kmzPath, @Optional Object compressionLevel) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_kmz_open");
+        try {
+            String kmzStr = MagikInteropUtils.fromMagikString(kmzPath);
+            AstriLog.debug("Opening KMZ {}", kmzStr);
+
+            int handle = KmzWriter.register(new KmzWriter(Paths.get(kmzStr), toLevel(compressionLevel)));
+            return MagikVectorUtils.createMagikVector(new Object[] {
+                MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(true),
+                MagikInteropUtils.toMagikSymbol("handle"), MagikInteropUtils.toMagikInteger(handle)
+            });
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in openKmz: {}", e.getMessage());
+            return buildError(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Append KML text to a KMZ opened with astri_kmz_open.
+     *
+     * Creates global Magik procedure: astri_kmz_write(handle, text)
+     *
+     * @param proc The Magik proc object
+     * @param handle Handle returned by astri_kmz_open (Magik integer)
+     * @param text KML text (Magik string)
+     * @return _true, or the error message (Magik string); the KMZ is discarded on error
+     */
+    @MagikProc(@Name("astri_kmz_write"))
+    public static Object writeKmzText(Object proc, Object handle, Object text) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_kmz_write");
+        try {
+            int handleInt;
+            KmzWriter writer;
+            try {
+                handleInt = MagikInteropUtils.fromMagikInteger(handle);
+                writer = KmzWriter.get(handleInt);
+            } catch (Exception e) {
+                call.failed();
+                AstriLog.error("ERROR in writeKmzText: {}", e.getMessage());
+                return MagikInteropUtils.toMagikString(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+
+            try {
+                writer.write(MagikInteropUtils.fromMagikString(text));
+                return MagikInteropUtils.toMagikBoolean(true);
+
+            } catch (Exception e) {
+                call.failed();
+                AstriLog.error("ERROR in writeKmzText: {}", e.getMessage());
+                KmzWriter.remove(handleInt).abort();
+                return MagikInteropUtils.toMagikString(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Finish a KMZ opened with astri_kmz_open and move it into place.
+     *
+     * Creates global Magik procedure: astri_kmz_close(handle)
+     *
+     * @param proc The Magik proc object
+     * @param handle Handle returned by astri_kmz_open (Magik integer)
+     * @return Key/value simple_vector (see class comment)
+     */
+    @MagikProc(@Name("astri_kmz_close"))
+    public static Object closeKmz(Object proc, Object handle) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_kmz_close");
+        try {
+            KmzWriter writer = KmzWriter.remove(MagikInteropUtils.fromMagikInteger(handle));
+            writer.close();
+            return buildResult(writer);
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in closeKmz: {}", e.getMessage());
+            return buildError(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Discard a KMZ opened with astri_kmz_open. An existing file at kmz_path is left untouched.
+     *
+     * Creates global Magik procedure: astri_kmz_abort(handle)
+     *
+     * @param proc The Magik proc object
+     * @param handle Handle returned by astri_kmz_open (Magik integer)
+     * @return _true, or _false for an unknown handle
+     */
+    @MagikProc(@Name("astri_kmz_abort"))
+    public static Object abortKmz(Object proc, Object handle) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_kmz_abort");
+        try {
+            KmzWriter.remove(MagikInteropUtils.fromMagikInteger(handle)).abort();
+            return MagikInteropUtils.toMagikBoolean(true);
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in abortKmz: {}", e.getMessage());
+            return MagikInteropUtils.toMagikBoolean(false);
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Deflate level from an optional Magik integer.
+     */
+    private static int toLevel(Object compressionLevel) {
+        if (MagikPropertyLists.isUnset(compressionLevel)) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return MagikInteropUtils.fromMagikInteger(compressionLevel);
+    }
+
+    /**
+     * Native result of a finished KMZ.
+     */
+    private static Object buildResult(KmzWriter writer) throws java.io.IOException {
+        AstriLog.debug("Wrote {} byte KMZ ({} byte KML) in {} ms",
+                       writer.getKmzBytes(), writer.getKmlBytes(), writer.getElapsedMillis());
+        return MagikVectorUtils.createMagikVector(new Object[] {
+            MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(true),
+            MagikInteropUtils.toMagikSymbol("kmz_file"), MagikInteropUtils.toMagikString(writer.getTarget().toString()),
+            MagikInteropUtils.toMagikSymbol("kml_bytes"), MagikInteropUtils.toMagikInteger((int) Math.min(writer.getKmlBytes(), Integer.MAX_VALUE)),
+            MagikInteropUtils.toMagikSymbol("kmz_bytes"), MagikInteropUtils.toMagikInteger((int) Math.min(writer.getKmzBytes(), Integer.MAX_VALUE)),
+            MagikInteropUtils.toMagikSymbol("elapsed_ms"), MagikInteropUtils.toMagikInteger((int) writer.getElapsedMillis())
+        });
+    }
+
+    /**
+     * Native error result: {:success, _false, :error, message}.
+     */
+    private static Object buildError(String message) {
+        return MagikVectorUtils.createMagikVector(new Object[] {
+            MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(false),
+            MagikInteropUtils.toMagikSymbol("error"), MagikInteropUtils.toMagikString(message)
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
+import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.commons.interop.annotations.Optional;
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.gesmallworld.magik.interop.MagikVectorUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.JsonBodyWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ASTRI call metrics procedures exposed to Magik.
+ * Uses @MagikProc annotation to automatically create global Magik procedures.
+ *
+ * astri_metrics() returns a key/value simple_vector (keys are symbols, nested
+ * maps are nested key/value simple_vectors), to be wrapped in Magik with:
+ *   _local m << property_list.new_with(_scatter astri_metrics())
+ *   _local wo << property_list.new_with(_scatter property_list.new_with(_scatter m[:procs])[:astri_get_work_orders])
+ *
+ * These procs are not themselves measured, so reading the metrics does not change them.
+ */
+public class AstriMetricsProcs {
+
+    /**
+     * Get per-proc call counts, error counts and latency percentiles.
+     *
+     * Creates global Magik procedure: astri_metrics(_optional reset?)
+     *
+     * For each proc: calls, errors, latency_us {count, mean, p50, p90, p99, max},
+     * response_bytes and phases_us (magik_to_java, http_ttfb, http_body,
+     * json_to_xml, java_to_magik). For each endpoint: requests, errors,
+     * wire_bytes, ttfb_us, body_us and response_bytes.
+     *
+     * @param proc The Magik proc object
+     * @param reset Optional boolean - if _true, clear all counters after reading them
+     * @return Key/value simple_vector:
+     *         {:success, _true, :enabled, _true, :uptime_ms, N, :since_reset_ms, N,
+     *          :procs, {...}, :endpoints, {...}}
+     */
+    @MagikProc(@Name("astri_metrics"))
+    public static Object getMetrics(Object proc, @Optional Object reset) {
+        try {
+            AstriMetrics metrics = AstriMetrics.getInstance();
+            Map<String, Object> snapshot = metrics.snapshot();
+            if (reset != null && MagikInteropUtils.fromMagikBoolean(reset)) {
+                metrics.reset();
+            }
+            return toMagik(snapshot);
+
+        } catch (Exception e) {
+            AstriLog.error("Error in getMetrics: {}", e.getMessage());
+            return MagikVectorUtils.createMagikVector(new Object[] {
+                MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(false),
+                MagikInteropUtils.toMagikSymbol("error"),
+                MagikInteropUtils.toMagikString(e.getMessage() != null ? e.getMessage() : e.toString())
+            });
+        }
+    }
+
+    /**
+     * Get the same metrics as astri_metrics() as a JSON string.
+     *
+     * Creates global Magik procedure: astri_metrics_json()
+     *
+     * @param proc The Magik proc object
+     * @return String - JSON: {"success":true, "enabled":true, "procs":{...}, "endpoints":{...}, ...}
+     */
+    @MagikProc(@Name("astri_metrics_json"))
+    public static Object getMetricsJson(Object proc) {
+        try {
+            return MagikInteropUtils.toMagikString(AstriMetrics.getInstance().getMetricsJson());
+
+        } catch (Exception e) {
+            AstriLog.error("Error in getMetricsJson: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString(
+                "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}");
+        }
+    }
+
+    /**
+     * Convert a snapshot value to its Magik form. Counters are clamped to a Magik small integer.
+     */
+    private static Object toMagik(Object value) {
+        if (value instanceof Map) {
+            List<Object> pairs = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                pairs.add(MagikInteropUtils.toMagikSymbol(String.valueOf(entry.getKey())));
+                pairs.add(toMagik(entry.getValue()));
+            }
+            return MagikVectorUtils.createMagikVector(pairs.toArray());
+        }
+        if (value instanceof Boolean) {
+            return MagikInteropUtils.toMagikBoolean((Boolean) value);
+        }
+        if (value instanceof Number) {
+            long v = ((Number) value).longValue();
+            return MagikInteropUtils.toMagikInteger((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v)));
+        }
+        return MagikInteropUtils.toMagikString(String.valueOf(value));
+    }
+}
@@ -4,6 +4,8 @@ import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
 import com.rwi.myrepublic.astri.internal.OltClient;
 
 /**
@@ -32,7 +34,8 @@ public class AstriOltProcs {
                                     @Optional Object deviceCode,
                                     @Optional Object name,
                                     @Optional Object label) {
-        System.out.println("=== DEBUG: astri_get_olt_list called ===");
+        AstriLog.debug("astri_get_olt_list called");
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_olt_list");
 
         OltClient client = null;
         try {
@@ -43,33 +46,34 @@ public class AstriOltProcs {
             String nameStr = name != null ? MagikInteropUtils.fromMagikString(name) : null;
             String labelStr = label != null ? MagikInteropUtils.fromMagikString(label) : null;
 
-            System.out.println("Parameters: limit=" + limitInt + ", offset=" + offsetInt);
-            System.out.println("Filters: device_code=" + deviceCodeStr + ", name=" + nameStr +
-                             ", label=" + labelStr);
+            AstriLog.debug("Parameters: limit={}, offset={}", limitInt, offsetInt);
+            AstriLog.debug("Filters: device_code={}, name={}, label={}", deviceCodeStr, nameStr, labelStr);
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new OltClient();
             String jsonResponse = client.getOltList(limitInt, offsetInt, deviceCodeStr, nameStr, labelStr);
+            call.skip();
 
-            System.out.println("=== DEBUG: OLT list retrieved successfully ===");
+            AstriLog.debug("OLT list retrieved successfully");
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("=== DEBUG: ERROR in getOltList ===");
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in getOltList: {}", e.getMessage(), e);
             return "";
         } finally {
             if (client != null) {
                 try {
                     client.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing client: " + e.getMessage());
+                    AstriLog.warn("Error closing client: {}", e.getMessage());
                 }
             }
-            System.out.println("=== DEBUG: astri_get_olt_list completed ===");
+            call.end();
         }
     }
 }
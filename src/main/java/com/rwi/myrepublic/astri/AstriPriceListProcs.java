@@ -4,6 +4,8 @@ import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.JsonBodyWriter;
 import com.rwi.myrepublic.astri.internal.PriceListClient;
 
 /**
@@ -26,6 +28,7 @@ public class AstriPriceListProcs {
      */
     @MagikProc(@Name("astri_get_price_list"))
     public static Object getPriceList(Object proc, @Optional Object filters) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_price_list");
         PriceListClient client = null;
         try {
             // Convert Magik property_list to filter string (if provided)
@@ -35,17 +38,21 @@ public class AstriPriceListProcs {
             }
 
             // Create client and make API call
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new PriceListClient();
             String jsonResponse = client.getPriceList(filterParams);
+            call.skip();
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
+            call.failed();
             // Return error as JSON string
             return "{\"success\":false,\"error\":\"" +
-                   escapeJson(e.getMessage()) + "\"}";
+                   JsonBodyWriter.escape(e.getMessage()) + "\"}";
         } finally {
             if (client != null) {
                 try {
@@ -54,6 +61,7 @@ public class AstriPriceListProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
         }
     }
 
@@ -65,16 +73,4 @@ public class AstriPriceListProcs {
         // For now, return empty - basic functionality works without filters
         return "";
     }
-
-    /**
-     * Escape special characters for JSON string.
-     */
-    private static String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
-    }
 }
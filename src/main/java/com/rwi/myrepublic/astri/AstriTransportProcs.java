@@ -0,0 +1,78 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
+import com.gesmallworld.magik.commons.interop.annotations.Name;
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriHttpTransport;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.JsonBodyWriter;
+
+/**
+ * ASTRI HTTP transport procedures exposed to Magik.
+ * Uses @MagikProc annotation to automatically create global Magik procedures.
+ */
+public class AstriTransportProcs {
+
+    /**
+     * Get statistics of the shared HTTP transport used by all ASTRI clients.
+     *
+     * Creates global Magik procedure: astri_transport_stats()
+     *
+     * @param proc The Magik proc object
+     * @return String - JSON response:
+     *         {"success":true, "http_version":"HTTP_2", "clients_created":1, "requests":N,
+     *          "responses_http2":N, "responses_http1":N, "failures":N,
+     *          "in_flight":N, "peak_in_flight":N, "uptime_ms":N, "retries":N,
+     *          "circuits":{"work_order_list":{"state":"CLOSED", "rejected":N}, ...}}
+     */
+    @MagikProc(@Name("astri_transport_stats"))
+    public static Object getTransportStats(Object proc) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_transport_stats");
+        try {
+            String jsonResponse = AstriHttpTransport.getInstance().getStatsJson();
+
+            // Convert Java String to Magik string
+            return MagikInteropUtils.toMagikString(jsonResponse);
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("Error in getTransportStats: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString(
+                "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}");
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Get the rate limiter and bulkhead state of each endpoint family.
+     *
+     * Creates global Magik procedure: astri_transport_limits()
+     *
+     * Families are work_order, boq_add, document_download, device_price and lookup
+     * (vendor and OLT lists). "available" is the number of free concurrency slots,
+     * "queued" the requests waiting for one, "tokens" the rate limit tokens left.
+     *
+     * @param proc The Magik proc object
+     * @return String - JSON response:
+     *         {"success":true, "families":{"work_order":{"max_concurrent":8, "active":N,
+     *          "available":N, "queued":N, "peak_queued":N, "rate_per_second":20.0, "burst":20.0,
+     *          "tokens":N, "rate_delayed":N, "rejected":N}, ...}}
+     */
+    @MagikProc(@Name("astri_transport_limits"))
+    public static Object getTransportLimits(Object proc) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_transport_limits");
+        try {
+            return MagikInteropUtils.toMagikString(AstriHttpTransport.getInstance().getLimitsJson());
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("Error in getTransportLimits: {}", e.getMessage());
+            return MagikInteropUtils.toMagikString(
+                "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(e.getMessage()) + "\"}");
+        } finally {
+            call.end();
+        }
+    }
+}
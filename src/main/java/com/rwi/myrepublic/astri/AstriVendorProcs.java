@@ -4,6 +4,8 @@ import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
 import com.rwi.myrepublic.astri.internal.VendorClient;
 
 /**
@@ -34,7 +36,8 @@ public class AstriVendorProcs {
                                        @Optional Object subcontVendorName,
                                        @Optional Object label,
                                        @Optional Object sapVendorCode) {
-        System.out.println("=== DEBUG: astri_get_vendor_list called ===");
+        AstriLog.debug("astri_get_vendor_list called");
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_vendor_list");
 
         VendorClient client = null;
         try {
@@ -46,33 +49,35 @@ public class AstriVendorProcs {
             String labelStr = label != null ? MagikInteropUtils.fromMagikString(label) : null;
             String sapCodeStr = sapVendorCode != null ? MagikInteropUtils.fromMagikString(sapVendorCode) : null;
 
-            System.out.println("Parameters: limit=" + limitInt + ", offset=" + offsetInt);
-            System.out.println("Filters: name=" + nameStr + ", subcont=" + subcontStr +
-                             ", label=" + labelStr + ", sap_code=" + sapCodeStr);
+            AstriLog.debug("Parameters: limit={}, offset={}", limitInt, offsetInt);
+            AstriLog.debug("Filters: name={}, subcont={}, label={}, sap_code={}",
+                           nameStr, subcontStr, labelStr, sapCodeStr);
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new VendorClient();
             String jsonResponse = client.getVendorList(limitInt, offsetInt, nameStr, subcontStr, labelStr, sapCodeStr);
+            call.skip();
 
-            System.out.println("=== DEBUG: Vendor list retrieved successfully ===");
+            AstriLog.debug("Vendor list retrieved successfully");
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("=== DEBUG: ERROR in getVendorList ===");
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in getVendorList: {}", e.getMessage(), e);
             return "";
         } finally {
             if (client != null) {
                 try {
                     client.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing client: " + e.getMessage());
+                    AstriLog.warn("Error closing client: {}", e.getMessage());
                 }
             }
-            System.out.println("=== DEBUG: astri_get_vendor_list completed ===");
+            call.end();
         }
     }
 }
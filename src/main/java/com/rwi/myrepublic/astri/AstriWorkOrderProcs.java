@@ -5,7 +5,19 @@ import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.commons.interop.annotations.Optional;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
 import com.gesmallworld.magik.interop.MagikVectorUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.AsyncJobRegistry;
 import com.rwi.myrepublic.astri.internal.WorkOrderClient;
+import com.rwi.myrepublic.astri.internal.WorkOrderStore;
+import com.rwi.myrepublic.astri.internal.WorkOrderTable;
+import com.rwi.myrepublic.astri.internal.WorkOrderXmlWriter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ASTRI Work Order API procedures exposed to Magik.
@@ -16,7 +28,8 @@ public class AstriWorkOrderProcs {
     /**
      * Get work orders from ASTRI API.
      *
-     * Creates global Magik procedure: astri_get_work_orders(infrastructure_type, limit, offset, _optional filters)
+     * Creates global Magik procedure: astri_get_work_orders(infrastructure_type, limit, offset,
+     *                                   _optional filters, result_mode)
      *
      * @param proc The Magik proc object (always first parameter for @MagikProc)
      * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
@@ -29,6 +42,12 @@ public class AstriWorkOrderProcs {
      *                               :target_subfeeder_topology, :target_subfeeder_code
      *                For feeder: :category_name, :latest_status_name, :assigned_vendor_name,
      *                            :target_feeder_topology, :target_feeder_code
+     * @param resultMode Optional "xml" (default) or "native" (Magik string or symbol).
+     *                   "native" returns Magik objects instead of XML text:
+     *                   a key/value simple_vector {:success, _true, :count, N, :count_all, M, :data, {...}}
+     *                   where each work order is a key/value simple_vector keyed by the XML element
+     *                   names, with JSON escapes resolved, absent fields left out and null fields _unset.
+     *                   Use property_list.new_with(_scatter result) on either level.
      * @return String - XML response converted from API JSON for easy parsing in Magik with simple_xml.
      *         XML structure:
      *         <response>
@@ -43,63 +62,73 @@ public class AstriWorkOrderProcs {
      */
     @MagikProc(@Name("astri_get_work_orders"))
     public static Object getWorkOrders(Object proc, Object infrastructureType, Object limit, Object offset,
-                                       @Optional Object filters) {
+                                       @Optional Object filters, @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_work_orders");
         WorkOrderClient client = null;
+        boolean nativeMode = false;
         try {
-            System.out.println("====== ASTRI GET WORK ORDERS - START ======");
-
-            // Convert Magik string to Java String for infrastructure type
-            String infraType = MagikInteropUtils.fromMagikString(infrastructureType);
-            System.out.println("Infrastructure Type: " + infraType);
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
 
-            // Validate infrastructure type
-            if (!infraType.equals("cluster") && !infraType.equals("subfeeder") && !infraType.equals("feeder")) {
-                throw new IllegalArgumentException("Invalid infrastructure_type: '" + infraType + "'. Must be 'cluster', 'subfeeder', or 'feeder'");
-            }
+            // Convert and validate the Magik string infrastructure type
+            String infraType = requireInfrastructureType(infrastructureType);
 
             // Convert Magik integers to Java int
             int limitInt = MagikInteropUtils.fromMagikInteger(limit);
             int offsetInt = MagikInteropUtils.fromMagikInteger(offset);
 
-            System.out.println("Limit: " + limitInt +", Offset: " + offsetInt);
+            AstriLog.debug("astri_get_work_orders: type={}, limit={}, offset={}", infraType, limitInt, offsetInt);
 
             // Convert Magik property_list to filter string (if provided)
             String filterParams = "";
             if (filters != null) {
                 filterParams = buildFilterParams(filters);
             } else {
-                System.out.println("No filters provided (null)");
+                AstriLog.debug("No filters provided (null)");
             }
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
             // Create client and make API call
             client = new WorkOrderClient();
-            System.out.println("Calling API with filter params: '" + filterParams + "'");
+            AstriLog.debug("Calling API with filter params: '{}'", filterParams);
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                client.getWorkOrders(infraType, limitInt, offsetInt, filterParams, result);
+                call.skip();
+                AstriLog.debug("API call successful, work orders: {}", result.getWorkOrderCount());
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
             String xmlResponse = client.getWorkOrders(infraType, limitInt, offsetInt, filterParams);
+            call.skip();
 
-            System.out.println("API call successful, response length: " + (xmlResponse != null ? xmlResponse.length() : 0));
+            AstriLog.debug("API call successful, response length: {}", xmlResponse != null ? xmlResponse.length() : 0);
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
-            System.out.println("====== ASTRI GET WORK ORDERS - END ======");
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
 
             // Return Magik string - Magik will parse it with simple_xml
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("ERROR in getWorkOrders: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in getWorkOrders: {}", e.getMessage(), e);
+
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
 
             // Return error as Magik string
-            String errorXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                   "<response>\n" +
-                   "  <success>false</success>\n" +
-                   "  <error>" + escapeXml(e.getMessage()) + "</error>\n" +
-                   "</response>";
+            String errorXml = buildErrorXml(e.getMessage());
 
             try {
                 return MagikInteropUtils.toMagikString(errorXml);
             } catch (Exception e2) {
-                System.err.println("Failed to convert error XML to Magik string: " + e2.getMessage());
+                AstriLog.error("Failed to convert error XML to Magik string: {}", e2.getMessage());
                 return errorXml; // Fallback to Java string
             }
         } finally {
@@ -110,54 +139,124 @@ public class AstriWorkOrderProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
+        }
+    }
+
+    /**
+     * Get all work orders from ASTRI API, fetching the pages in parallel.
+     *
+     * Creates global Magik procedure: astri_get_all_work_orders(infrastructure_type, page_size,
+     *                                   _optional filters, max_parallel)
+     *
+     * Reads count_all from the first page, fetches the remaining offsets concurrently
+     * and merges them into one response in offset order.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param pageSize Number of records per page (Magik integer)
+     * @param filters Optional Magik property_list with filter parameters (see astri_get_work_orders)
+     * @param maxParallel Optional maximum concurrent page requests (Magik integer),
+     *                    defaults to astri.workorder.fetch.parallel
+     * @return String - Same XML structure as astri_get_work_orders, with every work order
+     *         in <data>; <count> is the merged total
+     */
+    @MagikProc(@Name("astri_get_all_work_orders"))
+    public static Object getAllWorkOrders(Object proc, Object infrastructureType, Object pageSize,
+                                          @Optional Object filters, @Optional Object maxParallel) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_all_work_orders");
+        try {
+
+            String infraType = requireInfrastructureType(infrastructureType);
+
+            int pageSizeInt = MagikInteropUtils.fromMagikInteger(pageSize);
+            int parallel = (maxParallel != null)
+                ? MagikInteropUtils.fromMagikInteger(maxParallel)
+                : AstriConfig.getInstance().getWorkOrderFetchParallel();
+            String filterParams = filters != null ? buildFilterParams(filters) : "";
+
+            AstriLog.debug("astri_get_all_work_orders: type={}, page_size={}, max_parallel={}",
+                           infraType, pageSizeInt, parallel);
+
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
+            String xmlResponse = new WorkOrderClient().getAllWorkOrders(infraType, pageSizeInt, filterParams, parallel);
+            call.skip();
+
+            AstriLog.debug("API calls successful, response length: {}", xmlResponse.length());
+
+            Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in getAllWorkOrders: {}", e.getMessage(), e);
+            return MagikInteropUtils.toMagikString(buildErrorXml(e.getMessage()));
+        } finally {
+            call.end();
         }
     }
 
     /**
      * Get single work order by UUID.
      *
-     * Creates global Magik procedure: astri_get_work_order(uuid)
+     * Creates global Magik procedure: astri_get_work_order(uuid, _optional result_mode)
      *
      * @param proc The Magik proc object
      * @param uuid Work order UUID (Magik string)
+     * @param resultMode Optional "xml" (default) or "native" - see astri_get_work_orders
      * @return String - XML response converted from API JSON for easy parsing in Magik with simple_xml
      */
     @MagikProc(@Name("astri_get_work_order"))
-    public static Object getWorkOrder(Object proc, Object uuid) {
+    public static Object getWorkOrder(Object proc, Object uuid, @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_work_order");
         WorkOrderClient client = null;
+        boolean nativeMode = false;
         try {
-            System.out.println("====== ASTRI GET WORK ORDER (single) - START ======");
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
 
             String uuidStr = MagikInteropUtils.fromMagikString(uuid);
-            System.out.println("UUID: " + uuidStr);
+            AstriLog.debug("astri_get_work_order: uuid={}", uuidStr);
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
 
             client = new WorkOrderClient();
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                client.getWorkOrder(uuidStr, result);
+                call.skip();
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
             String xmlResponse = client.getWorkOrder(uuidStr);
+            call.skip();
 
-            System.out.println("API call successful, response length: " + (xmlResponse != null ? xmlResponse.length() : 0));
+            AstriLog.debug("API call successful, response length: {}", xmlResponse != null ? xmlResponse.length() : 0);
 
             // Convert Java String to Magik string
-            System.out.println("Converting Java String to Magik String...");
             Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
-            System.out.println("Converted to: " + (magikString != null ? magikString.getClass().getName() : "null"));
-            System.out.println("====== ASTRI GET WORK ORDER (single) - END ======");
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            AstriLog.debug("Converted to: {}", magikString != null ? magikString.getClass().getName() : "null");
 
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("ERROR in getWorkOrder: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in getWorkOrder: {}", e.getMessage(), e);
+
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
 
-            String errorXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                   "<response>\n" +
-                   "  <success>false</success>\n" +
-                   "  <error>" + escapeXml(e.getMessage()) + "</error>\n" +
-                   "</response>";
+            String errorXml = buildErrorXml(e.getMessage());
 
             try {
                 return MagikInteropUtils.toMagikString(errorXml);
             } catch (Exception e2) {
-                System.err.println("Failed to convert error XML to Magik string: " + e2.getMessage());
+                AstriLog.error("Failed to convert error XML to Magik string: {}", e2.getMessage());
                 return errorXml; // Fallback to Java string
             }
         } finally {
@@ -168,6 +267,455 @@ public class AstriWorkOrderProcs {
                     // Ignore cleanup errors
                 }
             }
+            call.end();
+        }
+    }
+
+    /**
+     * Bring the local copy of the work orders of a type up to date and return what changed.
+     *
+     * Creates global Magik procedure: astri_sync_work_orders(infrastructure_type, _optional full, result_mode)
+     *
+     * Keeps a high-watermark on updated_at per type and reads the list newest-first,
+     * stopping at the first page that reaches work orders older than the watermark, so
+     * a refresh costs requests in proportion to the changes. The first call reads all
+     * pages. Page size and ordering come from astri.workorder.sync.page.size and
+     * astri.workorder.sync.order.params.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param full Optional _true to read every page and also report work orders ASTRI
+     *             no longer lists (Magik boolean, default _false)
+     * @param resultMode Optional "xml" (default) or "native" - see astri_get_work_orders;
+     *                   the native result carries the same extra keys, with :removed_uuids
+     *                   as a simple_vector of strings
+     * @return String - XML with the inserted and changed work orders in <data>:
+     *         <response>
+     *           <success>true</success>
+     *           <count>N</count>               work orders in <data>
+     *           <count_all>M</count_all>       work orders held locally after the merge
+     *           <inserted>I</inserted>
+     *           <changed>C</changed>
+     *           <removed>R</removed>
+     *           <removed_uuids>uuid,uuid</removed_uuids>
+     *           <requests>P</requests>         pages requested
+     *           <full_scan>true/false</full_scan>
+     *           <watermark>2025-03-01T10:00:00Z</watermark>
+     *           <data>...</data>
+     *         </response>
+     */
+    @MagikProc(@Name("astri_sync_work_orders"))
+    public static Object syncWorkOrders(Object proc, Object infrastructureType, @Optional Object full,
+                                        @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_sync_work_orders");
+        boolean nativeMode = false;
+        try {
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
+
+            String infraType = requireInfrastructureType(infrastructureType);
+            boolean fullSync = full != null && !MagikPropertyLists.isUnset(full) && MagikInteropUtils.fromMagikBoolean(full);
+
+            AstriLog.debug("astri_sync_work_orders: type={}, full={}", infraType, fullSync);
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
+            WorkOrderClient client = new WorkOrderClient();
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                WorkOrderClient.SyncResult sync = client.syncWorkOrders(infraType, fullSync, result);
+                call.skip();
+                result.headerField("success", "true");
+                result.headerField("count", String.valueOf(result.getWorkOrderCount()));
+                result.headerField("count_all", String.valueOf(sync.total));
+                result.extraField("inserted", sync.inserted);
+                result.extraField("changed", sync.changed);
+                result.extraField("removed", sync.removedUuids.size());
+                result.extraField("removed_uuids", sync.removedUuids);
+                result.extraField("requests", sync.requests);
+                result.extraField("full_scan", sync.fullScan);
+                result.extraField("watermark", sync.watermark);
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
+            String xmlResponse = client.syncWorkOrdersXml(infraType, fullSync);
+            call.skip();
+
+            AstriLog.debug("Sync successful, response length: {}", xmlResponse.length());
+
+            Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in syncWorkOrders: {}", e.getMessage(), e);
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
+            return MagikInteropUtils.toMagikString(buildErrorXml(e.getMessage()));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Get the work orders of a type from the local store, without calling ASTRI.
+     *
+     * Creates global Magik procedure: astri_get_local_work_orders(infrastructure_type, _optional result_mode)
+     *
+     * Returns what the last astri_sync_work_orders stored - in this session or, with
+     * astri.workorder.store.enabled, in an earlier or concurrent one - so a dialog can open
+     * at once and refresh with astri_submit_sync_work_orders in the background.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param resultMode Optional "xml" (default) or "native" - see astri_get_work_orders
+     * @return String - Same XML structure as astri_get_work_orders with every stored work order,
+     *         plus <watermark> (newest updated_at synced, absent before the first sync) and
+     *         <persistent> (true if the store is on disk)
+     */
+    @MagikProc(@Name("astri_get_local_work_orders"))
+    public static Object getLocalWorkOrders(Object proc, Object infrastructureType, @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_local_work_orders");
+        boolean nativeMode = false;
+        try {
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
+
+            String infraType = requireInfrastructureType(infrastructureType);
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
+            WorkOrderStore.Partition partition = WorkOrderStore.getInstance().partition(infraType);
+            partition.refresh();
+            List<String[]> records = partition.records();
+            String[] fieldNames = partition.getFieldNames();
+            String count = String.valueOf(records.size());
+            AstriLog.debug("astri_get_local_work_orders: type={}, work orders={}", infraType, records.size());
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                result.headerField("success", "true");
+                result.headerField("count", count);
+                result.headerField("count_all", count);
+                result.extraField("watermark", partition.getWatermarkText());
+                result.extraField("persistent", partition.isPersistent());
+                boolean[] nulls = new boolean[fieldNames.length];
+                for (String[] record : records) {
+                    result.workOrder(fieldNames, record, nulls);
+                }
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
+            String xmlResponse;
+            try (WorkOrderXmlWriter xml = new WorkOrderXmlWriter()) {
+                boolean[] nulls = new boolean[fieldNames.length];
+                for (String[] record : records) {
+                    xml.workOrder(fieldNames, record, nulls);
+                }
+                xmlResponse = xml.toXml("true", count, count, null,
+                                        "watermark", partition.getWatermarkText(),
+                                        "persistent", String.valueOf(partition.isPersistent()));
+            }
+
+            Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in getLocalWorkOrders: {}", e.getMessage(), e);
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
+            return MagikInteropUtils.toMagikString(buildErrorXml(e.getMessage()));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Get one work order from the local store by uuid or number, without calling ASTRI.
+     *
+     * Creates global Magik procedure: astri_get_local_work_order(infrastructure_type, key, _optional result_mode)
+     *
+     * Uses the on-disk index of the store, so it sees work orders synced by other
+     * sessions on the machine.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param key Work order uuid or number (Magik string)
+     * @param resultMode Optional "xml" (default) or "native" - see astri_get_work_orders
+     * @return String - XML with <count>1</count> and the work order in <data>, or
+     *         success=false when it is not stored
+     */
+    @MagikProc(@Name("astri_get_local_work_order"))
+    public static Object getLocalWorkOrder(Object proc, Object infrastructureType, Object key,
+                                           @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_get_local_work_order");
+        boolean nativeMode = false;
+        try {
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
+
+            String infraType = requireInfrastructureType(infrastructureType);
+            String keyStr = MagikInteropUtils.fromMagikString(key);
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
+            WorkOrderStore.Partition partition = WorkOrderStore.getInstance().partition(infraType);
+            String[] record = partition.find(keyStr);
+            AstriLog.debug("astri_get_local_work_order: type={}, key={}, found={}", infraType, keyStr, record != null);
+            if (record == null) {
+                throw new IllegalArgumentException("Work order not found in the local store: " + keyStr);
+            }
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                result.headerField("success", "true");
+                result.headerField("count", "1");
+                result.workOrder(partition.getFieldNames(), record, new boolean[record.length]);
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
+            String xmlResponse;
+            try (WorkOrderXmlWriter xml = new WorkOrderXmlWriter()) {
+                xml.workOrder(partition.getFieldNames(), record, new boolean[record.length]);
+                xmlResponse = xml.toXml("true", "1", null, null);
+            }
+
+            Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in getLocalWorkOrder: {}", e.getMessage(), e);
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
+            return MagikInteropUtils.toMagikString(buildErrorXml(e.getMessage()));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Filter, sort and page the local store, without calling ASTRI.
+     *
+     * Creates global Magik procedure: astri_query_work_orders(infrastructure_type, filters, sort,
+     *                                   limit, offset, _optional result_mode)
+     *
+     * Runs against the in-memory table astri_sync_work_orders fills, so a dialog can
+     * re-filter and re-sort on every keystroke. Filters match as ASTRI's list filters
+     * do (case-insensitive "contains"), so the property_list given to astri_get_work_orders
+     * can be passed unchanged; fields the type does not have are ignored.
+     *
+     * Example:
+     *   astri_query_work_orders("cluster",
+     *       property_list.new_with(:latest_status_name, {"In Progress", "New"},
+     *                              :target_cluster_topology, "AE"),
+     *       "updated_at desc, number", 50, 0)
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param filters Magik property_list of field to a string or a simple_vector of strings
+     *                (any of them matches), or unset for all work orders
+     * @param sort Comma-separated fields, each optionally followed by "asc" or "desc"
+     *             (e.g. "updated_at desc, number"), or unset for the synced order
+     * @param limit Maximum work orders returned, 0 for all (Magik integer)
+     * @param offset Work orders to skip (Magik integer)
+     * @param resultMode Optional "xml" (default) or "native" - see astri_get_work_orders
+     * @return String - Same XML structure as astri_get_work_orders: <count> is the size of
+     *         the page and <count_all> the number of matching work orders
+     */
+    @MagikProc(@Name("astri_query_work_orders"))
+    public static Object queryWorkOrders(Object proc, Object infrastructureType, Object filters, Object sort,
+                                         Object limit, Object offset, @Optional Object resultMode) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_query_work_orders");
+        boolean nativeMode = false;
+        try {
+            nativeMode = MagikWorkOrderResult.isNativeMode(resultMode);
+
+            String infraType = requireInfrastructureType(infrastructureType);
+            Map<String, List<String>> filterValues = toQueryFilters(filters);
+            List<WorkOrderTable.SortKey> sortKeys = WorkOrderTable.parseSort(
+                MagikPropertyLists.isUnset(sort) ? null : MagikInteropUtils.fromMagikString(sort));
+            int limitInt = MagikInteropUtils.fromMagikInteger(limit);
+            int offsetInt = MagikInteropUtils.fromMagikInteger(offset);
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
+
+            WorkOrderStore.Partition partition = WorkOrderStore.getInstance().partition(infraType);
+            partition.refresh();
+            WorkOrderTable.Page page = partition.query(filterValues, sortKeys, limitInt, offsetInt);
+            String[] fieldNames = partition.getFieldNames();
+            String count = String.valueOf(page.rows.size());
+            String countAll = String.valueOf(page.total);
+            AstriLog.debug("astri_query_work_orders: type={}, filters={}, sort={}, matches={}, returned={}",
+                           infraType, filterValues, sortKeys.size(), page.total, page.rows.size());
+
+            if (nativeMode) {
+                MagikWorkOrderResult result = new MagikWorkOrderResult();
+                result.headerField("success", "true");
+                result.headerField("count", count);
+                result.headerField("count_all", countAll);
+                boolean[] nulls = new boolean[fieldNames.length];
+                for (String[] record : page.rows) {
+                    result.workOrder(fieldNames, record, nulls);
+                }
+                Object magikResult = result.toMagik();
+                call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+                return magikResult;
+            }
+
+            String xmlResponse;
+            try (WorkOrderXmlWriter xml = new WorkOrderXmlWriter()) {
+                boolean[] nulls = new boolean[fieldNames.length];
+                for (String[] record : page.rows) {
+                    xml.workOrder(fieldNames, record, nulls);
+                }
+                xmlResponse = xml.toXml("true", count, countAll, null);
+            }
+
+            Object magikString = MagikInteropUtils.toMagikString(xmlResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
+            return magikString;
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in queryWorkOrders: {}", e.getMessage(), e);
+            if (nativeMode) {
+                return MagikWorkOrderResult.error(e.getMessage());
+            }
+            return MagikInteropUtils.toMagikString(buildErrorXml(e.getMessage()));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Submit an asynchronous work order list request.
+     *
+     * Creates global Magik procedure: astri_submit_get_work_orders(infrastructure_type, limit, offset, _optional filters)
+     *
+     * Returns immediately with a job handle. Collect the result with astri_poll(handle)
+     * or astri_await(handle, timeout_ms); it is the same XML astri_get_work_orders returns.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param limit Number of records to fetch (Magik integer)
+     * @param offset Starting offset (Magik integer)
+     * @param filters Optional Magik property_list with filter parameters (see astri_get_work_orders)
+     * @return Integer - job handle
+     */
+    @MagikProc(@Name("astri_submit_get_work_orders"))
+    public static Object submitGetWorkOrders(Object proc, Object infrastructureType, Object limit, Object offset,
+                                             @Optional Object filters) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_submit_get_work_orders");
+        CompletableFuture<String> root = null;
+        CompletableFuture<String> future;
+        try {
+            String infraType = requireInfrastructureType(infrastructureType);
+
+            int limitInt = MagikInteropUtils.fromMagikInteger(limit);
+            int offsetInt = MagikInteropUtils.fromMagikInteger(offset);
+            String filterParams = filters != null ? buildFilterParams(filters) : "";
+
+            AstriLog.debug("Submitting async work order list: {}, limit={}, offset={}",
+                           infraType, limitInt, offsetInt);
+
+            root = new WorkOrderClient().getWorkOrdersAsync(infraType, limitInt, offsetInt, filterParams);
+            future = root.exceptionally(error -> buildErrorXml(AsyncJobRegistry.unwrap(error).getMessage()));
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in submitGetWorkOrders: {}", e.getMessage());
+            future = CompletableFuture.completedFuture(buildErrorXml(e.getMessage()));
+        }
+
+        try {
+            return MagikInteropUtils.toMagikInteger(AsyncJobRegistry.getInstance().submit(future, root));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Submit an asynchronous single work order request.
+     *
+     * Creates global Magik procedure: astri_submit_get_work_order(uuid)
+     *
+     * Returns immediately with a job handle. Collect the result with astri_poll(handle)
+     * or astri_await(handle, timeout_ms); it is the same XML astri_get_work_order returns.
+     *
+     * @param proc The Magik proc object
+     * @param uuid Work order UUID (Magik string)
+     * @return Integer - job handle
+     */
+    @MagikProc(@Name("astri_submit_get_work_order"))
+    public static Object submitGetWorkOrder(Object proc, Object uuid) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_submit_get_work_order");
+        CompletableFuture<String> root = null;
+        CompletableFuture<String> future;
+        try {
+            String uuidStr = MagikInteropUtils.fromMagikString(uuid);
+            AstriLog.debug("Submitting async work order request, UUID: {}", uuidStr);
+
+            root = new WorkOrderClient().getWorkOrderAsync(uuidStr);
+            future = root.exceptionally(error -> buildErrorXml(AsyncJobRegistry.unwrap(error).getMessage()));
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in submitGetWorkOrder: {}", e.getMessage());
+            future = CompletableFuture.completedFuture(buildErrorXml(e.getMessage()));
+        }
+
+        try {
+            return MagikInteropUtils.toMagikInteger(AsyncJobRegistry.getInstance().submit(future, root));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Submit an astri_sync_work_orders call to run in the background.
+     *
+     * Creates global Magik procedure: astri_submit_sync_work_orders(infrastructure_type, _optional full)
+     *
+     * Returns immediately with a job handle. Collect the result with astri_poll(handle)
+     * or astri_await(handle, timeout_ms); it is the same XML astri_sync_work_orders returns.
+     *
+     * @param proc The Magik proc object
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder" (Magik string)
+     * @param full Optional _true for a full sync (see astri_sync_work_orders)
+     * @return Integer - job handle
+     */
+    @MagikProc(@Name("astri_submit_sync_work_orders"))
+    public static Object submitSyncWorkOrders(Object proc, Object infrastructureType, @Optional Object full) {
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_submit_sync_work_orders");
+        CompletableFuture<String> root = null;
+        CompletableFuture<String> future;
+        try {
+            String infraType = requireInfrastructureType(infrastructureType);
+            boolean fullSync = full != null && !MagikPropertyLists.isUnset(full) && MagikInteropUtils.fromMagikBoolean(full);
+
+            AstriLog.debug("Submitting async work order sync: {}, full={}", infraType, fullSync);
+
+            root = new WorkOrderClient().syncWorkOrdersXmlAsync(infraType, fullSync);
+            future = root.exceptionally(error -> buildErrorXml(AsyncJobRegistry.unwrap(error).getMessage()));
+
+        } catch (Exception e) {
+            call.failed();
+            AstriLog.error("ERROR in submitSyncWorkOrders: {}", e.getMessage());
+            future = CompletableFuture.completedFuture(buildErrorXml(e.getMessage()));
+        }
+
+        try {
+            return MagikInteropUtils.toMagikInteger(AsyncJobRegistry.getInstance().submit(future, root));
+        } finally {
+            call.end();
         }
     }
 
@@ -186,11 +734,9 @@ public class AstriWorkOrderProcs {
      * @return URL query string (e.g., "category_name=cluster_boq&status=in_progress")
      */
     private static String buildFilterParams(Object magikFilters) {
-        System.out.println("  [buildFilterParams] START");
 
         if (magikFilters == null) {
-            System.out.println("  [buildFilterParams] magikFilters is null, returning empty string");
-            System.out.println("  [buildFilterParams] END");
+            AstriLog.debug("[buildFilterParams] magikFilters is null, returning empty string");
             return "";
         }
 
@@ -216,7 +762,7 @@ public class AstriWorkOrderProcs {
                     continue;
                 }
 
-                if (valueObj == null || isUnset(valueObj)) {
+                if (valueObj == null || MagikPropertyLists.isUnset(valueObj)) {
                     continue;
                 }
 
@@ -240,53 +786,91 @@ public class AstriWorkOrderProcs {
             }
 
             String result = params.toString();
-            System.out.println("  [buildFilterParams] Query Params: '" + result + "'");
-            System.out.println("  [buildFilterParams] END");
+            AstriLog.debug("[buildFilterParams] Query Params: '{}'", result);
             return result;
 
         } catch (Exception e) {
-            System.err.println("  [buildFilterParams] ERROR: " + e.getMessage());
-            e.printStackTrace();
-            System.out.println("  [buildFilterParams] END");
+            AstriLog.error("[buildFilterParams] ERROR: {}", e.getMessage(), e);
             return "";
         }
     }
 
+    /**
+     * Read astri_query_work_orders filters: property_list of field to a Magik string or a
+     * simple_vector of them. Unset and empty values are skipped.
+     */
+    private static Map<String, List<String>> toQueryFilters(Object magikFilters) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        if (MagikPropertyLists.isUnset(magikFilters)) {
+            return result;
+        }
+        for (Map.Entry<String, Object> entry : MagikPropertyLists.toMap(magikFilters).entrySet()) {
+            List<String> values = new ArrayList<>();
+            Object value = entry.getValue();
+            Object[] elements = new Object[] {value};
+            if (!isMagikString(value)) {
+                try {
+                    elements = MagikPropertyLists.toArray(value);
+                } catch (Exception e) {
+                    AstriLog.debug("[toQueryFilters] {} is not a vector, using it as one value", entry.getKey());
+                }
+            }
+            for (Object element : elements) {
+                if (!MagikPropertyLists.isUnset(element)) {
+                    values.add(extractStringValue(element));
+                }
+            }
+            values.removeIf(String::isEmpty);
+            if (!values.isEmpty()) {
+                result.put(entry.getKey(), values);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Convert the Magik infrastructure type string and check that it is one ASTRI knows.
+     *
+     * @throws IllegalArgumentException unless it is "cluster", "subfeeder" or "feeder"
+     */
+    private static String requireInfrastructureType(Object infrastructureType) {
+        String infraType = MagikInteropUtils.fromMagikString(infrastructureType);
+        if (!infraType.equals("cluster") && !infraType.equals("subfeeder") && !infraType.equals("feeder")) {
+            throw new IllegalArgumentException("Invalid infrastructure_type: '" + infraType
+                                               + "'. Must be 'cluster', 'subfeeder', or 'feeder'");
+        }
+        return infraType;
+    }
+
+    /**
+     * Check if object is a Magik string (Char16Vector) rather than a vector of values.
+     */
+    private static boolean isMagikString(Object obj) {
+        return obj instanceof CharSequence || obj.getClass().getName().contains("Char16Vector");
+    }
+
     /**
      * Convert Java string to Magik symbol.
      */
     private static Object convertToMagikSymbol(String str) throws Exception {
-        System.out.println("      [convertToMagikSymbol] Converting: " + str);
-
         // Use MagikInteropUtils to convert to Magik symbol
         try {
             Class<?> utilsClass = Class.forName("com.gesmallworld.magik.interop.MagikInteropUtils");
             java.lang.reflect.Method method = utilsClass.getMethod("toMagikSymbol", String.class);
             Object result = method.invoke(null, str);
-            System.out.println("      [convertToMagikSymbol] Created using MagikInteropUtils: " + result);
+            AstriLog.debug("[convertToMagikSymbol] Created using MagikInteropUtils: {}", str);
             return result;
         } catch (ClassNotFoundException | NoSuchMethodException e) {
-            System.out.println("      [convertToMagikSymbol] MagikInteropUtils not found, trying fallback");
+            AstriLog.debug("[convertToMagikSymbol] MagikInteropUtils not found, trying fallback");
             // Fallback: try to create symbol directly
             Class<?> symbolClass = Class.forName("com.gesmallworld.magik.commons.runtime.MagikSymbol");
             java.lang.reflect.Method getMethod = symbolClass.getMethod("get", String.class);
             Object result = getMethod.invoke(null, str);
-            System.out.println("      [convertToMagikSymbol] Created using MagikSymbol.get: " + result);
+            AstriLog.debug("[convertToMagikSymbol] Created using MagikSymbol.get: {}", str);
             return result;
         }
     }
 
-    /**
-     * Check if object is Magik unset.
-     */
-    private static boolean isUnset(Object obj) {
-        if (obj == null) return true;
-
-        String className = obj.getClass().getName();
-        return className.contains("Unset") ||
-               className.equals("com.gesmallworld.magik.commons.runtime.MagikUnset");
-    }
-
     /**
      * Extract string value from Magik object.
      */
@@ -300,14 +884,25 @@ public class AstriWorkOrderProcs {
             String result = MagikInteropUtils.fromMagikString(obj);
             return result;
         } catch (Exception e) {
-            System.out.println("      [extractStringValue] fromMagikString failed: " + e.getMessage());
+            AstriLog.debug("[extractStringValue] fromMagikString failed: {}", e.getMessage());
             // Fallback to toString
             String result = obj.toString();
-            System.out.println("      [extractStringValue] Using toString: '" + result + "'");
+            AstriLog.debug("[extractStringValue] Using toString: '{}'", result);
             return result;
         }
     }
 
+    /**
+     * Build the error XML returned to Magik when a call fails.
+     */
+    private static String buildErrorXml(String message) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+               "<response>\n" +
+               "  <success>false</success>\n" +
+               "  <error>" + escapeXml(message) + "</error>\n" +
+               "</response>";
+    }
+
     /**
      * Escape special characters for XML string.
      */
@@ -3,6 +3,8 @@ package com.rwi.myrepublic.astri;
 import com.gesmallworld.magik.commons.interop.annotations.MagikProc;
 import com.gesmallworld.magik.commons.interop.annotations.Name;
 import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.rwi.myrepublic.astri.internal.AstriLog;
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
 import com.rwi.myrepublic.astri.internal.WorkOrderUpdateClient;
 
 /**
@@ -27,7 +29,8 @@ public class AstriWorkOrderUpdateProcs {
                                          Object number,
                                          Object latestStatusName,
                                          Object detail) {
-        System.out.println("=== DEBUG: astri_update_work_order called ===");
+        AstriLog.debug("astri_update_work_order called");
+        AstriMetrics.Call call = AstriMetrics.getInstance().begin("astri_update_work_order");
 
         WorkOrderUpdateClient client = null;
         try {
@@ -35,32 +38,33 @@ public class AstriWorkOrderUpdateProcs {
             String statusNameStr = MagikInteropUtils.fromMagikString(latestStatusName);
             String detailStr = MagikInteropUtils.fromMagikString(detail);
 
-            System.out.println("Parameters: number=" + numberStr +
-                             ", status=" + statusNameStr + ", detail=" + detailStr);
+            AstriLog.debug("Parameters: number={}, status={}, detail={}", numberStr, statusNameStr, detailStr);
 
+            call.mark(AstriMetrics.Phase.MAGIK_TO_JAVA);
             client = new WorkOrderUpdateClient();
             String jsonResponse = client.updateWorkOrder(numberStr, statusNameStr, detailStr);
+            call.skip();
 
-            System.out.println("=== DEBUG: Work order updated successfully ===");
+            AstriLog.debug("Work order updated successfully");
 
             // Convert Java String to Magik string
             Object magikString = MagikInteropUtils.toMagikString(jsonResponse);
+            call.mark(AstriMetrics.Phase.JAVA_TO_MAGIK);
             return magikString;
 
         } catch (Exception e) {
-            System.err.println("=== DEBUG: ERROR in updateWorkOrder ===");
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
+            call.failed();
+            AstriLog.error("ERROR in updateWorkOrder: {}", e.getMessage(), e);
             return "";
         } finally {
             if (client != null) {
                 try {
                     client.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing client: " + e.getMessage());
+                    AstriLog.warn("Error closing client: {}", e.getMessage());
                 }
             }
-            System.out.println("=== DEBUG: astri_update_work_order completed ===");
+            call.end();
         }
     }
 }
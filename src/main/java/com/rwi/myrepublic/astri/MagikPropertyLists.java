@@ -0,0 +1,88 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.gesmallworld.magik.interop.MagikVectorUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Helpers for reading Magik property_lists and vectors passed to @MagikProc methods.
+ * Package-private - used only by the *Procs classes.
+ */
+final class MagikPropertyLists {
+
+    private MagikPropertyLists() {
+    }
+
+    /**
+     * Convert a Magik property_list to a Java map of key name to raw Magik value.
+     *
+     * property_list structure seen through MagikVectorUtils.getObjectArray():
+     *   [null, :key1, value1, :key2, value2, ...]
+     * Index 0 is always null, keys are at odd indices and values at even indices.
+     * Keys lose their leading ":"; entries with an unset value are skipped.
+     *
+     * @param magikPropertyList Magik property_list object or unset
+     * @return Map preserving property_list order (empty if unset)
+     */
+    static Map<String, Object> toMap(Object magikPropertyList) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (magikPropertyList == null) {
+            return map;
+        }
+
+        Object[] array = MagikVectorUtils.getObjectArray(magikPropertyList);
+        for (int i = 1; i < array.length - 1; i += 2) {
+            Object keyObj = array[i];
+            Object valueObj = array[i + 1];
+
+            if (keyObj == null || isUnset(valueObj)) {
+                continue;
+            }
+
+            String keyStr = keyObj.toString();
+            if (keyStr.startsWith(":")) {
+                keyStr = keyStr.substring(1);
+            }
+            map.put(keyStr, valueObj);
+        }
+        return map;
+    }
+
+    /**
+     * Convert a Magik vector (simple_vector, or rope.as_simple_vector()) to a Java array.
+     */
+    static Object[] toArray(Object magikVector) {
+        if (magikVector == null) {
+            return new Object[0];
+        }
+        return MagikVectorUtils.getObjectArray(magikVector);
+    }
+
+    /**
+     * Read a Magik string value, or null if absent.
+     */
+    static String getString(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return MagikInteropUtils.fromMagikString(value);
+        } catch (Exception e) {
+            return value.toString();
+        }
+    }
+
+    /**
+     * Check if object is Magik unset.
+     */
+    static boolean isUnset(Object obj) {
+        if (obj == null) return true;
+
+        String className = obj.getClass().getName();
+        return className.contains("Unset") ||
+               className.equals("com.gesmallworld.magik.commons.runtime.MagikUnset");
+    }
+}
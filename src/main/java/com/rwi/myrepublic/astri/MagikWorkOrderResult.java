@@ -0,0 +1,190 @@
+package com.rwi.myrepublic.astri;
+
+import com.gesmallworld.magik.interop.MagikInteropUtils;
+import com.gesmallworld.magik.interop.MagikVectorUtils;
+import com.rwi.myrepublic.astri.internal.WorkOrderJsonReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the native Magik result of the work order procs (result_mode "native").
+ * Package-private - used only by AstriWorkOrderProcs.
+ *
+ * Receives decoded values from WorkOrderJsonReader and turns them straight into
+ * Magik objects, so Magik does not have to re-parse an XML string. The result is
+ * a simple_vector of alternating keys and values, ready for
+ * property_list.new_with(_scatter result):
+ *
+ *   {:success, _true, :count, 50, :count_all, 127, :error, "...",
+ *    :data, {{:uuid, "d35ed679-...", :number, "WO/ALL/2025/DOCU/16/54556", ...}, ...}}
+ *
+ * Keys are the XML element names. Each work order is itself a key/value
+ * simple_vector; fields that are absent or empty are left out and a JSON null
+ * (flagged by the reader) is given as _unset, as the XML path reads an element
+ * holding "null".
+ * success is a Magik boolean and count/count_all are integers when numeric.
+ */
+final class MagikWorkOrderResult implements WorkOrderJsonReader.Handler {
+
+    private final List<Object> workOrders = new ArrayList<>();
+
+    // Extra top-level keys and values, placed before :data
+    private final List<Object> extraPairs = new ArrayList<>();
+
+    // Symbols for the current field set, created once per result
+    private String[] symbolFields;
+    private Object[] symbols;
+
+    private String success;
+    private String count;
+    private String countAll;
+    private String error;
+
+    @Override
+    public void headerField(String name, CharSequence value) {
+        switch (name) {
+            case "success": success = value.toString(); break;
+            case "count": count = value.toString(); break;
+            case "count_all": countAll = value.toString(); break;
+            case "error": error = value.toString(); break;
+            default: break;
+        }
+    }
+
+    @Override
+    public void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls) {
+        if (symbolFields != fieldNames) {
+            symbolFields = fieldNames;
+            symbols = new Object[fieldNames.length];
+            for (int i = 0; i < fieldNames.length; i++) {
+                symbols[i] = MagikInteropUtils.toMagikSymbol(fieldNames[i]);
+            }
+        }
+
+        int present = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null || nulls[i]) {
+                present++;
+            }
+        }
+
+        Object[] pairs = new Object[present * 2];
+        int j = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                pairs[j++] = symbols[i];
+                pairs[j++] = MagikInteropUtils.toMagikString(values[i].toString());
+            } else if (nulls[i]) {
+                pairs[j++] = symbols[i];
+                pairs[j++] = null;
+            }
+        }
+        workOrders.add(MagikVectorUtils.createMagikVector(pairs));
+    }
+
+    /**
+     * Add a top-level integer, e.g. a count reported by astri_sync_work_orders.
+     */
+    void extraField(String key, int value) {
+        extraPairs.add(MagikInteropUtils.toMagikSymbol(key));
+        extraPairs.add(MagikInteropUtils.toMagikInteger(value));
+    }
+
+    /**
+     * Add a top-level value: a boolean, a string or a vector of strings. Null is left out.
+     */
+    void extraField(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        extraPairs.add(MagikInteropUtils.toMagikSymbol(key));
+        if (value instanceof Boolean) {
+            extraPairs.add(MagikInteropUtils.toMagikBoolean((Boolean) value));
+        } else if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            Object[] strings = new Object[items.size()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = MagikInteropUtils.toMagikString(String.valueOf(items.get(i)));
+            }
+            extraPairs.add(MagikVectorUtils.createMagikVector(strings));
+        } else {
+            extraPairs.add(MagikInteropUtils.toMagikString(value.toString()));
+        }
+    }
+
+    /**
+     * Number of work orders received so far.
+     */
+    int getWorkOrderCount() {
+        return workOrders.size();
+    }
+
+    /**
+     * The Magik key/value simple_vector for the response read.
+     */
+    Object toMagik() {
+        List<Object> pairs = new ArrayList<>(10);
+        pairs.add(MagikInteropUtils.toMagikSymbol("success"));
+        pairs.add(MagikInteropUtils.toMagikBoolean("true".equals(success)));
+        addNumber(pairs, "count", count);
+        addNumber(pairs, "count_all", countAll);
+        if (error != null && !error.isEmpty() && !"null".equals(error)) {
+            pairs.add(MagikInteropUtils.toMagikSymbol("error"));
+            pairs.add(MagikInteropUtils.toMagikString(error));
+        }
+        pairs.addAll(extraPairs);
+        pairs.add(MagikInteropUtils.toMagikSymbol("data"));
+        pairs.add(MagikVectorUtils.createMagikVector(workOrders.toArray()));
+        return MagikVectorUtils.createMagikVector(pairs.toArray());
+    }
+
+    /**
+     * Native error result: {:success, _false, :error, message, :data, {}}.
+     */
+    static Object error(String message) {
+        return MagikVectorUtils.createMagikVector(new Object[] {
+            MagikInteropUtils.toMagikSymbol("success"), MagikInteropUtils.toMagikBoolean(false),
+            MagikInteropUtils.toMagikSymbol("error"), MagikInteropUtils.toMagikString(message != null ? message : ""),
+            MagikInteropUtils.toMagikSymbol("data"), MagikVectorUtils.createMagikVector(new Object[0])
+        });
+    }
+
+    /**
+     * True if a Magik result_mode argument selects the native result.
+     * Accepts "native" or :native; unset or anything else means XML.
+     */
+    static boolean isNativeMode(Object resultMode) {
+        if (MagikPropertyLists.isUnset(resultMode)) {
+            return false;
+        }
+        String mode;
+        try {
+            mode = MagikInteropUtils.fromMagikString(resultMode);
+        } catch (Exception e) {
+            mode = resultMode.toString();
+        }
+        if (mode.startsWith(":")) {
+            mode = mode.substring(1);
+        }
+        if ("native".equalsIgnoreCase(mode)) {
+            return true;
+        }
+        if (!"xml".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Invalid result_mode: '" + mode + "'. Must be 'xml' or 'native'");
+        }
+        return false;
+    }
+
+    private static void addNumber(List<Object> pairs, String key, String value) {
+        if (value == null || value.isEmpty() || "null".equals(value)) {
+            return;
+        }
+        pairs.add(MagikInteropUtils.toMagikSymbol(key));
+        try {
+            pairs.add(MagikInteropUtils.toMagikInteger(Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            pairs.add(MagikInteropUtils.toMagikString(value));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.rwi.myrepublic.astri.internal;
+
+/**
+ * ASTRI endpoints as seen by the shared transport.
+ * NOT exposed to Magik - passed by the *Client classes to AstriHttpTransport.
+ *
+ * The transport keeps one circuit breaker per endpoint, and retries only
+ * endpoints marked idempotent: list queries and downloads can safely be sent
+ * again, while updates and BOQ additions could be applied twice.
+ * The config name selects per-endpoint overrides in astri_config.properties,
+ * e.g. astri.retry.max.attempts.kmz_download.
+ *
+ * Endpoints are grouped in families that share a rate limiter and a
+ * concurrency bulkhead, so that e.g. slow document downloads cannot take
+ * the capacity of interactive work order calls.
+ *
+ * JSON endpoints ask for gzip/deflate compressed responses; document
+ * downloads do not, as a KMZ is already a zip.
+ */
+public enum AstriEndpoint {
+    WORK_ORDER_LIST("work_order_list", true, true, Family.WORK_ORDER),
+    WORK_ORDER_GET("work_order_get", true, true, Family.WORK_ORDER),
+    WORK_ORDER_UPDATE("work_order_update", false, true, Family.WORK_ORDER),
+    PRICE_LIST("price_list", true, true, Family.DEVICE_PRICE),
+    VENDOR_LIST("vendor_list", true, true, Family.LOOKUP),
+    OLT_LIST("olt_list", true, true, Family.LOOKUP),
+    BOQ_ADD("boq_add", false, true, Family.BOQ_ADD),
+    KMZ_DOWNLOAD("kmz_download", true, false, Family.DOCUMENT_DOWNLOAD);
+
+    /**
+     * Endpoint families, each with its own rate limit and bulkhead
+     * (astri.ratelimit.*.&lt;family&gt; and astri.bulkhead.*.&lt;family&gt;).
+     */
+    public enum Family {
+        WORK_ORDER("work_order"),
+        BOQ_ADD("boq_add"),
+        DOCUMENT_DOWNLOAD("document_download"),
+        DEVICE_PRICE("device_price"),
+        LOOKUP("lookup");
+
+        private final String configName;
+
+        Family(String configName) {
+            this.configName = configName;
+        }
+
+        /**
+         * Suffix of the per-family configuration keys.
+         */
+        public String getConfigName() {
+            return configName;
+        }
+    }
+
+    private final String configName;
+    private final boolean idempotent;
+    private final boolean compressible;
+    private final Family family;
+
+    AstriEndpoint(String configName, boolean idempotent, boolean compressible, Family family) {
+        this.configName = configName;
+        this.idempotent = idempotent;
+        this.compressible = compressible;
+        this.family = family;
+    }
+
+    /**
+     * Suffix of the per-endpoint configuration keys.
+     */
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * True if a failed request may be sent again.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * True if responses are worth requesting with Accept-Encoding gzip/deflate.
+     */
+    public boolean isCompressible() {
+        return compressible;
+    }
+
+    /**
+     * Family whose rate limiter and bulkhead the endpoint uses.
+     */
+    public Family getFamily() {
+        return family;
+    }
+}
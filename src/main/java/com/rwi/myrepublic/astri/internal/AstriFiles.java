@@ -0,0 +1,28 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File helpers shared by the KMZ download, cache and writer code.
+ * NOT exposed to Magik - used by KmzDownloadClient, KmzDocumentCache and KmzWriter.
+ */
+final class AstriFiles {
+
+    private AstriFiles() {
+    }
+
+    /**
+     * Rename a finished temp file over its final name, atomically where the file system allows.
+     */
+    static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide HTTP transport shared by all internal ASTRI clients.
+ * NOT exposed to Magik - used by the *Client classes in this package.
+ *
+ * Builds a single Java 11+ HttpClient so that connections to the ASTRI
+ * servers are pooled and kept alive across Magik calls, and HTTP/2 is
+ * negotiated where the server supports it. Executor size and protocol
+ * version come from astri_config.properties.
+ *
+ * Every request names its AstriEndpoint. Idempotent endpoints are retried
+ * with backoff, and each endpoint has a circuit breaker that fails fast
+ * while ASTRI is down (astri.retry.* and astri.circuit.* settings).
+ * Endpoint families share a token-bucket rate limiter and a concurrency
+ * bulkhead (astri.ratelimit.* and astri.bulkhead.* settings).
+ *
+ * GETs sent through sendCoalesced share one in-flight exchange with any
+ * identical GET (same URL and headers) that is already running. Nothing is
+ * kept once the exchange completes, so this is not a cache.
+ *
+ * Requests to JSON endpoints advertise Accept-Encoding gzip/deflate; compressed
+ * responses are inflated as they stream in, before any caller parses them
+ * (astri.http.compression.enabled).
+ */
+public final class AstriHttpTransport {
+    private static volatile AstriHttpTransport instance;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final long createdAtMillis;
+
+    // Reuse statistics
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder http1Responses = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final ResponseDecoder.Stats bodyStats = new ResponseDecoder.Stats();
+    private final AstriMetrics metrics = AstriMetrics.getInstance();
+    private final boolean compression;
+
+    // Identical GETs in flight, keyed by endpoint, URL and headers
+    private final Map<String, SharedGet> sharedGets = new ConcurrentHashMap<>();
+
+    // Retry and circuit breaker policy per endpoint
+    private final Map<AstriEndpoint, CircuitBreaker> breakers = new EnumMap<>(AstriEndpoint.class);
+    private final Map<AstriEndpoint, Integer> retryMaxAttempts = new EnumMap<>(AstriEndpoint.class);
+    private final Map<AstriEndpoint.Family, RequestThrottle> throttles = new EnumMap<>(AstriEndpoint.Family.class);
+    private final long backoffInitial;
+    private final long backoffMax;
+
+    private AstriHttpTransport() {
+        AstriConfig config = AstriConfig.getInstance();
+
+        int threads = config.getHttpExecutorThreads();
+        ThreadFactory threadFactory = new DaemonThreadFactory("astri-http-");
+        this.executor = threads > 0
+            ? Executors.newFixedThreadPool(threads, threadFactory)
+            : Executors.newCachedThreadPool(threadFactory);
+
+        this.client = HttpClient.newBuilder()
+            .version(config.getHttpVersion())
+            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
+            .executor(executor)
+            .build();
+
+        for (AstriEndpoint endpoint : AstriEndpoint.values()) {
+            String name = endpoint.getConfigName();
+            breakers.put(endpoint, new CircuitBreaker(name,
+                config.getCircuitFailureThreshold(name), config.getCircuitOpenDuration(name)));
+            retryMaxAttempts.put(endpoint, config.getRetryMaxAttempts(name));
+        }
+        for (AstriEndpoint.Family family : AstriEndpoint.Family.values()) {
+            String name = family.getConfigName();
+            throttles.put(family, new RequestThrottle(name,
+                config.getBulkheadMaxConcurrent(name), config.getRateLimitPerSecond(name),
+                config.getRateLimitBurst(name), config.getBulkheadMaxWait(), executor));
+        }
+        this.backoffInitial = Math.max(1, config.getRetryBackoffInitial());
+        this.backoffMax = Math.max(backoffInitial, config.getRetryBackoffMax());
+        this.compression = config.isHttpCompressionEnabled();
+
+        this.createdAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * The transport every client shares. Its connections are pooled and reused across
+     * calls and it lives as long as the process, so clients have nothing to release on close.
+     */
+    public static AstriHttpTransport getInstance() {
+        if (instance == null) {
+            synchronized (AstriHttpTransport.class) {
+                if (instance == null) {
+                    instance = new AstriHttpTransport();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Send a request synchronously over the shared client.
+     *
+     * Idempotent endpoints are retried on I/O errors and 502/503/504 responses with
+     * exponential backoff and jitter. The circuit breaker of the endpoint fails the
+     * call immediately (CircuitOpenException) while ASTRI keeps failing.
+     * The response of the last attempt is returned, whatever its status.
+     */
+    public <T> HttpResponse<T> send(AstriEndpoint endpoint, HttpRequest request,
+                                    HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        int maxAttempts = maxAttempts(endpoint);
+        request = withAcceptEncoding(endpoint, request);
+        AstriMetrics.Call call = AstriMetrics.currentCall();
+
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse<T> response;
+            try {
+                response = attempt(endpoint, request, handler, call);
+            } catch (CircuitOpenException | ThrottledException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delay = backoff(attempt, null);
+                logRetry(endpoint, attempt, maxAttempts, e.toString(), delay);
+                Thread.sleep(delay);
+                continue;
+            }
+
+            int status = response.statusCode();
+            if (status < 500) {
+                breaker.recordSuccess();
+                return response;
+            }
+            breaker.recordFailure();
+            if (!isRetryableStatus(status) || attempt >= maxAttempts) {
+                return response;
+            }
+            long delay = backoff(attempt, response);
+            logRetry(endpoint, attempt, maxAttempts, "HTTP " + status, delay);
+            discardBody(response);
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Send a request asynchronously over the shared client, with the same retry,
+     * circuit breaker and throttling policy as send(). Waiting for backoff, a
+     * bulkhead slot or a rate limit token does not hold a thread.
+     * Dependent stages run on the transport executor.
+     *
+     * Cancelling the returned future aborts the exchange in flight, which gives its
+     * bulkhead slot back at once, and stops any retry. Cancelling a dependent stage
+     * does not reach this future; see AsyncJobRegistry.propagateCancel.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(AstriEndpoint endpoint, HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> handler) {
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<HttpResponse<T>> result =
+            sendAsync(endpoint, withAcceptEncoding(endpoint, request), handler, 1, maxAttempts(endpoint),
+                      AstriMetrics.currentCall(), cancellation);
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                cancellation.cancel();
+            }
+        });
+        return result;
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(AstriEndpoint endpoint, HttpRequest request,
+                                                             HttpResponse.BodyHandler<T> handler,
+                                                             int attempt, int maxAttempts, AstriMetrics.Call call,
+                                                             Cancellation cancellation) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+
+        return attemptAsync(endpoint, request, handler, call, cancellation)
+            .handle((response, error) -> {
+                if (error != null) {
+                    Throwable cause = AsyncJobRegistry.unwrap(error);
+                    if (!(cause instanceof IOException) || cause instanceof CircuitOpenException ||
+                        cause instanceof ThrottledException || attempt >= maxAttempts || cancellation.isCancelled()) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                    }
+                    long delay = backoff(attempt, null);
+                    logRetry(endpoint, attempt, maxAttempts, cause.toString(), delay);
+                    return retryAfter(delay, endpoint, request, handler, attempt, maxAttempts, call, cancellation);
+                }
+
+                int status = response.statusCode();
+                if (status < 500) {
+                    breaker.recordSuccess();
+                    return CompletableFuture.completedFuture(response);
+                }
+                breaker.recordFailure();
+                if (!isRetryableStatus(status) || attempt >= maxAttempts) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                long delay = backoff(attempt, response);
+                logRetry(endpoint, attempt, maxAttempts, "HTTP " + status, delay);
+                discardBody(response);
+                return retryAfter(delay, endpoint, request, handler, attempt, maxAttempts, call, cancellation);
+            })
+            .thenCompose(next -> next);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> retryAfter(long delay, AstriEndpoint endpoint,
+                                                              HttpRequest request,
+                                                              HttpResponse.BodyHandler<T> handler,
+                                                              int attempt, int maxAttempts, AstriMetrics.Call call,
+                                                              Cancellation cancellation) {
+        Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor);
+        return cancellation.track(CompletableFuture.runAsync(() -> { }, delayed))
+            .thenCompose(ignored -> sendAsync(endpoint, request, handler, attempt + 1, maxAttempts, call,
+                                              cancellation));
+    }
+
+    /**
+     * Send a GET whose String response may be shared with identical concurrent callers.
+     *
+     * If the same GET (URL and headers) is already in flight, this call waits for that
+     * exchange instead of sending another one, and receives the same response object.
+     * Retries and throttling apply to the shared exchange as in send(). Other methods
+     * are sent on their own.
+     */
+    public HttpResponse<String> sendCoalesced(AstriEndpoint endpoint, HttpRequest request)
+            throws IOException, InterruptedException {
+        try {
+            return sendCoalescedAsync(endpoint, request).get();
+        } catch (ExecutionException e) {
+            Throwable cause = AsyncJobRegistry.unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Asynchronous variant of sendCoalesced. Cancelling the returned future does not
+     * cancel the exchange other callers are waiting for; the exchange is cancelled
+     * once every caller waiting for it has cancelled.
+     */
+    public CompletableFuture<HttpResponse<String>> sendCoalescedAsync(AstriEndpoint endpoint, HttpRequest request) {
+        if (!"GET".equals(request.method())) {
+            return sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        String key = endpoint.getConfigName() + " " + request.uri() + " " + request.headers().map();
+        while (true) {
+            SharedGet created = new SharedGet();
+            SharedGet existing = sharedGets.putIfAbsent(key, created);
+            if (existing == null) {
+                CompletableFuture<HttpResponse<String>> waiter = created.join();
+                created.start(sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofString()),
+                              // Unregister before completing, so later callers send a fresh request
+                              () -> sharedGets.remove(key, created));
+                return waiter;
+            }
+            CompletableFuture<HttpResponse<String>> waiter = existing.join();
+            if (waiter != null) {
+                coalesced.increment();
+                return waiter;
+            }
+            // Every caller of that exchange has cancelled it - send a new one
+            sharedGets.remove(key, existing);
+        }
+    }
+
+    /**
+     * One attempt through the family's throttle and the endpoint's circuit breaker.
+     * The bulkhead slot is held until the response (headers, or the whole body for
+     * string and file bodies) has arrived - not during retry backoff.
+     * I/O errors are recorded as breaker failures; the caller records the status.
+     */
+    private <T> HttpResponse<T> attempt(AstriEndpoint endpoint, HttpRequest request,
+                                        HttpResponse.BodyHandler<T> handler, AstriMetrics.Call call)
+            throws IOException, InterruptedException {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        RequestThrottle throttle = throttles.get(endpoint.getFamily());
+
+        throttle.acquire();
+        try {
+            breaker.acquire();
+            try {
+                return sendOnce(endpoint, request, handler, call);
+            } catch (IOException e) {
+                breaker.recordFailure();
+                throw e;
+            } catch (InterruptedException | RuntimeException e) {
+                breaker.release();
+                throw e;
+            }
+        } finally {
+            throttle.release();
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> attemptAsync(AstriEndpoint endpoint, HttpRequest request,
+                                                                HttpResponse.BodyHandler<T> handler,
+                                                                AstriMetrics.Call call, Cancellation cancellation) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        RequestThrottle throttle = throttles.get(endpoint.getFamily());
+
+        // A cancelled permit hands its slot on as soon as it is granted
+        return cancellation.track(throttle.acquireAsync()).thenCompose(granted -> {
+            try {
+                breaker.acquire();
+            } catch (CircuitOpenException e) {
+                throttle.release();
+                return CompletableFuture.<HttpResponse<T>>failedFuture(e);
+            }
+            return sendOnceAsync(endpoint, request, handler, call, cancellation)
+                .whenComplete((response, error) -> {
+                    throttle.release();
+                    if (error == null) {
+                        return;
+                    }
+                    if (AsyncJobRegistry.unwrap(error) instanceof IOException) {
+                        breaker.recordFailure();
+                    } else {
+                        breaker.release();
+                    }
+                });
+        });
+    }
+
+    /**
+     * One attempt, with the reuse statistics and the endpoint's metrics
+     * (attributed to the proc call that sent it, if any).
+     */
+    private <T> HttpResponse<T> sendOnce(AstriEndpoint endpoint, HttpRequest request,
+                                         HttpResponse.BodyHandler<T> handler, AstriMetrics.Call call)
+            throws IOException, InterruptedException {
+        begin();
+        AstriMetrics.Exchange exchange = metrics.startExchange(endpoint, call);
+        try {
+            HttpResponse<T> response = client.send(request, ResponseDecoder.handler(handler, bodyStats, exchange));
+            recordResponse(response);
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            failures.increment();
+            exchange.failed();
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendOnceAsync(AstriEndpoint endpoint, HttpRequest request,
+                                                                 HttpResponse.BodyHandler<T> handler,
+                                                                 AstriMetrics.Call call, Cancellation cancellation) {
+        begin();
+        AstriMetrics.Exchange exchange = metrics.startExchange(endpoint, call);
+        // Cancelling the client's own future aborts the exchange and closes its connection
+        return cancellation.track(client.sendAsync(request, ResponseDecoder.handler(handler, bodyStats, exchange)))
+            .whenComplete((response, error) -> {
+                inFlight.decrementAndGet();
+                if (error != null) {
+                    failures.increment();
+                    exchange.failed();
+                } else {
+                    recordResponse(response);
+                }
+            });
+    }
+
+    /**
+     * Ask for a compressed response where the endpoint returns compressible content
+     * and the caller has not chosen an encoding itself.
+     */
+    private HttpRequest withAcceptEncoding(AstriEndpoint endpoint, HttpRequest request) {
+        if (!compression || !endpoint.isCompressible() ||
+            request.headers().firstValue("Accept-Encoding").isPresent()) {
+            return request;
+        }
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+            .header("Accept-Encoding", "gzip, deflate")
+            .build();
+    }
+
+    private int maxAttempts(AstriEndpoint endpoint) {
+        return endpoint.isIdempotent() ? Math.max(1, retryMaxAttempts.get(endpoint)) : 1;
+    }
+
+    /**
+     * Backoff before retry number attempt: initial * 2^(attempt-1), capped, with
+     * "equal jitter" (half fixed, half random) so that clients do not retry in lockstep.
+     * A Retry-After in seconds from the server is honoured up to the cap.
+     */
+    private long backoff(int attempt, HttpResponse<?> response) {
+        long delay = Math.min(backoffMax, backoffInitial << Math.min(attempt - 1, 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (response != null) {
+            String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+            if (retryAfter != null) {
+                try {
+                    delay = Math.max(delay, Math.min(backoffMax, Long.parseLong(retryAfter.trim()) * 1000));
+                } catch (NumberFormatException e) {
+                    // HTTP-date form - keep the computed backoff
+                }
+            }
+        }
+        return delay;
+    }
+
+    private static boolean isRetryableStatus(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    private void logRetry(AstriEndpoint endpoint, int attempt, int maxAttempts, String reason, long delay) {
+        retries.increment();
+        AstriLog.info("ASTRI {} attempt {}/{} failed ({}), retrying in {} ms",
+                      endpoint.getConfigName(), attempt, maxAttempts, reason, delay);
+    }
+
+    /**
+     * Release the body of a response that is thrown away before a retry.
+     */
+    private static void discardBody(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable) {
+            try {
+                ((Closeable) response.body()).close();
+            } catch (IOException e) {
+                // Connection is dropped anyway
+            }
+        }
+    }
+
+    /**
+     * Executor backing the shared client, for follow-up work on responses.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Character reader over a streamed response body.
+     * Decodes with the charset from Content-Type, defaulting to UTF-8 like BodyHandlers.ofString().
+     * Closing the reader closes the body and releases the connection.
+     */
+    public static Reader bodyReader(HttpResponse<InputStream> response) {
+        return new InputStreamReader(response.body(), responseCharset(response));
+    }
+
+    private static Charset responseCharset(HttpResponse<?> response) {
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        int idx = contentType.toLowerCase().indexOf("charset=");
+        if (idx >= 0) {
+            String name = contentType.substring(idx + 8).split(";")[0].trim().replace("\"", "");
+            try {
+                return Charset.forName(name);
+            } catch (RuntimeException e) {
+                // Unknown charset - fall through to the default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private void begin() {
+        requests.increment();
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    private void recordResponse(HttpResponse<?> response) {
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.increment();
+        } else {
+            http1Responses.increment();
+        }
+    }
+
+    /**
+     * Transport statistics as a JSON object.
+     *
+     * The JDK client does not expose per-socket events, so reuse is reported
+     * as the number of requests served by this single pooled client since it
+     * was created (previously every request built its own client).
+     */
+    public String getStatsJson() {
+        long total = requests.sum();
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"success\":true,");
+        json.append("\"http_version\":\"").append(client.version()).append("\",");
+        json.append("\"uptime_ms\":").append(System.currentTimeMillis() - createdAtMillis).append(",");
+        json.append("\"clients_created\":1,");
+        json.append("\"requests\":").append(total).append(",");
+        json.append("\"responses_http2\":").append(http2Responses.sum()).append(",");
+        json.append("\"responses_http1\":").append(http1Responses.sum()).append(",");
+        json.append("\"failures\":").append(failures.sum()).append(",");
+        json.append("\"in_flight\":").append(inFlight.get()).append(",");
+        json.append("\"peak_in_flight\":").append(peakInFlight.get()).append(",");
+        json.append("\"retries\":").append(retries.sum()).append(",");
+        json.append("\"coalesced\":").append(coalesced.sum()).append(",");
+        json.append("\"compressed_responses\":").append(bodyStats.compressedResponses.sum()).append(",");
+        json.append("\"bytes_received\":").append(bodyStats.wireBytes.sum()).append(",");
+        json.append("\"bytes_decoded\":").append(bodyStats.decodedBytes.sum()).append(",");
+        json.append("\"decompress_ms\":").append(TimeUnit.NANOSECONDS.toMillis(bodyStats.decodeNanos.sum())).append(",");
+        json.append("\"circuits\":{");
+        boolean first = true;
+        for (Map.Entry<AstriEndpoint, CircuitBreaker> entry : breakers.entrySet()) {
+            if (!first) {
+                json.append(",");
+            }
+            first = false;
+            json.append("\"").append(entry.getKey().getConfigName()).append("\":{");
+            json.append("\"state\":\"").append(entry.getValue().getState()).append("\",");
+            json.append("\"rejected\":").append(entry.getValue().getRejections());
+            json.append("}");
+        }
+        json.append("}");
+        json.append("}");
+        return json.toString();
+    }
+
+    /**
+     * Rate limiter and bulkhead state per endpoint family as a JSON object.
+     */
+    public String getLimitsJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"success\":true,");
+        json.append("\"families\":{");
+        boolean first = true;
+        for (Map.Entry<AstriEndpoint.Family, RequestThrottle> entry : throttles.entrySet()) {
+            if (!first) {
+                json.append(",");
+            }
+            first = false;
+            json.append("\"").append(entry.getKey().getConfigName()).append("\":");
+            json.append(entry.getValue().getStatsJson());
+        }
+        json.append("}");
+        json.append("}");
+        return json.toString();
+    }
+
+    /**
+     * The stage an async send is waiting on - a bulkhead slot, the exchange or a
+     * retry delay - so that cancelling the send can stop it.
+     */
+    private static final class Cancellation {
+        private CompletableFuture<?> current;
+        private boolean cancelled;
+
+        synchronized <F extends CompletableFuture<?>> F track(F stage) {
+            current = stage;
+            if (cancelled) {
+                stage.cancel(true);
+            }
+            return stage;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            CompletableFuture<?> stage;
+            synchronized (this) {
+                cancelled = true;
+                stage = current;
+            }
+            if (stage != null) {
+                stage.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A coalesced GET and the number of callers still waiting for it.
+     */
+    private static final class SharedGet {
+        private final CompletableFuture<HttpResponse<String>> response = new CompletableFuture<>();
+        private CompletableFuture<HttpResponse<String>> exchange;
+        // -1 once every caller has cancelled
+        private int waiters;
+
+        /**
+         * A future for one more caller, or null if the exchange has been abandoned.
+         */
+        synchronized CompletableFuture<HttpResponse<String>> join() {
+            if (waiters < 0) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<HttpResponse<String>> waiter = response.copy();
+            waiter.whenComplete((r, error) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        void start(CompletableFuture<HttpResponse<String>> sent, Runnable unregister) {
+            synchronized (this) {
+                exchange = sent;
+                if (waiters < 0) {
+                    sent.cancel(true);
+                }
+            }
+            sent.whenComplete((result, error) -> {
+                unregister.run();
+                if (error != null) {
+                    response.completeExceptionally(AsyncJobRegistry.unwrap(error));
+                } else {
+                    response.complete(result);
+                }
+            });
+        }
+
+        private void leave() {
+            CompletableFuture<HttpResponse<String>> abandoned = null;
+            synchronized (this) {
+                if (--waiters == 0) {
+                    waiters = -1;
+                    abandoned = exchange;
+                }
+            }
+            if (abandoned != null) {
+                abandoned.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Daemon threads so the transport never keeps the Smallworld JVM alive.
+     */
+    static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leveled logging for the ASTRI bundle.
+ * NOT exposed to Magik - used by the procs and the internal clients.
+ *
+ * Callers only check the level and queue an event; formatting and I/O happen on
+ * one background writer thread ("astri-log"), so logging never blocks the Magik
+ * thread on the Smallworld console or the disk. The queue is a bounded ring
+ * (astri.log.buffer.size): when it is full, events are dropped and counted, and the
+ * writer reports how many were lost. A statement below the configured level costs
+ * one volatile read; build expensive arguments only inside isDebugEnabled().
+ *
+ * Messages use {} placeholders, filled in on the writer thread. Arguments must
+ * therefore not be changed after the call (strings, numbers and enums are fine).
+ * A Throwable as the last argument is logged with its stack trace.
+ *
+ * Events go to astri.log.file, rolled at astri.log.file.max.bytes with
+ * astri.log.file.count old files kept; without a file they go to the console.
+ * Failures of the writer itself are reported once on System.err, never through
+ * the ring. While the file cannot be written, events go to the console and the
+ * file is tried again after FILE_RETRY_MS. If it cannot be rolled (another session
+ * has it open on Windows), the writer keeps appending to it.
+ * Request and response bodies are logged separately (payload()), only with
+ * astri.log.payload.enabled=true, for a sample of calls
+ * (astri.log.payload.sample.rate) and cut at astri.log.payload.max.chars.
+ */
+public final class AstriLog {
+
+    /**
+     * Severity, most severe first.
+     */
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE
+    }
+
+    private static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static volatile int threshold;
+    private static volatile boolean payloadEnabled;
+    private static volatile double payloadSampleRate;
+    private static volatile int payloadMaxChars;
+    private static volatile Appender appender;
+
+    static {
+        AstriConfig config = AstriConfig.getInstance();
+        applySettings(config);
+        // Level and payload sampling follow a reloaded astri_config.properties; the file settings need a restart
+        config.addReloadListener(snapshot -> applySettings(config));
+    }
+
+    private AstriLog() {
+    }
+
+    private static void applySettings(AstriConfig config) {
+        threshold = parseLevel(config.getLogLevel()).ordinal();
+        payloadEnabled = config.isLogPayloadEnabled();
+        payloadSampleRate = config.getLogPayloadSampleRate();
+        payloadMaxChars = config.getLogPayloadMaxChars();
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= threshold;
+    }
+
+    public static boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() <= threshold;
+    }
+
+    public static void error(String format, Object... args) {
+        if (Level.ERROR.ordinal() <= threshold) {
+            log(Level.ERROR, format, args);
+        }
+    }
+
+    public static void warn(String format, Object... args) {
+        if (Level.WARN.ordinal() <= threshold) {
+            log(Level.WARN, format, args);
+        }
+    }
+
+    public static void info(String format, Object... args) {
+        if (Level.INFO.ordinal() <= threshold) {
+            log(Level.INFO, format, args);
+        }
+    }
+
+    public static void debug(String format, Object... args) {
+        if (Level.DEBUG.ordinal() <= threshold) {
+            log(Level.DEBUG, format, args);
+        }
+    }
+
+    public static void trace(String format, Object... args) {
+        if (Level.TRACE.ordinal() <= threshold) {
+            log(Level.TRACE, format, args);
+        }
+    }
+
+    /**
+     * Whether the bodies of the current call should be logged. Decide once per call,
+     * so that a sampled request is logged together with its response.
+     */
+    public static boolean samplePayload() {
+        if (!payloadEnabled) {
+            return false;
+        }
+        double rate = payloadSampleRate;
+        return rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Log a request or response body, cut at astri.log.payload.max.chars.
+     * Call only when samplePayload() returned true.
+     */
+    public static void payload(String label, String body) {
+        if (body != null && body.length() > payloadMaxChars) {
+            body = body.substring(0, payloadMaxChars) + "... (" + (body.length() - payloadMaxChars) + " more chars)";
+        }
+        log(Level.DEBUG, "PAYLOAD {}: {}", new Object[] {label, body});
+    }
+
+    /**
+     * Wait until the events queued so far are written (or the timeout passes).
+     */
+    public static void flush(long timeoutMillis) {
+        Appender current = appender;
+        if (current != null) {
+            current.flush(timeoutMillis);
+        }
+    }
+
+    /**
+     * Events lost because the ring was full.
+     */
+    public static long getDroppedCount() {
+        Appender current = appender;
+        return current != null ? current.dropped.sum() : 0;
+    }
+
+    static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (RuntimeException e) {
+            return Level.INFO;
+        }
+    }
+
+    private static void log(Level level, String format, Object[] args) {
+        Appender current = appender;
+        if (current == null) {
+            synchronized (AstriLog.class) {
+                current = appender;
+                if (current == null) {
+                    AstriConfig config = AstriConfig.getInstance();
+                    String path = config.getLogFile();
+                    current = new Appender(config.getLogBufferSize(), path.isEmpty() ? null : Paths.get(path),
+                                           config.getLogFileMaxBytes(), config.getLogFileCount());
+                    appender = current;
+                }
+            }
+        }
+        current.log(level, format, args);
+    }
+
+    /**
+     * Fill {} placeholders; a trailing Throwable without a placeholder adds its stack trace.
+     */
+    static String format(String format, Object[] args) {
+        if (args == null || args.length == 0) {
+            return format;
+        }
+        StringBuilder out = new StringBuilder(format.length() + 32 * args.length);
+        int next = 0;
+        int from = 0;
+        int at;
+        while (next < args.length && (at = format.indexOf("{}", from)) >= 0) {
+            out.append(format, from, at).append(args[next++]);
+            from = at + 2;
+        }
+        out.append(format, from, format.length());
+        if (next < args.length && args[args.length - 1] instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) args[args.length - 1]).printStackTrace(new PrintWriter(trace));
+            out.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+        }
+        return out.toString();
+    }
+
+    private static final class Event {
+        final long timeMillis;
+        final Level level;
+        final String thread;
+        final String format;
+        final Object[] args;
+
+        Event(long timeMillis, Level level, String thread, String format, Object[] args) {
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.thread = thread;
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Bounded queue drained by the writer thread into the console or a rolling file.
+     */
+    static final class Appender implements Runnable {
+        private static final long FILE_RETRY_MS = 60_000;
+
+        private final ArrayBlockingQueue<Event> ring;
+        private final LongAdder dropped = new LongAdder();
+        private final Path file;
+        private final long maxBytes;
+        private final int fileCount;
+        private final AtomicLong enqueued = new AtomicLong();
+        private final Object flushLock = new Object();
+        private long reportedDropped;
+        private long completed;
+        private Writer out;
+        // True while out writes to the file rather than the console
+        private boolean toFile;
+        private long fileBytes;
+        // The file is not tried again before this time after it failed
+        private long fileRetryAt;
+        // A failure has been reported on System.err since the last successful roll
+        private boolean failureReported;
+
+        /**
+         * @param file Log file, or null for the console
+         */
+        Appender(int bufferSize, Path file, long maxBytes, int fileCount) {
+            this.ring = new ArrayBlockingQueue<>(Math.max(16, bufferSize));
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.fileCount = Math.max(1, fileCount);
+
+            Thread writer = new Thread(this, "astri-log");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000), "astri-log-shutdown"));
+        }
+
+        void log(Level level, String format, Object[] args) {
+            append(new Event(System.currentTimeMillis(), level, Thread.currentThread().getName(), format, args));
+        }
+
+        private void append(Event event) {
+            if (ring.offer(event)) {
+                enqueued.incrementAndGet();
+            } else {
+                dropped.increment();
+            }
+        }
+
+        void flush(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long target = enqueued.get();
+            synchronized (flushLock) {
+                while (completed < target) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return;
+                    }
+                    try {
+                        flushLock.wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Event> batch = new ArrayList<>(256);
+            while (true) {
+                try {
+                    Event first = ring.poll(1, TimeUnit.SECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        ring.drainTo(batch, 255);
+                    }
+                    long lost = dropped.sum() - reportedDropped;
+                    if (lost > 0) {
+                        reportedDropped += lost;
+                        write(System.currentTimeMillis(), Level.WARN, "astri-log",
+                              lost + " log events dropped, astri.log.buffer.size is too small for the load");
+                    }
+                    for (Event event : batch) {
+                        write(event.timeMillis, event.level, event.thread, format(event.format, event.args));
+                    }
+                    if (out != null) {
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    // Logging must never take the writer down - and must not log into its own ring
+                    reportFailure("ASTRI log writer failed, events lost: " + e);
+                    closeQuietly();
+                }
+                if (!batch.isEmpty()) {
+                    synchronized (flushLock) {
+                        completed += batch.size();
+                        flushLock.notifyAll();
+                    }
+                    batch.clear();
+                }
+            }
+        }
+
+        private void write(long timeMillis, Level level, String thread, String message) throws IOException {
+            String line = TIMESTAMP.format(Instant.ofEpochMilli(timeMillis)) + " " + level
+                + (level.name().length() == 4 ? "  [" : " [") + thread + "] " + message + System.lineSeparator();
+            try {
+                writeLine(line);
+            } catch (IOException | RuntimeException e) {
+                if (!toFile) {
+                    throw e;
+                }
+                reportFailure("ASTRI log file " + file + " cannot be written, logging to the console for "
+                              + FILE_RETRY_MS / 1000 + " s: " + e);
+                closeQuietly();
+                fileRetryAt = System.currentTimeMillis() + FILE_RETRY_MS;
+                writeLine(line);
+            }
+        }
+
+        private void writeLine(String line) throws IOException {
+            if (out != null && !toFile && file != null && System.currentTimeMillis() >= fileRetryAt) {
+                // Console fallback is over - try the file again
+                out.flush();
+                out = null;
+            }
+            if (out == null) {
+                open();
+            }
+            out.write(line);
+            if (toFile) {
+                fileBytes += utf8Length(line);
+                if (fileBytes > maxBytes) {
+                    roll();
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            toFile = file != null && System.currentTimeMillis() >= fileRetryAt;
+            if (!toFile) {
+                out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                return;
+            }
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            fileBytes = Files.exists(file) ? Files.size(file) : 0;
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        /**
+         * astri.log -> astri.log.1 -> ... -> astri.log.{count}, oldest deleted.
+         */
+        private void roll() throws IOException {
+            out.close();
+            out = null;
+            String name = file.getFileName().toString();
+            try {
+                Files.deleteIfExists(file.resolveSibling(name + "." + fileCount));
+                for (int i = fileCount - 1; i >= 1; i--) {
+                    Path older = file.resolveSibling(name + "." + i);
+                    if (Files.exists(older)) {
+                        Files.move(older, file.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(file, file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+                failureReported = false;
+            } catch (IOException e) {
+                // Keep appending, and try again once another max.bytes have been written
+                reportFailure("ASTRI log file " + file + " could not be rolled, appending to it: " + e);
+                open();
+                fileBytes = 0;
+            }
+        }
+
+        /**
+         * Report a failure of the writer on System.err, once until the next successful roll.
+         */
+        private void reportFailure(String message) {
+            if (!failureReported) {
+                failureReported = true;
+                System.err.println(TIMESTAMP.format(Instant.now()) + " ERROR [astri-log] " + message);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                if (out != null) {
+                    if (toFile) {
+                        out.close();
+                    } else {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Reopened on the next event
+            }
+            out = null;
+        }
+
+        /**
+         * Bytes of the text in UTF-8, the encoding of the file.
+         */
+        static long utf8Length(CharSequence text) {
+            long bytes = 0;
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                           && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    bytes += 4;
+                    i++;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+    }
+}
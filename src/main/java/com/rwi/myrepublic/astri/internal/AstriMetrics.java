@@ -0,0 +1,476 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide instrumentation registry for the ASTRI procs.
+ * NOT exposed to Magik directly - read by astri_metrics() and over JMX
+ * (com.rwi.myrepublic.astri:type=Metrics).
+ *
+ * Every proc opens a Call on entry and ends it on exit; per proc the registry
+ * keeps call and error counts, a latency histogram, the response bytes received
+ * over HTTP during the call, and the time spent in each Phase. The calling thread
+ * marks MAGIK_TO_JAVA and JAVA_TO_MAGIK itself; the transport adds HTTP_TTFB and
+ * HTTP_BODY for the requests it sends on behalf of the call, and the clients add
+ * JSON_TO_XML. Per endpoint, time to first byte, body time and response sizes are
+ * kept as well, including requests made by async jobs.
+ *
+ * java.net.http does not report connection setup separately, so HTTP_TTFB covers
+ * connect (when no pooled connection is free), sending the request and waiting
+ * for the response headers. For streamed bodies JSON_TO_XML runs while the body
+ * arrives and overlaps HTTP_BODY.
+ *
+ * Latencies are kept in microseconds. Disabled with astri.metrics.enabled=false.
+ */
+public final class AstriMetrics implements AstriMetricsMXBean {
+    private static volatile AstriMetrics instance;
+    private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Where the time of a proc call goes.
+     */
+    public enum Phase {
+        MAGIK_TO_JAVA("magik_to_java"),
+        HTTP_TTFB("http_ttfb"),
+        HTTP_BODY("http_body"),
+        JSON_TO_XML("json_to_xml"),
+        JAVA_TO_MAGIK("java_to_magik");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final boolean enabled;
+    private final long createdAtMillis = System.currentTimeMillis();
+    private volatile long resetAtMillis = createdAtMillis;
+    private final Map<String, ProcStats> procs = new ConcurrentHashMap<>();
+    private final Map<AstriEndpoint, EndpointStats> endpoints = new EnumMap<>(AstriEndpoint.class);
+
+    private AstriMetrics() {
+        AstriConfig config = AstriConfig.getInstance();
+        this.enabled = config.isMetricsEnabled();
+        for (AstriEndpoint endpoint : AstriEndpoint.values()) {
+            endpoints.put(endpoint, new EndpointStats());
+        }
+        if (enabled && config.isMetricsJmxEnabled()) {
+            registerMBean();
+        }
+    }
+
+    public static AstriMetrics getInstance() {
+        if (instance == null) {
+            synchronized (AstriMetrics.class) {
+                if (instance == null) {
+                    instance = new AstriMetrics();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Start timing a proc call on the current thread. Always pair with Call.end()
+     * in a finally block.
+     */
+    public Call begin(String procName) {
+        if (!enabled) {
+            return Call.DISABLED;
+        }
+        ProcStats stats = procs.computeIfAbsent(procName, name -> new ProcStats());
+        Call call = new Call(stats, CURRENT.get());
+        CURRENT.set(call);
+        return call;
+    }
+
+    /**
+     * Add the time since startNanos to a phase of the call running on this thread, if any.
+     */
+    public static void recordPhase(Phase phase, long startNanos) {
+        Call call = CURRENT.get();
+        if (call != null) {
+            call.add(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * The call running on this thread, or null. Captured by the transport so that
+     * requests completing on other threads are still attributed to it.
+     */
+    static Call currentCall() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Start timing one HTTP exchange of an endpoint on behalf of a call (may be null).
+     */
+    Exchange startExchange(AstriEndpoint endpoint, Call call) {
+        return new Exchange(enabled ? endpoints.get(endpoint) : null, call);
+    }
+
+    /**
+     * All metrics as nested ordered maps with String keys and Long, Boolean or Map values.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("success", Boolean.TRUE);
+        root.put("enabled", enabled);
+        long now = System.currentTimeMillis();
+        root.put("uptime_ms", now - createdAtMillis);
+        root.put("since_reset_ms", now - resetAtMillis);
+
+        Map<String, Object> procMap = new LinkedHashMap<>();
+        for (Map.Entry<String, ProcStats> entry : new TreeMap<>(procs).entrySet()) {
+            procMap.put(entry.getKey(), entry.getValue().toMap());
+        }
+        root.put("procs", procMap);
+
+        Map<String, Object> endpointMap = new LinkedHashMap<>();
+        for (Map.Entry<AstriEndpoint, EndpointStats> entry : endpoints.entrySet()) {
+            if (entry.getValue().requests.sum() > 0) {
+                endpointMap.put(entry.getKey().getConfigName(), entry.getValue().toMap());
+            }
+        }
+        root.put("endpoints", endpointMap);
+        return root;
+    }
+
+    @Override
+    public String getMetricsJson() {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, snapshot());
+        return json.toString();
+    }
+
+    @Override
+    public long getCalls() {
+        long total = 0;
+        for (ProcStats stats : procs.values()) {
+            total += stats.calls.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getErrors() {
+        long total = 0;
+        for (ProcStats stats : procs.values()) {
+            total += stats.errors.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getCallsByProc() {
+        Map<String, Long> map = new TreeMap<>();
+        procs.forEach((name, stats) -> map.put(name, stats.calls.sum()));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByProc() {
+        Map<String, Long> map = new TreeMap<>();
+        procs.forEach((name, stats) -> map.put(name, stats.errors.sum()));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getP50MicrosByProc() {
+        Map<String, Long> map = new TreeMap<>();
+        procs.forEach((name, stats) -> map.put(name, stats.latency.snapshot().p50));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getP99MicrosByProc() {
+        Map<String, Long> map = new TreeMap<>();
+        procs.forEach((name, stats) -> map.put(name, stats.latency.snapshot().p99));
+        return map;
+    }
+
+    @Override
+    public void reset() {
+        for (ProcStats stats : procs.values()) {
+            stats.reset();
+        }
+        for (EndpointStats stats : endpoints.values()) {
+            stats.reset();
+        }
+        resetAtMillis = System.currentTimeMillis();
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.rwi.myrepublic.astri:type=Metrics");
+            if (server.isRegistered(name)) {
+                // Left over from an earlier class loader - replace it
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            AstriLog.warn("Could not register ASTRI metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value instanceof Map) {
+            json.append("{");
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (!first) {
+                    json.append(",");
+                }
+                first = false;
+                json.append("\"").append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+                appendJson(json, entry.getValue());
+            }
+            json.append("}");
+        } else {
+            json.append(value);
+        }
+    }
+
+    /**
+     * Timing of one proc call. Phases may be added from other threads (HTTP callbacks);
+     * mark, failed and end are for the calling thread.
+     */
+    public static final class Call {
+        static final Call DISABLED = new Call(null, null);
+
+        private final ProcStats stats;
+        private final Call previous;
+        private final long startedAt = System.nanoTime();
+        private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+        private final AtomicLong responseBytes = new AtomicLong(-1);
+        private long lastMark = startedAt;
+        private boolean failed;
+
+        private Call(ProcStats stats, Call previous) {
+            this.stats = stats;
+            this.previous = previous;
+            for (int i = 0; i < phaseNanos.length(); i++) {
+                phaseNanos.set(i, -1);
+            }
+        }
+
+        /**
+         * Add the time since the previous mark (or the start of the call) to a phase.
+         */
+        public void mark(Phase phase) {
+            long now = System.nanoTime();
+            add(phase, now - lastMark);
+            lastMark = now;
+        }
+
+        /**
+         * Restart the mark clock without attributing the elapsed time, e.g. after
+         * a client call whose HTTP and conversion time is recorded by the client.
+         */
+        public void skip() {
+            lastMark = System.nanoTime();
+        }
+
+        /**
+         * Count this call as an error.
+         */
+        public void failed() {
+            failed = true;
+        }
+
+        /**
+         * Record the call and restore the enclosing call on this thread.
+         */
+        public void end() {
+            if (stats == null) {
+                return;
+            }
+            stats.calls.increment();
+            if (failed) {
+                stats.errors.increment();
+            }
+            stats.latency.record(micros(System.nanoTime() - startedAt));
+            for (Phase phase : Phase.values()) {
+                long nanos = phaseNanos.get(phase.ordinal());
+                if (nanos >= 0) {
+                    stats.phases.get(phase).record(micros(nanos));
+                }
+            }
+            long bytes = responseBytes.get();
+            if (bytes >= 0) {
+                stats.responseBytes.record(bytes);
+            }
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+
+        void add(Phase phase, long nanos) {
+            if (stats != null) {
+                phaseNanos.accumulateAndGet(phase.ordinal(), nanos, (total, n) -> Math.max(total, 0) + n);
+            }
+        }
+
+        void addResponseBytes(long bytes) {
+            if (stats != null) {
+                responseBytes.accumulateAndGet(bytes, (total, n) -> Math.max(total, 0) + n);
+            }
+        }
+    }
+
+    /**
+     * Timing of one HTTP exchange: started when the request is handed to the client,
+     * headers when the body handler is invoked, complete when the body has been read.
+     */
+    static final class Exchange {
+        private final EndpointStats stats;
+        private final Call call;
+        private final long startedAt = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile long headersAt;
+
+        private Exchange(EndpointStats stats, Call call) {
+            this.stats = stats;
+            this.call = call;
+            if (stats != null) {
+                stats.requests.increment();
+            }
+        }
+
+        void headersReceived() {
+            headersAt = System.nanoTime();
+            long ttfb = headersAt - startedAt;
+            if (stats != null) {
+                stats.ttfb.record(micros(ttfb));
+            }
+            if (call != null) {
+                call.add(Phase.HTTP_TTFB, ttfb);
+            }
+        }
+
+        void bodyComplete(long wireBytes, long decodedBytes) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            long body = System.nanoTime() - headersAt;
+            if (stats != null) {
+                stats.body.record(micros(body));
+                stats.responseBytes.record(decodedBytes);
+                stats.wireBytes.add(wireBytes);
+            }
+            if (call != null) {
+                call.add(Phase.HTTP_BODY, body);
+                call.addResponseBytes(decodedBytes);
+            }
+        }
+
+        void failed() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (stats != null) {
+                stats.errors.increment();
+            }
+        }
+    }
+
+    private static final class ProcStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final Histogram latency = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+
+        ProcStats() {
+            for (Phase phase : Phase.values()) {
+                phases.put(phase, new Histogram());
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("calls", calls.sum());
+            map.put("errors", errors.sum());
+            map.put("latency_us", latency.snapshot().toMap());
+            Histogram.Snapshot bytes = responseBytes.snapshot();
+            if (bytes.count > 0) {
+                map.put("response_bytes", bytes.toMap());
+            }
+            Map<String, Object> phaseMap = new LinkedHashMap<>();
+            for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+                Histogram.Snapshot snapshot = entry.getValue().snapshot();
+                if (snapshot.count > 0) {
+                    phaseMap.put(entry.getKey().getKey(), snapshot.toMap());
+                }
+            }
+            map.put("phases_us", phaseMap);
+            return map;
+        }
+
+        void reset() {
+            calls.reset();
+            errors.reset();
+            latency.reset();
+            responseBytes.reset();
+            for (Histogram histogram : phases.values()) {
+                histogram.reset();
+            }
+        }
+    }
+
+    private static final class EndpointStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder wireBytes = new LongAdder();
+        final Histogram ttfb = new Histogram();
+        final Histogram body = new Histogram();
+        final Histogram responseBytes = new Histogram();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", requests.sum());
+            map.put("errors", errors.sum());
+            map.put("wire_bytes", wireBytes.sum());
+            map.put("ttfb_us", ttfb.snapshot().toMap());
+            map.put("body_us", body.snapshot().toMap());
+            map.put("response_bytes", responseBytes.snapshot().toMap());
+            return map;
+        }
+
+        void reset() {
+            requests.reset();
+            errors.reset();
+            wireBytes.reset();
+            ttfb.reset();
+            body.reset();
+            responseBytes.reset();
+        }
+    }
+}
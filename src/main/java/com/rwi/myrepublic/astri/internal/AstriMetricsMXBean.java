@@ -0,0 +1,34 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.util.Map;
+
+/**
+ * JMX view of AstriMetrics, registered as com.rwi.myrepublic.astri:type=Metrics.
+ * NOT exposed to Magik - for jconsole/VisualVM and JMX collectors.
+ *
+ * Latencies are in microseconds.
+ */
+public interface AstriMetricsMXBean {
+
+    /**
+     * Everything astri_metrics() returns, as JSON.
+     */
+    String getMetricsJson();
+
+    long getCalls();
+
+    long getErrors();
+
+    Map<String, Long> getCallsByProc();
+
+    Map<String, Long> getErrorsByProc();
+
+    Map<String, Long> getP50MicrosByProc();
+
+    Map<String, Long> getP99MicrosByProc();
+
+    /**
+     * Clear all counters and histograms.
+     */
+    void reset();
+}
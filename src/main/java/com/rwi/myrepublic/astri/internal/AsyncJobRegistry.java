@@ -0,0 +1,171 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of asynchronous ASTRI jobs addressed by integer handles.
+ * NOT exposed to Magik - used by the astri_submit_* / astri_poll / astri_await procs.
+ *
+ * Each job is a future that always completes with the String the matching
+ * synchronous proc would have returned (errors are mapped by the caller).
+ * A job is removed once its result has been handed back to Magik; results
+ * that are never collected are dropped after JOB_RETENTION_MS.
+ *
+ * Cancelling a CompletableFuture does not reach the stages it was derived from,
+ * so a job also keeps its root: the client future the result was mapped from.
+ * Cancelling the job cancels both, and the client passes the cancellation on to
+ * its HTTP exchange (see propagateCancel).
+ */
+public final class AsyncJobRegistry {
+    private static final long JOB_RETENTION_MS = 30 * 60 * 1000L;
+
+    private static final AsyncJobRegistry INSTANCE = new AsyncJobRegistry();
+
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHandle = new AtomicInteger();
+
+    private AsyncJobRegistry() {
+    }
+
+    public static AsyncJobRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a job and return its handle.
+     *
+     * @param future The job result
+     * @param root   The future the result was derived from, cancelled with the job; may be null
+     */
+    public int submit(CompletableFuture<String> future, CompletableFuture<?> root) {
+        purgeExpired();
+        int handle = nextHandle.incrementAndGet();
+        jobs.put(handle, new Job(future, root));
+        return handle;
+    }
+
+    /**
+     * Return the job result if it has completed, or null while still running.
+     *
+     * @throws IllegalArgumentException if the handle is unknown or already collected
+     */
+    public String poll(int handle) {
+        Job job = getJob(handle);
+        if (!job.future.isDone()) {
+            return null;
+        }
+        jobs.remove(handle);
+        return job.future.getNow(null);
+    }
+
+    /**
+     * Wait up to timeoutMillis for the job result.
+     *
+     * @return the result, or null if the job is still running after the timeout
+     * @throws IllegalArgumentException if the handle is unknown or already collected
+     */
+    public String await(int handle, long timeoutMillis) throws InterruptedException {
+        Job job = getJob(handle);
+        try {
+            String result = job.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            jobs.remove(handle);
+            return result;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            // Futures are mapped to result strings by the caller; only cancellation lands here
+            jobs.remove(handle);
+            throw new IllegalStateException("Job " + handle + " failed: " + unwrap(e).getMessage());
+        }
+    }
+
+    /**
+     * Cancel a job, and the request behind it, and forget its handle.
+     *
+     * @return true if the job was still running and has been cancelled
+     */
+    public boolean cancel(int handle) {
+        Job job = jobs.remove(handle);
+        if (job == null) {
+            return false;
+        }
+        // The result first: once the root is cancelled the result may complete with an error mapping
+        boolean cancelled = job.future.cancel(true);
+        if (job.root != null) {
+            job.root.cancel(true);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Number of jobs not yet collected (running or completed).
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    private Job getJob(int handle) {
+        Job job = jobs.get(handle);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown or already collected job handle: " + handle);
+        }
+        return job;
+    }
+
+    private void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - JOB_RETENTION_MS;
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            if (job.future.isDone() && job.submittedAt < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Make cancelling dependent also cancel root, the future it was derived from.
+     *
+     * @return dependent
+     */
+    public static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, CompletableFuture<?> root) {
+        dependent.whenComplete((result, error) -> {
+            if (dependent.isCancelled()) {
+                root.cancel(true);
+            }
+        });
+        return dependent;
+    }
+
+    /**
+     * Strip CompletionException/ExecutionException wrappers from an async failure.
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static final class Job {
+        final CompletableFuture<String> future;
+        final CompletableFuture<?> root;
+        final long submittedAt;
+
+        Job(CompletableFuture<String> future, CompletableFuture<?> root) {
+            this.future = future;
+            this.root = root;
+            this.submittedAt = System.currentTimeMillis();
+        }
+    }
+}
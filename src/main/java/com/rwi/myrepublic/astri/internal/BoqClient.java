@@ -4,32 +4,27 @@ import com.rwi.myrepublic.astri.AstriConfig;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Internal HTTP client for ASTRI BOQ DRM API.
  * NOT exposed to Magik - used only by AstriBoqProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class BoqClient {
-    private HttpClient client;
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public BoqClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -44,7 +39,88 @@ public class BoqClient {
                             Double quantityService, String remarks, String phase, String area,
                             String areaPlantCode, Double overridePriceMaterial,
                             Double overridePriceService) throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
+        BoqLine line = new BoqLine(vendorName, subcontVendorName, equipmentName, description,
+            quantityMaterial, quantityService, remarks, phase, area, areaPlantCode,
+            overridePriceMaterial, overridePriceService);
+        boolean logPayload = AstriLog.samplePayload();
+        HttpRequest request = buildAddRequest(infraType, infraTypeCode, line, logPayload);
+
+        HttpResponse<String> response = transport.send(AstriEndpoint.BOQ_ADD, request, HttpResponse.BodyHandlers.ofString());
+        var jsonResponse = response.body();
+        if (logPayload) {
+            AstriLog.payload("boq_add response", jsonResponse);
+        }
+        return jsonResponse;
+    }
+
+    /**
+     * Add many BOQ DRM lines for one infrastructure code, pipelining the POSTs.
+     * At most maxParallel requests are in flight at any time.
+     *
+     * @param infraType The infrastructure type: "cluster", "subfeeder", or "feeder"
+     * @param infraTypeCode The infrastructure code value shared by all lines
+     * @param lines BOQ lines to add
+     * @param maxParallel Maximum number of concurrent requests (at least 1)
+     * @return API response body per line, in input order. A line whose request failed
+     *         gets {"success":false,"error":"..."} instead.
+     * @throws InterruptedException if interrupted; the requests still in flight are aborted
+     */
+    public List<String> addBoqDrmBatch(String infraType, String infraTypeCode, List<BoqLine> lines,
+                                       int maxParallel) throws InterruptedException {
+        Semaphore permits = new Semaphore(Math.max(1, maxParallel));
+        List<CompletableFuture<String>> futures = new ArrayList<>(lines.size());
+
+        try {
+            for (BoqLine line : lines) {
+                permits.acquire();
+                CompletableFuture<String> future;
+                try {
+                    boolean logPayload = AstriLog.samplePayload();
+                    HttpRequest request = buildAddRequest(infraType, infraTypeCode, line, logPayload);
+                    CompletableFuture<HttpResponse<String>> sent =
+                        transport.sendAsync(AstriEndpoint.BOQ_ADD, request, HttpResponse.BodyHandlers.ofString());
+                    // Cancelling the derived future alone would leave the exchange running
+                    future = AsyncJobRegistry.propagateCancel(sent.handle((response, error) -> {
+                        permits.release();
+                        if (error != null) {
+                            return buildErrorJson(AsyncJobRegistry.unwrap(error).getMessage());
+                        }
+                        if (logPayload) {
+                            AstriLog.payload("boq_add response", response.body());
+                        }
+                        return response.body();
+                    }), sent);
+                } catch (RuntimeException e) {
+                    permits.release();
+                    future = CompletableFuture.completedFuture(buildErrorJson(e.getMessage()));
+                }
+                futures.add(future);
+            }
+
+            List<String> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<String> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    results.add(buildErrorJson(AsyncJobRegistry.unwrap(e).getMessage()));
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            for (CompletableFuture<String> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Build the POST request adding one BOQ line.
+     *
+     * @param logPayload Whether this call was sampled for payload logging
+     */
+    private HttpRequest buildAddRequest(String infraType, String infraTypeCode, BoqLine line, boolean logPayload) {
+        AstriConfig.Snapshot settings = config.snapshot();
         String path;
         String codeFieldName;
 
@@ -61,100 +137,99 @@ public class BoqClient {
             codeFieldName = "cluster_code";
         }
 
-        String url = baseUrl + path;
+        URI uri = settings.apiUri(path);
 
         // Build JSON request body with appropriate field name
-        String jsonBody = buildJsonBody(
-            codeFieldName, infraTypeCode, vendorName, subcontVendorName, equipmentName, description,
-            quantityMaterial, quantityService, remarks, phase, area, areaPlantCode,
-            overridePriceMaterial, overridePriceService
+        byte[] jsonBody = buildJsonBody(
+            codeFieldName, infraTypeCode, line.vendorName, line.subcontVendorName, line.equipmentName,
+            line.description, line.quantityMaterial, line.quantityService, line.remarks, line.phase,
+            line.area, line.areaPlantCode, line.overridePriceMaterial, line.overridePriceService
         );
 
-        System.out.println("POST URL: " + url);
-        System.out.println("Request body: " + jsonBody);
+        AstriLog.debug("POST URL: {}", uri);
+        if (logPayload) {
+            AstriLog.payload("boq_add request", new String(jsonBody, StandardCharsets.UTF_8));
+        }
 
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url))
-            .header("Authorization", authHeader)
+        return HttpRequest.newBuilder()
+            .uri(uri)
+            .header("Authorization", settings.getAuthHeader())
             .header("Content-Type", "application/json")
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
-            .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .timeout(settings.getRequestTimeout(AstriEndpoint.BOQ_ADD))
+            .POST(HttpRequest.BodyPublishers.ofByteArray(jsonBody))
             .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        var jsonResponse = response.body();
-        System.out.println("Response body: " + jsonResponse);
-        return jsonResponse;
-    }
-
-    private String buildJsonBody(String codeFieldName, String codeValue, String vendorName, String subcontVendorName,
-                                  String equipmentName, String description, Double quantityMaterial,
-                                  Double quantityService, String remarks, String phase, String area,
-                                  String areaPlantCode, Double overridePriceMaterial,
-                                  Double overridePriceService) {
-        StringBuilder json = new StringBuilder();
-        json.append("{");
-        appendJsonField(json, codeFieldName, codeValue, true);
-        appendJsonField(json, "vendor_name", vendorName, true);
-        appendJsonField(json, "subcont_vendor_name", subcontVendorName, true);
-        appendJsonField(json, "equipment_name", equipmentName, true);
-        appendJsonField(json, "description", description, true);
-        appendJsonField(json, "quantity_material", quantityMaterial, true);
-        appendJsonField(json, "quantity_service", quantityService, true);
-        appendJsonField(json, "remarks", remarks, true);
-        appendJsonField(json, "phase", phase, true);
-        appendJsonField(json, "area", area, true);
-        appendJsonField(json, "area_plant_code", areaPlantCode, true);
-        appendJsonField(json, "override_price_material", overridePriceMaterial, true);
-        appendJsonField(json, "override_price_service", overridePriceService, false);
-        json.append("}");
-        return json.toString();
     }
 
     /**
-     * Append a JSON field to the StringBuilder.
-     * If value is null, appends "null" (without quotes).
-     *
-     * @param json The StringBuilder to append to
-     * @param fieldName The name of the field
-     * @param value The value (String, Integer, or Double, can be null)
-     * @param addComma Whether to add a comma after the field
+     * UTF-8 JSON body of one BOQ line. Null values are sent as JSON null;
+     * quantities and prices with two decimals.
      */
-    private void appendJsonField(StringBuilder json, String fieldName, Object value, boolean addComma) {
-        json.append("\"").append(fieldName).append("\":");
-
-        if (value == null) {
-            json.append("null");
-        } else if (value instanceof String) {
-            json.append("\"").append(escapeJson((String) value)).append("\"");
-        } else if (value instanceof Integer) {
-            json.append(value);
-        } else if (value instanceof Double) {
-            // Format Double with 2 decimal places
-            json.append(String.format("%.2f", (Double) value));
-        } else {
-            // Fallback for other types
-            json.append("\"").append(escapeJson(value.toString())).append("\"");
+    byte[] buildJsonBody(String codeFieldName, String codeValue, String vendorName, String subcontVendorName,
+                         String equipmentName, String description, Double quantityMaterial,
+                         Double quantityService, String remarks, String phase, String area,
+                         String areaPlantCode, Double overridePriceMaterial,
+                         Double overridePriceService) {
+        try (JsonBodyWriter json = JsonBodyWriter.begin()) {
+            return json.field(codeFieldName, codeValue)
+                .field("vendor_name", vendorName)
+                .field("subcont_vendor_name", subcontVendorName)
+                .field("equipment_name", equipmentName)
+                .field("description", description)
+                .field("quantity_material", quantityMaterial, 2)
+                .field("quantity_service", quantityService, 2)
+                .field("remarks", remarks)
+                .field("phase", phase)
+                .field("area", area)
+                .field("area_plant_code", areaPlantCode)
+                .field("override_price_material", overridePriceMaterial, 2)
+                .field("override_price_service", overridePriceService, 2)
+                .toBytes();
         }
+    }
 
-        if (addComma) {
-            json.append(",");
-        }
+    private String buildErrorJson(String message) {
+        return "{\"success\":false,\"error\":\"" + JsonBodyWriter.escape(message) + "\"}";
     }
 
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    /**
+     * One BOQ DRM line. Nullable Doubles map Magik _unset to JSON null.
+     */
+    public static class BoqLine {
+        final String vendorName;
+        final String subcontVendorName;
+        final String equipmentName;
+        final String description;
+        final Double quantityMaterial;
+        final Double quantityService;
+        final String remarks;
+        final String phase;
+        final String area;
+        final String areaPlantCode;
+        final Double overridePriceMaterial;
+        final Double overridePriceService;
+
+        public BoqLine(String vendorName, String subcontVendorName, String equipmentName, String description,
+                       Double quantityMaterial, Double quantityService, String remarks, String phase,
+                       String area, String areaPlantCode, Double overridePriceMaterial,
+                       Double overridePriceService) {
+            this.vendorName = vendorName;
+            this.subcontVendorName = subcontVendorName;
+            this.equipmentName = equipmentName;
+            this.description = description;
+            this.quantityMaterial = quantityMaterial;
+            this.quantityService = quantityService;
+            this.remarks = remarks;
+            this.phase = phase;
+            this.area = area;
+            this.areaPlantCode = areaPlantCode;
+            this.overridePriceMaterial = overridePriceMaterial;
+            this.overridePriceService = overridePriceService;
+        }
     }
 
     /**
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
@@ -0,0 +1,101 @@
+package com.rwi.myrepublic.astri.internal;
+
+/**
+ * Consecutive-failure circuit breaker for one ASTRI endpoint.
+ * NOT exposed to Magik - used only by AstriHttpTransport.
+ *
+ * CLOSED: requests pass; failureThreshold consecutive failures open the circuit.
+ * OPEN: requests fail immediately with CircuitOpenException for openMillis.
+ * HALF_OPEN: a single trial request passes; success closes the circuit,
+ * failure opens it again. A threshold of 0 disables the breaker.
+ *
+ * A failure is an I/O error (connect failure, timeout) or a 5xx response.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long rejections;
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Let a request through, or fail fast while the circuit is open.
+     * Every successful call must be followed by recordSuccess(), recordFailure() or release().
+     */
+    synchronized void acquire() throws CircuitOpenException {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (state == State.OPEN) {
+            long remaining = openedAt + openMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                rejections++;
+                throw new CircuitOpenException(name, remaining);
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                rejections++;
+                throw new CircuitOpenException(name, 0);
+            }
+            trialInFlight = true;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            AstriLog.info("ASTRI circuit {} closed", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (failureThreshold > 0 &&
+            (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            if (state != State.OPEN) {
+                AstriLog.warn("ASTRI circuit {} opened after {} consecutive failures, failing fast for {} ms",
+                              name, consecutiveFailures, openMillis);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * End a request that neither succeeded nor failed (cancelled, interrupted).
+     */
+    synchronized void release() {
+        trialInFlight = false;
+    }
+
+    synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    synchronized long getRejections() {
+        return rejections;
+    }
+}
@@ -0,0 +1,17 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the circuit breaker of its endpoint is open.
+ * NOT exposed to Magik - surfaces through the procs' usual error handling.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String endpoint, long retryInMillis) {
+        super("ASTRI endpoint " + endpoint + " is unavailable (circuit open" +
+              (retryInMillis > 0 ? ", retry in " + ((retryInMillis + 999) / 1000) + " s" : ", trial request in progress") +
+              ")");
+    }
+}
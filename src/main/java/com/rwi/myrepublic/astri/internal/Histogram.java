@@ -0,0 +1,124 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values (latencies in microseconds, sizes in bytes).
+ * NOT exposed to Magik - used only by AstriMetrics.
+ *
+ * Values below 16 get a bucket each; above that every power of two is split into
+ * 8 buckets, so a percentile is reported within 12.5% of the true value using a
+ * fixed 488-slot array and no allocation per record.
+ */
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.set(0);
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long maxValue = max.get();
+        return new Snapshot(total, total > 0 ? sum.sum() / total : 0,
+                            percentile(copy, total, 0.50, maxValue),
+                            percentile(copy, total, 0.90, maxValue),
+                            percentile(copy, total, 0.99, maxValue),
+                            maxValue);
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long maxValue) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    private static int index(long v) {
+        if (v < LINEAR_LIMIT) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int mantissa = (int) (v >>> (exponent - SUB_BUCKET_BITS));
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int mantissa = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((long) (mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Point-in-time summary of a histogram.
+     */
+    static final class Snapshot {
+        final long count;
+        final long mean;
+        final long p50;
+        final long p90;
+        final long p99;
+        final long max;
+
+        Snapshot(long count, long mean, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /**
+         * Summary as an ordered key/value map (count, mean, p50, p90, p99, max).
+         */
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("mean", mean);
+            map.put("p50", p50);
+            map.put("p90", p90);
+            map.put("p99", p99);
+            map.put("max", max);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Writes flat JSON request bodies straight into UTF-8 bytes.
+ * NOT exposed to Magik - used by BoqClient and WorkOrderUpdateClient.
+ *
+ * Strings are escaped and encoded in one pass. Decimals are written with a
+ * fixed scale and a '.' separator whatever the JVM locale, rounded half-up
+ * like "%.2f". The byte buffer is borrowed from a per-thread cache and handed
+ * back by close(), so a batch of BOQ lines reuses one buffer; toBytes() makes
+ * the only copy, sized exactly, which the request keeps for retries.
+ *
+ *   try (JsonBodyWriter json = JsonBodyWriter.begin()) {
+ *       json.field("number", number).field("quantity_material", 1.5, 2);
+ *       byte[] body = json.toBytes();
+ *   }
+ */
+public final class JsonBodyWriter implements AutoCloseable {
+    // Buffers larger than this are dropped on close rather than cached
+    private static final int MAX_CACHED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> CACHED_BUFFER = new ThreadLocal<>();
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    // Above this scaled magnitude doubles lose precision in the last digit; use BigDecimal
+    private static final double FAST_DECIMAL_LIMIT = 1e15;
+
+    private byte[] buffer;
+    private int length;
+    private boolean firstField = true;
+
+    private JsonBodyWriter() {
+        byte[] cached = CACHED_BUFFER.get();
+        if (cached != null) {
+            CACHED_BUFFER.remove();
+            this.buffer = cached;
+        } else {
+            this.buffer = new byte[512];
+        }
+    }
+
+    /**
+     * Start a JSON object.
+     */
+    public static JsonBodyWriter begin() {
+        JsonBodyWriter json = new JsonBodyWriter();
+        json.buffer[json.length++] = '{';
+        return json;
+    }
+
+    /**
+     * String field; null is written as JSON null.
+     */
+    public JsonBodyWriter field(String name, String value) {
+        name(name);
+        if (value == null) {
+            writeNull();
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Decimal field with a fixed number of fraction digits (0-6); null, NaN and infinity are written as null.
+     */
+    public JsonBodyWriter field(String name, Double value, int scale) {
+        name(name);
+        if (value == null) {
+            writeNull();
+        } else {
+            writeDecimal(value, scale);
+        }
+        return this;
+    }
+
+    /**
+     * The finished object as UTF-8 bytes. The writer can still be closed afterwards.
+     */
+    public byte[] toBytes() {
+        ensure(1);
+        buffer[length] = '}';
+        return Arrays.copyOf(buffer, length + 1);
+    }
+
+    /**
+     * Hand the buffer back to this thread's cache. The writer must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (buffer != null && buffer.length <= MAX_CACHED_CAPACITY) {
+            CACHED_BUFFER.set(buffer);
+        }
+        buffer = null;
+    }
+
+    /**
+     * Escape a string for use inside JSON quotes, in one pass (for String-built JSON such as error bodies).
+     */
+    public static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder out = null;
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                if (out != null) {
+                    out.append(c);
+                }
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(len + 16).append(value, 0, i);
+            }
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xF]);
+            }
+        }
+        return out != null ? out.toString() : value;
+    }
+
+    private void name(String name) {
+        ensure(1);
+        if (!firstField) {
+            buffer[length++] = ',';
+        }
+        firstField = false;
+        writeString(name);
+        ensure(1);
+        buffer[length++] = ':';
+    }
+
+    private void writeNull() {
+        ensure(NULL.length);
+        System.arraycopy(NULL, 0, buffer, length, NULL.length);
+        length += NULL.length;
+    }
+
+    /**
+     * Quoted, escaped and UTF-8 encoded. Unpaired surrogates become '?', as in String.getBytes.
+     */
+    private void writeString(String value) {
+        int len = value.length();
+        // Worst case: 6 bytes per char (\\u00XX), plus quotes
+        ensure(len * 6 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[pos++] = (byte) c;
+                    continue;
+                }
+                out[pos++] = '\\';
+                switch (c) {
+                    case '"': out[pos++] = '"'; break;
+                    case '\\': out[pos++] = '\\'; break;
+                    case '\n': out[pos++] = 'n'; break;
+                    case '\r': out[pos++] = 'r'; break;
+                    case '\t': out[pos++] = 't'; break;
+                    case '\b': out[pos++] = 'b'; break;
+                    case '\f': out[pos++] = 'f'; break;
+                    default:
+                        out[pos++] = 'u';
+                        out[pos++] = '0';
+                        out[pos++] = '0';
+                        out[pos++] = HEX[c >> 4];
+                        out[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    out[pos++] = (byte) (0xF0 | (cp >> 18));
+                    out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    out[pos++] = '?';
+                }
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+    }
+
+    /**
+     * Fixed-scale decimal, rounded half-up on the shortest decimal form of the double
+     * (as String.format does, so 2.675 gives 2.68).
+     */
+    private void writeDecimal(double value, int scale) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeNull();
+            return;
+        }
+        long factor = POWERS_OF_TEN[scale];
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * factor;
+        double fraction = scaled - Math.floor(scaled);
+        // Near a .5 tie the binary value and the multiplication may fall either side; decide in decimal
+        if (scaled >= FAST_DECIMAL_LIMIT || Math.abs(fraction - 0.5) <= Math.max(1e-6, 4 * Math.ulp(scaled))) {
+            writeAscii(BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+        long units = (long) Math.floor(scaled + 0.5);
+        ensure(24);
+        if (value < 0 && units != 0) {
+            buffer[length++] = '-';
+        }
+        writeLong(units / factor);
+        if (scale > 0) {
+            buffer[length++] = '.';
+            long rest = units % factor;
+            for (long digit = factor / 10; digit > 0; digit /= 10) {
+                buffer[length++] = (byte) ('0' + (rest / digit) % 10);
+            }
+        }
+    }
+
+    private void writeLong(long value) {
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    private void writeAscii(String text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single-pass, allocation-light JSON pull tokenizer.
+ * NOT exposed to Magik - used by the internal response transcoders.
+ *
+ * Reads from a Reader through a fixed char buffer and never materialises the
+ * document. String and literal tokens are exposed through a reusable text
+ * buffer that is overwritten by the next call to next(). String text is kept
+ * raw (escape sequences verbatim, quotes stripped); use decode() to resolve
+ * escapes when the real value is needed.
+ *
+ * Commas and colons are treated as separators, so the tokenizer is lenient
+ * about their placement but strict about bracket nesting.
+ */
+public final class JsonTokenizer {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    private final StringBuilder text = new StringBuilder(64);
+
+    // Container stack: true = object, false = array
+    private boolean[] stack = new boolean[32];
+    private int depth;
+    private boolean expectName;
+
+    public JsonTokenizer(Reader in) {
+        this.in = in;
+        this.buf = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Advance to the next token.
+     */
+    public Token next() throws IOException {
+        int c = skipSeparators();
+        if (c < 0) {
+            if (depth != 0) {
+                throw malformed("unexpected end of document");
+            }
+            return Token.END_DOCUMENT;
+        }
+
+        switch (c) {
+            case '{':
+                push(true);
+                expectName = true;
+                return Token.BEGIN_OBJECT;
+            case '}':
+                pop(true);
+                valueDone();
+                return Token.END_OBJECT;
+            case '[':
+                push(false);
+                expectName = false;
+                return Token.BEGIN_ARRAY;
+            case ']':
+                pop(false);
+                valueDone();
+                return Token.END_ARRAY;
+            case '"':
+                readString();
+                if (expectName) {
+                    expectName = false;
+                    return Token.NAME;
+                }
+                valueDone();
+                return Token.STRING;
+            default:
+                readLiteral(c);
+                valueDone();
+                return classifyLiteral();
+        }
+    }
+
+    /**
+     * Skip the value whose first token was just returned.
+     * For BEGIN_OBJECT/BEGIN_ARRAY this consumes up to the matching end token;
+     * for scalars it does nothing.
+     */
+    public void skipValue(Token current) throws IOException {
+        if (current != Token.BEGIN_OBJECT && current != Token.BEGIN_ARRAY) {
+            return;
+        }
+        int target = depth - 1;
+        while (depth > target) {
+            if (next() == Token.END_DOCUMENT) {
+                throw malformed("unexpected end of document");
+            }
+        }
+    }
+
+    /**
+     * Text of the last NAME, STRING or literal token.
+     * Reused by the next call to next() - copy it if it must be kept.
+     */
+    public CharSequence text() {
+        return text;
+    }
+
+    /**
+     * Current container nesting depth (0 = top level).
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * True if the text of the last token equals the given string.
+     */
+    public boolean textEquals(String value) {
+        int len = text.length();
+        if (len != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve JSON escape sequences in raw string text.
+     *
+     * @param raw Raw string content as returned by text()
+     * @param out Destination for the decoded characters
+     */
+    public static void decode(CharSequence raw, StringBuilder out) {
+        int len = raw.length();
+        for (int i = 0; i < len; i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= len) {
+                out.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u': {
+                    int code = i + 4 < len ? hexValue(raw, i + 1) : -1;
+                    if (code >= 0) {
+                        out.append((char) code);
+                        i += 4;
+                    } else {
+                        // Truncated or not hex: keep the escape as it was written
+                        out.append('\\').append('u');
+                    }
+                    break;
+                }
+                default:
+                    // \" \\ \/ and anything unknown map to the character itself
+                    out.append(e);
+            }
+        }
+    }
+
+    /**
+     * Value of the four hex digits at start, or -1 if any of them is not an ASCII hex digit.
+     */
+    private static int hexValue(CharSequence raw, int start) {
+        int value = 0;
+        for (int i = start; i < start + 4; i++) {
+            char c = raw.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void push(boolean isObject) {
+        if (depth == stack.length) {
+            boolean[] grown = new boolean[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stack.length);
+            stack = grown;
+        }
+        stack[depth++] = isObject;
+    }
+
+    private void pop(boolean isObject) throws IOException {
+        if (depth == 0 || stack[depth - 1] != isObject) {
+            throw malformed("unbalanced '" + (isObject ? '}' : ']') + "'");
+        }
+        depth--;
+    }
+
+    private void valueDone() {
+        expectName = depth > 0 && stack[depth - 1];
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw malformed("unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            text.append((char) c);
+            if (c == '\\') {
+                int escaped = read();
+                if (escaped < 0) {
+                    throw malformed("unterminated string");
+                }
+                text.append((char) escaped);
+            }
+        }
+    }
+
+    private void readLiteral(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        while (true) {
+            int c = peek();
+            if (c < 0 || c == ',' || c == '}' || c == ']' || c == ':' || c == '"' || isWhitespace(c)) {
+                return;
+            }
+            text.append((char) read());
+        }
+    }
+
+    private Token classifyLiteral() throws IOException {
+        char first = text.charAt(0);
+        if (first == '-' || (first >= '0' && first <= '9')) {
+            return Token.NUMBER;
+        }
+        if (textEquals("true")) return Token.TRUE;
+        if (textEquals("false")) return Token.FALSE;
+        if (textEquals("null")) return Token.NULL;
+        throw malformed("unexpected literal '" + text + "'");
+    }
+
+    private int skipSeparators() throws IOException {
+        while (true) {
+            int c = read();
+            if (c < 0 || !(isWhitespace(c) || c == ',' || c == ':')) {
+                return c;
+            }
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        consumed++;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException malformed(String message) {
+        return new IOException("Malformed JSON at offset " + consumed + ": " + message);
+    }
+}
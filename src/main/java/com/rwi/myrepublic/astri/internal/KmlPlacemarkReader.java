@@ -0,0 +1,822 @@
+package com.rwi.myrepublic.astri.internal;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streaming (StAX) KML placemark reader.
+ * NOT exposed to Magik - used only by AstriKmlProcs.
+ *
+ * Port of the simple_xml walk in astri_kml_parser.magik (process_element,
+ * parse_placemark, extract_*_coords, extract_extended_data and the FDT/Closure
+ * ring name rules). It produces the same values per placemark without
+ * building a document tree.
+ *
+ * The ring name of a folder depends on FDT/Closure/OLT folders that may come
+ * after it (find_sibling_fdt_context), so the file is read twice:
+ *   1. a skeleton pass keeping only Document/Folder names, nesting and the
+ *      names of placemarks directly inside FDT/Closure folders;
+ *   2. a placemark pass that replays the Magik rules on that skeleton and
+ *      reports each placemark as soon as its end tag is read.
+ * Memory is bounded by the folder skeleton and one placemark.
+ *
+ * Element names are matched without namespace URI but must be unprefixed,
+ * as simple_xml's element type does ("kml:name" is not "name").
+ */
+public final class KmlPlacemarkReader {
+
+    /**
+     * Receiver of parsed placemarks, in document order.
+     */
+    public interface Handler {
+        void placemark(Placemark placemark);
+    }
+
+    /**
+     * How a placemark's ring name was resolved.
+     */
+    public enum RingState {
+        /** No ring name (Magik _unset). */
+        NONE,
+        /** A splice name - see Placemark.ringName. */
+        NAMED,
+        /** The enclosing FDT/Closure folder holds several splices (Magik :multiple). */
+        MULTIPLE,
+        /** A Closure/FDT sibling folder without placemarks (Magik _false). */
+        NOT_SPLICE
+    }
+
+    /**
+     * One placemark, with the keys of the Magik property_list.
+     */
+    public static final class Placemark {
+        public String name = "unnamed";
+        public String description = "";
+        public String coordinates = "";
+        public String geometryType = "unknown";
+        public String id;
+        public String parent;
+        public RingState ringState = RingState.NONE;
+        public String ringName;
+        public final Map<String, String> extended = new LinkedHashMap<>();
+    }
+
+    private static final int MAX_TEXT_LENGTH = 250;
+
+    // Ring name sentinels while resolving (Magik :multiple and _false)
+    private static final Object MULTIPLE = new Object();
+    private static final Object NOT_SPLICE = new Object();
+
+    // Magik writes an unset text node as "unset"
+    private static final String UNSET_TEXT = "unset";
+
+    private final XMLInputFactory factory;
+
+    // Splice mappings, rebuilt by every read() like astri_kml_parser.parse()
+    private final Map<String, String> spliceNameMapping = new HashMap<>();
+    private final Map<String, String> spliceIndexMapping = new HashMap<>();
+
+    public KmlPlacemarkReader() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    /**
+     * Read every placemark of the first Document in a .kml file, or in the
+     * first .kml entry of a .kmz file.
+     *
+     * @return Number of placemarks reported
+     * @throws IOException if the file cannot be read or is not well-formed XML
+     */
+    public int read(Path path, Handler handler) throws IOException {
+        spliceNameMapping.clear();
+        spliceIndexMapping.clear();
+
+        FolderNode root;
+        try (InputStream in = open(path)) {
+            root = readSkeleton(createReader(in));
+        }
+        if (root == null) {
+            return 0;
+        }
+        try (InputStream in = open(path)) {
+            return readPlacemarks(createReader(in), root, handler);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Input
+    // ---------------------------------------------------------------------
+
+    private static InputStream open(Path path) throws IOException {
+        if (!path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".kmz")) {
+            return new BufferedInputStream(Files.newInputStream(path), 64 * 1024);
+        }
+        ZipFile zip = new ZipFile(path.toFile());
+        try {
+            ZipEntry kml = null;
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) {
+                    kml = entry;
+                    break;
+                }
+            }
+            if (kml == null) {
+                throw new IOException("No .kml entry in " + path);
+            }
+            return new BufferedInputStream(zip.getInputStream(kml), 64 * 1024) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    private XMLStreamReader createReader(InputStream in) throws IOException {
+        try {
+            return factory.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid KML: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Element type as simple_xml reports it: prefix:local, or local when unprefixed.
+     */
+    private static String elementType(XMLStreamReader xml) {
+        String prefix = xml.getPrefix();
+        return (prefix == null || prefix.isEmpty()) ? xml.getLocalName() : prefix + ":" + xml.getLocalName();
+    }
+
+    // ---------------------------------------------------------------------
+    // Pass 1: Document/Folder skeleton
+    // ---------------------------------------------------------------------
+
+    /**
+     * A Document or Folder: its name, child folders and, for FDT/Closure
+     * folders only, the names of its direct placemarks (null = no name).
+     */
+    private static final class FolderNode {
+        String name = "";
+        boolean nameSeen;
+        final List<FolderNode> folders = new ArrayList<>();
+        List<String> placemarkNames = new ArrayList<>();
+        int nextFolder;
+
+        void setName(String value) {
+            nameSeen = true;
+            name = value;
+            if (!isSpliceFolderName(value.toLowerCase(Locale.ROOT))) {
+                placemarkNames = null;
+            }
+        }
+    }
+
+    private FolderNode readSkeleton(XMLStreamReader xml) throws IOException {
+        try {
+            if (!advanceToDocument(xml)) {
+                return null;
+            }
+            FolderNode root = new FolderNode();
+            root.placemarkNames = null;
+            readFolderSkeleton(xml, root, true);
+            return root;
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid KML: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(xml);
+        }
+    }
+
+    /**
+     * Read the children of a Document/Folder up to its end tag.
+     */
+    private void readFolderSkeleton(XMLStreamReader xml, FolderNode node, boolean isDocument)
+            throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (!node.nameSeen) {
+                    node.placemarkNames = null;
+                }
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String type = elementType(xml);
+            if ("Folder".equals(type)) {
+                FolderNode child = new FolderNode();
+                node.folders.add(child);
+                readFolderSkeleton(xml, child, false);
+            } else if ("name".equals(type) && !isDocument && !node.nameSeen) {
+                String text = readDirectText(xml);
+                node.setName(text != null ? text : "");
+            } else if ("Placemark".equals(type) && node.placemarkNames != null) {
+                node.placemarkNames.add(readPlacemarkName(xml));
+            } else {
+                skipElement(xml);
+            }
+        }
+    }
+
+    /**
+     * Text of a placemark's first name child, consuming the placemark.
+     */
+    private String readPlacemarkName(XMLStreamReader xml) throws XMLStreamException {
+        String name = null;
+        boolean nameSeen = false;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return name;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (!nameSeen && "name".equals(elementType(xml))) {
+                    nameSeen = true;
+                    name = readDirectText(xml);
+                } else {
+                    skipElement(xml);
+                }
+            }
+        }
+        return name;
+    }
+
+    // ---------------------------------------------------------------------
+    // Pass 2: placemarks
+    // ---------------------------------------------------------------------
+
+    private int readPlacemarks(XMLStreamReader xml, FolderNode root, Handler handler) throws IOException {
+        try {
+            if (!advanceToDocument(xml)) {
+                return 0;
+            }
+            // Document: children inherit the sibling FDT/Closure/OLT context
+            return processChildren(xml, root, "", findSiblingContext(root), handler);
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid KML: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(xml);
+        }
+    }
+
+    /**
+     * Walk the children of a Document/Folder, reporting placemarks and recursing into folders.
+     */
+    private int processChildren(XMLStreamReader xml, FolderNode node, String parentPath, Object ringName,
+                                Handler handler) throws XMLStreamException {
+        int count = 0;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return count;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String type = elementType(xml);
+            if ("Folder".equals(type)) {
+                count += processFolder(xml, node.folders.get(node.nextFolder++), parentPath, ringName, handler);
+            } else if ("Placemark".equals(type)) {
+                Placemark placemark = parsePlacemark(xml, parentPath, ringName);
+                handler.placemark(placemark);
+                count++;
+            } else {
+                skipElement(xml);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Folder branch of astri_kml_parser.process_element.
+     */
+    private int processFolder(XMLStreamReader xml, FolderNode folder, String parentPath, Object ringName,
+                              Handler handler) throws XMLStreamException {
+        String folderName = folder.name;
+
+        String newParentPath = parentPath;
+        if (!folderName.isEmpty()) {
+            newParentPath = parentPath.isEmpty() ? folderName : parentPath + "|" + folderName;
+        }
+
+        Object childRingName = ringName;
+        Object spliceResult = checkAndBuildSpliceMappings(folder, folderName);
+        if (spliceResult instanceof String) {
+            // Single FDT/Closure folder - children inherit this ring name
+            childRingName = spliceResult;
+        } else if (spliceResult == NOT_SPLICE) {
+            String matched = findMatchingSubfolderSplice(folderName);
+            if (matched != null) {
+                // Folder explicitly references an FDT, e.g. "LINE A - FDT 1"
+                childRingName = matched;
+            } else if (ringName == null) {
+                childRingName = findSiblingContext(folder);
+            }
+        }
+        // MULTIPLE: children keep the inherited ring name
+
+        return processChildren(xml, folder, newParentPath, childRingName, handler);
+    }
+
+    /**
+     * astri_kml_parser.parse_placemark, consuming the Placemark element.
+     */
+    private Placemark parsePlacemark(XMLStreamReader xml, String parentPath, Object ringName)
+            throws XMLStreamException {
+        Placemark pl = new Placemark();
+        pl.parent = parentPath;
+        if (ringName instanceof String) {
+            pl.ringState = RingState.NAMED;
+            pl.ringName = (String) ringName;
+        } else if (ringName == MULTIPLE) {
+            pl.ringState = RingState.MULTIPLE;
+        } else if (ringName == NOT_SPLICE) {
+            pl.ringState = RingState.NOT_SPLICE;
+        }
+        pl.id = xml.getAttributeValue(null, "id");
+
+        boolean failed = false;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (failed) {
+                skipElement(xml);
+                continue;
+            }
+
+            String error = null;
+            switch (elementType(xml)) {
+                case "name":
+                    pl.name = truncate(textOrUnset(readDirectText(xml)));
+                    break;
+                case "description": {
+                    String desc = readDirectText(xml);
+                    if (desc != null) {
+                        pl.description = truncate(desc);
+                    }
+                    break;
+                }
+                case "Point":
+                    readPoint(xml, pl);
+                    break;
+                case "LineString":
+                    readLineString(xml, pl);
+                    break;
+                case "Polygon":
+                    error = readPolygon(xml, pl);
+                    break;
+                case "MultiGeometry":
+                    error = readMultiGeometry(xml, pl);
+                    break;
+                case "ExtendedData":
+                    readExtendedData(xml, pl);
+                    break;
+                default:
+                    skipElement(xml);
+            }
+            if (error != null) {
+                // Like the Magik _when error: keep what was read, ignore the rest
+                AstriLog.warn("Failed to parse placemark: {}", error);
+                failed = true;
+            }
+        }
+        return pl;
+    }
+
+    private void readPoint(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        boolean done = false;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (!done && "coordinates".equals(elementType(xml))) {
+                    pl.coordinates = textOrUnset(readDirectText(xml));
+                    pl.geometryType = "point";
+                    done = true;
+                } else {
+                    skipElement(xml);
+                }
+            }
+        }
+    }
+
+    /**
+     * The coordinates are taken from the only child, or else from the second child
+     * (after tessellate), whatever its name.
+     */
+    private void readLineString(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        int children = 0;
+        String first = null;
+        String second = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                children++;
+                if (children <= 2) {
+                    String text = textOrUnset(readDirectText(xml));
+                    if (children == 1) {
+                        first = text;
+                    } else {
+                        second = text;
+                    }
+                } else {
+                    skipElement(xml);
+                }
+            }
+        }
+        if (children == 1) {
+            pl.coordinates = first;
+            pl.geometryType = "line";
+        } else if (children > 1) {
+            pl.coordinates = second;
+            pl.geometryType = "line";
+        }
+    }
+
+    /**
+     * Coordinates of the first child of the LinearRing in the first outerBoundaryIs.
+     *
+     * @return Error message if the boundary has no ring or the ring no children, else null
+     */
+    private String readPolygon(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        boolean done = false;
+        String error = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return error;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (done || !"outerBoundaryIs".equals(elementType(xml))) {
+                skipElement(xml);
+                continue;
+            }
+            done = true;
+
+            // outerBoundaryIs -> first child (LinearRing) -> first child (coordinates)
+            if (!nextChildElement(xml)) {
+                error = "outerBoundaryIs without LinearRing";
+                continue;
+            }
+            if (!nextChildElement(xml)) {
+                error = "LinearRing without coordinates";
+                skipRest(xml);
+                continue;
+            }
+            pl.coordinates = textOrUnset(readDirectText(xml));
+            pl.geometryType = "area";
+            skipRest(xml);
+            skipRest(xml);
+        }
+        return error;
+    }
+
+    /**
+     * @return Error message from a malformed Polygon, else null
+     */
+    private String readMultiGeometry(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        boolean done = false;
+        String error = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return error;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String type = elementType(xml);
+            if (!done && "Polygon".equals(type)) {
+                error = readPolygon(xml, pl);
+                done = true;
+            } else if (!done && "LineString".equals(type)) {
+                readLineString(xml, pl);
+                done = true;
+            } else if (!done && "Point".equals(type)) {
+                readPoint(xml, pl);
+                done = true;
+            } else {
+                skipElement(xml);
+            }
+        }
+        return error;
+    }
+
+    /**
+     * SchemaData/SimpleData (ASTRI) and Data/value (Google Earth) pairs.
+     */
+    private void readExtendedData(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String type = elementType(xml);
+            if ("SchemaData".equals(type)) {
+                readSchemaData(xml, pl);
+            } else if ("Data".equals(type)) {
+                readData(xml, pl);
+            } else {
+                skipElement(xml);
+            }
+        }
+    }
+
+    private void readSchemaData(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if ("SimpleData".equals(elementType(xml))) {
+                String name = xml.getAttributeValue(null, "name");
+                String value = readDirectText(xml);
+                if (name != null && value != null) {
+                    pl.extended.put(name, value);
+                }
+            } else {
+                skipElement(xml);
+            }
+        }
+    }
+
+    private void readData(XMLStreamReader xml, Placemark pl) throws XMLStreamException {
+        String name = xml.getAttributeValue(null, "name");
+        boolean done = false;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (!done && name != null && "value".equals(elementType(xml))) {
+                done = true;
+                String value = readDirectText(xml);
+                if (value != null) {
+                    pl.extended.put(name, value);
+                }
+            } else {
+                skipElement(xml);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Splice / ring name rules (astri_kml_parser.magik)
+    // ---------------------------------------------------------------------
+
+    private static boolean isSpliceFolderName(String lowerName) {
+        return lowerName.equals("fdt") || lowerName.equals("closure") ||
+               lowerName.equals("joint closure") || lowerName.equals("join closure");
+    }
+
+    /**
+     * check_and_build_splice_mappings: single splice name, MULTIPLE or NOT_SPLICE.
+     */
+    private Object checkAndBuildSpliceMappings(FolderNode folder, String folderName) {
+        String folderNameLc = folderName.toLowerCase(Locale.ROOT);
+        if (!isSpliceFolderName(folderNameLc) || folder.placemarkNames == null) {
+            return NOT_SPLICE;
+        }
+
+        String spliceType = folderNameLc.contains("closure") ? "CLOSURE" : "FDT";
+        int spliceCounter = 0;
+        String firstSpliceName = null;
+        for (String pmName : folder.placemarkNames) {
+            if (pmName == null) {
+                continue;
+            }
+            spliceCounter++;
+            String spliceName = pmName.trim();
+            spliceNameMapping.put(pmName, spliceName);
+            spliceIndexMapping.put(spliceType + " " + spliceCounter, spliceName);
+            if (firstSpliceName == null) {
+                firstSpliceName = spliceName;
+            }
+        }
+
+        if (spliceCounter == 0) {
+            return NOT_SPLICE;
+        }
+        return spliceCounter == 1 ? firstSpliceName : MULTIPLE;
+    }
+
+    /**
+     * find_sibling_fdt_context: OLT, then Closure, then FDT folders among the children.
+     */
+    private Object findSiblingContext(FolderNode parent) {
+        Object oltResult = null;
+        Object closureResult = null;
+        Object fdtResult = null;
+
+        for (FolderNode child : parent.folders) {
+            String childNameLc = child.name.toLowerCase(Locale.ROOT);
+            if (childNameLc.equals("olt")) {
+                Object result = checkAndBuildSpliceMappings(child, child.name);
+                oltResult = (result == NOT_SPLICE) ? "OLT" : result;
+            } else if (childNameLc.equals("closure") || childNameLc.equals("joint closure") ||
+                       childNameLc.equals("join closure")) {
+                closureResult = checkAndBuildSpliceMappings(child, child.name);
+            } else if (childNameLc.equals("fdt")) {
+                fdtResult = checkAndBuildSpliceMappings(child, child.name);
+            }
+        }
+
+        if (oltResult != null) {
+            return oltResult;
+        } else if (closureResult != null) {
+            return closureResult;
+        }
+        return fdtResult;
+    }
+
+    /**
+     * find_matching_subfolder_splice: "Line A - FDT 1" resolves through the mappings built so far.
+     */
+    private String findMatchingSubfolderSplice(String folderName) {
+        if (folderName.isEmpty()) {
+            return null;
+        }
+        String folderNameLc = folderName.toLowerCase(Locale.ROOT);
+        if (!folderNameLc.contains(" - fdt") && !folderNameLc.contains(" - closure") &&
+            !folderNameLc.contains(" - joint closure") && !folderNameLc.contains(" - join closure")) {
+            return null;
+        }
+
+        int dashIndex = folderName.indexOf(" - ");
+        if (dashIndex < 0) {
+            return null;
+        }
+        String spliceReference = folderName.substring(dashIndex + 3).trim();
+
+        String mapped = spliceNameMapping.get(spliceReference);
+        if (mapped == null) {
+            mapped = spliceIndexMapping.get(spliceReference);
+        }
+        if (mapped == null) {
+            AstriLog.warn("Folder '{}' references '{}' but no mapping found", folderName, spliceReference);
+        }
+        return mapped;
+    }
+
+    // ---------------------------------------------------------------------
+    // StAX helpers
+    // ---------------------------------------------------------------------
+
+    /**
+     * Move to the start tag of the first Document element.
+     */
+    private static boolean advanceToDocument(XMLStreamReader xml) throws XMLStreamException {
+        while (xml.hasNext()) {
+            if (xml.next() == XMLStreamConstants.START_ELEMENT && "Document".equals(elementType(xml))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Text directly inside the current element, consuming it; null if it has none
+     * (or only whitespace between child elements).
+     */
+    private static String readDirectText(XMLStreamReader xml) throws XMLStreamException {
+        StringBuilder text = null;
+        boolean hasChildren = false;
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    hasChildren = true;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth == 1) {
+                        if (text == null) {
+                            text = new StringBuilder();
+                        }
+                        text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (text == null || (hasChildren && text.toString().trim().isEmpty())) {
+            return null;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Move to the next child start tag of the current element.
+     * Returns false, positioned on the element's end tag, if there is none.
+     */
+    private static boolean nextChildElement(XMLStreamReader xml) throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skip the current element, positioned on its start tag.
+     */
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        skipRest(xml);
+    }
+
+    /**
+     * Consume events up to and including the end tag of the element currently open.
+     */
+    private static void skipRest(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String textOrUnset(String text) {
+        return text != null ? text : UNSET_TEXT;
+    }
+
+    private static String truncate(String text) {
+        return text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+    }
+
+    private static void closeQuietly(XMLStreamReader xml) {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // Nothing more to release
+        }
+    }
+}
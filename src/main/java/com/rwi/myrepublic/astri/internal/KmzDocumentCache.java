@@ -0,0 +1,606 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent on-disk cache of downloaded KMZ documents and their extracted KML.
+ * NOT exposed to Magik - used only by KmzDownloadClient.
+ *
+ * Each entry is three files in the cache directory (astri.kmz.cache.dir,
+ * default &lt;download dir&gt;/kmz_cache):
+ *   &lt;key&gt;.&lt;generation&gt;.kmz, &lt;key&gt;.&lt;generation&gt;.kml and &lt;key&gt;.properties
+ * where the key is &lt;docType&gt;_&lt;uuid&gt;. The properties file names the current
+ * generation and holds the ETag / Last-Modified validators sent by the DM API and
+ * the time the entry was last validated. It is written last, so an entry without
+ * one is incomplete and is ignored. Its file time records the last access and
+ * restores the LRU order when the cache is reopened.
+ *
+ * A refreshed document is stored under a new generation, so the files of the
+ * previous one are never overwritten while a caller or another session still
+ * reads them (Windows cannot replace an open file). The previous generation is
+ * deleted once no caller has it pinned. Concurrent misses for one document share
+ * a single download (load()).
+ *
+ * Entries validated less than astri.kmz.cache.ttl ago are served without touching
+ * the network. Older entries are revalidated with a conditional GET when the server
+ * sent a validator, and downloaded again when it did not. Least recently used entries
+ * are evicted once the cache grows beyond astri.kmz.cache.max.bytes.
+ */
+public final class KmzDocumentCache {
+    private static final String META_SUFFIX = ".properties";
+    private static final String PART_SUFFIX = ".part";
+    // Leftover temp and unreferenced files older than this are from crashed sessions, not running downloads
+    private static final long STALE_PART_AGE_MS = 60 * 60 * 1000L;
+    // Keys become file names - anything else bypasses the cache
+    private static final Pattern SAFE_UUID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+    private static volatile KmzDocumentCache instance;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    // Access-ordered: iteration starts at the least recently used entry. Guarded by this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    // Downloads in flight per key, shared by concurrent misses. Guarded by this.
+    private final Map<String, CompletableFuture<Entry>> loads = new HashMap<>();
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+
+    /**
+     * A cached document, one generation of its files. Pinned entries are never
+     * evicted, and their files are kept until the last pin is released.
+     */
+    public static final class Entry {
+        private final String key;
+        private final String generation; // null for entries stored before generations
+        private final Path kmz;
+        private final Path kml;
+        private final long size;
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile long validatedAt;
+        private int pins; // guarded by the cache
+        private boolean retired; // replaced by a newer generation, guarded by the cache
+
+        private Entry(String key, String generation, Path kmz, Path kml, long size, String etag, String lastModified,
+                      long validatedAt) {
+            this.key = key;
+            this.generation = generation;
+            this.kmz = kmz;
+            this.kml = kml;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        public Path getKmz() {
+            return kmz;
+        }
+
+        public Path getKml() {
+            return kml;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private KmzDocumentCache() {
+        this(configuredDir(), AstriConfig.getInstance().getKmzCacheTtl(),
+             AstriConfig.getInstance().getKmzCacheMaxBytes());
+    }
+
+    /**
+     * Cache over an existing directory; a null dir disables it.
+     */
+    KmzDocumentCache(Path dir, long ttlMillis, long maxBytes) {
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        this.enabled = dir != null;
+        this.dir = dir;
+
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    /**
+     * The configured cache directory, created if missing; null if the cache is off or it cannot be used.
+     */
+    private static Path configuredDir() {
+        AstriConfig config = AstriConfig.getInstance();
+        if (!config.isKmzCacheEnabled()) {
+            return null;
+        }
+        Path cacheDir = null;
+        try {
+            cacheDir = Paths.get(config.getKmzCacheDir()).toAbsolutePath();
+            Files.createDirectories(cacheDir);
+            return cacheDir;
+        } catch (Exception e) {
+            AstriLog.warn("KMZ cache disabled, cannot use directory {}: {}", cacheDir, e.getMessage());
+            return null;
+        }
+    }
+
+    public static KmzDocumentCache getInstance() {
+        if (instance == null) {
+            synchronized (KmzDocumentCache.class) {
+                if (instance == null) {
+                    instance = new KmzDocumentCache();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * True if documents of this type and UUID go through the cache.
+     */
+    public boolean isCacheable(String docType, String uuid) {
+        return enabled && uuid != null && SAFE_UUID.matcher(uuid).matches();
+    }
+
+    /**
+     * Look up and pin a cached document. Returns null if there is none or it is not cacheable.
+     * Every non-null result must be given back with release().
+     */
+    public synchronized Entry acquire(String docType, String uuid) {
+        if (!isCacheable(docType, uuid)) {
+            return null;
+        }
+        String key = key(docType, uuid);
+        Entry entry = entries.get(key);
+        if (entry != null && !(Files.exists(entry.kmz) && Files.exists(entry.kml))) {
+            // Another session sharing the directory stored a newer generation and deleted this one
+            entries.remove(key);
+            totalBytes -= entry.size;
+            entry.retired = true;
+            entry = null;
+        }
+        if (entry == null) {
+            // Another session sharing the directory may have stored it
+            entry = loadEntry(key);
+            if (entry == null) {
+                return null;
+            }
+            entries.put(key, entry);
+            totalBytes += entry.size;
+        }
+        entry.pins++;
+        return entry;
+    }
+
+    /**
+     * Unpin an entry returned by acquire(), store() or load(). Null is ignored.
+     * The files of a replaced generation are deleted with its last pin.
+     */
+    public synchronized void release(Entry entry) {
+        if (entry != null && entry.pins > 0) {
+            entry.pins--;
+            if (entry.pins == 0 && entry.retired) {
+                deleteGeneration(entry);
+            }
+        }
+    }
+
+    /**
+     * Fetch a document into the cache, sharing the download with concurrent callers.
+     *
+     * If a load of the same document is already in flight, this call waits for it
+     * instead of starting another; otherwise it starts loader. The loader completes
+     * with a pinned entry, stored with store() or revalidated. Each caller receives
+     * the entry pinned for itself and must give it back with release(). Cancelling
+     * the returned future does not cancel the load other callers are waiting for.
+     */
+    public CompletableFuture<Entry> load(String docType, String uuid, Supplier<CompletableFuture<Entry>> loader) {
+        String key = key(docType, uuid);
+        CompletableFuture<Entry> shared;
+        CompletableFuture<Entry> pinned;
+        boolean leader;
+        synchronized (this) {
+            shared = loads.get(key);
+            leader = shared == null;
+            if (leader) {
+                shared = new CompletableFuture<>();
+                loads.put(key, shared);
+            } else {
+                sharedLoads.increment();
+            }
+            // Registered before the load can complete, so every caller is pinned
+            // before the loader's own pin is given back below
+            pinned = shared.thenApply(this::pin);
+        }
+
+        if (leader) {
+            CompletableFuture<Entry> created = shared;
+            CompletableFuture<Entry> loading;
+            try {
+                loading = loader.get();
+            } catch (RuntimeException e) {
+                loading = CompletableFuture.failedFuture(e);
+            }
+            loading.whenComplete((entry, error) -> {
+                // Unregister before completing, so later callers start a fresh load
+                synchronized (this) {
+                    loads.remove(key, created);
+                }
+                if (error != null) {
+                    created.completeExceptionally(AsyncJobRegistry.unwrap(error));
+                } else {
+                    created.complete(entry);
+                    release(entry);
+                }
+            });
+        }
+        return pinned;
+    }
+
+    private synchronized Entry pin(Entry entry) {
+        entry.pins++;
+        return entry;
+    }
+
+    /**
+     * True if the entry may be served without asking the DM API.
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.validatedAt < ttlMillis;
+    }
+
+    /**
+     * Record that an entry is served without a request.
+     */
+    public void recordHit(Entry entry) {
+        hits.increment();
+        touch(entry);
+    }
+
+    /**
+     * Record a 304 Not Modified for an entry: it is valid for another TTL.
+     */
+    public void recordRevalidated(Entry entry, String etag, String lastModified) {
+        revalidated.increment();
+        if (etag != null) {
+            entry.etag = etag;
+        }
+        if (lastModified != null) {
+            entry.lastModified = lastModified;
+        }
+        entry.validatedAt = System.currentTimeMillis();
+        try {
+            synchronized (this) {
+                // A replaced generation must not become current again on disk
+                if (!entry.retired) {
+                    writeMeta(entry);
+                }
+            }
+        } catch (IOException e) {
+            AstriLog.warn("Could not update KMZ cache entry {}: {}", entry.key, e.getMessage());
+        }
+    }
+
+    /**
+     * Temp file in the cache directory, so storing it is a same-volume rename.
+     */
+    public Path createTempFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(dir, prefix, suffix + PART_SUFFIX);
+    }
+
+    /**
+     * Move a freshly downloaded KMZ and its extracted KML into the cache as a new
+     * generation of the document. The previous generation stays readable until its
+     * last pin is released. Evicts least recently used entries beyond the disk budget.
+     * The returned entry is pinned.
+     */
+    public Entry store(String docType, String uuid, Path tempKmz, Path tempKml, String etag, String lastModified)
+            throws IOException {
+        misses.increment();
+        String key = key(docType, uuid);
+        String generation = Long.toString(System.currentTimeMillis(), 36) + "-"
+                            + Integer.toString(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE), 36);
+        Path kmz = dataPath(key, generation, ".kmz");
+        Path kml = dataPath(key, generation, ".kml");
+
+        // New names: nothing another caller or session has open is replaced
+        AstriFiles.moveIntoPlace(tempKml, kml);
+        AstriFiles.moveIntoPlace(tempKmz, kmz);
+        Entry entry = new Entry(key, generation, kmz, kml, Files.size(kmz) + Files.size(kml),
+                                etag, lastModified, System.currentTimeMillis());
+
+        synchronized (this) {
+            // Metadata last in: until it names the new generation the previous one stays current
+            try {
+                writeMeta(entry);
+            } catch (IOException e) {
+                deleteGeneration(entry);
+                throw e;
+            }
+            entry.pins = 1;
+            Entry previous = entries.put(key, entry);
+            totalBytes += entry.size;
+            if (previous != null) {
+                totalBytes -= previous.size;
+                retire(previous);
+            }
+
+            evictOverBudget();
+            return entry;
+        }
+    }
+
+    /**
+     * Statistics of the cache as JSON.
+     */
+    public synchronized String getStatsJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"success\":true,");
+        json.append("\"enabled\":").append(enabled).append(",");
+        json.append("\"dir\":\"").append(dir != null ? JsonBodyWriter.escape(dir.toString()) : "").append("\",");
+        json.append("\"entries\":").append(entries.size()).append(",");
+        json.append("\"bytes\":").append(totalBytes).append(",");
+        json.append("\"max_bytes\":").append(maxBytes).append(",");
+        json.append("\"ttl_ms\":").append(ttlMillis).append(",");
+        json.append("\"hits\":").append(hits.sum()).append(",");
+        json.append("\"revalidated\":").append(revalidated.sum()).append(",");
+        json.append("\"misses\":").append(misses.sum()).append(",");
+        json.append("\"evictions\":").append(evictions.sum()).append(",");
+        json.append("\"shared_loads\":").append(sharedLoads.sum());
+        json.append("}");
+        return json.toString();
+    }
+
+    /**
+     * Move an entry to the most recently used end, here and on disk.
+     */
+    private void touch(Entry entry) {
+        synchronized (this) {
+            entries.get(entry.key);
+        }
+        try {
+            Files.setLastModifiedTime(metaPath(entry.key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // LRU order on disk is best effort
+        }
+    }
+
+    /**
+     * Delete least recently used, unpinned entries until the cache fits its budget.
+     */
+    private void evictOverBudget() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.pins > 0) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= entry.size;
+            evictions.increment();
+            deleteEntry(entry);
+            AstriLog.debug("KMZ cache evicted {} ({} bytes)", entry.key, entry.size);
+        }
+    }
+
+    /**
+     * Drop a generation replaced by a newer one: its files go now, or with its last pin.
+     */
+    private void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.pins == 0) {
+            deleteGeneration(entry);
+        }
+    }
+
+    /**
+     * Rebuild the index from the cache directory, oldest access first, and clear out
+     * incomplete entries, replaced generations and temp files left by crashed sessions.
+     */
+    private void loadIndex() {
+        List<Path> metas = new ArrayList<>();
+        List<Path> documents = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(META_SUFFIX)) {
+                    metas.add(path);
+                } else if (now - Files.getLastModifiedTime(path).toMillis() <= STALE_PART_AGE_MS) {
+                    // May belong to a download still running in another session
+                    continue;
+                } else if (name.endsWith(PART_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                } else if (name.endsWith(".kmz") || name.endsWith(".kml")) {
+                    documents.add(path);
+                }
+            }
+        } catch (IOException e) {
+            AstriLog.warn("Could not read KMZ cache directory {}: {}", dir, e.getMessage());
+            return;
+        }
+
+        metas.sort(Comparator.comparingLong(KmzDocumentCache::lastModifiedMillis));
+        synchronized (this) {
+            for (Path meta : metas) {
+                String name = meta.getFileName().toString();
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+                Entry entry = loadEntry(key);
+                if (entry != null) {
+                    entries.put(key, entry);
+                    totalBytes += entry.size;
+                }
+            }
+
+            Set<Path> current = new HashSet<>();
+            for (Entry entry : entries.values()) {
+                current.add(entry.kmz);
+                current.add(entry.kml);
+            }
+            for (Path document : documents) {
+                if (!current.contains(document)) {
+                    deleteQuietly(document);
+                }
+            }
+            evictOverBudget();
+        }
+        AstriLog.info("KMZ cache: {} entries, {} bytes in {}", entries.size(), totalBytes, dir);
+    }
+
+    /**
+     * Read one entry from disk. Incomplete entries are deleted and give null.
+     */
+    private Entry loadEntry(String key) {
+        Path meta = metaPath(key);
+        if (!Files.exists(meta)) {
+            return null;
+        }
+        String generation = null;
+        try {
+            Properties props = readMeta(meta);
+            generation = props.getProperty("generation");
+            Path kmz = dataPath(key, generation, ".kmz");
+            Path kml = dataPath(key, generation, ".kml");
+            long size = Files.size(kmz) + Files.size(kml);
+            return new Entry(key, generation, kmz, kml, size,
+                             props.getProperty("etag"),
+                             props.getProperty("last_modified"),
+                             Long.parseLong(props.getProperty("validated_at", "0")));
+        } catch (NoSuchFileException | NumberFormatException e) {
+            AstriLog.warn("Dropping incomplete KMZ cache entry {}", key);
+            deleteQuietly(meta);
+            deleteQuietly(dataPath(key, generation, ".kmz"));
+            deleteQuietly(dataPath(key, generation, ".kml"));
+            return null;
+        } catch (IOException e) {
+            AstriLog.warn("Could not read KMZ cache entry {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Properties readMeta(Path meta) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(meta)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties props = new Properties();
+        if (entry.generation != null) {
+            props.setProperty("generation", entry.generation);
+        }
+        if (entry.etag != null) {
+            props.setProperty("etag", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            props.setProperty("last_modified", entry.lastModified);
+        }
+        props.setProperty("validated_at", Long.toString(entry.validatedAt));
+
+        Path temp = createTempFile(entry.key + "_", META_SUFFIX);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                props.store(out, null);
+            }
+            AstriFiles.moveIntoPlace(temp, metaPath(entry.key));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Delete an evicted entry. Its metadata goes too, unless another session has
+     * meanwhile made a newer generation current.
+     */
+    private void deleteEntry(Entry entry) {
+        Path meta = metaPath(entry.key);
+        try {
+            if (Objects.equals(readMeta(meta).getProperty("generation"), entry.generation)) {
+                deleteQuietly(meta);
+            }
+        } catch (IOException e) {
+            // Already gone
+        }
+        deleteGeneration(entry);
+    }
+
+    private void deleteGeneration(Entry entry) {
+        deleteQuietly(entry.kmz);
+        deleteQuietly(entry.kml);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Still open elsewhere on Windows - removed when the cache is next reopened
+            AstriLog.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static String key(String docType, String uuid) {
+        return docType + "_" + uuid;
+    }
+
+    private Path metaPath(String key) {
+        return dir.resolve(key + META_SUFFIX);
+    }
+
+    /**
+     * File of one generation of a document; entries stored before generations use &lt;key&gt;&lt;suffix&gt;.
+     */
+    private Path dataPath(String key, String generation, String suffix) {
+        return dir.resolve(generation != null ? key + "." + generation + suffix : key + suffix);
+    }
+
+    private static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
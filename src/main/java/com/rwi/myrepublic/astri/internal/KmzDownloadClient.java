@@ -4,37 +4,40 @@ import com.rwi.myrepublic.astri.AstriConfig;
 
 import java.io.*;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Duration;
-import java.util.Base64;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 /**
  * Internal HTTP client for ASTRI KMZ Document Download API.
  * NOT exposed to Magik - used only by AstriKmzDownloadProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class KmzDownloadClient {
-    private HttpClient client;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
+    private KmzDocumentCache cache;
 
     public KmzDownloadClient() {
         this.config = AstriConfig.getInstance();
+        this.transport = AstriHttpTransport.getInstance();
 
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        // Process-wide on-disk cache of downloaded documents
+        this.cache = KmzDocumentCache.getInstance();
     }
 
     /**
@@ -72,13 +75,215 @@ public class KmzDownloadClient {
      * - If outputDir is null/empty: Returns XML with KML content (for SW object migration)
      * - If outputDir is provided: Downloads files and returns XML with file paths
      *
+     * Documents are served from the KmzDocumentCache while fresh; a stale entry
+     * is revalidated with a conditional GET before it is used again.
+     *
      * @param docType Document type (cluster, subfeeder, feeder, olt-site)
      * @param uuid Document UUID
      * @param outputDir Output directory (null/empty = return KML content, provided = save files)
      * @return XML string with KML content or file paths
      */
     private String downloadDocument(String docType, String uuid, String outputDir) throws IOException, InterruptedException {
-        String baseUrl = config.getDmBaseUrl();
+        if (cache.isCacheable(docType, uuid)) {
+            KmzDocumentCache.Entry entry = awaitEntry(fetchIntoCache(docType, uuid));
+            try {
+                return buildResponse(docType, uuid, outputDir, entry.getKmz(), entry.getKml());
+            } finally {
+                cache.release(entry);
+            }
+        }
+
+        HttpRequest request = buildDownloadRequest(docType, uuid, null);
+
+        // Stream the body straight to a temp file - the KMZ is never held in memory
+        Path tempKmz = createTempKmz(docType, uuid, outputDir);
+        try {
+            HttpResponse<Path> response = transport.send(AstriEndpoint.KMZ_DOWNLOAD, request, bodyHandler(tempKmz));
+            return processDocument(docType, uuid, outputDir, response);
+        } finally {
+            Files.deleteIfExists(tempKmz);
+        }
+    }
+
+    /**
+     * Asynchronous variant of the document download.
+     * The returned future completes with the same XML the synchronous download returns.
+     * Cancelling it abandons an uncached download; the shared download of a cached
+     * document carries on for the cache and any other caller.
+     *
+     * @param docType Document type (cluster, subfeeder, feeder, olt-site)
+     * @param uuid Document UUID
+     * @param outputDir Output directory (null/empty = return KML content, provided = save files)
+     */
+    public CompletableFuture<String> downloadDocumentAsync(String docType, String uuid, String outputDir) {
+        if (cache.isCacheable(docType, uuid)) {
+            CompletableFuture<KmzDocumentCache.Entry> pinned = fetchIntoCache(docType, uuid);
+            // The pin is given back once, by the response stage or - if the job is
+            // cancelled before that stage runs - when the fetch completes
+            AtomicBoolean released = new AtomicBoolean();
+            Consumer<KmzDocumentCache.Entry> release = entry -> {
+                if (released.compareAndSet(false, true)) {
+                    cache.release(entry);
+                }
+            };
+            CompletableFuture<String> result = pinned.thenApplyAsync(entry -> {
+                try {
+                    return buildResponse(docType, uuid, outputDir, entry.getKmz(), entry.getKml());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    release.accept(entry);
+                }
+            }, transport.getExecutor());
+            result.whenComplete((xml, error) -> pinned.thenAccept(release));
+            return result;
+        }
+
+        HttpRequest request;
+        Path tempKmz;
+        try {
+            request = buildDownloadRequest(docType, uuid, null);
+            tempKmz = createTempKmz(docType, uuid, outputDir);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Unzipping and file writes are blocking - keep them off the HTTP selector thread
+        CompletableFuture<HttpResponse<Path>> sent =
+            transport.sendAsync(AstriEndpoint.KMZ_DOWNLOAD, request, bodyHandler(tempKmz));
+        CompletableFuture<String> processed = sent
+            .thenApplyAsync(response -> {
+                try {
+                    return processDocument(docType, uuid, outputDir, response);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, transport.getExecutor())
+            .whenComplete((xml, error) -> deleteTemp(tempKmz));
+        // The caller gets a copy: cancelling a stage skips its own whenComplete action
+        return AsyncJobRegistry.propagateCancel(processed.copy(), sent);
+    }
+
+    /**
+     * A fresh cache entry for a document, pinned for the caller.
+     * Served from the cache while fresh; otherwise revalidated or downloaded, sharing
+     * the request with any concurrent caller asking for the same document.
+     */
+    private CompletableFuture<KmzDocumentCache.Entry> fetchIntoCache(String docType, String uuid) {
+        KmzDocumentCache.Entry cached = cache.acquire(docType, uuid);
+        if (cached != null && cache.isFresh(cached)) {
+            AstriLog.debug("KMZ cache hit: {} {}", docType, uuid);
+            cache.recordHit(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+        cache.release(cached);
+        return cache.load(docType, uuid, () -> downloadIntoCache(docType, uuid));
+    }
+
+    /**
+     * Revalidate or download a document into the cache; completes with the pinned entry.
+     */
+    private CompletableFuture<KmzDocumentCache.Entry> downloadIntoCache(String docType, String uuid) {
+        // Validators for a conditional GET. If the server answers 304 this pin is handed to the caller
+        KmzDocumentCache.Entry cached = cache.acquire(docType, uuid);
+        if (cached != null && cache.isFresh(cached)) {
+            // Refreshed by a load that finished since the caller looked
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        HttpRequest request;
+        Path tempKmz;
+        try {
+            request = buildDownloadRequest(docType, uuid, cached);
+            tempKmz = cache.createTempFile(docType + "_" + uuid + "_", ".kmz");
+        } catch (IOException | RuntimeException e) {
+            cache.release(cached);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return transport.sendAsync(AstriEndpoint.KMZ_DOWNLOAD, request, bodyHandler(tempKmz))
+            .thenApplyAsync(response -> {
+                try {
+                    return storeDocument(docType, uuid, cached, response);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, transport.getExecutor())
+            .whenComplete((entry, error) -> {
+                if (entry != cached) {
+                    cache.release(cached);
+                }
+                deleteTemp(tempKmz);
+            });
+    }
+
+    /**
+     * Wait for a cache entry, with the exceptions of a synchronous download.
+     */
+    private KmzDocumentCache.Entry awaitEntry(CompletableFuture<KmzDocumentCache.Entry> pinned)
+            throws IOException, InterruptedException {
+        try {
+            return pinned.get();
+        } catch (InterruptedException e) {
+            // Give the pin back whenever the download completes
+            pinned.thenAccept(cache::release);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = AsyncJobRegistry.unwrap(e);
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void deleteTemp(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            AstriLog.warn("Could not delete {}: {}", temp, e.getMessage());
+        }
+    }
+
+    /**
+     * Temp file the KMZ body of an uncached document is streamed into.
+     * Created in the output directory when there is one, so the final move is a same-volume rename.
+     */
+    private Path createTempKmz(String docType, String uuid, String outputDir) throws IOException {
+        String prefix = docType + "_" + uuid + "_";
+        if (outputDir == null || outputDir.trim().isEmpty()) {
+            return Files.createTempFile(prefix, ".kmz.part");
+        }
+        Path dirPath = Paths.get(outputDir);
+        Files.createDirectories(dirPath);
+        return Files.createTempFile(dirPath, prefix, ".kmz.part");
+    }
+
+    /**
+     * Body handler streaming into the temp file.
+     * Truncates, so a retried download never keeps bytes of an earlier attempt.
+     */
+    private static HttpResponse.BodyHandler<Path> bodyHandler(Path tempKmz) {
+        return HttpResponse.BodyHandlers.ofFile(tempKmz, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Build the GET request for a document download.
+     * With a cached entry the request is conditional on its ETag / Last-Modified.
+     */
+    private HttpRequest buildDownloadRequest(String docType, String uuid, KmzDocumentCache.Entry cached) {
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getDmBaseUrl();
 
         // Build correct endpoint path based on document type
         String path;
@@ -99,75 +304,152 @@ public class KmzDownloadClient {
                 throw new IllegalArgumentException("Unknown document type: " + docType);
         }
 
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
             .uri(URI.create(baseUrl + path))
-            .header("Authorization", authHeader)
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
-            .GET()
-            .build();
-
-        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-        byte[] kmzData = response.body();
-
-        // Extract KML content from KMZ (ZIP file)
-        String kmlContent = "";
-        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(kmzData))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                if (entry.getName().toLowerCase().endsWith(".kml")) {
-                    // Read KML content
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[1024];
-                    int len;
-                    while ((len = zis.read(buffer)) > 0) {
-                        baos.write(buffer, 0, len);
-                    }
-                    kmlContent = baos.toString("UTF-8");
-                    break;
-                }
-                zis.closeEntry();
+            .header("Authorization", settings.getAuthHeader())
+            .timeout(settings.getRequestTimeout(AstriEndpoint.KMZ_DOWNLOAD))
+            .GET();
+
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                builder.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                builder.header("If-Modified-Since", cached.getLastModified());
             }
         }
+        return builder.build();
+    }
+
+    /**
+     * Handle the response to a cached document's download: a 304 keeps the cached copy
+     * for another TTL, a new document is extracted and stored as a new generation.
+     *
+     * @return the pinned entry to serve - cached itself after a 304
+     */
+    private KmzDocumentCache.Entry storeDocument(String docType, String uuid, KmzDocumentCache.Entry cached,
+                                                 HttpResponse<Path> response) throws IOException {
+        if (response.statusCode() == 304 && cached != null) {
+            AstriLog.debug("KMZ cache: {} {} not modified", docType, uuid);
+            cache.recordRevalidated(cached,
+                                    response.headers().firstValue("ETag").orElse(null),
+                                    response.headers().firstValue("Last-Modified").orElse(null));
+            return cached;
+        }
+        checkStatus(docType, uuid, response);
+
+        Path tempKml = cache.createTempFile(docType + "_" + uuid + "_", ".kml");
+        try {
+            extractKml(response.body(), tempKml);
+            return cache.store(docType, uuid, response.body(), tempKml,
+                               response.headers().firstValue("ETag").orElse(null),
+                               response.headers().firstValue("Last-Modified").orElse(null));
+        } finally {
+            Files.deleteIfExists(tempKml);
+        }
+    }
+
+    private static void checkStatus(String docType, String uuid, HttpResponse<?> response) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Download of " + docType + " document " + uuid +
+                                  " failed with HTTP status " + response.statusCode());
+        }
+    }
+
+    /**
+     * Extract the KML from the downloaded KMZ temp file of an uncached document and
+     * build the XML response. With an output directory the KMZ and KML are moved into
+     * place atomically; the temp file is left for the caller to delete.
+     */
+    private String processDocument(String docType, String uuid, String outputDir, HttpResponse<Path> response)
+            throws IOException {
+        Path tempKmz = response.body();
+        checkStatus(docType, uuid, response);
 
         // SCENARIO 1: No output directory provided - Return XML with KML content
         if (outputDir == null || outputDir.trim().isEmpty()) {
-            System.out.println("=== Returning KML content in XML ===");
-            System.out.println("docType: " + docType);
-            System.out.println("uuid: " + uuid);
-            System.out.println("kmlContent length: " + kmlContent.length() + " characters");
+            AstriLog.debug("Returning {} {} KML content in XML", docType, uuid);
+            return buildKmlContentXml(docType, uuid, xml -> readKml(tempKmz, xml));
+        }
 
-            StringBuilder xml = new StringBuilder();
-            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            xml.append("<response>\n");
-            xml.append("  <success>true</success>\n");
-            xml.append("  <document_type>").append(escapeXml(docType)).append("</document_type>\n");
-            xml.append("  <uuid>").append(escapeXml(uuid)).append("</uuid>\n");
-            xml.append("  <kml_content><![CDATA[").append(kmlContent).append("]]></kml_content>\n");
-            xml.append("</response>");
+        // SCENARIO 2: Output directory provided - Save files and return file paths
+        Path dirPath = Paths.get(outputDir);
+        Path kmzFilePath = dirPath.resolve(docType + "_" + uuid + ".kmz");
+        Path kmlFilePath = dirPath.resolve(docType + "_" + uuid + ".kml");
 
-            System.out.println("=== XML built successfully, length: " + xml.length() + " ===");
-            return xml.toString();
+        // Extract the KML next to its final name first, so a failure leaves existing files untouched
+        Path tempKml = Files.createTempFile(dirPath, docType + "_" + uuid + "_", ".kml.part");
+        try {
+            extractKml(tempKmz, tempKml);
+            AstriFiles.moveIntoPlace(tempKmz, kmzFilePath);
+            AstriFiles.moveIntoPlace(tempKml, kmlFilePath);
+        } finally {
+            Files.deleteIfExists(tempKml);
+        }
+        if (AstriLog.isDebugEnabled()) {
+            AstriLog.debug("Saved {} byte KMZ, {} byte KML", Files.size(kmzFilePath), Files.size(kmlFilePath));
         }
 
-        // SCENARIO 2: Output directory provided - Save files and return file paths
-        System.out.println("=== Saving files to disk ===");
+        return buildFilePathsXml(docType, uuid, kmzFilePath, kmlFilePath);
+    }
+
+    /**
+     * Build the XML response from a cached KMZ and its extracted KML.
+     * Without an output directory the KML is returned inline; with one, both files are
+     * copied there (the cache keeps its own copies) and their paths are returned.
+     */
+    private String buildResponse(String docType, String uuid, String outputDir, Path kmz, Path kml)
+            throws IOException {
+        if (outputDir == null || outputDir.trim().isEmpty()) {
+            return buildKmlContentXml(docType, uuid, xml -> readKmlFile(kml, xml));
+        }
 
         Path dirPath = Paths.get(outputDir);
-        if (!Files.exists(dirPath)) {
-            Files.createDirectories(dirPath);
+        Files.createDirectories(dirPath);
+        Path kmzFilePath = dirPath.resolve(docType + "_" + uuid + ".kmz");
+        Path kmlFilePath = dirPath.resolve(docType + "_" + uuid + ".kml");
+        copyIntoPlace(kmz, kmzFilePath);
+        copyIntoPlace(kml, kmlFilePath);
+        if (AstriLog.isDebugEnabled()) {
+            AstriLog.debug("Copied {} byte KMZ, {} byte KML from cache",
+                           Files.size(kmzFilePath), Files.size(kmlFilePath));
         }
 
-        // Save KMZ file
-        String kmzFileName = docType + "_" + uuid + ".kmz";
-        Path kmzFilePath = dirPath.resolve(kmzFileName);
-        Files.write(kmzFilePath, kmzData);
+        return buildFilePathsXml(docType, uuid, kmzFilePath, kmlFilePath);
+    }
+
+    /**
+     * Appends the KML text of a document to the response being built.
+     */
+    private interface KmlSource {
+        void appendTo(StringBuilder xml) throws IOException;
+    }
+
+    /**
+     * XML response with the KML content inline.
+     */
+    private String buildKmlContentXml(String docType, String uuid, KmlSource kml) throws IOException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<response>\n");
+        xml.append("  <success>true</success>\n");
+        xml.append("  <document_type>").append(escapeXml(docType)).append("</document_type>\n");
+        xml.append("  <uuid>").append(escapeXml(uuid)).append("</uuid>\n");
+        xml.append("  <kml_content><![CDATA[");
+        int kmlStart = xml.length();
+        kml.appendTo(xml);
+        AstriLog.debug("kmlContent length: {} characters", xml.length() - kmlStart);
+        xml.append("]]></kml_content>\n");
+        xml.append("</response>");
 
-        // Save KML file
-        String kmlFileName = docType + "_" + uuid + ".kml";
-        Path kmlFilePath = dirPath.resolve(kmlFileName);
-        Files.write(kmlFilePath, kmlContent.getBytes("UTF-8"));
+        AstriLog.debug("XML built successfully, length: {}", xml.length());
+        return xml.toString();
+    }
 
-        // Return XML with file paths
+    /**
+     * XML response with the paths of the saved KMZ and KML files.
+     */
+    private String buildFilePathsXml(String docType, String uuid, Path kmzFilePath, Path kmlFilePath) {
         StringBuilder xml = new StringBuilder();
         xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
         xml.append("<response>\n");
@@ -178,14 +460,103 @@ public class KmzDownloadClient {
         xml.append("  <kml_file_path>").append(escapeXml(kmlFilePath.toString())).append("</kml_file_path>\n");
         xml.append("</response>");
 
-        System.out.println("=== XML built successfully, length: " + xml.length() + " ===");
+        AstriLog.debug("XML built successfully, length: {}", xml.length());
         return xml.toString();
     }
 
+    /**
+     * First .kml entry of a KMZ, or null if there is none.
+     */
+    private static ZipEntry findKmlEntry(ZipFile zip) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".kml")) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the KML entry of a KMZ to a file. An empty file is written if there is no KML entry.
+     */
+    static void extractKml(Path kmz, Path kml) throws IOException {
+        try (ZipFile zip = new ZipFile(kmz.toFile());
+             OutputStream out = Files.newOutputStream(kml)) {
+            ZipEntry entry = findKmlEntry(zip);
+            if (entry == null) {
+                AstriLog.warn("No .kml entry in {}", kmz.getFileName());
+                return;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the KML entry of a KMZ, decoded as UTF-8, to a builder. Nothing is appended if there is no KML entry.
+     */
+    static void readKml(Path kmz, StringBuilder out) throws IOException {
+        try (ZipFile zip = new ZipFile(kmz.toFile())) {
+            ZipEntry entry = findKmlEntry(zip);
+            if (entry == null) {
+                AstriLog.warn("No .kml entry in {}", kmz.getFileName());
+                return;
+            }
+            if (entry.getSize() > 0 && entry.getSize() < Integer.MAX_VALUE) {
+                out.ensureCapacity(out.length() + (int) entry.getSize());
+            }
+            try (Reader in = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[COPY_BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.append(buffer, 0, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a KML file, decoded as UTF-8, to a builder.
+     */
+    private static void readKmlFile(Path kml, StringBuilder out) throws IOException {
+        long size = Files.size(kml);
+        if (size > 0 && size < Integer.MAX_VALUE) {
+            out.ensureCapacity(out.length() + (int) size);
+        }
+        try (Reader in = Files.newBufferedReader(kml, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[COPY_BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.append(buffer, 0, len);
+            }
+        }
+    }
+
+    /**
+     * Copy a file to a temp file next to its target, then rename it over the target,
+     * so a failure leaves any existing file untouched.
+     */
+    private static void copyIntoPlace(Path source, Path target) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString() + "_", ".part");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            AstriFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
     /**
      * Escape special characters for XML.
      */
-    private String escapeXml(String str) {
+    String escapeXml(String str) {
         if (str == null) return "";
         return str.replace("&", "&amp;")
                   .replace("<", "&lt;")
@@ -198,6 +569,5 @@ public class KmzDownloadClient {
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
@@ -0,0 +1,200 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a KMZ (a zip holding a single doc.kml entry) without spawning a zip process.
+ * NOT exposed to Magik - used only by AstriKmzWriterProcs.
+ *
+ * The KML is deflated as it is written, into a temp file next to the target that
+ * is renamed over the target on close(), so a failed export never leaves a
+ * truncated KMZ behind. Writers opened from Magik are addressed by integer
+ * handles and stay registered until they are closed or aborted.
+ */
+public final class KmzWriter implements Closeable {
+    /** Entry name Google Earth looks for first in a KMZ. */
+    public static final String KML_ENTRY_NAME = "doc.kml";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<Integer, KmzWriter> OPEN_WRITERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_HANDLE = new AtomicInteger();
+
+    private final Path target;
+    private final Path temp;
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private final ZipEntry entry;
+    private final long startedAt;
+    private boolean closed;
+
+    /**
+     * Open a KMZ for writing.
+     *
+     * @param target KMZ file to create or replace
+     * @param level Deflate level 0-9, or -1 for the default level
+     */
+    public KmzWriter(Path target, int level) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level + ". Must be 0-9");
+        }
+        this.target = target.toAbsolutePath();
+        this.startedAt = System.currentTimeMillis();
+
+        Path dir = this.target.getParent();
+        Files.createDirectories(dir);
+        this.temp = Files.createTempFile(dir, this.target.getFileName().toString() + "_", ".part");
+        try {
+            this.zip = new ZipOutputStream(Files.newOutputStream(temp));
+            zip.setLevel(level);
+            this.entry = new ZipEntry(KML_ENTRY_NAME);
+            zip.putNextEntry(entry);
+            this.writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Zip an existing KML file into a KMZ.
+     *
+     * @return the finished writer, for its sizes
+     */
+    public static KmzWriter writeKmz(Path kml, Path kmz, int level) throws IOException {
+        KmzWriter kmzWriter = new KmzWriter(kmz, level);
+        try {
+            kmzWriter.writer.flush();
+            Files.copy(kml, kmzWriter.zip);
+            kmzWriter.close();
+            return kmzWriter;
+        } catch (IOException | RuntimeException e) {
+            kmzWriter.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Append KML text (encoded as UTF-8).
+     */
+    public void write(String kml) throws IOException {
+        if (closed) {
+            throw new IOException("KMZ writer for " + target + " is closed");
+        }
+        writer.write(kml);
+    }
+
+    /**
+     * Finish the zip and move it over the target file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.flush();
+            zip.closeEntry();
+            zip.close();
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+        try {
+            AstriFiles.moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Discard everything written; the target file is left untouched.
+     */
+    public void abort() {
+        closed = true;
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // Discarding anyway
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            AstriLog.warn("Could not delete {}: {}", temp, e.getMessage());
+        }
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    /**
+     * Uncompressed KML size; known once the writer is closed.
+     */
+    public long getKmlBytes() {
+        return entry.getSize();
+    }
+
+    /**
+     * Size of the written KMZ; known once the writer is closed.
+     */
+    public long getKmzBytes() throws IOException {
+        return Files.size(target);
+    }
+
+    /**
+     * Milliseconds since the writer was opened.
+     */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    /**
+     * Register an open writer and return its handle.
+     */
+    public static int register(KmzWriter kmzWriter) {
+        int handle = NEXT_HANDLE.incrementAndGet();
+        OPEN_WRITERS.put(handle, kmzWriter);
+        return handle;
+    }
+
+    /**
+     * The open writer for a handle.
+     *
+     * @throws IllegalArgumentException if the handle is unknown or already closed
+     */
+    public static KmzWriter get(int handle) {
+        KmzWriter kmzWriter = OPEN_WRITERS.get(handle);
+        if (kmzWriter == null) {
+            throw new IllegalArgumentException("Unknown KMZ writer handle: " + handle);
+        }
+        return kmzWriter;
+    }
+
+    /**
+     * Remove a writer from the registry.
+     *
+     * @throws IllegalArgumentException if the handle is unknown or already closed
+     */
+    public static KmzWriter remove(int handle) {
+        KmzWriter kmzWriter = OPEN_WRITERS.remove(handle);
+        if (kmzWriter == null) {
+            throw new IllegalArgumentException("Unknown KMZ writer handle: " + handle);
+        }
+        return kmzWriter;
+    }
+}
@@ -5,33 +5,22 @@ import com.rwi.myrepublic.astri.AstriConfig;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
-import java.util.Base64;
 
 /**
  * Internal HTTP client for ASTRI OLT Rollout API.
  * NOT exposed to Magik - used only by AstriOltProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class OltClient {
-    private HttpClient client;
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public OltClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -46,7 +35,8 @@ public class OltClient {
      */
     public String getOltList(int limit, int offset, String deviceCode, String name, String label)
             throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getApiBaseUrl();
         String path = "/olt/rollout/list/all/" + limit + "/" + offset;
 
         // Build query parameters for filters
@@ -66,17 +56,17 @@ public class OltClient {
             url += "?" + queryParams.toString();
         }
 
-        System.out.println("POST URL: " + url);
+        AstriLog.debug("POST URL: {}", url);
 
         HttpRequest request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", authHeader)
+            .header("Authorization", settings.getAuthHeader())
             .header("Content-Type", "application/json")
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
+            .timeout(settings.getRequestTimeout(AstriEndpoint.OLT_LIST))
             .POST(HttpRequest.BodyPublishers.noBody())
             .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(AstriEndpoint.OLT_LIST, request, HttpResponse.BodyHandlers.ofString());
         return response.body();
     }
 
@@ -93,6 +83,5 @@ public class OltClient {
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
@@ -4,32 +4,21 @@ import com.rwi.myrepublic.astri.AstriConfig;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.Base64;
 
 /**
  * Internal HTTP client for ASTRI Price List API.
  * NOT exposed to Magik - used only by AstriPriceListProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class PriceListClient {
-    private HttpClient client;
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public PriceListClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -39,7 +28,8 @@ public class PriceListClient {
      * @return JSON string from API response
      */
     public String getPriceList(String filterParams) throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getApiBaseUrl();
         // Correct endpoint from ASTRI API documentation
         String path = "/device/price/list/all";
 
@@ -51,12 +41,13 @@ public class PriceListClient {
 
         HttpRequest request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", authHeader)
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
+            .header("Authorization", settings.getAuthHeader())
+            .timeout(settings.getRequestTimeout(AstriEndpoint.PRICE_LIST))
             .GET()
             .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        // Identical concurrent price list requests share one exchange
+        HttpResponse<String> response = transport.sendCoalesced(AstriEndpoint.PRICE_LIST, request);
         return response.body();
     }
 
@@ -64,6 +55,5 @@ public class PriceListClient {
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
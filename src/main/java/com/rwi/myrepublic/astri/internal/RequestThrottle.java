@@ -0,0 +1,195 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter plus concurrency bulkhead for one endpoint family.
+ * NOT exposed to Magik - used only by AstriHttpTransport.
+ *
+ * A request first takes one of maxConcurrent slots, queueing in FIFO order while
+ * all are in use, then one token from a bucket refilled at ratePerSecond (up to
+ * burst tokens); without a token it waits until one is due. Requests that do not
+ * get through within maxWaitMillis fail with ThrottledException. The slot is held
+ * until release(). A rate of 0 disables rate limiting.
+ *
+ * Waiting never blocks a thread for async callers: slots and tokens are granted
+ * by completing a future.
+ */
+final class RequestThrottle {
+    private final String name;
+    private final int maxConcurrent;
+    private final double ratePerSecond;
+    private final double burst;
+    private final long maxWaitMillis;
+    private final Executor executor;
+
+    // Guarded by this
+    private final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+    private int active;
+    private int peakQueued;
+    private double tokens;
+    private long lastRefillNanos;
+    private long rateDelayed;
+    private long rejected;
+
+    RequestThrottle(String name, int maxConcurrent, double ratePerSecond, double burst,
+                    long maxWaitMillis, Executor executor) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.burst = Math.max(1, burst);
+        this.maxWaitMillis = maxWaitMillis;
+        this.executor = executor;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Wait for a slot and a token. Every successful call must be followed by release().
+     */
+    void acquire() throws ThrottledException, InterruptedException {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (ExecutionException e) {
+            throw (ThrottledException) e.getCause();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false) && !permit.isCompletedExceptionally()) {
+                release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Future completed once a slot and a token are granted, or failed with
+     * ThrottledException after maxWaitMillis. If it completes normally the
+     * caller owns a slot and must call release().
+     */
+    CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        long delay;
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                queue.addLast(permit);
+                peakQueued = Math.max(peakQueued, queue.size());
+                scheduleTimeout(permit);
+                return permit;
+            }
+            active++;
+            delay = reserveToken();
+        }
+        if (delay == 0) {
+            permit.complete(null);
+            return permit;
+        }
+        scheduleTimeout(permit);
+        grant(permit, delay);
+        return permit;
+    }
+
+    /**
+     * Give a slot back; it passes to the longest waiting request, if any.
+     */
+    void release() {
+        CompletableFuture<Void> next;
+        long delay;
+        synchronized (this) {
+            next = queue.pollFirst();
+            if (next == null) {
+                active--;
+                return;
+            }
+            delay = reserveToken();
+        }
+        // The slot moves to the next waiter; complete it off this thread
+        // so that a chain of waiters does not grow the stack
+        grant(next, delay);
+    }
+
+    /**
+     * Complete a permit once its token is due. A permit that has already timed out
+     * or been cancelled hands its slot straight on.
+     */
+    private void grant(CompletableFuture<Void> permit, long delay) {
+        Runnable complete = () -> {
+            if (!permit.complete(null)) {
+                release();
+            }
+        };
+        if (delay > 0) {
+            synchronized (this) {
+                rateDelayed++;
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor).execute(complete);
+        } else {
+            executor.execute(complete);
+        }
+    }
+
+    private void scheduleTimeout(CompletableFuture<Void> permit) {
+        if (maxWaitMillis <= 0) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(maxWaitMillis, TimeUnit.MILLISECONDS, executor).execute(() -> {
+            if (permit.completeExceptionally(new ThrottledException(name, maxWaitMillis))) {
+                synchronized (this) {
+                    rejected++;
+                }
+            }
+        });
+    }
+
+    /**
+     * Take a token and return the milliseconds until it is due (0 = now).
+     * Tokens may go negative: later requests then wait behind earlier ones.
+     */
+    private long reserveToken() {
+        if (ratePerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerSecond / 1e9);
+        lastRefillNanos = now;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens * 1000 / ratePerSecond);
+    }
+
+    /**
+     * Current state as a JSON object.
+     */
+    synchronized String getStatsJson() {
+        int queued = 0;
+        for (CompletableFuture<Void> waiter : queue) {
+            if (!waiter.isDone()) {
+                queued++;
+            }
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"max_concurrent\":").append(maxConcurrent).append(",");
+        json.append("\"active\":").append(active).append(",");
+        json.append("\"available\":").append(Math.max(0, maxConcurrent - active)).append(",");
+        json.append("\"queued\":").append(queued).append(",");
+        json.append("\"peak_queued\":").append(peakQueued).append(",");
+        json.append("\"rate_per_second\":").append(ratePerSecond).append(",");
+        json.append("\"burst\":").append(burst).append(",");
+        json.append("\"tokens\":").append(ratePerSecond > 0 ? currentTokens() : burst).append(",");
+        json.append("\"rate_delayed\":").append(rateDelayed).append(",");
+        json.append("\"rejected\":").append(rejected);
+        json.append("}");
+        return json.toString();
+    }
+
+    private double currentTokens() {
+        double current = Math.min(burst, tokens + (System.nanoTime() - lastRefillNanos) * ratePerSecond / 1e9);
+        return Math.round(current * 100) / 100.0;
+    }
+}
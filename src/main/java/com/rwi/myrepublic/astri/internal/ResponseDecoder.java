@@ -0,0 +1,340 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Body subscriber that undoes a gzip or deflate Content-Encoding as the body arrives.
+ * NOT exposed to Magik - used only by AstriHttpTransport.
+ *
+ * Decoded chunks are handed on to the subscriber of the caller's body handler,
+ * so a streamed body (ofInputStream) stays streamed and is never inflated into
+ * one buffer. Uncompressed responses pass straight through. Bytes received,
+ * bytes decoded and time spent inflating are added to a Stats instance, and
+ * the arrival of the headers and the end of the body are reported to the
+ * exchange's AstriMetrics timing.
+ */
+final class ResponseDecoder<T> implements HttpResponse.BodySubscriber<T> {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    // gzip header flags (RFC 1952)
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    private enum Encoding { IDENTITY, GZIP, DEFLATE }
+
+    /**
+     * Counters shared by all responses of a transport.
+     */
+    static final class Stats {
+        final LongAdder wireBytes = new LongAdder();
+        final LongAdder decodedBytes = new LongAdder();
+        final LongAdder compressedResponses = new LongAdder();
+        final LongAdder decodeNanos = new LongAdder();
+    }
+
+    private final HttpResponse.BodySubscriber<T> downstream;
+    private final Encoding encoding;
+    private final Stats stats;
+    private final AstriMetrics.Exchange exchange;
+    private long wireTotal;
+    private long decodedTotal;
+
+    // Only touched from onNext/onComplete, which the client calls serially
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+    private Flow.Subscription subscription;
+    private Inflater inflater;
+    private CRC32 crc;
+    private boolean failed;
+
+    private ResponseDecoder(HttpResponse.BodySubscriber<T> downstream, Encoding encoding, Stats stats,
+                            AstriMetrics.Exchange exchange) {
+        this.downstream = downstream;
+        this.encoding = encoding;
+        this.stats = stats;
+        this.exchange = exchange;
+        if (encoding != Encoding.IDENTITY) {
+            stats.compressedResponses.increment();
+        }
+    }
+
+    /**
+     * Wrap a body handler so that its subscriber sees the decoded body.
+     */
+    static <T> HttpResponse.BodyHandler<T> handler(HttpResponse.BodyHandler<T> handler, Stats stats,
+                                                   AstriMetrics.Exchange exchange) {
+        return info -> {
+            exchange.headersReceived();
+            String contentEncoding = info.headers().firstValue("Content-Encoding").orElse("")
+                .trim().toLowerCase(Locale.ROOT);
+            Encoding encoding = Encoding.IDENTITY;
+            if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+                encoding = Encoding.GZIP;
+            } else if ("deflate".equals(contentEncoding)) {
+                encoding = Encoding.DEFLATE;
+            }
+            return new ResponseDecoder<>(handler.apply(info), encoding, stats, exchange);
+        };
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return downstream.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        if (failed) {
+            return;
+        }
+        long wire = 0;
+        for (ByteBuffer item : items) {
+            wire += item.remaining();
+        }
+        stats.wireBytes.add(wire);
+        wireTotal += wire;
+
+        if (encoding == Encoding.IDENTITY) {
+            stats.decodedBytes.add(wire);
+            decodedTotal += wire;
+            downstream.onNext(items);
+            return;
+        }
+
+        long started = System.nanoTime();
+        List<ByteBuffer> decoded = new ArrayList<>();
+        try {
+            for (ByteBuffer item : items) {
+                decode(item, decoded);
+            }
+        } catch (IOException | DataFormatException e) {
+            fail(e instanceof IOException ? (IOException) e
+                 : new ZipException("Corrupt " + encoding.name().toLowerCase(Locale.ROOT) + " response: " + e.getMessage()));
+            return;
+        } finally {
+            stats.decodeNanos.add(System.nanoTime() - started);
+        }
+
+        if (decoded.isEmpty()) {
+            // Nothing to hand on yet (header or trailer bytes) - ask for the next chunk ourselves
+            subscription.request(1);
+            return;
+        }
+        long decodedBytes = 0;
+        for (ByteBuffer buffer : decoded) {
+            decodedBytes += buffer.remaining();
+        }
+        stats.decodedBytes.add(decodedBytes);
+        decodedTotal += decodedBytes;
+        downstream.onNext(decoded);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (failed) {
+            return;
+        }
+        failed = true;
+        end();
+        exchange.failed();
+        downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (failed) {
+            return;
+        }
+        if (encoding != Encoding.IDENTITY) {
+            try {
+                verifyComplete();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            end();
+        }
+        exchange.bodyComplete(wireTotal, decodedTotal);
+        downstream.onComplete();
+    }
+
+    private void decode(ByteBuffer in, List<ByteBuffer> out) throws IOException, DataFormatException {
+        while (inflater == null && in.hasRemaining()) {
+            header.write(in.get());
+            startInflater(out);
+        }
+        if (inflater == null) {
+            return;
+        }
+        if (!inflater.finished()) {
+            inflate(in, out);
+        }
+        if (inflater.finished() && in.hasRemaining()) {
+            if (encoding == Encoding.GZIP) {
+                int take = Math.min(in.remaining(), 8 - trailer.size());
+                for (int i = 0; i < take; i++) {
+                    trailer.write(in.get());
+                }
+            }
+            // Anything after the stream (e.g. a second gzip member) is ignored
+            in.position(in.limit());
+        }
+    }
+
+    /**
+     * Create the inflater once the stream header is complete.
+     */
+    private void startInflater(List<ByteBuffer> out) throws IOException, DataFormatException {
+        byte[] bytes = header.toByteArray();
+        if (encoding == Encoding.GZIP) {
+            if (!isGzipHeaderComplete(bytes)) {
+                return;
+            }
+            inflater = new Inflater(true);
+            crc = new CRC32();
+            return;
+        }
+
+        // "deflate" should be zlib-wrapped, but some servers send a raw deflate stream
+        if (bytes.length < 2) {
+            return;
+        }
+        int cmf = bytes[0] & 0xff;
+        boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | (bytes[1] & 0xff)) % 31 == 0;
+        inflater = new Inflater(!zlib);
+        inflate(ByteBuffer.wrap(bytes), out);
+    }
+
+    private void inflate(ByteBuffer in, List<ByteBuffer> out) throws DataFormatException, ZipException {
+        inflater.setInput(in);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (true) {
+            int n = inflater.inflate(chunk);
+            if (n > 0) {
+                if (crc != null) {
+                    crc.update(chunk, 0, n);
+                }
+                out.add(ByteBuffer.wrap(chunk, 0, n));
+                chunk = new byte[CHUNK_SIZE];
+            }
+            if (inflater.finished() || inflater.needsInput()) {
+                return;
+            }
+            if (n == 0 && inflater.needsDictionary()) {
+                throw new ZipException("Compressed response needs a preset dictionary");
+            }
+        }
+    }
+
+    /**
+     * True once the bytes read so far form a whole gzip member header.
+     */
+    private static boolean isGzipHeaderComplete(byte[] b) throws ZipException {
+        if (b.length >= 2 && ((b[0] & 0xff) != 0x1f || (b[1] & 0xff) != 0x8b)) {
+            throw new ZipException("Response is not in gzip format");
+        }
+        if (b.length < 10) {
+            return false;
+        }
+        if (b[2] != 8) {
+            throw new ZipException("Unsupported gzip compression method: " + b[2]);
+        }
+        int flags = b[3] & 0xff;
+        int pos = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (b.length < pos + 2) {
+                return false;
+            }
+            pos += 2 + ((b[pos] & 0xff) | (b[pos + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(b, pos);
+            if (pos < 0) {
+                return false;
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(b, pos);
+            if (pos < 0) {
+                return false;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        return b.length >= pos;
+    }
+
+    /**
+     * Position after the zero byte ending a string field, or -1 if it has not arrived yet.
+     */
+    private static int skipZeroTerminated(byte[] b, int pos) {
+        for (int i = pos; i < b.length; i++) {
+            if (b[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void verifyComplete() throws IOException {
+        if (inflater == null && header.size() == 0) {
+            // Empty body, e.g. 204 or HEAD
+            return;
+        }
+        if (inflater == null || !inflater.finished()) {
+            throw new EOFException("Compressed ASTRI response ended early");
+        }
+        if (encoding == Encoding.GZIP) {
+            byte[] t = trailer.toByteArray();
+            if (t.length < 8) {
+                throw new EOFException("Compressed ASTRI response ended early (gzip trailer)");
+            }
+            long expectedCrc = readUInt32(t, 0);
+            long expectedSize = readUInt32(t, 4);
+            if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+                throw new ZipException("Corrupt gzip response (CRC or size mismatch)");
+            }
+        }
+    }
+
+    private static long readUInt32(byte[] b, int off) {
+        return (b[off] & 0xffL) | (b[off + 1] & 0xffL) << 8 | (b[off + 2] & 0xffL) << 16 | (b[off + 3] & 0xffL) << 24;
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        subscription.cancel();
+        end();
+        exchange.failed();
+        downstream.onError(e);
+    }
+
+    private void end() {
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
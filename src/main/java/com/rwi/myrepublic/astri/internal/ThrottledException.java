@@ -0,0 +1,15 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request waited too long for its endpoint family's bulkhead or rate limiter.
+ * NOT exposed to Magik - surfaces through the procs' usual error handling.
+ */
+public class ThrottledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ThrottledException(String family, long waitedMillis) {
+        super("ASTRI " + family + " requests are throttled: no capacity within " + waitedMillis + " ms");
+    }
+}
@@ -5,33 +5,22 @@ import com.rwi.myrepublic.astri.AstriConfig;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
-import java.util.Base64;
 
 /**
  * Internal HTTP client for ASTRI Vendor API.
  * NOT exposed to Magik - used only by AstriVendorProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class VendorClient {
-    private HttpClient client;
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public VendorClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -47,7 +36,8 @@ public class VendorClient {
      */
     public String getVendorList(int limit, int offset, String name, String subcontVendorName,
                                 String label, String sapVendorCode) throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getApiBaseUrl();
         String path = "/vendor/list/all/" + limit + "/" + offset;
 
         // Build query parameters for filters
@@ -70,17 +60,17 @@ public class VendorClient {
             url += "?" + queryParams.toString();
         }
 
-        System.out.println("POST URL: " + url);
+        AstriLog.debug("POST URL: {}", url);
 
         HttpRequest request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", authHeader)
+            .header("Authorization", settings.getAuthHeader())
             .header("Content-Type", "application/json")
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
+            .timeout(settings.getRequestTimeout(AstriEndpoint.VENDOR_LIST))
             .POST(HttpRequest.BodyPublishers.noBody())
             .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(AstriEndpoint.VENDOR_LIST, request, HttpResponse.BodyHandlers.ofString());
         return response.body();
     }
 
@@ -97,6 +87,5 @@ public class VendorClient {
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
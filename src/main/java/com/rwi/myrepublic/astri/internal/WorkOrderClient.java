@@ -3,35 +3,43 @@ package com.rwi.myrepublic.astri.internal;
 import com.rwi.myrepublic.astri.AstriConfig;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.Base64;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Internal HTTP client for ASTRI Work Order API.
  * NOT exposed to Magik - used only by AstriWorkOrderProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class WorkOrderClient {
-    private HttpClient client;
+    // Background syncs block on page requests, so they run here rather than on the transport's threads
+    private static final ExecutorService SYNC_EXECUTOR =
+        Executors.newCachedThreadPool(new AstriHttpTransport.DaemonThreadFactory("astri-sync-"));
+
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public WorkOrderClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -46,9 +54,413 @@ public class WorkOrderClient {
      */
     public String getWorkOrders(String infrastructureType, int limit, int offset, String filterParams) throws IOException, InterruptedException {
 
-        String baseUrl = config.getApiBaseUrl();
-        System.out.println("  [WorkOrderClient] Base URL: " + baseUrl);
-        System.out.println("  [WorkOrderClient] Infrastructure Type: " + infrastructureType);
+        HttpRequest request = buildListRequest(infrastructureType, limit, offset, filterParams);
+
+        HttpResponse<InputStream> response = transport.send(AstriEndpoint.WORK_ORDER_LIST, request, HttpResponse.BodyHandlers.ofInputStream());
+
+        if (AstriLog.isDebugEnabled()) {
+            AstriLog.debug("[WorkOrderClient] Response status: {}, content length: {}", response.statusCode(),
+                           response.headers().firstValue("Content-Length").orElse("unknown"));
+        }
+
+        // Transcode JSON to XML for Magik simple_xml parsing while the body streams in
+        String xmlResult = convertJsonToXml(response, infrastructureType);
+        AstriLog.debug("[WorkOrderClient] XML length: {}", xmlResult != null ? xmlResult.length() : 0);
+
+        return xmlResult;
+    }
+
+    /**
+     * Get work orders and report them to a handler instead of building XML.
+     * String values are decoded (JSON escapes resolved, nulls dropped); the body
+     * is streamed into the handler and never buffered.
+     *
+     * @param handler Receiver of the header fields and work orders
+     * @throws IOException if the request fails or the body is not valid JSON
+     */
+    public void getWorkOrders(String infrastructureType, int limit, int offset, String filterParams,
+                              WorkOrderJsonReader.Handler handler) throws IOException, InterruptedException {
+        HttpRequest request = buildListRequest(infrastructureType, limit, offset, filterParams);
+        HttpResponse<InputStream> response = transport.send(AstriEndpoint.WORK_ORDER_LIST, request, HttpResponse.BodyHandlers.ofInputStream());
+        AstriLog.debug("[WorkOrderClient] Response status: {}", response.statusCode());
+
+        long started = System.nanoTime();
+        try (Reader body = AstriHttpTransport.bodyReader(response)) {
+            new WorkOrderJsonReader(infrastructureType, true).read(body, handler);
+        } finally {
+            AstriMetrics.recordPhase(AstriMetrics.Phase.JSON_TO_XML, started);
+        }
+    }
+
+    /**
+     * Asynchronous variant of getWorkOrders.
+     * The returned future completes with the same XML getWorkOrders would return;
+     * cancelling it abandons the request.
+     */
+    public CompletableFuture<String> getWorkOrdersAsync(String infrastructureType, int limit, int offset,
+                                                        String filterParams) {
+        HttpRequest request = buildListRequest(infrastructureType, limit, offset, filterParams);
+        CompletableFuture<HttpResponse<InputStream>> sent =
+            transport.sendAsync(AstriEndpoint.WORK_ORDER_LIST, request, HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<String> xml =
+            sent.thenApplyAsync(response -> convertJsonToXml(response, infrastructureType), transport.getExecutor());
+        xml.whenComplete((result, error) -> {
+            if (xml.isCancelled()) {
+                discard(sent);
+            }
+        });
+        return xml;
+    }
+
+    /**
+     * Fetch every page of the work order list and merge it into one XML response.
+     *
+     * The first page is fetched to learn count_all; the remaining offsets are then
+     * fetched through a sliding window of at most maxParallel open responses and
+     * transcoded in offset order straight from the response streams, so only the
+     * merged XML - never a whole JSON page - is held in memory.
+     *
+     * @param infrastructureType Infrastructure type: "cluster", "subfeeder", or "feeder"
+     * @param pageSize Number of records per page
+     * @param filterParams Filter query string
+     * @param maxParallel Maximum number of concurrent page requests (at least 1)
+     * @return XML string with all work orders; count is the merged total
+     * @throws IOException if any page fails or reports success=false
+     */
+    public String getAllWorkOrders(String infrastructureType, int pageSize, String filterParams, int maxParallel)
+            throws IOException, InterruptedException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page_size must be positive: " + pageSize);
+        }
+
+        WorkOrderJsonReader reader = new WorkOrderJsonReader(infrastructureType);
+        try (WorkOrderXmlWriter writer = new WorkOrderXmlWriter()) {
+            // First page tells us how many records there are
+            HttpRequest firstRequest = buildListRequest(infrastructureType, pageSize, 0, filterParams);
+            readPage(reader, writer, transport.send(AstriEndpoint.WORK_ORDER_LIST, firstRequest, HttpResponse.BodyHandlers.ofInputStream()), 0);
+
+            String countAllStr = writer.getCountAll();
+            int countAll = 0;
+            try {
+                countAll = (countAllStr != null) ? Integer.parseInt(countAllStr) : 0;
+            } catch (NumberFormatException e) {
+                AstriLog.warn("[WorkOrderClient] Invalid count_all '{}', using first page only", countAllStr);
+            }
+
+            // Remaining pages: keep up to maxParallel requests open ahead of the page being read
+            int window = Math.max(1, maxParallel);
+            Deque<CompletableFuture<HttpResponse<InputStream>>> pending = new ArrayDeque<>();
+            int nextOffset = pageSize;
+            int readOffset = pageSize;
+            int pages = 1;
+            try {
+                while (readOffset < countAll) {
+                    while (pending.size() < window && nextOffset < countAll) {
+                        HttpRequest request = buildListRequest(infrastructureType, pageSize, nextOffset, filterParams);
+                        pending.add(transport.sendAsync(AstriEndpoint.WORK_ORDER_LIST, request, HttpResponse.BodyHandlers.ofInputStream()));
+                        nextOffset += pageSize;
+                    }
+                    readPage(reader, writer, pending.poll().join(), readOffset);
+                    readOffset += pageSize;
+                    pages++;
+                }
+            } catch (CompletionException e) {
+                Throwable cause = AsyncJobRegistry.unwrap(e);
+                throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            } finally {
+                for (CompletableFuture<HttpResponse<InputStream>> future : pending) {
+                    discard(future);
+                }
+            }
+
+            AstriLog.debug("[WorkOrderClient] Fetched {} pages (count_all={})", pages, countAll);
+            return writer.toXml("true", String.valueOf(writer.getWorkOrderCount()), countAllStr, null);
+        }
+    }
+
+    /**
+     * Transcode one streamed list page into the shared writer, failing if the page reports success=false.
+     */
+    private void readPage(WorkOrderJsonReader reader, WorkOrderXmlWriter writer, HttpResponse<InputStream> response,
+                          int offset) throws IOException {
+        writer.resetHeader();
+        long started = System.nanoTime();
+        try (Reader body = AstriHttpTransport.bodyReader(response)) {
+            reader.read(body, writer);
+        } finally {
+            AstriMetrics.recordPhase(AstriMetrics.Phase.JSON_TO_XML, started);
+        }
+        if (!"true".equals(writer.getSuccess())) {
+            String error = writer.getError();
+            throw new IOException("Work order page at offset " + offset + " failed: " +
+                                  (error != null ? error : "success=" + writer.getSuccess()));
+        }
+    }
+
+    /**
+     * Abandon a page request: cancel it, or close its body if it already arrived.
+     */
+    private static void discard(CompletableFuture<HttpResponse<InputStream>> future) {
+        future.cancel(true);
+        future.thenAccept(response -> {
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                // Nothing more to release
+            }
+        });
+    }
+
+    /**
+     * Bring the local store of an infrastructure type up to date and report what changed.
+     *
+     * The list is requested newest-first (astri.workorder.sync.order.params) in pages of
+     * astri.workorder.sync.page.size, and each work order is compared with the stored copy.
+     * An incremental sync stops after the page that reaches records older than the
+     * store's watermark, so its cost follows the number of changes rather than the
+     * backlog. The first sync reads every page, and so does an incremental one when the
+     * server turns out not to honour the ordering. A full sync also drops work orders
+     * ASTRI no longer lists. The store is only updated once every page needed was read.
+     *
+     * @param full true to read every page and detect removed work orders
+     * @param changes Receives each inserted or changed work order (decoded values)
+     * @throws IOException if a page fails or reports success=false; the store is unchanged
+     */
+    public SyncResult syncWorkOrders(String infrastructureType, boolean full, WorkOrderJsonReader.Handler changes)
+            throws IOException, InterruptedException {
+        WorkOrderStore.Partition partition = WorkOrderStore.getInstance().partition(infrastructureType);
+        int pageSize = Math.max(1, config.getWorkOrderSyncPageSize());
+        String orderParams = config.getWorkOrderSyncOrderParams();
+
+        synchronized (partition.syncLock()) {
+            // Start from what other sessions have already synced to the shared store
+            partition.refresh();
+            long watermark = partition.getWatermark();
+            boolean fullPass = full || watermark == WorkOrderStore.UNKNOWN_TIME;
+            SyncPage page = new SyncPage(partition, watermark, full);
+            WorkOrderJsonReader reader = new WorkOrderJsonReader(infrastructureType, true);
+
+            int offset = 0;
+            int requests = 0;
+            boolean complete;
+            while (true) {
+                page.reset();
+                HttpRequest request = buildListRequest(infrastructureType, pageSize, offset, orderParams);
+                HttpResponse<InputStream> response = transport.send(AstriEndpoint.WORK_ORDER_LIST, request, HttpResponse.BodyHandlers.ofInputStream());
+                requests++;
+                long started = System.nanoTime();
+                try (Reader body = AstriHttpTransport.bodyReader(response)) {
+                    reader.read(body, page);
+                } finally {
+                    AstriMetrics.recordPhase(AstriMetrics.Phase.JSON_TO_XML, started);
+                }
+                if (!"true".equals(page.success)) {
+                    throw new IOException("Work order page at offset " + offset + " failed: " +
+                                          (page.error != null ? page.error : "success=" + page.success));
+                }
+
+                offset += pageSize;
+                if (page.records < pageSize || (page.countAll >= 0 && offset >= page.countAll)) {
+                    complete = true;
+                    break;
+                }
+                if (!fullPass && page.ordered && page.reachedWatermark) {
+                    complete = false;
+                    break;
+                }
+            }
+
+            if (!fullPass && !page.ordered) {
+                AstriLog.warn("[WorkOrderClient] {} work order list is not newest-first with '{}'; sync read all {} pages",
+                              infrastructureType, orderParams, requests);
+            }
+
+            List<String> removed = full && complete ? partition.missingFrom(page.seen) : Collections.emptyList();
+            Collection<String[]> changed = page.changed.values();
+            int inserted = partition.apply(changed, removed, page.newestTime, page.newestText);
+
+            String[] fieldNames = partition.getFieldNames();
+            boolean[] nulls = new boolean[fieldNames.length];
+            for (String[] record : changed) {
+                changes.workOrder(fieldNames, record, nulls);
+            }
+
+            SyncResult result = new SyncResult(inserted, changed.size() - inserted, removed, partition.size(),
+                                               page.countAll, requests, complete, partition.getWatermarkText());
+            AstriLog.debug("[WorkOrderClient] Synced {}: {} inserted, {} changed, {} removed in {} requests",
+                           infrastructureType, inserted, result.changed, removed.size(), requests);
+            return result;
+        }
+    }
+
+    /**
+     * Sync as above, returning the changed work orders and the sync counts as XML
+     * (see astri_sync_work_orders).
+     */
+    public String syncWorkOrdersXml(String infrastructureType, boolean full) throws IOException, InterruptedException {
+        try (WorkOrderXmlWriter xml = new WorkOrderXmlWriter()) {
+            SyncResult sync = syncWorkOrders(infrastructureType, full, xml);
+            return xml.toXml("true", String.valueOf(xml.getWorkOrderCount()), String.valueOf(sync.total), null,
+                             "inserted", String.valueOf(sync.inserted),
+                             "changed", String.valueOf(sync.changed),
+                             "removed", String.valueOf(sync.removedUuids.size()),
+                             "removed_uuids", String.join(",", sync.removedUuids),
+                             "requests", String.valueOf(sync.requests),
+                             "full_scan", String.valueOf(sync.fullScan),
+                             "watermark", sync.watermark);
+        }
+    }
+
+    /**
+     * Run syncWorkOrdersXml on a background thread.
+     * Cancelling the returned future interrupts the sync, which aborts its page
+     * request and leaves the store as it was.
+     */
+    public CompletableFuture<String> syncWorkOrdersXmlAsync(String infrastructureType, boolean full) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<?> task = SYNC_EXECUTOR.submit(() -> {
+            try {
+                result.complete(syncWorkOrdersXml(infrastructureType, full));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((xml, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Outcome of syncWorkOrders.
+     */
+    public static final class SyncResult {
+        public final int inserted;
+        public final int changed;
+        public final List<String> removedUuids;
+        /** Work orders in the store after the sync */
+        public final int total;
+        /** count_all reported by ASTRI, or -1 */
+        public final int countAll;
+        public final int requests;
+        /** True if every page of the list was read */
+        public final boolean fullScan;
+        /** Newest updated_at in the store */
+        public final String watermark;
+
+        SyncResult(int inserted, int changed, List<String> removedUuids, int total, int countAll, int requests,
+                   boolean fullScan, String watermark) {
+            this.inserted = inserted;
+            this.changed = changed;
+            this.removedUuids = removedUuids;
+            this.total = total;
+            this.countAll = countAll;
+            this.requests = requests;
+            this.fullScan = fullScan;
+            this.watermark = watermark;
+        }
+    }
+
+    /**
+     * Collects the changes of one sync from the pages read, checking that they arrive newest-first.
+     */
+    static final class SyncPage implements WorkOrderJsonReader.Handler {
+        private final WorkOrderStore.Partition partition;
+        private final long watermark;
+        private final int uuidIndex;
+        private final int updatedAtIndex;
+
+        // Across pages
+        final Map<String, String[]> changed = new LinkedHashMap<>();
+        final Set<String> seen = new HashSet<>();
+        private final boolean collectSeen;
+        boolean ordered = true;
+        boolean reachedWatermark;
+        long newestTime = WorkOrderStore.UNKNOWN_TIME;
+        String newestText;
+        private long previousTime = WorkOrderStore.UNKNOWN_TIME;
+
+        // Current page
+        String success;
+        String error;
+        int countAll = -1;
+        int records;
+
+        SyncPage(WorkOrderStore.Partition partition, long watermark, boolean collectSeen) {
+            this.partition = partition;
+            this.watermark = watermark;
+            this.uuidIndex = partition.uuidIndex();
+            this.updatedAtIndex = partition.updatedAtIndex();
+            this.collectSeen = collectSeen;
+        }
+
+        void reset() {
+            success = null;
+            error = null;
+            records = 0;
+        }
+
+        @Override
+        public void headerField(String name, CharSequence value) {
+            switch (name) {
+                case "success": success = value.toString(); break;
+                case "error": error = value.toString(); break;
+                case "count_all":
+                    try {
+                        countAll = Integer.parseInt(value.toString());
+                    } catch (NumberFormatException e) {
+                        countAll = -1;
+                    }
+                    break;
+                default: break;
+            }
+        }
+
+        @Override
+        public void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls) {
+            records++;
+            if (values[uuidIndex] == null) {
+                return;
+            }
+            String[] record = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                record[i] = values[i] != null ? values[i].toString() : null;
+            }
+            String uuid = record[uuidIndex];
+            if (collectSeen) {
+                seen.add(uuid);
+            }
+
+            long time = WorkOrderStore.parseTime(record[updatedAtIndex]);
+            if (time != WorkOrderStore.UNKNOWN_TIME) {
+                if (previousTime != WorkOrderStore.UNKNOWN_TIME && time > previousTime) {
+                    ordered = false;
+                }
+                previousTime = time;
+                if (time < watermark) {
+                    reachedWatermark = true;
+                }
+                if (time > newestTime) {
+                    newestTime = time;
+                    newestText = record[updatedAtIndex];
+                }
+            }
+
+            // A record moved by an update between two pages can be read twice; keep the last copy
+            if (partition.isChanged(record)) {
+                changed.put(uuid, record);
+            }
+        }
+    }
+
+    /**
+     * Build the GET request for one page of the work order list.
+     */
+    private HttpRequest buildListRequest(String infrastructureType, int limit, int offset, String filterParams) {
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getApiBaseUrl();
 
         // Build endpoint based on infrastructure type
         // cluster:   /work-order/cluster/boq/simple/list/all/{limit}/{offset}
@@ -60,36 +472,17 @@ public class WorkOrderClient {
         String url = baseUrl + path;
         if (filterParams != null && !filterParams.isEmpty()) {
             url += "?" + filterParams;
-            System.out.println("  [WorkOrderClient] Added filter params: " + filterParams);
-        } else {
-            System.out.println("  [WorkOrderClient] No filter params to add");
         }
 
-        System.out.println("  [WorkOrderClient] URL: " + url);
+        AstriLog.debug("[WorkOrderClient] URL: {}", url);
 
         // Build GET request
-        HttpRequest request = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", authHeader)
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
+            .header("Authorization", settings.getAuthHeader())
+            .timeout(settings.getRequestTimeout(AstriEndpoint.WORK_ORDER_LIST))
             .GET()
             .build();
-
-        System.out.println("  [WorkOrderClient] Sending HTTP GET request...");
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        String jsonResponse = response.body();
-
-        System.out.println("  [WorkOrderClient] Response status: " + response.statusCode());
-        System.out.println("  [WorkOrderClient] Response body length: " + (jsonResponse != null ? jsonResponse.length() : 0));
-
-        // Convert JSON to XML for Magik simple_xml parsing
-        System.out.println("  [WorkOrderClient] Converting JSON to XML...");
-        String xmlResult = convertJsonToXml(jsonResponse, infrastructureType);
-        System.out.println("  [WorkOrderClient] XML length: " + (xmlResult != null ? xmlResult.length() : 0));
-        System.out.println("  [WorkOrderClient.getWorkOrders] END");
-
-        return xmlResult;
     }
 
     /**
@@ -100,22 +493,59 @@ public class WorkOrderClient {
      * @return XML string converted from API JSON response
      */
     public String getWorkOrder(String uuid) throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
+        HttpRequest request = buildSingleRequest(uuid);
+
+        // Dialogs often ask for the same work order at once - share one exchange
+        HttpResponse<String> response = transport.sendCoalesced(AstriEndpoint.WORK_ORDER_GET, request);
+
+        // Convert JSON to XML for Magik simple_xml parsing
+        // Default to "cluster" for single work order retrieval
+        return convertJsonToXml(response.body(), "cluster");
+    }
+
+    /**
+     * Get a single work order and report it to a handler instead of building XML.
+     * Uses the "cluster" field set, like getWorkOrder(uuid).
+     */
+    public void getWorkOrder(String uuid, WorkOrderJsonReader.Handler handler) throws IOException, InterruptedException {
+        HttpRequest request = buildSingleRequest(uuid);
+        HttpResponse<String> response = transport.sendCoalesced(AstriEndpoint.WORK_ORDER_GET, request);
+
+        long started = System.nanoTime();
+        try (Reader body = new StringReader(response.body() != null ? response.body() : "")) {
+            new WorkOrderJsonReader("cluster", true).read(body, handler);
+        } finally {
+            AstriMetrics.recordPhase(AstriMetrics.Phase.JSON_TO_XML, started);
+        }
+    }
+
+    /**
+     * Asynchronous variant of getWorkOrder.
+     * The returned future completes with the same XML getWorkOrder would return;
+     * cancelling it leaves the request to any identical calls still waiting for it.
+     */
+    public CompletableFuture<String> getWorkOrderAsync(String uuid) {
+        HttpRequest request = buildSingleRequest(uuid);
+        CompletableFuture<HttpResponse<String>> sent = transport.sendCoalescedAsync(AstriEndpoint.WORK_ORDER_GET, request);
+        return AsyncJobRegistry.propagateCancel(
+            sent.thenApplyAsync(response -> convertJsonToXml(response.body(), "cluster"), transport.getExecutor()),
+            sent);
+    }
+
+    /**
+     * Build the GET request for a single work order.
+     */
+    private HttpRequest buildSingleRequest(String uuid) {
+        AstriConfig.Snapshot settings = config.snapshot();
+        String baseUrl = settings.getApiBaseUrl();
         String path = "/api/work-order/" + uuid;
 
-        HttpRequest request = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
             .uri(URI.create(baseUrl + path))
-            .header("Authorization", authHeader)
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
+            .header("Authorization", settings.getAuthHeader())
+            .timeout(settings.getRequestTimeout(AstriEndpoint.WORK_ORDER_GET))
             .GET()
             .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        String jsonResponse = response.body();
-
-        // Convert JSON to XML for Magik simple_xml parsing
-        // Default to "cluster" for single work order retrieval
-        return convertJsonToXml(jsonResponse, "cluster");
     }
 
     /**
@@ -160,105 +590,29 @@ public class WorkOrderClient {
      *   </data>
      * </response>
      *
+     * The response is walked once by WorkOrderJsonReader; string values are
+     * copied raw (JSON escapes kept verbatim) and XML-escaped.
+     *
      * @param json JSON response from API
      * @param infrastructureType Infrastructure type (cluster, subfeeder, feeder)
      */
-    private String convertJsonToXml(String json, String infrastructureType) {
-        try {
-            StringBuilder xml = new StringBuilder();
-            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            xml.append("<response>\n");
-
-            // Extract top-level fields
-            String success = extractJsonValue(json, "success");
-            String count = extractJsonValue(json, "count");
-            String countAll = extractJsonValue(json, "count_all");
-            String error = extractJsonValue(json, "error");
-
-            if (success != null && !success.isEmpty()) {
-                xml.append("  <success>").append(escapeXml(success)).append("</success>\n");
-            }
-            if (count != null && !count.isEmpty()) {
-                xml.append("  <count>").append(escapeXml(count)).append("</count>\n");
-            }
-            if (countAll != null && !countAll.isEmpty()) {
-                xml.append("  <count_all>").append(escapeXml(countAll)).append("</count_all>\n");
-            }
-            if (error != null && !error.isEmpty()) {
-                xml.append("  <error>").append(escapeXml(error)).append("</error>\n");
-            }
-
-            // Extract data array and convert work orders
-            String dataArray = extractDataArray(json);
-            if (dataArray != null && !dataArray.isEmpty()) {
-                xml.append("  <data>\n");
-
-                // Split into individual work order objects
-                String[] workOrders = splitJsonObjects(dataArray);
-                for (String woJson : workOrders) {
-                    if (woJson.trim().isEmpty()) continue;
-
-                    xml.append("    <workorder>\n");
-
-                    // Extract common fields
-                    appendXmlField(xml, woJson, "uuid", 6);
-                    appendXmlField(xml, woJson, "number", 6);
-                    appendXmlField(xml, woJson, "category_label", 6);
-                    appendXmlField(xml, woJson, "category_name", 6);
-                    appendXmlField(xml, woJson, "latest_status_name", 6);
-                    appendXmlField(xml, woJson, "assigned_vendor_label", 6);
-                    appendXmlField(xml, woJson, "assigned_vendor_name", 6);
-                    appendXmlField(xml, woJson, "assigned_subcont_vendor_name", 6);
-                    appendXmlField(xml, woJson, "created_at", 6);
-                    appendXmlField(xml, woJson, "updated_at", 6);
-
-                    // Extract infrastructure-specific fields based on type
-                    // cluster:   target_cluster_code, target_cluster_name, target_cluster_topology,
-                    //            target_cluster_area, target_cluster_area_plant_code,
-                    //            target_cluster_olt_name, target_cluster_olt_label
-                    // subfeeder: target_subfeeder_code, target_subfeeder_name (no topology),
-                    //            target_subfeeder_area, target_subfeeder_area_plant_code,
-                    //            target_subfeeder_olt_name, target_subfeeder_olt_label
-                    // feeder:    target_osp_route_code, target_osp_route_name (no topology),
-                    //            target_osp_route_area, target_osp_route_area_plant_code, target_osp_route_asset_number,
-                    //            target_osp_route_olt_name, target_osp_route_olt_label
-                    String targetPrefix;
-                    if ("feeder".equals(infrastructureType)) {
-                        targetPrefix = "target_osp_route";
-                    } else {
-                        targetPrefix = "target_" + infrastructureType;
-                    }
-                    appendXmlField(xml, woJson, targetPrefix + "_code", 6);
-                    appendXmlField(xml, woJson, targetPrefix + "_name", 6);
-
-                    // Only include topology for cluster infrastructure type
-                    if ("cluster".equals(infrastructureType)) {
-                        appendXmlField(xml, woJson, targetPrefix + "_topology", 6);
-                        appendXmlField(xml, woJson, "target_cluster_area", 6);
-                        appendXmlField(xml, woJson, "target_cluster_area_plant_code", 6);
-                        appendXmlField(xml, woJson, "target_cluster_olt_name", 6);
-                        appendXmlField(xml, woJson, "target_cluster_olt_label", 6);
-                    } else if ("subfeeder".equals(infrastructureType)) {
-                        appendXmlField(xml, woJson, "target_subfeeder_area", 6);
-                        appendXmlField(xml, woJson, "target_subfeeder_area_plant_code", 6);
-                        appendXmlField(xml, woJson, "target_subfeeder_olt_name", 6);
-                        appendXmlField(xml, woJson, "target_subfeeder_olt_label", 6);
-                    } else if ("feeder".equals(infrastructureType)) {
-                        appendXmlField(xml, woJson, "target_osp_route_area", 6);
-                        appendXmlField(xml, woJson, "target_osp_route_area_plant_code", 6);
-                        appendXmlField(xml, woJson, "target_osp_route_asset_number", 6);
-                        appendXmlField(xml, woJson, "target_osp_route_olt_name", 6);
-                        appendXmlField(xml, woJson, "target_osp_route_olt_label", 6);
-                    }
-
-                    xml.append("    </workorder>\n");
-                }
+    String convertJsonToXml(String json, String infrastructureType) {
+        return convertJsonToXml(new StringReader(json != null ? json : ""), infrastructureType);
+    }
 
-                xml.append("  </data>\n");
-            }
+    /**
+     * Convert a streamed JSON response to XML without buffering the body.
+     * The body is always closed.
+     */
+    private String convertJsonToXml(HttpResponse<InputStream> response, String infrastructureType) {
+        return convertJsonToXml(AstriHttpTransport.bodyReader(response), infrastructureType);
+    }
 
-            xml.append("</response>");
-            return xml.toString();
+    private String convertJsonToXml(Reader json, String infrastructureType) {
+        long started = System.nanoTime();
+        try (Reader body = json; WorkOrderXmlWriter writer = new WorkOrderXmlWriter()) {
+            new WorkOrderJsonReader(infrastructureType).read(body, writer);
+            return writer.toXml();
 
         } catch (Exception e) {
             // Return error as XML
@@ -267,103 +621,15 @@ public class WorkOrderClient {
                    "  <success>false</success>\n" +
                    "  <error>" + escapeXml(e.getMessage()) + "</error>\n" +
                    "</response>";
-        }
-    }
-
-    /**
-     * Extract a JSON field value.
-     * Handles both quoted strings (can contain commas) and unquoted values (numbers, booleans, null).
-     */
-    private String extractJsonValue(String json, String fieldName) {
-        // First try to match quoted string values (can contain commas, spaces, etc.)
-        // Pattern: "fieldName": "value with, commas and spaces"
-        Pattern quotedPattern = Pattern.compile("\"" + Pattern.quote(fieldName) + "\"\\s*:\\s*\"([^\"\\\\]*(?:\\\\.[^\"\\\\]*)*)\"");
-        Matcher quotedMatcher = quotedPattern.matcher(json);
-        if (quotedMatcher.find()) {
-            return quotedMatcher.group(1).trim();
-        }
-
-        // If not quoted, try to match unquoted values (numbers, booleans, null)
-        // Pattern: "fieldName": value (stops at comma or closing brace)
-        Pattern unquotedPattern = Pattern.compile("\"" + Pattern.quote(fieldName) + "\"\\s*:\\s*([^,}\\s]+)");
-        Matcher unquotedMatcher = unquotedPattern.matcher(json);
-        if (unquotedMatcher.find()) {
-            return unquotedMatcher.group(1).trim();
-        }
-
-        return null;
-    }
-
-    /**
-     * Extract the data array from JSON response.
-     */
-    private String extractDataArray(String json) {
-        int dataStart = json.indexOf("\"data\"");
-        if (dataStart == -1) return null;
-
-        int arrayStart = json.indexOf("[", dataStart);
-        if (arrayStart == -1) return null;
-
-        int level = 0;
-        int arrayEnd = -1;
-        for (int i = arrayStart; i < json.length(); i++) {
-            char c = json.charAt(i);
-            if (c == '[') level++;
-            else if (c == ']') {
-                level--;
-                if (level == 0) {
-                    arrayEnd = i;
-                    break;
-                }
-            }
-        }
-
-        if (arrayEnd == -1) return null;
-        return json.substring(arrayStart + 1, arrayEnd);
-    }
-
-    /**
-     * Split JSON array into individual objects.
-     */
-    private String[] splitJsonObjects(String jsonArray) {
-        java.util.List<String> objects = new java.util.ArrayList<>();
-        int level = 0;
-        int start = -1;
-
-        for (int i = 0; i < jsonArray.length(); i++) {
-            char c = jsonArray.charAt(i);
-            if (c == '{') {
-                if (level == 0) start = i;
-                level++;
-            } else if (c == '}') {
-                level--;
-                if (level == 0 && start != -1) {
-                    objects.add(jsonArray.substring(start + 1, i));
-                    start = -1;
-                }
-            }
-        }
-
-        return objects.toArray(new String[0]);
-    }
-
-    /**
-     * Append XML field from JSON object.
-     */
-    private void appendXmlField(StringBuilder xml, String json, String fieldName, int indent) {
-        String value = extractJsonValue(json, fieldName);
-        if (value != null && !value.isEmpty()) {
-            String spaces = " ".repeat(indent);
-            xml.append(spaces).append("<").append(fieldName).append(">")
-               .append(escapeXml(value))
-               .append("</").append(fieldName).append(">\n");
+        } finally {
+            AstriMetrics.recordPhase(AstriMetrics.Phase.JSON_TO_XML, started);
         }
     }
 
     /**
      * Escape XML special characters.
      */
-    private String escapeXml(String str) {
+    String escapeXml(String str) {
         if (str == null) return "";
         return str.replace("&", "&amp;")
                   .replace("<", "&lt;")
@@ -376,6 +642,5 @@ public class WorkOrderClient {
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
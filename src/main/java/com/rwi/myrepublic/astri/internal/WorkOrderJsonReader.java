@@ -0,0 +1,290 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for ASTRI work order responses.
+ * NOT exposed to Magik - used by WorkOrderClient.
+ *
+ * Walks a list or single work order response once with JsonTokenizer and
+ * reports the top-level fields (success, count, count_all, error) and each
+ * work order in the "data" array (or "data" object) to a Handler. Only the
+ * fields of the infrastructure type's field set are collected; everything
+ * else, including nested objects and arrays, is skipped without buffering.
+ *
+ * Values follow the rules of the original regex extraction: the first
+ * occurrence of a field wins, strings are trimmed, empty values are dropped
+ * and non-string scalars (numbers, true/false, null) are reported as their
+ * literal text. Unlike the regex version, only direct members of the
+ * response and of each work order are considered.
+ */
+public final class WorkOrderJsonReader {
+
+    /**
+     * Receiver of the values found in a response.
+     * CharSequence arguments are reused buffers - copy them if they must be kept.
+     */
+    public interface Handler {
+        /**
+         * A top-level scalar field: "success", "count", "count_all" or "error".
+         */
+        void headerField(String name, CharSequence value);
+
+        /**
+         * One work order. values[i] belongs to fieldNames[i] and is null when absent, empty
+         * or a JSON null; nulls[i] is true only for a JSON null, as told apart by a decoding
+         * reader (a raw reader reports null as the text "null").
+         */
+        void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls);
+    }
+
+    static final String[] HEADER_FIELDS = {"success", "count", "count_all", "error"};
+
+    private static final String[] COMMON_FIELDS = {
+        "uuid", "number", "category_label", "category_name", "latest_status_name",
+        "assigned_vendor_label", "assigned_vendor_name", "assigned_subcont_vendor_name",
+        "created_at", "updated_at"
+    };
+
+    private final String[] fields;
+    private final int[] fieldHashes;
+    private final StringBuilder[] slots;
+    private final boolean[] seen;
+    private final boolean[] nulls;
+    private final CharSequence[] values;
+    private final boolean[] headerSeen = new boolean[HEADER_FIELDS.length];
+    private final boolean decodeStrings;
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    /**
+     * Reader producing raw string values (escape sequences kept verbatim), as used for XML output.
+     */
+    public WorkOrderJsonReader(String infrastructureType) {
+        this(infrastructureType, false);
+    }
+
+    /**
+     * @param infrastructureType Infrastructure type selecting the field set
+     * @param decodeStrings true to resolve JSON escapes and report null values as nulls[i]
+     */
+    public WorkOrderJsonReader(String infrastructureType, boolean decodeStrings) {
+        this.fields = fieldsFor(infrastructureType);
+        this.fieldHashes = new int[fields.length];
+        this.slots = new StringBuilder[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fieldHashes[i] = fields[i].hashCode();
+            slots[i] = new StringBuilder(32);
+        }
+        this.seen = new boolean[fields.length];
+        this.nulls = new boolean[fields.length];
+        this.values = new CharSequence[fields.length];
+        this.decodeStrings = decodeStrings;
+    }
+
+    /**
+     * Work order fields reported for an infrastructure type, in output order.
+     *
+     * cluster:   target_cluster_code, target_cluster_name, target_cluster_topology,
+     *            target_cluster_area, target_cluster_area_plant_code,
+     *            target_cluster_olt_name, target_cluster_olt_label
+     * subfeeder: target_subfeeder_code, target_subfeeder_name (no topology),
+     *            target_subfeeder_area, target_subfeeder_area_plant_code,
+     *            target_subfeeder_olt_name, target_subfeeder_olt_label
+     * feeder:    target_osp_route_code, target_osp_route_name (no topology),
+     *            target_osp_route_area, target_osp_route_area_plant_code, target_osp_route_asset_number,
+     *            target_osp_route_olt_name, target_osp_route_olt_label
+     */
+    public static String[] fieldsFor(String infrastructureType) {
+        String targetPrefix;
+        String[] specific;
+        if ("feeder".equals(infrastructureType)) {
+            targetPrefix = "target_osp_route";
+            specific = new String[] {
+                "target_osp_route_area", "target_osp_route_area_plant_code", "target_osp_route_asset_number",
+                "target_osp_route_olt_name", "target_osp_route_olt_label"
+            };
+        } else {
+            targetPrefix = "target_" + infrastructureType;
+            if ("cluster".equals(infrastructureType)) {
+                specific = new String[] {
+                    targetPrefix + "_topology", "target_cluster_area", "target_cluster_area_plant_code",
+                    "target_cluster_olt_name", "target_cluster_olt_label"
+                };
+            } else if ("subfeeder".equals(infrastructureType)) {
+                specific = new String[] {
+                    "target_subfeeder_area", "target_subfeeder_area_plant_code",
+                    "target_subfeeder_olt_name", "target_subfeeder_olt_label"
+                };
+            } else {
+                specific = new String[0];
+            }
+        }
+
+        String[] result = new String[COMMON_FIELDS.length + 2 + specific.length];
+        System.arraycopy(COMMON_FIELDS, 0, result, 0, COMMON_FIELDS.length);
+        result[COMMON_FIELDS.length] = targetPrefix + "_code";
+        result[COMMON_FIELDS.length + 1] = targetPrefix + "_name";
+        System.arraycopy(specific, 0, result, COMMON_FIELDS.length + 2, specific.length);
+        return result;
+    }
+
+    /**
+     * Read one response document and report its contents to the handler.
+     * An empty document reports nothing.
+     *
+     * @throws IOException if the document is not a JSON object or is malformed
+     */
+    public void read(Reader json, Handler handler) throws IOException {
+        JsonTokenizer tokenizer = new JsonTokenizer(json);
+        Arrays.fill(headerSeen, false);
+
+        JsonTokenizer.Token token = tokenizer.next();
+        if (token == JsonTokenizer.Token.END_DOCUMENT) {
+            return;
+        }
+        if (token != JsonTokenizer.Token.BEGIN_OBJECT) {
+            throw new IOException("Expected a JSON object response but found " + token);
+        }
+
+        while ((token = tokenizer.next()) != JsonTokenizer.Token.END_OBJECT) {
+            if (token != JsonTokenizer.Token.NAME) {
+                throw new IOException("Expected a field name but found " + token);
+            }
+            boolean isData = tokenizer.textEquals("data");
+            int header = headerIndex(tokenizer);
+
+            JsonTokenizer.Token value = tokenizer.next();
+            if (isData && value == JsonTokenizer.Token.BEGIN_ARRAY) {
+                readDataArray(tokenizer, handler);
+            } else if (isData && value == JsonTokenizer.Token.BEGIN_OBJECT) {
+                // Single work order responses may carry one object instead of an array
+                readWorkOrder(tokenizer, handler);
+            } else if (header >= 0 && isScalar(value)) {
+                if (!headerSeen[header]) {
+                    headerSeen[header] = true;
+                    if (storeValue(tokenizer, value, scratch)) {
+                        handler.headerField(HEADER_FIELDS[header], scratch);
+                    }
+                }
+            } else {
+                tokenizer.skipValue(value);
+            }
+        }
+    }
+
+    private void readDataArray(JsonTokenizer tokenizer, Handler handler) throws IOException {
+        JsonTokenizer.Token token;
+        while ((token = tokenizer.next()) != JsonTokenizer.Token.END_ARRAY) {
+            if (token == JsonTokenizer.Token.BEGIN_OBJECT) {
+                readWorkOrder(tokenizer, handler);
+            } else {
+                tokenizer.skipValue(token);
+            }
+        }
+    }
+
+    private void readWorkOrder(JsonTokenizer tokenizer, Handler handler) throws IOException {
+        Arrays.fill(seen, false);
+        Arrays.fill(nulls, false);
+        Arrays.fill(values, null);
+        int members = 0;
+
+        while (tokenizer.next() != JsonTokenizer.Token.END_OBJECT) {
+            members++;
+            int slot = fieldIndex(tokenizer);
+
+            JsonTokenizer.Token value = tokenizer.next();
+            if (slot >= 0 && isScalar(value)) {
+                if (!seen[slot]) {
+                    seen[slot] = true;
+                    if (decodeStrings && value == JsonTokenizer.Token.NULL) {
+                        nulls[slot] = true;
+                    } else if (storeValue(tokenizer, value, slots[slot])) {
+                        values[slot] = slots[slot];
+                    }
+                }
+            } else {
+                tokenizer.skipValue(value);
+            }
+        }
+
+        // Empty objects never produced a work order
+        if (members > 0) {
+            handler.workOrder(fields, values, nulls);
+        }
+    }
+
+    /**
+     * Copy the current scalar into dst, trimmed.
+     *
+     * @return false if the value is empty (or null when decoding)
+     */
+    private boolean storeValue(JsonTokenizer tokenizer, JsonTokenizer.Token token, StringBuilder dst) {
+        dst.setLength(0);
+        if (decodeStrings && token == JsonTokenizer.Token.NULL) {
+            return false;
+        }
+        if (decodeStrings && token == JsonTokenizer.Token.STRING) {
+            JsonTokenizer.decode(tokenizer.text(), dst);
+            trimInPlace(dst);
+        } else {
+            appendTrimmed(tokenizer.text(), dst);
+        }
+        return dst.length() > 0;
+    }
+
+    private static void appendTrimmed(CharSequence src, StringBuilder dst) {
+        int start = 0;
+        int end = src.length();
+        while (start < end && src.charAt(start) <= ' ') start++;
+        while (end > start && src.charAt(end - 1) <= ' ') end--;
+        dst.append(src, start, end);
+    }
+
+    private static void trimInPlace(StringBuilder sb) {
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) <= ' ') end--;
+        sb.setLength(end);
+        int start = 0;
+        while (start < end && sb.charAt(start) <= ' ') start++;
+        if (start > 0) {
+            sb.delete(0, start);
+        }
+    }
+
+    private static boolean isScalar(JsonTokenizer.Token token) {
+        return token != JsonTokenizer.Token.BEGIN_OBJECT && token != JsonTokenizer.Token.BEGIN_ARRAY;
+    }
+
+    private int fieldIndex(JsonTokenizer tokenizer) {
+        int hash = hashOf(tokenizer.text());
+        for (int i = 0; i < fields.length; i++) {
+            if (fieldHashes[i] == hash && tokenizer.textEquals(fields[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int headerIndex(JsonTokenizer tokenizer) {
+        for (int i = 0; i < HEADER_FIELDS.length; i++) {
+            if (tokenizer.textEquals(HEADER_FIELDS[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same hash as String.hashCode(), without creating a String.
+     */
+    private static int hashOf(CharSequence cs) {
+        int h = 0;
+        for (int i = 0, len = cs.length(); i < len; i++) {
+            h = 31 * h + cs.charAt(i);
+        }
+        return h;
+    }
+}
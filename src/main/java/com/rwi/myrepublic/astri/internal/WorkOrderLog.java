@@ -0,0 +1,1072 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk copy of the work orders of one infrastructure type: an append-only
+ * log plus a memory-mapped index by uuid and by number.
+ * NOT exposed to Magik - used only by WorkOrderStore.
+ *
+ * Files in the store directory (astri.workorder.store.dir), one set per generation:
+ *   &lt;type&gt;.&lt;generation&gt;.log  records, each [length][CRC32C][payload]; a batch ends with a COMMIT
+ *   &lt;type&gt;.&lt;generation&gt;.idx  open-addressing hash tables: uuid -&gt; latest record, number -&gt; latest record
+ *   &lt;type&gt;.lock                 held exclusively by the session writing a batch
+ *
+ * Crash safety: a writer marks the index as being written and flushes that mark
+ * before it appends. The records go to the log and are forced to disk, then the index
+ * is updated and forced with the mark cleared. A session that finds the mark set, or
+ * log bytes beyond the committed length, truncates the log after the last intact
+ * COMMIT and rebuilds the index from the log. A batch is therefore either fully
+ * visible or not at all.
+ *
+ * Several sessions on one machine can share a directory. The mark doubles as a
+ * sequence lock: readers do index lookups without locking and retry when a write
+ * overlapped. Records below the committed length never change, so a session picks
+ * up other sessions' batches by reading the log from where it stopped (readNew).
+ *
+ * Compaction copies the live records into the next generation and then flags the
+ * old index as superseded. Readers then switch over and replay from the start.
+ * Files are never renamed over, so mapped files of other sessions stay valid on
+ * Windows. Old generations are deleted once no session has them open.
+ */
+final class WorkOrderLog implements AutoCloseable {
+    private static final int LOG_MAGIC = 0x41574F4C;   // "AWOL"
+    private static final int INDEX_MAGIC = 0x41574F49; // "AWOI"
+    private static final int VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte COMMIT = 3;
+
+    // Index header
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_COMPLETE = 12;
+    private static final int H_LOG_ID = 16;
+    private static final int H_SEQUENCE = 24;        // odd while a batch is being written
+    private static final int H_COMMITTED = 32;       // log bytes covered by the index
+    private static final int H_LIVE = 40;
+    private static final int H_RECORDS = 44;
+    private static final int H_UUID_SLOTS = 48;
+    private static final int H_NUMBER_SLOTS = 52;
+    private static final int H_SUPERSEDED = 56;
+    private static final int HEADER_SIZE = 128;
+    private static final int SLOT_SIZE = 16;         // long hash, long record offset (0 = empty)
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    // Compact once the log holds this many more records than are live
+    private static final int COMPACT_MIN_DEAD = 4096;
+    // How long a lookup waits for a concurrent batch to finish
+    private static final long READ_WAIT_NANOS = 5_000_000_000L;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final Pattern GENERATION = Pattern.compile("(.+)\\.(\\d+)\\.idx");
+
+    // FileLock is per process; this keeps two instances in one JVM from overlapping it
+    private static final Map<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Receives records read back from the log, in log order.
+     */
+    interface Visitor {
+        /** The log was compacted by another session: forget everything, a full replay follows. */
+        void reset();
+
+        void put(String[] record);
+
+        void delete(String uuid);
+
+        /** End of a batch, with the watermark stored by it (may be null). */
+        void commit(String watermarkText);
+    }
+
+    private final Path dir;
+    private final String type;
+    private final String[] fieldNames;
+    private final int uuidIndex;
+    private final int numberIndex;
+    private final Path lockPath;
+
+    private long generation;
+    private FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private long firstRecord;
+    private long readPosition;
+    // End of the batch being indexed; its records are not committed yet
+    private long indexingEnd;
+    // Set when we switched to a newer generation; the next visitor starts over
+    private boolean replayFromStart;
+
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(8);
+    // Last record read; a lookup reads the same record to confirm the key and to decode it
+    private FileChannel lastLog;
+    private long lastOffset = -1;
+    private ByteBuffer lastPayload;
+
+    private WorkOrderLog(Path dir, String type, String[] fieldNames) {
+        this.dir = dir;
+        this.type = type;
+        this.fieldNames = fieldNames;
+        this.uuidIndex = Arrays.asList(fieldNames).indexOf("uuid");
+        this.numberIndex = Arrays.asList(fieldNames).indexOf("number");
+        this.lockPath = dir.resolve(type + ".lock").toAbsolutePath();
+    }
+
+    /**
+     * Open (creating or recovering as needed) the log of a type.
+     *
+     * @param fieldNames WorkOrderJsonReader.fieldsFor(type); a log written with other fields is discarded
+     */
+    static WorkOrderLog open(Path dir, String type, String[] fieldNames) throws IOException {
+        Files.createDirectories(dir);
+        WorkOrderLog workOrderLog = new WorkOrderLog(dir, type, fieldNames);
+        workOrderLog.withWriteLock(() -> {
+            workOrderLog.openLatest(true);
+            return null;
+        });
+        return workOrderLog;
+    }
+
+    /**
+     * Deliver the records committed since the previous call (all of them on the first call),
+     * including batches written by other sessions.
+     */
+    synchronized void readNew(Visitor visitor) throws IOException {
+        if (isSuperseded()) {
+            reopen();
+        }
+        if (replayFromStart) {
+            replayFromStart = false;
+            visitor.reset();
+        }
+        long committed = (long) LONGS.getAcquire(index, H_COMMITTED);
+        readPosition = replay(readPosition, committed, visitor);
+    }
+
+    /**
+     * Append one batch: the changed records, the removed uuids and the watermark.
+     * Batches of other sessions not read yet are delivered to catchUp first, so the
+     * caller sees every record in log order.
+     */
+    synchronized void append(Collection<String[]> changed, Collection<String> removed, String watermarkText,
+                             Visitor catchUp) throws IOException {
+        withWriteLock(() -> {
+            if (isSuperseded()) {
+                reopen();
+            }
+            if (replayFromStart) {
+                replayFromStart = false;
+                catchUp.reset();
+            }
+            recoverIfNeeded();
+            readPosition = replay(readPosition, committed(), catchUp);
+
+            long live = index.getInt(H_LIVE);
+            if (Math.max(index.getInt(H_UUID_SLOTS), index.getInt(H_NUMBER_SLOTS)) + changed.size()
+                    > capacity / 2) {
+                compactLocked(live + changed.size());
+                readPosition = committed();
+            }
+
+            long start = committed();
+            ByteBuffer batch = encodeBatch(changed, removed, watermarkText);
+
+            beginWrite();
+            log.write(batch, start);
+            log.force(false);
+            indexBatch(start, start + batch.limit());
+            endWrite(start + batch.limit());
+            readPosition = committed();
+
+            int records = index.getInt(H_RECORDS);
+            if (records - index.getInt(H_LIVE) > Math.max(COMPACT_MIN_DEAD, index.getInt(H_LIVE))) {
+                compactLocked(index.getInt(H_LIVE));
+                readPosition = committed();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Current record of a uuid, or null if unknown or removed.
+     */
+    synchronized String[] get(String uuid) throws IOException {
+        return lookup(uuid, false);
+    }
+
+    /**
+     * Current record with the given work order number, or null.
+     */
+    synchronized String[] getByNumber(String number) throws IOException {
+        return numberIndex < 0 ? null : lookup(number, true);
+    }
+
+    /**
+     * Number of live work orders in the log.
+     */
+    synchronized int size() {
+        return index.getInt(H_LIVE);
+    }
+
+    /**
+     * Rewrite the log with only its live records.
+     */
+    synchronized void compact() throws IOException {
+        withWriteLock(() -> {
+            if (isSuperseded()) {
+                reopen();
+            }
+            recoverIfNeeded();
+            boolean upToDate = !replayFromStart && readPosition == committed();
+            compactLocked(index.getInt(H_LIVE));
+            // Positions in the old log mean nothing in the new one: resume at its end if
+            // everything was read, otherwise replay it from the start
+            if (upToDate) {
+                readPosition = committed();
+            } else {
+                readPosition = firstRecord;
+                replayFromStart = true;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        closeQuietly(log);
+        closeQuietly(indexChannel);
+        log = null;
+        indexChannel = null;
+        index = null;
+    }
+
+    // ---- Reading ----
+
+    private String[] lookup(String key, boolean byNumber) throws IOException {
+        long deadline = System.nanoTime() + READ_WAIT_NANOS;
+        for (int attempt = 0; System.nanoTime() < deadline; attempt++) {
+            if (isSuperseded()) {
+                reopen();
+            }
+            long before = (long) LONGS.getAcquire(index, H_SEQUENCE);
+            if ((before & 1) != 0) {
+                pause(attempt);
+                continue;
+            }
+            String[] found;
+            try {
+                found = byNumber ? findByNumber(key) : findByUuid(key);
+            } catch (IOException | RuntimeException e) {
+                // A concurrent write can leave us reading a slot mid-update; retry unless stable
+                if ((long) LONGS.getAcquire(index, H_SEQUENCE) == before) {
+                    throw e;
+                }
+                continue;
+            }
+            if ((long) LONGS.getAcquire(index, H_SEQUENCE) == before) {
+                return found;
+            }
+        }
+        throw new IOException("Work order store " + type + " is busy; lookup timed out waiting for a write");
+    }
+
+    private static void pause(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+            return;
+        }
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String[] findByUuid(String uuid) throws IOException {
+        long offset = slotOffset(uuidTable(), uuid, false);
+        if (offset == 0) {
+            return null;
+        }
+        ByteBuffer payload = readPayload(offset, committed());
+        return payload != null && payload.get(0) == PUT ? decodePut(payload) : null;
+    }
+
+    private String[] findByNumber(String number) throws IOException {
+        long offset = slotOffset(numberTable(), number, true);
+        if (offset == 0) {
+            return null;
+        }
+        ByteBuffer payload = readPayload(offset, committed());
+        if (payload == null || payload.get(0) != PUT) {
+            return null;
+        }
+        String[] record = decodePut(payload);
+        // The number points at the last record that had it; it only counts if that is still the current one
+        return slotOffset(uuidTable(), record[uuidIndex], false) == offset ? record : null;
+    }
+
+    /**
+     * Offset of the record stored for a key, or 0. Hash matches are confirmed against the record.
+     */
+    private long slotOffset(int table, String key, boolean byNumber) throws IOException {
+        long hash = hash(key);
+        int mask = capacity - 1;
+        long committed = committed();
+        for (int i = (int) hash & mask, probes = 0; probes < capacity; i = (i + 1) & mask, probes++) {
+            int slot = table + i * SLOT_SIZE;
+            long slotHash = index.getLong(slot);
+            if (slotHash == 0) {
+                return 0;
+            }
+            if (slotHash == hash) {
+                long offset = index.getLong(slot + 8);
+                if (offset > 0 && offset < committed && key.equals(keyAt(offset, byNumber))) {
+                    return offset;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private String keyAt(long offset, boolean byNumber) throws IOException {
+        ByteBuffer payload = readPayload(offset, Math.max(committed(), indexingEnd));
+        if (payload == null) {
+            return null;
+        }
+        byte kind = payload.get();
+        if (kind == DELETE) {
+            return byNumber ? null : readString(payload);
+        }
+        if (kind != PUT) {
+            return null;
+        }
+        int count = payload.getInt();
+        int wanted = byNumber ? numberIndex : uuidIndex;
+        for (int i = 0; i < count; i++) {
+            if (i == wanted) {
+                return readString(payload);
+            }
+            skipString(payload);
+        }
+        return null;
+    }
+
+    /**
+     * Replay records in [from, to) to the visitor; returns the position reached.
+     */
+    private long replay(long from, long to, Visitor visitor) throws IOException {
+        long position = from;
+        while (position < to) {
+            ByteBuffer payload = readPayload(position, to);
+            if (payload == null) {
+                throw new IOException("Work order store " + type + ": corrupt record at " + position);
+            }
+            int length = payload.remaining();
+            byte kind = payload.get();
+            if (kind == PUT) {
+                visitor.put(decodeValues(payload));
+            } else if (kind == DELETE) {
+                visitor.delete(readString(payload));
+            } else if (kind == COMMIT) {
+                visitor.commit(readString(payload));
+            }
+            position += 8 + length;
+        }
+        return position;
+    }
+
+    /**
+     * Payload of the record at offset, or null if it is torn, corrupt or extends past limit.
+     */
+    private ByteBuffer readPayload(long offset, long limit) throws IOException {
+        if (offset + 8 > limit) {
+            return null;
+        }
+        if (offset == lastOffset && log == lastLog) {
+            return lastPayload.duplicate().rewind();
+        }
+        recordHeader.clear();
+        readFully(log, recordHeader, offset);
+        int length = recordHeader.getInt(0);
+        int crc = recordHeader.getInt(4);
+        if (length <= 0 || length > MAX_PAYLOAD || offset + 8 + length > limit) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(log, payload, offset + 8);
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload.array(), 0, length);
+        if ((int) checksum.getValue() != crc) {
+            return null;
+        }
+        payload.rewind();
+        lastLog = log;
+        lastOffset = offset;
+        lastPayload = payload;
+        return payload.duplicate();
+    }
+
+    private String[] decodePut(ByteBuffer payload) {
+        payload.position(1);
+        return decodeValues(payload);
+    }
+
+    private String[] decodeValues(ByteBuffer payload) {
+        int count = payload.getInt();
+        String[] record = new String[fieldNames.length];
+        for (int i = 0; i < count; i++) {
+            String value = readString(payload);
+            if (i < record.length) {
+                record[i] = value;
+            }
+        }
+        return record;
+    }
+
+    // ---- Writing ----
+
+    private ByteBuffer encodeBatch(Collection<String[]> changed, Collection<String> removed, String watermarkText) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (String[] record : changed) {
+            buffer = appendRecord(buffer, PUT, record);
+        }
+        for (String uuid : removed) {
+            buffer = appendRecord(buffer, DELETE, new String[] {uuid});
+        }
+        buffer = appendRecord(buffer, COMMIT, new String[] {watermarkText});
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer appendRecord(ByteBuffer buffer, byte kind, String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        int length = 1 + (kind == PUT ? 4 : 0);
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i] != null ? values[i].getBytes(StandardCharsets.UTF_8) : null;
+            length += 4 + (encoded[i] != null ? encoded[i].length : 0);
+        }
+        if (buffer.remaining() < 8 + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + 8 + length));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int start = buffer.position();
+        buffer.position(start + 8);
+        buffer.put(kind);
+        if (kind == PUT) {
+            buffer.putInt(values.length);
+        }
+        for (byte[] value : encoded) {
+            if (value == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(value.length).put(value);
+            }
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(buffer.array(), start + 8, length);
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, (int) checksum.getValue());
+        return buffer;
+    }
+
+    /**
+     * Point the index at the records of [start, end), which are already on disk.
+     */
+    private void indexBatch(long start, long end) throws IOException {
+        indexingEnd = end;
+        try {
+            long position = start;
+            while (position < end) {
+                ByteBuffer payload = readPayload(position, end);
+                if (payload == null) {
+                    throw new IOException("Work order store " + type + ": record at " + position + " did not read back");
+                }
+                indexRecord(position, payload);
+                position += 8 + payload.limit();
+            }
+        } finally {
+            indexingEnd = 0;
+        }
+    }
+
+    private void indexRecord(long offset, ByteBuffer payload) throws IOException {
+        byte kind = payload.get(0);
+        if (kind == COMMIT) {
+            return;
+        }
+        String uuid;
+        String number = null;
+        if (kind == PUT) {
+            String[] record = decodePut(payload);
+            uuid = record[uuidIndex];
+            number = numberIndex >= 0 ? record[numberIndex] : null;
+        } else {
+            payload.position(1);
+            uuid = readString(payload);
+        }
+        if (uuid == null) {
+            return;
+        }
+
+        long previous = store(uuidTable(), H_UUID_SLOTS, uuid, offset, false);
+        boolean wasLive = previous != 0 && kindAt(previous) == PUT;
+        if (kind == PUT && !wasLive) {
+            index.putInt(H_LIVE, index.getInt(H_LIVE) + 1);
+        } else if (kind == DELETE && wasLive) {
+            index.putInt(H_LIVE, index.getInt(H_LIVE) - 1);
+        }
+        if (number != null) {
+            store(numberTable(), H_NUMBER_SLOTS, number, offset, true);
+        }
+        index.putInt(H_RECORDS, index.getInt(H_RECORDS) + 1);
+    }
+
+    /**
+     * Set the slot of a key to offset; returns the offset it replaced, or 0 for a new key.
+     */
+    private long store(int table, int usedField, String key, long offset, boolean byNumber) throws IOException {
+        long hash = hash(key);
+        int mask = capacity - 1;
+        for (int i = (int) hash & mask, probes = 0; probes < capacity; i = (i + 1) & mask, probes++) {
+            int slot = table + i * SLOT_SIZE;
+            long slotHash = index.getLong(slot);
+            if (slotHash == 0) {
+                index.putLong(slot + 8, offset);
+                index.putLong(slot, hash);
+                index.putInt(usedField, index.getInt(usedField) + 1);
+                return 0;
+            }
+            if (slotHash == hash) {
+                long previous = index.getLong(slot + 8);
+                if (key.equals(keyAt(previous, byNumber))) {
+                    index.putLong(slot + 8, offset);
+                    return previous;
+                }
+            }
+        }
+        throw new IOException("Work order store " + type + ": index is full");
+    }
+
+    private byte kindAt(long offset) throws IOException {
+        ByteBuffer kind = ByteBuffer.allocate(1);
+        readFully(log, kind, offset + 8);
+        return kind.get(0);
+    }
+
+    private void beginWrite() {
+        LONGS.setRelease(index, H_SEQUENCE, (long) LONGS.getAcquire(index, H_SEQUENCE) + 1);
+        index.force();
+    }
+
+    private void endWrite(long committed) {
+        LONGS.setRelease(index, H_COMMITTED, committed);
+        LONGS.setRelease(index, H_SEQUENCE, (long) LONGS.getAcquire(index, H_SEQUENCE) + 1);
+        index.force();
+    }
+
+    /**
+     * After a crash: drop the log tail after the last intact COMMIT and rebuild the index.
+     */
+    private void recoverIfNeeded() throws IOException {
+        long sequence = (long) LONGS.getAcquire(index, H_SEQUENCE);
+        if ((sequence & 1) == 0 && log.size() == committed()) {
+            return;
+        }
+        AstriLog.warn("[WorkOrderLog] {} store was not closed cleanly; recovering from the log", type);
+
+        long position = firstRecord;
+        long lastCommitEnd = firstRecord;
+        long size = log.size();
+        while (true) {
+            ByteBuffer payload = readPayload(position, size);
+            if (payload == null) {
+                break;
+            }
+            position += 8 + payload.limit();
+            if (payload.get(0) == COMMIT) {
+                lastCommitEnd = position;
+            }
+        }
+        if (size > lastCommitEnd) {
+            AstriLog.warn("[WorkOrderLog] {} dropping {} bytes of an incomplete batch", type, size - lastCommitEnd);
+            log.truncate(lastCommitEnd);
+            lastOffset = -1;
+            log.force(true);
+        }
+
+        if ((sequence & 1) == 0) {
+            LONGS.setRelease(index, H_SEQUENCE, sequence + 1);
+        }
+        clearTables();
+        indexBatch(firstRecord, lastCommitEnd);
+        endWrite(lastCommitEnd);
+        if (readPosition > lastCommitEnd) {
+            readPosition = lastCommitEnd;
+        }
+    }
+
+    private void clearTables() {
+        for (int i = HEADER_SIZE; i < HEADER_SIZE + 2 * capacity * SLOT_SIZE; i += 8) {
+            index.putLong(i, 0);
+        }
+        index.putInt(H_LIVE, 0);
+        index.putInt(H_RECORDS, 0);
+        index.putInt(H_UUID_SLOTS, 0);
+        index.putInt(H_NUMBER_SLOTS, 0);
+    }
+
+    /**
+     * Write the live records (and the latest watermark) into the next generation and switch to it.
+     */
+    private void compactLocked(long expectedLive) throws IOException {
+        long next = generation + 1;
+        int newCapacity = capacityFor(expectedLive);
+
+        // Live records in log order, found through the uuid table
+        long[] offsets = new long[capacity];
+        int count = 0;
+        int table = uuidTable();
+        for (int i = 0; i < capacity; i++) {
+            long offset = index.getLong(table + i * SLOT_SIZE + 8);
+            if (index.getLong(table + i * SLOT_SIZE) != 0 && offset != 0 && kindAt(offset) == PUT) {
+                offsets[count++] = offset;
+            }
+        }
+        Arrays.sort(offsets, 0, count);
+        String watermarkText = lastWatermark();
+
+        Path newLogPath = logPath(next);
+        Path newIndexPath = indexPath(next);
+        Files.deleteIfExists(newLogPath);
+        Files.deleteIfExists(newIndexPath);
+        FileChannel newLog = FileChannel.open(newLogPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE);
+        FileChannel newIndexChannel = null;
+        try {
+            long logId = ThreadLocalRandom.current().nextLong();
+            long position = writeLogHeader(newLog, logId);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer payload = readPayload(offsets[i], committed());
+                ByteBuffer record = ByteBuffer.allocate(8 + payload.limit());
+                recordHeader.clear();
+                readFully(log, recordHeader, offsets[i]);
+                record.put(recordHeader.flip()).put(payload).flip();
+                position += writeFully(newLog, record, position);
+            }
+            ByteBuffer commit = appendRecord(ByteBuffer.allocate(256), COMMIT, new String[] {watermarkText});
+            commit.flip();
+            position += writeFully(newLog, commit, position);
+            newLog.force(true);
+
+            newIndexChannel = FileChannel.open(newIndexPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+            MappedByteBuffer newIndex = createIndex(newIndexChannel, newCapacity, logId);
+
+            MappedByteBuffer oldIndex = index;
+            FileChannel oldLog = log;
+            FileChannel oldIndexChannel = indexChannel;
+            long oldGeneration = generation;
+            long newFirstRecord = writeLogHeaderSize();
+
+            generation = next;
+            log = newLog;
+            indexChannel = newIndexChannel;
+            index = newIndex;
+            capacity = newCapacity;
+            firstRecord = newFirstRecord;
+
+            LONGS.setRelease(index, H_SEQUENCE, 1L);
+            indexBatch(firstRecord, position);
+            endWrite(position);
+            index.putInt(H_COMPLETE, 1);
+            index.force();
+
+            oldIndex.putInt(H_SUPERSEDED, 1);
+            oldIndex.force();
+            closeQuietly(oldLog);
+            closeQuietly(oldIndexChannel);
+            deleteGeneration(oldGeneration);
+            AstriLog.debug("[WorkOrderLog] Compacted {} into generation {}: {} live records", type, next, count);
+        } catch (IOException | RuntimeException e) {
+            if (log != newLog) {
+                closeQuietly(newLog);
+                closeQuietly(newIndexChannel);
+                deleteGeneration(next);
+            }
+            throw e;
+        }
+    }
+
+    private String lastWatermark() throws IOException {
+        String[] watermark = new String[1];
+        replay(firstRecord, committed(), new Visitor() {
+            @Override
+            public void reset() {
+            }
+
+            @Override
+            public void put(String[] record) {
+            }
+
+            @Override
+            public void delete(String uuid) {
+            }
+
+            @Override
+            public void commit(String watermarkText) {
+                if (watermarkText != null) {
+                    watermark[0] = watermarkText;
+                }
+            }
+        });
+        return watermark[0];
+    }
+
+    // ---- Files and generations ----
+
+    /**
+     * Map the newest complete generation, creating the first one or recovering it as needed.
+     * Must hold the write lock when create is true.
+     */
+    private void openLatest(boolean create) throws IOException {
+        long latest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, type + ".*.idx")) {
+            for (Path file : files) {
+                Matcher matcher = GENERATION.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(1).equals(type)) {
+                    long candidate = Long.parseLong(matcher.group(2));
+                    if (candidate > latest && isComplete(file)) {
+                        latest = candidate;
+                    }
+                }
+            }
+        }
+
+        if (latest >= 0 && mapGeneration(latest)) {
+            if (create) {
+                recoverIfNeeded();
+                deleteOlderGenerations(latest);
+            }
+            return;
+        }
+        if (!create) {
+            throw new IOException("Work order store " + type + " has no usable generation in " + dir);
+        }
+
+        // Nothing usable: start a new generation after whatever is there
+        long next = Math.max(latest, 0) + 1;
+        deleteGeneration(next);
+        FileChannel newLog = FileChannel.open(logPath(next), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE);
+        long logId = ThreadLocalRandom.current().nextLong();
+        long end = writeLogHeader(newLog, logId);
+        newLog.force(true);
+        FileChannel newIndexChannel = FileChannel.open(indexPath(next), StandardOpenOption.CREATE_NEW,
+                                                       StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer newIndex = createIndex(newIndexChannel, MIN_CAPACITY, logId);
+        LONGS.setRelease(newIndex, H_COMMITTED, end);
+        newIndex.putInt(H_COMPLETE, 1);
+        newIndex.force();
+        if (latest >= 0) {
+            // A generation written with other fields or a damaged one
+            AstriLog.warn("[WorkOrderLog] {} store generation {} is not usable; starting generation {}", type, latest, next);
+        }
+
+        generation = next;
+        log = newLog;
+        indexChannel = newIndexChannel;
+        index = newIndex;
+        capacity = MIN_CAPACITY;
+        firstRecord = end;
+        readPosition = end;
+        if (latest >= 0) {
+            deleteOlderGenerations(next);
+        }
+    }
+
+    /**
+     * Map a generation; false if its log does not match this type's fields.
+     */
+    private boolean mapGeneration(long candidate) throws IOException {
+        FileChannel candidateLog = FileChannel.open(logPath(candidate), StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE);
+        FileChannel candidateIndexChannel = null;
+        try {
+            long logId = readLogHeader(candidateLog);
+            candidateIndexChannel = FileChannel.open(indexPath(candidate), StandardOpenOption.READ,
+                                                     StandardOpenOption.WRITE);
+            MappedByteBuffer candidateIndex = candidateIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                                                        candidateIndexChannel.size());
+            if (logId == 0 || candidateIndex.getInt(H_MAGIC) != INDEX_MAGIC
+                    || candidateIndex.getLong(H_LOG_ID) != logId) {
+                closeQuietly(candidateLog);
+                closeQuietly(candidateIndexChannel);
+                return false;
+            }
+            closeQuietly(log);
+            closeQuietly(indexChannel);
+            generation = candidate;
+            log = candidateLog;
+            indexChannel = candidateIndexChannel;
+            index = candidateIndex;
+            capacity = candidateIndex.getInt(H_CAPACITY);
+            firstRecord = writeLogHeaderSize();
+            readPosition = firstRecord;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(candidateLog);
+            closeQuietly(candidateIndexChannel);
+            throw e;
+        }
+    }
+
+    /**
+     * Switch to the generation that superseded ours; reading starts again from the beginning.
+     */
+    private void reopen() throws IOException {
+        openLatest(false);
+        replayFromStart = true;
+    }
+
+    private boolean isSuperseded() {
+        return index.getInt(H_SUPERSEDED) != 0;
+    }
+
+    private static boolean isComplete(Path indexFile) {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            return header.getInt(H_MAGIC) == INDEX_MAGIC && header.getInt(H_VERSION) == VERSION
+                && header.getInt(H_COMPLETE) == 1 && header.getInt(H_SUPERSEDED) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private MappedByteBuffer createIndex(FileChannel channel, int newCapacity, long logId) throws IOException {
+        long size = HEADER_SIZE + 2L * newCapacity * SLOT_SIZE;
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapped.putInt(H_MAGIC, INDEX_MAGIC);
+        mapped.putInt(H_VERSION, VERSION);
+        mapped.putInt(H_CAPACITY, newCapacity);
+        mapped.putLong(H_LOG_ID, logId);
+        return mapped;
+    }
+
+    /**
+     * Log header: magic, version, log id (matched by the index) and the field names.
+     */
+    private long writeLogHeader(FileChannel channel, long logId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(writeLogHeaderSize());
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(logId).putInt(fieldNames.length);
+        for (String name : fieldNames) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            header.putInt(bytes.length).put(bytes);
+        }
+        header.flip();
+        return writeFully(channel, header, 0);
+    }
+
+    private int writeLogHeaderSize() {
+        int size = 20;
+        for (String name : fieldNames) {
+            size += 4 + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    /**
+     * Log id from the header, or 0 if the log is not ours or was written with other fields.
+     */
+    private long readLogHeader(FileChannel channel) throws IOException {
+        int size = writeLogHeaderSize();
+        if (channel.size() < size) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+            return 0;
+        }
+        long logId = header.getLong();
+        if (header.getInt() != fieldNames.length) {
+            return 0;
+        }
+        for (String name : fieldNames) {
+            byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+            if (header.getInt() != expected.length) {
+                return 0;
+            }
+            byte[] actual = new byte[expected.length];
+            header.get(actual);
+            if (!Arrays.equals(expected, actual)) {
+                return 0;
+            }
+        }
+        return logId;
+    }
+
+    private void deleteOlderGenerations(long keep) {
+        Pattern generationFile = Pattern.compile(Pattern.quote(type) + "\\.(\\d+)\\.(log|idx)");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, type + ".*.*")) {
+            for (Path file : files) {
+                Matcher matcher = generationFile.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(1)) < keep) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            AstriLog.debug("[WorkOrderLog] Could not list {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private void deleteGeneration(long gen) {
+        deleteQuietly(logPath(gen));
+        deleteQuietly(indexPath(gen));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped by another session (Windows); removed by a later compaction or open
+        }
+    }
+
+    private Path logPath(long gen) {
+        return dir.resolve(type + "." + gen + ".log");
+    }
+
+    private Path indexPath(long gen) {
+        return dir.resolve(type + "." + gen + ".idx");
+    }
+
+    // ---- Helpers ----
+
+    private interface LockedAction {
+        Void run() throws IOException;
+    }
+
+    /**
+     * Run with the exclusive lock shared by all sessions writing this type.
+     */
+    private void withWriteLock(LockedAction action) throws IOException {
+        ReentrantLock processLock = PROCESS_LOCKS.computeIfAbsent(lockPath, path -> new ReentrantLock());
+        processLock.lock();
+        try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private long committed() {
+        return (long) LONGS.getAcquire(index, H_COMMITTED);
+    }
+
+    private int uuidTable() {
+        return HEADER_SIZE;
+    }
+
+    private int numberTable() {
+        return HEADER_SIZE + capacity * SLOT_SIZE;
+    }
+
+    private static int capacityFor(long live) {
+        long wanted = Math.max(MIN_CAPACITY, live * 4);
+        return (int) Math.min(1L << 30, Long.highestOneBit(wanted - 1) << 1);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 chars; 0 marks an empty slot and is never returned.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 29;
+        return hash != 0 ? hash : 1;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                                  StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Unexpected end of work order store file at " + at);
+            }
+            at += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local copy of the work orders fetched by astri_sync_work_orders.
+ * NOT exposed to Magik - used by WorkOrderClient and AstriWorkOrderProcs.
+ *
+ * One Partition per infrastructure type holds the work orders in a WorkOrderTable,
+ * as values aligned with WorkOrderJsonReader.fieldsFor(type), and the
+ * high-watermark: the newest updated_at seen. A sync fetches newest-first
+ * until it reaches records older than the watermark, and applies what it
+ * found in one step (apply()), so a sync that fails half-way changes nothing.
+ *
+ * With astri.workorder.store.enabled each partition is backed by a WorkOrderLog
+ * in astri.workorder.store.dir (default &lt;download dir&gt;/workorder_store). It is
+ * loaded when the partition is first used, so a new session starts from the last
+ * synced state and its first sync is incremental. Every apply() is written to the
+ * log before memory changes, and refresh() picks up what other sessions on the
+ * machine have written. If the log cannot be opened or written the partition carries
+ * on in memory only for the rest of the session.
+ */
+public final class WorkOrderStore {
+    private static volatile WorkOrderStore instance;
+
+    /**
+     * updated_at value that could not be parsed; such records never move the watermark.
+     */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    private WorkOrderStore() {
+    }
+
+    public static WorkOrderStore getInstance() {
+        if (instance == null) {
+            synchronized (WorkOrderStore.class) {
+                if (instance == null) {
+                    instance = new WorkOrderStore();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The partition of an infrastructure type, created empty on first use.
+     */
+    public Partition partition(String infrastructureType) {
+        return partitions.computeIfAbsent(infrastructureType, type -> {
+            Partition partition = new Partition(type);
+            AstriConfig config = AstriConfig.getInstance();
+            if (config.isWorkOrderStoreEnabled()) {
+                partition.attach(config.getWorkOrderStoreDir());
+            }
+            return partition;
+        });
+    }
+
+    /**
+     * Epoch milliseconds of an ASTRI timestamp ("2025-03-01T10:00:00Z",
+     * "2025-03-01T17:00:00+07:00" or "2025-03-01 10:00:00", the latter read as UTC),
+     * or UNKNOWN_TIME.
+     */
+    public static long parseTime(CharSequence value) {
+        if (value == null || value.length() == 0) {
+            return UNKNOWN_TIME;
+        }
+        String text = value.toString().trim();
+        try {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // No offset - try a local date-time
+        }
+        try {
+            return LocalDateTime.parse(text.replace(' ', 'T')).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return UNKNOWN_TIME;
+        }
+    }
+
+    /**
+     * Work orders of one infrastructure type.
+     */
+    public static final class Partition {
+        private final String infrastructureType;
+        private final String[] fieldNames;
+        private final int uuidIndex;
+        private final int updatedAtIndex;
+
+        // Held for a whole sync, so that two syncs of one type do not interleave
+        private final Object syncLock = new Object();
+
+        private final WorkOrderTable table;
+        private long watermark = UNKNOWN_TIME;
+        private String watermarkText;
+
+        // On-disk copy, or null when disabled or unusable
+        private WorkOrderLog log;
+        private final WorkOrderLog.Visitor loader = new WorkOrderLog.Visitor() {
+            @Override
+            public void reset() {
+                table.clear();
+                watermark = UNKNOWN_TIME;
+                watermarkText = null;
+            }
+
+            @Override
+            public void put(String[] record) {
+                table.put(record);
+            }
+
+            @Override
+            public void delete(String uuid) {
+                table.remove(uuid);
+            }
+
+            @Override
+            public void commit(String text) {
+                advanceWatermark(parseTime(text), text);
+            }
+        };
+
+        Partition(String infrastructureType) {
+            this.infrastructureType = infrastructureType;
+            this.fieldNames = WorkOrderJsonReader.fieldsFor(infrastructureType);
+            this.uuidIndex = Arrays.asList(fieldNames).indexOf("uuid");
+            this.updatedAtIndex = Arrays.asList(fieldNames).indexOf("updated_at");
+            this.table = new WorkOrderTable(fieldNames);
+        }
+
+        /**
+         * Open the on-disk log and load it.
+         */
+        synchronized void attach(String dir) {
+            try {
+                long started = System.nanoTime();
+                log = WorkOrderLog.open(Paths.get(dir), infrastructureType, fieldNames);
+                log.readNew(loader);
+                AstriLog.info("[WorkOrderStore] Loaded {} {} work orders from {} in {} ms (watermark {})",
+                              table.size(), infrastructureType, dir, (System.nanoTime() - started) / 1_000_000,
+                              watermarkText);
+            } catch (IOException | RuntimeException e) {
+                AstriLog.warn("[WorkOrderStore] {} work orders are kept in memory only: {}", infrastructureType,
+                              e.getMessage());
+                closeLog();
+                reset();
+            }
+        }
+
+        /**
+         * Pick up batches other sessions have written to the on-disk log.
+         */
+        public synchronized void refresh() {
+            if (log == null) {
+                return;
+            }
+            try {
+                log.readNew(loader);
+            } catch (IOException | RuntimeException e) {
+                AstriLog.warn("[WorkOrderStore] Could not read the {} work order store: {}", infrastructureType,
+                              e.getMessage());
+            }
+        }
+
+        /**
+         * True if the partition is backed by the on-disk log.
+         */
+        public synchronized boolean isPersistent() {
+            return log != null;
+        }
+
+        public String getInfrastructureType() {
+            return infrastructureType;
+        }
+
+        public String[] getFieldNames() {
+            return fieldNames;
+        }
+
+        Object syncLock() {
+            return syncLock;
+        }
+
+        int uuidIndex() {
+            return uuidIndex;
+        }
+
+        int updatedAtIndex() {
+            return updatedAtIndex;
+        }
+
+        public synchronized int size() {
+            return table.size();
+        }
+
+        /**
+         * Newest updated_at synced, in epoch milliseconds; UNKNOWN_TIME before the first sync.
+         */
+        public synchronized long getWatermark() {
+            return watermark;
+        }
+
+        /**
+         * Newest updated_at synced, as ASTRI sent it, or null before the first sync.
+         */
+        public synchronized String getWatermarkText() {
+            return watermarkText;
+        }
+
+        /**
+         * True if the stored copy of the record is missing or differs from it.
+         */
+        synchronized boolean isChanged(String[] record) {
+            return table.isChanged(record);
+        }
+
+        /**
+         * Apply the outcome of a sync: store the changed records, drop the removed
+         * uuids and move the watermark forward (never back). The batch is written to
+         * the on-disk log first. If that fails the log is closed and the partition carries
+         * on in memory only: a later batch must not persist a watermark past the lost one,
+         * so the next session resumes from the last batch that reached the disk.
+         *
+         * @return number of records that were new
+         */
+        synchronized int apply(Collection<String[]> changed, Collection<String> removed, long newestTime,
+                               String newestText) {
+            if (log != null) {
+                try {
+                    boolean advances = newestTime != UNKNOWN_TIME && newestTime >= watermark;
+                    log.append(changed, removed, advances ? newestText : watermarkText, loader);
+                } catch (IOException | RuntimeException e) {
+                    AstriLog.warn("[WorkOrderStore] Could not write the {} work order store, now in memory only: {}",
+                                  infrastructureType, e.getMessage());
+                    closeLog();
+                }
+            }
+
+            int inserted = 0;
+            for (String[] record : changed) {
+                if (table.put(record)) {
+                    inserted++;
+                }
+            }
+            for (String uuid : removed) {
+                table.remove(uuid);
+            }
+            advanceWatermark(newestTime, newestText);
+            return inserted;
+        }
+
+        private void advanceWatermark(long time, String text) {
+            if (time != UNKNOWN_TIME && time >= watermark) {
+                watermark = time;
+                watermarkText = text;
+            }
+        }
+
+        /**
+         * Uuids stored but not in the given set, i.e. gone from ASTRI after a full pass.
+         */
+        synchronized List<String> missingFrom(Set<String> present) {
+            return table.missingFrom(present);
+        }
+
+        /**
+         * Copy of the stored records, in the order they were first synced.
+         */
+        public synchronized List<String[]> records() {
+            return table.rows();
+        }
+
+        /**
+         * Work order by uuid or number, from the on-disk index when there is one.
+         */
+        public synchronized String[] find(String key) {
+            if (log != null) {
+                try {
+                    String[] record = log.get(key);
+                    return record != null ? record : log.getByNumber(key);
+                } catch (IOException | RuntimeException e) {
+                    AstriLog.warn("[WorkOrderStore] {} lookup of {} fell back to memory: {}", infrastructureType, key,
+                                  e.getMessage());
+                }
+            }
+            String[] record = table.get(key);
+            return record != null ? record : table.findByNumber(key);
+        }
+
+        /**
+         * Filter, sort and page the stored records; see WorkOrderTable.query.
+         *
+         * @throws IllegalArgumentException for a sort field this type does not have
+         */
+        public synchronized WorkOrderTable.Page query(Map<String, ? extends Collection<String>> filters,
+                                                      List<WorkOrderTable.SortKey> sort, int limit, int offset) {
+            return table.query(filters, sort, limit, offset);
+        }
+
+        /**
+         * Approximate heap bytes of the stored records.
+         */
+        public synchronized long estimateBytes() {
+            return table.estimateBytes();
+        }
+
+        private void reset() {
+            loader.reset();
+        }
+
+        private void closeLog() {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+    }
+}
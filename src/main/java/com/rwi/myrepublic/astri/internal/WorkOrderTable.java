@@ -0,0 +1,817 @@
+package com.rwi.myrepublic.astri.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columnar in-memory table of the work orders of one infrastructure type.
+ * NOT exposed to Magik - used by WorkOrderStore, which keeps its records here,
+ * and by astri_query_work_orders.
+ *
+ * Rows hold the values of WorkOrderJsonReader.fieldsFor(type). Columns with few
+ * distinct values (status, vendor, category, topology, area, OLT, ...) are
+ * dictionary-encoded: each distinct string is stored once and rows hold an int
+ * code. While a dictionary has at most BITMAP_MAX_VALUES entries it also keeps a
+ * bitmap of rows per value, so a filter on that column is an OR of a few bitmaps
+ * and a multi-column filter an AND of those. Identifiers, codes, names and
+ * timestamps are stored as plain strings and filtered by a scan; timestamps also
+ * keep their epoch milliseconds for sorting.
+ *
+ * Filters match as ASTRI's list filters do: the value is a case-insensitive
+ * substring of the field. A dictionary column tests each distinct value once
+ * rather than each row. Sorting uses per-column ranks (cached until the column
+ * changes) and one stable pass per sort key over (rank, position) packed in longs.
+ *
+ * Removed rows are only marked dead; the table is rebuilt once dead rows
+ * outnumber live ones, which also drops unused dictionary values. Not thread-safe:
+ * WorkOrderStore.Partition guards it.
+ */
+public final class WorkOrderTable {
+    /**
+     * Dictionaries larger than this stop keeping per-value bitmaps and filter by scanning codes.
+     */
+    static final int BITMAP_MAX_VALUES = 256;
+
+    private static final int MIN_DEAD_FOR_REBUILD = 1024;
+
+    private final String[] fieldNames;
+    private final Map<String, Integer> fieldIndex = new HashMap<>();
+    private final int uuidIndex;
+    private final int numberIndex;
+
+    private Column[] columns;
+    private Map<String, Integer> rowByUuid = new HashMap<>();
+    private long[] live = new long[0];
+    private int rowCount;
+    private int liveCount;
+
+    /**
+     * Sort order of a query: a field and its direction.
+     */
+    public static final class SortKey {
+        public final String field;
+        public final boolean descending;
+
+        public SortKey(String field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+    }
+
+    /**
+     * One page of a query result.
+     */
+    public static final class Page {
+        /** Rows matching the filters, before limit and offset */
+        public final int total;
+        /** The rows of the page, values aligned with the field names */
+        public final List<String[]> rows;
+
+        Page(int total, List<String[]> rows) {
+            this.total = total;
+            this.rows = rows;
+        }
+    }
+
+    WorkOrderTable(String[] fieldNames) {
+        this.fieldNames = fieldNames;
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldIndex.put(fieldNames[i], i);
+        }
+        this.uuidIndex = fieldIndex.get("uuid");
+        this.numberIndex = fieldIndex.getOrDefault("number", -1);
+        this.columns = newColumns();
+    }
+
+    /**
+     * Parse a sort specification: comma-separated fields, each optionally followed by
+     * "asc" or "desc" or prefixed with "-" for descending, e.g. "updated_at desc, number".
+     */
+    public static List<SortKey> parseSort(String spec) {
+        List<SortKey> keys = new ArrayList<>();
+        if (spec == null) {
+            return keys;
+        }
+        for (String part : spec.split(",")) {
+            String[] words = part.trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            String field = words[0];
+            boolean descending = false;
+            if (field.startsWith("-")) {
+                field = field.substring(1);
+                descending = true;
+            }
+            if (words.length > 1) {
+                if (words[1].equalsIgnoreCase("desc")) {
+                    descending = true;
+                } else if (!words[1].equalsIgnoreCase("asc")) {
+                    throw new IllegalArgumentException("Invalid sort direction '" + words[1] + "' for " + field
+                                                       + ". Must be 'asc' or 'desc'");
+                }
+            }
+            keys.add(new SortKey(field, descending));
+        }
+        return keys;
+    }
+
+    int size() {
+        return liveCount;
+    }
+
+    /**
+     * Insert or replace the row of record's uuid.
+     *
+     * @return true if the uuid was new
+     */
+    boolean put(String[] record) {
+        String uuid = record[uuidIndex];
+        Integer existing = rowByUuid.get(uuid);
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            row = rowCount++;
+            ensureRows(rowCount);
+            rowByUuid.put(uuid, row);
+            setBit(live, row);
+            liveCount++;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(row, i < record.length ? record[i] : null);
+        }
+        return existing == null;
+    }
+
+    /**
+     * Remove the row of a uuid, if present.
+     */
+    void remove(String uuid) {
+        Integer row = rowByUuid.remove(uuid);
+        if (row == null) {
+            return;
+        }
+        for (Column column : columns) {
+            column.set(row, null);
+        }
+        clearBit(live, row);
+        liveCount--;
+        if (rowCount - liveCount > Math.max(MIN_DEAD_FOR_REBUILD, liveCount)) {
+            rebuild();
+        }
+    }
+
+    void clear() {
+        columns = newColumns();
+        rowByUuid = new HashMap<>();
+        live = new long[0];
+        rowCount = 0;
+        liveCount = 0;
+    }
+
+    /**
+     * The stored record of a uuid, or null.
+     */
+    String[] get(String uuid) {
+        Integer row = rowByUuid.get(uuid);
+        return row != null ? row(row) : null;
+    }
+
+    /**
+     * The record with a work order number, or null.
+     */
+    String[] findByNumber(String number) {
+        if (numberIndex < 0) {
+            return null;
+        }
+        Column column = columns[numberIndex];
+        for (int row = nextSet(live, 0); row >= 0; row = nextSet(live, row + 1)) {
+            if (number.equals(column.get(row))) {
+                return row(row);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if record differs from the stored row of its uuid, or there is none.
+     */
+    boolean isChanged(String[] record) {
+        Integer row = rowByUuid.get(record[uuidIndex]);
+        if (row == null) {
+            return true;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            String value = i < record.length ? record[i] : null;
+            if (!columns[i].valueEquals(row, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Uuids stored but not in the given set.
+     */
+    List<String> missingFrom(Set<String> present) {
+        List<String> missing = new ArrayList<>();
+        for (String uuid : rowByUuid.keySet()) {
+            if (!present.contains(uuid)) {
+                missing.add(uuid);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * All records, in the order they were first stored.
+     */
+    List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>(liveCount);
+        for (int row = nextSet(live, 0); row >= 0; row = nextSet(live, row + 1)) {
+            rows.add(row(row));
+        }
+        return rows;
+    }
+
+    /**
+     * Filter, sort and page the rows.
+     *
+     * @param filters Field name to accepted values; a row matches a field if any value is a
+     *                case-insensitive substring of it, and must match every field. Fields the
+     *                type does not have are ignored, as ASTRI does.
+     * @param sort Sort keys, most significant first; empty keeps the stored order
+     * @param limit Maximum rows returned (0 or less = all)
+     * @param offset Rows to skip
+     * @throws IllegalArgumentException for a sort field the type does not have
+     */
+    Page query(Map<String, ? extends Collection<String>> filters, List<SortKey> sort, int limit, int offset) {
+        long[] matches = live.clone();
+        for (Map.Entry<String, ? extends Collection<String>> filter : filters.entrySet()) {
+            Integer field = fieldIndex.get(filter.getKey());
+            if (field == null || filter.getValue().isEmpty()) {
+                continue;
+            }
+            long[] accepted = columns[field].match(filter.getValue(), rowCount);
+            // Words past accepted hold no rows yet
+            for (int w = 0; w < accepted.length; w++) {
+                matches[w] &= accepted[w];
+            }
+        }
+
+        int total = 0;
+        for (long word : matches) {
+            total += Long.bitCount(word);
+        }
+        int from = Math.min(Math.max(offset, 0), total);
+        int to = limit > 0 ? (int) Math.min((long) from + limit, total) : total;
+        List<String[]> rows = new ArrayList<>(to - from);
+
+        if (sort.isEmpty()) {
+            int index = 0;
+            for (int row = nextSet(matches, 0); row >= 0 && index < to; row = nextSet(matches, row + 1), index++) {
+                if (index >= from) {
+                    rows.add(row(row));
+                }
+            }
+            return new Page(total, rows);
+        }
+
+        Column[] sortColumns = new Column[sort.size()];
+        for (int k = 0; k < sortColumns.length; k++) {
+            Integer field = fieldIndex.get(sort.get(k).field);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown sort field: '" + sort.get(k).field + "'");
+            }
+            sortColumns[k] = columns[field];
+        }
+        // The least significant key orders the matches by walking its sorted rows. A single
+        // key needs no more, and stops once the page is full; otherwise one stable pass per
+        // remaining key follows, so earlier keys break ties
+        int last = sortColumns.length - 1;
+        int[] order = walkSorted(sortColumns[last], sort.get(last).descending, matches, last == 0 ? to : total);
+        for (int k = last - 1; k >= 0; k--) {
+            order = sortBy(order, sortColumns[k], sort.get(k).descending);
+        }
+        for (int i = from; i < to; i++) {
+            rows.add(row(order[i]));
+        }
+        return new Page(total, rows);
+    }
+
+    /**
+     * Approximate heap bytes held by the table, for comparison with other representations.
+     */
+    long estimateBytes() {
+        long bytes = live.length * 8L + rowByUuid.size() * 48L;
+        for (Column column : columns) {
+            bytes += column.estimateBytes(rowCount);
+        }
+        return bytes;
+    }
+
+    /**
+     * The first count rows of matches in the column's sort order, ties in stored order.
+     */
+    private int[] walkSorted(Column column, boolean descending, long[] matches, int count) {
+        int[] sorted = column.sortedRows(rowCount);
+        int[] order = new int[count];
+        int n = 0;
+        if (!descending) {
+            for (int i = 0; i < sorted.length && n < count; i++) {
+                if (isSet(matches, sorted[i])) {
+                    order[n++] = sorted[i];
+                }
+            }
+            return order;
+        }
+        // Groups of equal rank from the back, each group front to back
+        int[] ranks = column.ranks(rowCount);
+        int end = sorted.length;
+        while (end > 0 && n < count) {
+            int start = end - 1;
+            int rank = ranks[sorted[start]];
+            while (start > 0 && ranks[sorted[start - 1]] == rank) {
+                start--;
+            }
+            for (int i = start; i < end && n < count; i++) {
+                if (isSet(matches, sorted[i])) {
+                    order[n++] = sorted[i];
+                }
+            }
+            end = start;
+        }
+        return order;
+    }
+
+    private int[] sortBy(int[] order, Column column, boolean descending) {
+        int[] ranks = column.ranks(rowCount);
+        long[] packed = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int rank = ranks[order[i]];
+            packed[i] = ((long) (descending ? Integer.MAX_VALUE - rank : rank) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[order.length];
+        for (int i = 0; i < packed.length; i++) {
+            sorted[i] = order[(int) packed[i]];
+        }
+        return sorted;
+    }
+
+    private String[] row(int row) {
+        String[] record = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            record[i] = columns[i].get(row);
+        }
+        return record;
+    }
+
+    private void ensureRows(int rows) {
+        int words = (rows + 63) >>> 6;
+        if (words > live.length) {
+            live = Arrays.copyOf(live, Math.max(words, live.length * 2));
+        }
+        for (Column column : columns) {
+            column.ensureRows(rows);
+        }
+    }
+
+    /**
+     * Copy the live rows into fresh columns, in order.
+     */
+    private void rebuild() {
+        List<String[]> rows = rows();
+        clear();
+        for (String[] record : rows) {
+            put(record);
+        }
+    }
+
+    private Column[] newColumns() {
+        Column[] result = new Column[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            String name = fieldNames[i];
+            if (name.endsWith("_at")) {
+                result[i] = new TimeColumn();
+            } else if (isPlain(name)) {
+                result[i] = new PlainColumn();
+            } else {
+                result[i] = new DictionaryColumn();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fields that are (nearly) unique per work order and gain nothing from a dictionary.
+     */
+    private static boolean isPlain(String name) {
+        return name.equals("uuid") || name.equals("number") || name.endsWith("_code") && !name.endsWith("_plant_code")
+            || (name.startsWith("target_") && name.endsWith("_name") && !name.endsWith("_olt_name"))
+            || name.endsWith("_asset_number");
+    }
+
+    // ---- Columns ----
+
+    private abstract static class Column {
+        abstract void ensureRows(int rows);
+
+        abstract void set(int row, String value);
+
+        abstract String get(int row);
+
+        boolean valueEquals(int row, String value) {
+            String stored = get(row);
+            return stored == null ? value == null : stored.equals(value);
+        }
+
+        /**
+         * Bitmap of the rows below rowCount whose value contains any of the needles.
+         */
+        abstract long[] match(Collection<String> needles, int rowCount);
+
+        /**
+         * Rank of each row's value in sort order (nulls first); equal values share a rank.
+         * The array is replaced, not updated, when values change.
+         */
+        abstract int[] ranks(int rowCount);
+
+        abstract long estimateBytes(int rowCount);
+
+        private int[] sortedRanks;
+        private int[] sortedRows;
+
+        /**
+         * Rows ordered by rank, then by row; a counting sort of ranks(), cached with it.
+         */
+        final int[] sortedRows(int rowCount) {
+            int[] ranks = ranks(rowCount);
+            if (ranks != sortedRanks) {
+                int maxRank = 0;
+                for (int row = 0; row < rowCount; row++) {
+                    maxRank = Math.max(maxRank, ranks[row]);
+                }
+                int[] starts = new int[maxRank + 2];
+                for (int row = 0; row < rowCount; row++) {
+                    starts[ranks[row] + 1]++;
+                }
+                for (int rank = 1; rank < starts.length; rank++) {
+                    starts[rank] += starts[rank - 1];
+                }
+                int[] rows = new int[rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    rows[starts[ranks[row]]++] = row;
+                }
+                sortedRows = rows;
+                sortedRanks = ranks;
+            }
+            return sortedRows;
+        }
+    }
+
+    /**
+     * Low-cardinality strings: a dictionary, an int code per row and a bitmap per value.
+     */
+    private static final class DictionaryColumn extends Column {
+        // Code 0 is null
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private int[] rowCodes = new int[0];
+        private List<long[]> bitmaps = new ArrayList<>();
+        private int bitmapWords;
+
+        // Sort rank per code, rebuilt when the dictionary grows
+        private int[] codeRanks;
+        private int[] rowRanks;
+        private boolean rowRanksValid;
+
+        DictionaryColumn() {
+            values.add(null);
+            bitmaps.add(null);
+        }
+
+        @Override
+        void ensureRows(int rows) {
+            if (rows > rowCodes.length) {
+                rowCodes = Arrays.copyOf(rowCodes, Math.max(rows, rowCodes.length * 2));
+            }
+            int words = (rowCodes.length + 63) >>> 6;
+            if (bitmaps != null && words > bitmapWords) {
+                for (int code = 1; code < bitmaps.size(); code++) {
+                    bitmaps.set(code, Arrays.copyOf(bitmaps.get(code), words));
+                }
+                bitmapWords = words;
+            }
+        }
+
+        @Override
+        void set(int row, String value) {
+            int code = value == null ? 0 : codes.computeIfAbsent(value, this::addValue);
+            int old = rowCodes[row];
+            if (old == code) {
+                return;
+            }
+            if (bitmaps != null) {
+                if (old != 0) {
+                    clearBit(bitmaps.get(old), row);
+                }
+                if (code != 0) {
+                    setBit(bitmaps.get(code), row);
+                }
+            }
+            rowCodes[row] = code;
+            rowRanksValid = false;
+        }
+
+        private int addValue(String value) {
+            int code = values.size();
+            values.add(value);
+            codeRanks = null;
+            if (bitmaps != null) {
+                if (code > BITMAP_MAX_VALUES) {
+                    bitmaps = null;
+                } else {
+                    bitmaps.add(new long[bitmapWords]);
+                }
+            }
+            return code;
+        }
+
+        @Override
+        String get(int row) {
+            return values.get(rowCodes[row]);
+        }
+
+        @Override
+        boolean valueEquals(int row, String value) {
+            if (value == null) {
+                return rowCodes[row] == 0;
+            }
+            Integer code = codes.get(value);
+            return code != null && rowCodes[row] == code;
+        }
+
+        @Override
+        long[] match(Collection<String> needles, int rowCount) {
+            boolean[] accepted = new boolean[values.size()];
+            boolean any = false;
+            for (int code = 1; code < values.size(); code++) {
+                for (String needle : needles) {
+                    if (containsIgnoreCase(values.get(code), needle)) {
+                        accepted[code] = true;
+                        any = true;
+                        break;
+                    }
+                }
+            }
+            long[] result = new long[(rowCount + 63) >>> 6];
+            if (!any) {
+                return result;
+            }
+            if (bitmaps != null) {
+                for (int code = 1; code < accepted.length; code++) {
+                    if (accepted[code]) {
+                        long[] bitmap = bitmaps.get(code);
+                        for (int w = 0; w < result.length; w++) {
+                            result[w] |= bitmap[w];
+                        }
+                    }
+                }
+            } else {
+                for (int row = 0; row < rowCount; row++) {
+                    if (accepted[rowCodes[row]]) {
+                        setBit(result, row);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        int[] ranks(int rowCount) {
+            if (codeRanks == null) {
+                Integer[] order = new Integer[values.size() - 1];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i + 1;
+                }
+                Arrays.sort(order, (a, b) -> compareText(values.get(a), values.get(b)));
+                codeRanks = new int[values.size()];
+                for (int i = 0; i < order.length; i++) {
+                    codeRanks[order[i]] = i + 1;
+                }
+                rowRanksValid = false;
+            }
+            if (!rowRanksValid || rowRanks.length < rowCount) {
+                rowRanks = new int[rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    rowRanks[row] = codeRanks[rowCodes[row]];
+                }
+                rowRanksValid = true;
+            }
+            return rowRanks;
+        }
+
+        @Override
+        long estimateBytes(int rowCount) {
+            long bytes = rowCodes.length * 4L;
+            for (int code = 1; code < values.size(); code++) {
+                bytes += 56 + values.get(code).length() + 48;
+            }
+            if (bitmaps != null) {
+                bytes += (values.size() - 1) * (16 + bitmapWords * 8L);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Strings that are (nearly) unique per row.
+     */
+    private static class PlainColumn extends Column {
+        protected String[] values = new String[0];
+        private int[] rowRanks;
+        private boolean rowRanksValid;
+
+        @Override
+        void ensureRows(int rows) {
+            if (rows > values.length) {
+                values = Arrays.copyOf(values, Math.max(rows, values.length * 2));
+            }
+        }
+
+        @Override
+        void set(int row, String value) {
+            values[row] = value;
+            rowRanksValid = false;
+        }
+
+        @Override
+        String get(int row) {
+            return values[row];
+        }
+
+        @Override
+        long[] match(Collection<String> needles, int rowCount) {
+            long[] result = new long[(rowCount + 63) >>> 6];
+            for (int row = 0; row < rowCount; row++) {
+                String value = values[row];
+                if (value == null) {
+                    continue;
+                }
+                for (String needle : needles) {
+                    if (containsIgnoreCase(value, needle)) {
+                        setBit(result, row);
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        int[] ranks(int rowCount) {
+            if (rowRanksValid && rowRanks.length >= rowCount) {
+                return rowRanks;
+            }
+            Integer[] order = new Integer[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                order[row] = row;
+            }
+            Comparator<Integer> comparator = rowComparator();
+            Arrays.sort(order, comparator);
+            rowRanks = new int[rowCount];
+            int rank = 0;
+            for (int i = 0; i < rowCount; i++) {
+                if (i > 0 && comparator.compare(order[i - 1], order[i]) != 0) {
+                    rank++;
+                }
+                rowRanks[order[i]] = rank;
+            }
+            rowRanksValid = true;
+            return rowRanks;
+        }
+
+        Comparator<Integer> rowComparator() {
+            return (a, b) -> compareText(values[a], values[b]);
+        }
+
+        @Override
+        long estimateBytes(int rowCount) {
+            long bytes = values.length * 4L;
+            for (int row = 0; row < rowCount; row++) {
+                if (values[row] != null) {
+                    bytes += 56 + values[row].length();
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Timestamps: the text as received, sorted by instant (unparseable values first, then by text).
+     */
+    private static final class TimeColumn extends PlainColumn {
+        private long[] millis = new long[0];
+
+        @Override
+        void ensureRows(int rows) {
+            super.ensureRows(rows);
+            if (rows > millis.length) {
+                millis = Arrays.copyOf(millis, values.length);
+            }
+        }
+
+        @Override
+        void set(int row, String value) {
+            super.set(row, value);
+            millis[row] = WorkOrderStore.parseTime(value);
+        }
+
+        @Override
+        Comparator<Integer> rowComparator() {
+            return (a, b) -> {
+                int byTime = Long.compare(millis[a], millis[b]);
+                return byTime != 0 ? byTime : compareText(values[a], values[b]);
+            };
+        }
+
+        @Override
+        long estimateBytes(int rowCount) {
+            return super.estimateBytes(rowCount) + millis.length * 8L;
+        }
+    }
+
+    // ---- Helpers ----
+
+    /**
+     * Nulls first, then case-insensitive, then exact order.
+     */
+    private static int compareText(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int ignoringCase = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        return ignoringCase != 0 ? ignoringCase : a.compareTo(b);
+    }
+
+    static boolean containsIgnoreCase(String value, String needle) {
+        int length = needle.length();
+        if (length == 0) {
+            return true;
+        }
+        // Cheap test of the first character before comparing the rest
+        char first = needle.charAt(0);
+        char upper = Character.toUpperCase(first);
+        char lower = Character.toLowerCase(first);
+        int last = value.length() - length;
+        for (int i = 0; i <= last; i++) {
+            char c = value.charAt(i);
+            if ((c == first || c == upper || c == lower
+                 || Character.toUpperCase(c) == upper || Character.toLowerCase(c) == lower)
+                && value.regionMatches(true, i + 1, needle, 1, length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void setBit(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void clearBit(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * Index of the first set bit at or after from, or -1.
+     */
+    private static int nextSet(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == bits.length) {
+                return -1;
+            }
+            word = bits[w];
+        }
+    }
+}
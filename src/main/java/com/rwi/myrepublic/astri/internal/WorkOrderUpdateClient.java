@@ -4,32 +4,22 @@ import com.rwi.myrepublic.astri.AstriConfig;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Internal HTTP client for ASTRI Work Order Update API.
  * NOT exposed to Magik - used only by AstriWorkOrderUpdateProcs.
- * Uses Java 11+ HttpClient.
+ * Uses the shared AstriHttpTransport (Java 11+ HttpClient).
  */
 public class WorkOrderUpdateClient {
-    private HttpClient client;
+    private AstriHttpTransport transport;
     private AstriConfig config;
-    private String authHeader;
 
     public WorkOrderUpdateClient() {
         this.config = AstriConfig.getInstance();
-
-        this.client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofMillis(config.getConnectionTimeout()))
-            .build();
-
-        // Prepare Basic Authentication header
-        String credentials = config.getUsername() + ":" + config.getPassword();
-        this.authHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        this.transport = AstriHttpTransport.getInstance();
     }
 
     /**
@@ -37,51 +27,48 @@ public class WorkOrderUpdateClient {
      */
     public String updateWorkOrder(String number, String latestStatusName, String detail)
             throws IOException, InterruptedException {
-        String baseUrl = config.getApiBaseUrl();
-        String path = "/work-order/update";
-        String url = baseUrl + path;
+        AstriConfig.Snapshot settings = config.snapshot();
+        URI uri = settings.apiUri("/work-order/update");
 
         // Build JSON request body
-        String jsonBody = buildJsonBody(number, latestStatusName, detail);
+        byte[] jsonBody = buildJsonBody(number, latestStatusName, detail);
 
-        System.out.println("PUT URL: " + url);
-        System.out.println("Request body: " + jsonBody);
+        AstriLog.debug("PUT URL: {}", uri);
+        boolean logPayload = AstriLog.samplePayload();
+        if (logPayload) {
+            AstriLog.payload("work_order_update request", new String(jsonBody, StandardCharsets.UTF_8));
+        }
 
         HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url))
-            .header("Authorization", authHeader)
+            .uri(uri)
+            .header("Authorization", settings.getAuthHeader())
             .header("Content-Type", "application/json")
-            .timeout(Duration.ofMillis(config.getRequestTimeout()))
-            .PUT(HttpRequest.BodyPublishers.ofString(jsonBody))
+            .timeout(settings.getRequestTimeout(AstriEndpoint.WORK_ORDER_UPDATE))
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(jsonBody))
             .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = transport.send(AstriEndpoint.WORK_ORDER_UPDATE, request, HttpResponse.BodyHandlers.ofString());
+        if (logPayload) {
+            AstriLog.payload("work_order_update response", response.body());
+        }
         return response.body();
     }
 
-    private String buildJsonBody(String number, String latestStatusName, String detail) {
-        StringBuilder json = new StringBuilder();
-        json.append("{");
-        json.append("\"number\":\"").append(escapeJson(number)).append("\",");
-        json.append("\"latest_status_name\":\"").append(escapeJson(latestStatusName)).append("\",");
-        json.append("\"detail\":\"").append(escapeJson(detail)).append("\"");
-        json.append("}");
-        return json.toString();
-    }
-
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    /**
+     * UTF-8 JSON body of an update. Null values are sent as empty strings.
+     */
+    byte[] buildJsonBody(String number, String latestStatusName, String detail) {
+        try (JsonBodyWriter json = JsonBodyWriter.begin()) {
+            return json.field("number", number != null ? number : "")
+                .field("latest_status_name", latestStatusName != null ? latestStatusName : "")
+                .field("detail", detail != null ? detail : "")
+                .toBytes();
+        }
     }
 
     /**
      * Close and cleanup resources.
      */
     public void close() {
-        // HttpClient doesn't need explicit closing in Java 11+
     }
 }
@@ -0,0 +1,199 @@
+package com.rwi.myrepublic.astri.internal;
+
+/**
+ * Writes the <response> XML returned by the work order procs.
+ * NOT exposed to Magik - used by WorkOrderClient.
+ *
+ * Receives values from WorkOrderJsonReader. Work orders are appended to a data
+ * buffer as they arrive; the top-level fields are kept aside so they always
+ * precede <data>, whatever their position in the JSON. Several responses can
+ * be read into the same writer to merge their work orders.
+ *
+ * The data buffer is borrowed from a per-thread cache and handed back by
+ * close(), so repeated page fetches on the same thread reuse one large buffer
+ * instead of growing a new one every call. The header is inserted in front of
+ * the data in place when the XML is produced.
+ *
+ * Output structure:
+ * <response>
+ *   <success>true</success>
+ *   <count>50</count>
+ *   <count_all>127</count_all>
+ *   <data>
+ *     <workorder>
+ *       <uuid>d35ed679-0b5e-4c33-953c-2740b5cc7772</uuid>
+ *       ...
+ *     </workorder>
+ *   </data>
+ * </response>
+ */
+public final class WorkOrderXmlWriter implements WorkOrderJsonReader.Handler, AutoCloseable {
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    // Buffers larger than this (in chars) are dropped on close rather than cached
+    private static final int MAX_CACHED_CAPACITY = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<StringBuilder> CACHED_BUFFER = new ThreadLocal<>();
+
+    private StringBuilder data;
+    private int workOrders;
+
+    private String success;
+    private String count;
+    private String countAll;
+    private String error;
+
+    public WorkOrderXmlWriter() {
+        StringBuilder cached = CACHED_BUFFER.get();
+        if (cached != null) {
+            CACHED_BUFFER.remove();
+            cached.setLength(0);
+            this.data = cached;
+        } else {
+            this.data = new StringBuilder(4096);
+        }
+    }
+
+    @Override
+    public void headerField(String name, CharSequence value) {
+        switch (name) {
+            case "success": success = value.toString(); break;
+            case "count": count = value.toString(); break;
+            case "count_all": countAll = value.toString(); break;
+            case "error": error = value.toString(); break;
+            default: break;
+        }
+    }
+
+    @Override
+    public void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls) {
+        data.append("    <workorder>\n");
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (values[i] != null) {
+                appendElement(data, 6, fieldNames[i], values[i]);
+            }
+        }
+        data.append("    </workorder>\n");
+        workOrders++;
+    }
+
+    /**
+     * Forget the top-level fields before reading the next response.
+     */
+    public void resetHeader() {
+        success = null;
+        count = null;
+        countAll = null;
+        error = null;
+    }
+
+    public String getSuccess() {
+        return success;
+    }
+
+    public String getCountAll() {
+        return countAll;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Number of work orders written so far.
+     */
+    public int getWorkOrderCount() {
+        return workOrders;
+    }
+
+    /**
+     * XML for the last response read.
+     */
+    public String toXml() {
+        return toXml(success, count, countAll, error);
+    }
+
+    /**
+     * XML with explicit top-level fields, e.g. for merged responses.
+     * Null or empty fields are omitted.
+     */
+    public String toXml(String success, String count, String countAll, String error) {
+        return toXml(success, count, countAll, error, new String[0]);
+    }
+
+    /**
+     * XML with explicit top-level fields followed by extra ones, given as
+     * alternating element names and values (e.g. the counts of a sync).
+     */
+    public String toXml(String success, String count, String countAll, String error, String... extraFields) {
+        StringBuilder head = new StringBuilder(256);
+        head.append(XML_HEADER);
+        head.append("<response>\n");
+        appendHeaderElement(head, "success", success);
+        appendHeaderElement(head, "count", count);
+        appendHeaderElement(head, "count_all", countAll);
+        appendHeaderElement(head, "error", error);
+        for (int i = 0; i + 1 < extraFields.length; i += 2) {
+            appendHeaderElement(head, extraFields[i], extraFields[i + 1]);
+        }
+        if (workOrders > 0) {
+            head.append("  <data>\n");
+        }
+
+        // Wrap the data in place, copy out once, then restore the buffer
+        int dataLength = data.length();
+        data.insert(0, head);
+        if (workOrders > 0) {
+            data.append("  </data>\n");
+        }
+        data.append("</response>");
+        String xml = data.toString();
+        data.setLength(head.length() + dataLength);
+        data.delete(0, head.length());
+        return xml;
+    }
+
+    /**
+     * Hand the data buffer back to this thread's cache. The writer must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (data != null && data.capacity() <= MAX_CACHED_CAPACITY) {
+            data.setLength(0);
+            CACHED_BUFFER.set(data);
+        }
+        data = null;
+    }
+
+    private static void appendHeaderElement(StringBuilder xml, String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            appendElement(xml, 2, name, value);
+        }
+    }
+
+    private static void appendElement(StringBuilder xml, int indent, String name, CharSequence value) {
+        for (int i = 0; i < indent; i++) {
+            xml.append(' ');
+        }
+        xml.append('<').append(name).append('>');
+        appendEscaped(xml, value);
+        xml.append("</").append(name).append(">\n");
+    }
+
+    /**
+     * Escape XML special characters in a single pass.
+     */
+    static void appendEscaped(StringBuilder xml, CharSequence value) {
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': xml.append("&amp;"); break;
+                case '<': xml.append("&lt;"); break;
+                case '>': xml.append("&gt;"); break;
+                case '"': xml.append("&quot;"); break;
+                case '\'': xml.append("&apos;"); break;
+                default: xml.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class AstriHttpTransportTest {
+
+    private final AstriHttpTransport transport = AstriHttpTransport.getInstance();
+    private final CountDownLatch respond = new CountDownLatch(1);
+    private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        // Holds every request until the test lets it answer
+        server.createContext("/", exchange -> {
+            received.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+            try {
+                respond.await(30, TimeUnit.SECONDS);
+                byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (IOException | InterruptedException e) {
+                // The client went away
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        respond.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void cancelledJobAbortsTheExchangeAndFreesItsSlot() throws InterruptedException {
+        AsyncJobRegistry jobs = AsyncJobRegistry.getInstance();
+        CompletableFuture<HttpResponse<String>> sent =
+            transport.sendAsync(AstriEndpoint.KMZ_DOWNLOAD, get("/document"), HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<String> result = sent.thenApply(HttpResponse::body)
+                                               .exceptionally(error -> "failed: " + error);
+        int handle = jobs.submit(result, sent);
+        waitFor(() -> requests("/document") == 1 && active("document_download") == 1);
+
+        assertTrue(jobs.cancel(handle));
+        assertTrue(sent.isCancelled());
+        waitFor(() -> active("document_download") == 0);
+        // Aborted, not retried
+        assertEquals(1, requests("/document"));
+    }
+
+    @Test
+    void oneCancelledWaiterDoesNotCancelACoalescedGet() throws Exception {
+        HttpRequest request = get("/work-order");
+        CompletableFuture<HttpResponse<String>> cancelled = coalesced(request);
+        CompletableFuture<HttpResponse<String>> waiting = coalesced(request);
+        waitFor(() -> requests("/work-order") == 1);
+
+        cancelled.cancel(true);
+        assertFalse(waiting.isDone());
+        respond.countDown();
+        assertEquals("ok", waiting.get(5, TimeUnit.SECONDS).body());
+        assertEquals(1, requests("/work-order"));
+    }
+
+    @Test
+    void cancellingEveryWaiterAbortsACoalescedGet() throws InterruptedException {
+        HttpRequest request = get("/abandoned");
+        CompletableFuture<HttpResponse<String>> first = coalesced(request);
+        CompletableFuture<HttpResponse<String>> second = coalesced(request);
+        waitFor(() -> requests("/abandoned") == 1 && active("work_order") == 1);
+
+        first.cancel(true);
+        second.cancel(true);
+        waitFor(() -> active("work_order") == 0);
+    }
+
+    private CompletableFuture<HttpResponse<String>> coalesced(HttpRequest request) {
+        return transport.sendCoalescedAsync(AstriEndpoint.WORK_ORDER_GET, request);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getAddress().getPort() + path)).build();
+    }
+
+    private int requests(String path) {
+        AtomicInteger count = received.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    private int active(String family) {
+        Pattern pattern = Pattern.compile("\"" + family + "\":\\{\"max_concurrent\":\\d+,\"active\":(\\d+)");
+        Matcher matcher = pattern.matcher(transport.getLimitsJson());
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out; requests " + received + ", limits " + transport.getLimitsJson());
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AstriLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsUtf8Bytes() {
+        assertEquals(1 + 2 + 3 + 4, AstriLog.Appender.utf8Length("aé€😀"));
+        assertEquals("Jalan Kebon Jeruk – Résidence".getBytes(StandardCharsets.UTF_8).length,
+                     AstriLog.Appender.utf8Length("Jalan Kebon Jeruk – Résidence"));
+    }
+
+    @Test
+    void rollsNonAsciiLinesAtMaxBytes() throws IOException {
+        Path file = dir.resolve("astri.log");
+        AstriLog.Appender appender = new AstriLog.Appender(1024, file, 2000, 3);
+        String name = "クラスター éèê";
+        for (int i = 0; i < 100; i++) {
+            appender.log(AstriLog.Level.INFO, "Work order {} {}", new Object[] {i, name});
+        }
+        appender.flush(5000);
+
+        long longestLine = 200;
+        for (Path log : new Path[] {file, dir.resolve("astri.log.1"), dir.resolve("astri.log.2")}) {
+            assertTrue(Files.exists(log), log + " exists");
+            assertTrue(Files.size(log) <= 2000 + longestLine, log + " has " + Files.size(log) + " bytes");
+        }
+    }
+
+    @Test
+    void unwritableFileFallsBackToTheConsole() throws IOException {
+        // A directory cannot be opened as the log file
+        Path file = Files.createDirectory(dir.resolve("astri.log"));
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream(console, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try {
+            AstriLog.Appender appender = new AstriLog.Appender(64, file, 2000, 3);
+            for (int i = 0; i < 10; i++) {
+                appender.log(AstriLog.Level.WARN, "event {}", new Object[] {i});
+            }
+            appender.flush(5000);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+
+        String written = console.toString(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(written.contains("event " + i), written);
+        }
+        String reported = errors.toString(StandardCharsets.UTF_8);
+        assertEquals(1, reported.split("cannot be written", -1).length - 1, reported);
+    }
+}
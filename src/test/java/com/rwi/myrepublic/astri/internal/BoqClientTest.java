@@ -0,0 +1,129 @@
+package com.rwi.myrepublic.astri.internal;
+
+import com.rwi.myrepublic.astri.AstriConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class BoqClientTest {
+    private static final Pattern ACTIVE = Pattern.compile("\"boq_add\":\\{\"max_concurrent\":\\d+,\"active\":(\\d+)");
+
+    private final CountDownLatch respond = new CountDownLatch(1);
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    private ExecutorService executor;
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            received.incrementAndGet();
+            try {
+                respond.await(30, TimeUnit.SECONDS);
+                byte[] body = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (IOException | InterruptedException e) {
+                // The client went away
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        System.setProperty("astri.api.base.url", "http://localhost:" + server.getAddress().getPort() + "/api");
+        AstriConfig.getInstance().reload();
+    }
+
+    @AfterEach
+    void stopServer() {
+        respond.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+        System.clearProperty("astri.api.base.url");
+        AstriConfig.getInstance().reload();
+    }
+
+    @Test
+    void interruptWhileWaitingForResultsCancelsTheRequests() throws InterruptedException {
+        Thread caller = startBatch(3, 8);
+        waitFor(() -> received.get() == 3 && activeBoqAdds() == 3);
+
+        assertInterrupted(caller);
+    }
+
+    @Test
+    void interruptWhileWaitingForAPermitCancelsTheRequests() throws InterruptedException {
+        Thread caller = startBatch(3, 1);
+        waitFor(() -> received.get() == 1 && activeBoqAdds() == 1);
+
+        assertInterrupted(caller);
+        assertEquals(1, received.get());
+    }
+
+    private Thread startBatch(int count, int maxParallel) {
+        List<BoqClient.BoqLine> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(new BoqClient.BoqLine("Vendor", null, "Cable " + i, null, 1.0, null,
+                                            null, null, null, null, null, null));
+        }
+        Thread caller = new Thread(() -> {
+            try {
+                new BoqClient().addBoqDrmBatch("cluster", "C-1", lines, maxParallel);
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+        });
+        caller.start();
+        return caller;
+    }
+
+    private void assertInterrupted(Thread caller) throws InterruptedException {
+        caller.interrupt();
+        caller.join(5000);
+        assertFalse(caller.isAlive(), "addBoqDrmBatch ignored the interrupt");
+        assertTrue(thrown.get() instanceof InterruptedException, String.valueOf(thrown.get()));
+        // The exchanges were aborted, not left to finish: their bulkhead slots come back
+        waitFor(() -> activeBoqAdds() == 0);
+    }
+
+    private static int activeBoqAdds() {
+        Matcher matcher = ACTIVE.matcher(AstriHttpTransport.getInstance().getLimitsJson());
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out; limits " + AstriHttpTransport.getInstance().getLimitsJson());
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonBodyWriterTest {
+
+    @Test
+    void escapesEveryControlCharacter() {
+        // A gateway error page as addBoqDrmBatch wraps it
+        String html = "<html>\r\n<body class=\"err\">\f\u0001\u001b[0m\b\tC:\\gw\u007f</body></html>";
+        String escaped = JsonBodyWriter.escape(html);
+
+        for (int i = 0; i < escaped.length(); i++) {
+            assertTrue(escaped.charAt(i) >= 0x20, "control character at " + i + " in " + escaped);
+        }
+        StringBuilder decoded = new StringBuilder();
+        JsonTokenizer.decode(escaped, decoded);
+        assertEquals(html, decoded.toString());
+    }
+
+    @Test
+    void returnsPlainTextUnchanged() {
+        String plain = "Connection refused";
+        assertSame(plain, JsonBodyWriter.escape(plain));
+        assertEquals("", JsonBodyWriter.escape(null));
+    }
+}
@@ -0,0 +1,37 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonTokenizerTest {
+
+    @Test
+    void decodesUnicodeEscapes() {
+        assertEquals("héllo €", decode("h\\u00e9llo \\u20ac"));
+        assertEquals("É", decode("\\u00C9"));
+    }
+
+    @Test
+    void keepsTruncatedUnicodeEscape() {
+        assertEquals("\\u12", decode("\\u12"));
+        assertEquals("a\\u12\"b", decode("a\\u12\\\"b"));
+    }
+
+    @Test
+    void keepsNonHexUnicodeEscape() {
+        assertEquals("\\uZZZZ", decode("\\uZZZZ"));
+        assertEquals("\\u12G4x", decode("\\u12G4x"));
+    }
+
+    @Test
+    void decodesSimpleEscapes() {
+        assertEquals("a\nb\t\"/\\", decode("a\\nb\\t\\\"\\/\\\\"));
+    }
+
+    private static String decode(String raw) {
+        StringBuilder out = new StringBuilder();
+        JsonTokenizer.decode(raw, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class KmzDocumentCacheTest {
+    private static final String TYPE = "cluster";
+    private static final String UUID = "d35ed679-0001";
+
+    @TempDir
+    Path dir;
+
+    private KmzDocumentCache cache;
+
+    @BeforeEach
+    void open() {
+        cache = new KmzDocumentCache(dir, 60_000, Long.MAX_VALUE);
+    }
+
+    @Test
+    void concurrentLoadsShareOneLoader() throws Exception {
+        AtomicInteger loaders = new AtomicInteger();
+        CompletableFuture<KmzDocumentCache.Entry> download = new CompletableFuture<>();
+        Supplier<CompletableFuture<KmzDocumentCache.Entry>> loader = () -> {
+            loaders.incrementAndGet();
+            return download;
+        };
+
+        int callers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        List<CompletableFuture<KmzDocumentCache.Entry>> pinned = new ArrayList<>();
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<CompletableFuture<KmzDocumentCache.Entry>>> calls = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                calls.add(pool.submit(() -> {
+                    start.await();
+                    return cache.load(TYPE, UUID, loader);
+                }));
+            }
+            start.countDown();
+            for (Future<CompletableFuture<KmzDocumentCache.Entry>> call : calls) {
+                pinned.add(call.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        download.complete(store("v1"));
+
+        KmzDocumentCache.Entry entry = pinned.get(0).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<KmzDocumentCache.Entry> future : pinned) {
+            assertSame(entry, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loaders.get());
+
+        // Every caller holds its own pin: a refresh keeps the files until the last one is released
+        cache.release(store("v2"));
+        for (int i = 1; i < callers; i++) {
+            cache.release(entry);
+            assertTrue(Files.exists(entry.getKml()));
+        }
+        cache.release(entry);
+        assertFalse(Files.exists(entry.getKml()));
+    }
+
+    @Test
+    void cancelledWaiterLeavesNoPin() throws Exception {
+        CompletableFuture<KmzDocumentCache.Entry> download = new CompletableFuture<>();
+        CompletableFuture<KmzDocumentCache.Entry> cancelled = cache.load(TYPE, UUID, () -> download);
+        CompletableFuture<KmzDocumentCache.Entry> waiting = cache.load(TYPE, UUID, () -> fail("second loader"));
+
+        cancelled.cancel(true);
+        assertFalse(download.isCancelled());
+        download.complete(store("v1"));
+        KmzDocumentCache.Entry entry = waiting.get(5, TimeUnit.SECONDS);
+        cache.release(entry);
+
+        // Nothing pins the entry any more, so a refresh deletes its files at once
+        cache.release(store("v2"));
+        assertFalse(Files.exists(entry.getKmz()));
+        assertFalse(Files.exists(entry.getKml()));
+    }
+
+    @Test
+    void failedLoadLeavesNoPinAndIsNotReused() throws Exception {
+        KmzDocumentCache.Entry current = store("v1");
+        cache.release(current);
+
+        CompletableFuture<KmzDocumentCache.Entry> download = new CompletableFuture<>();
+        CompletableFuture<KmzDocumentCache.Entry> first = cache.load(TYPE, UUID, () -> download);
+        CompletableFuture<KmzDocumentCache.Entry> second = cache.load(TYPE, UUID, () -> fail("second loader"));
+        download.completeExceptionally(new IOException("HTTP 502"));
+        for (CompletableFuture<KmzDocumentCache.Entry> failed : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            assertEquals("HTTP 502", e.getCause().getMessage());
+        }
+
+        // The next load starts over, and the refresh it stores finds v1 unpinned
+        KmzDocumentCache.Entry refreshed = cache.load(TYPE, UUID, this::storeAsync).get(5, TimeUnit.SECONDS);
+        assertFalse(Files.exists(current.getKml()));
+        assertEquals("v2", Files.readString(refreshed.getKml()));
+        cache.release(refreshed);
+    }
+
+    @Test
+    void pinnedStaleEntrySurvivesRefreshUntilReleased() throws IOException {
+        KmzDocumentCache.Entry stale = store("v1");
+        KmzDocumentCache.Entry fresh = store("v2");
+        assertNotEquals(stale.getKml(), fresh.getKml());
+
+        // The reader of v1 still sees its files, new readers get v2
+        assertEquals("v1", Files.readString(stale.getKml()));
+        KmzDocumentCache.Entry acquired = cache.acquire(TYPE, UUID);
+        assertSame(fresh, acquired);
+        cache.release(acquired);
+
+        cache.release(stale);
+        assertFalse(Files.exists(stale.getKmz()));
+        assertFalse(Files.exists(stale.getKml()));
+        assertTrue(Files.exists(fresh.getKml()));
+        cache.release(fresh);
+
+        KmzDocumentCache reopened = new KmzDocumentCache(dir, 60_000, Long.MAX_VALUE);
+        KmzDocumentCache.Entry restored = reopened.acquire(TYPE, UUID);
+        assertEquals("v2", Files.readString(restored.getKml()));
+        reopened.release(restored);
+    }
+
+    private CompletableFuture<KmzDocumentCache.Entry> storeAsync() {
+        try {
+            return CompletableFuture.completedFuture(store("v2"));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private KmzDocumentCache.Entry store(String version) throws IOException {
+        Path kmz = cache.createTempFile(TYPE + "_", ".kmz");
+        Files.writeString(kmz, "kmz " + version);
+        Path kml = cache.createTempFile(TYPE + "_", ".kml");
+        Files.writeString(kml, version);
+        return cache.store(TYPE, UUID, kmz, kml, "\"" + version + "\"", null);
+    }
+}
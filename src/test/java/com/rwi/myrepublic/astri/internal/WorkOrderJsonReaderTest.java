@@ -0,0 +1,102 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkOrderJsonReaderTest {
+    private static final String TYPE = "cluster";
+    private static final List<String> FIELDS = Arrays.asList(WorkOrderJsonReader.fieldsFor(TYPE));
+
+    private static final String PAGE = "{\"success\": false, \"error\": null, \"count_all\": 2, \"data\": ["
+        + "{\"uuid\": \"wo-1\", \"number\": \"WO/1\", \"category_label\": null, \"category_name\": \"null\","
+        + " \"updated_at\": \"2024-01-02T00:00:00Z\"},"
+        + "{\"uuid\": \"wo-2\", \"number\": \"WO/2\", \"category_label\": \"Nusa\","
+        + " \"updated_at\": \"2024-01-01T00:00:00Z\"}]}";
+
+    @Test
+    void decodingReaderFlagsJsonNullApartFromTheText() throws IOException {
+        Collector collector = new Collector();
+        new WorkOrderJsonReader(TYPE, true).read(new StringReader(PAGE), collector);
+
+        assertFalse(collector.headers.containsKey("error"));
+        CharSequence[] first = collector.values.get(0);
+        boolean[] nulls = collector.nulls.get(0);
+        assertNull(first[FIELDS.indexOf("category_label")]);
+        assertTrue(nulls[FIELDS.indexOf("category_label")]);
+        assertEquals("null", first[FIELDS.indexOf("category_name")]);
+        assertFalse(nulls[FIELDS.indexOf("category_name")]);
+        // Absent fields are neither values nor nulls
+        assertNull(first[FIELDS.indexOf("latest_status_name")]);
+        assertFalse(nulls[FIELDS.indexOf("latest_status_name")]);
+    }
+
+    @Test
+    void rawReaderKeepsNullAsTextForXml() throws IOException {
+        Collector collector = new Collector();
+        new WorkOrderJsonReader(TYPE).read(new StringReader(PAGE), collector);
+
+        assertEquals("null", collector.headers.get("error"));
+        assertEquals("null", collector.values.get(0)[FIELDS.indexOf("category_label")]);
+        assertFalse(collector.nulls.get(0)[FIELDS.indexOf("category_label")]);
+    }
+
+    @Test
+    void syncedJsonNullIsStoredAsAbsent() throws IOException {
+        WorkOrderStore.Partition partition = new WorkOrderStore.Partition(TYPE);
+        WorkOrderClient.SyncPage page = new WorkOrderClient.SyncPage(partition, WorkOrderStore.UNKNOWN_TIME, true);
+        new WorkOrderJsonReader(TYPE, true).read(new StringReader(PAGE), page);
+
+        // "error": null is not an error message
+        assertNull(page.error);
+        assertEquals("false", page.success);
+
+        partition.apply(page.changed.values(), List.of(), page.newestTime, page.newestText);
+        assertEquals(2, partition.size());
+        assertNull(partition.find("wo-1")[FIELDS.indexOf("category_label")]);
+
+        // A substring filter must not match the null field, only real text
+        Map<String, List<String>> filters = new HashMap<>();
+        filters.put("category_label", List.of("nu"));
+        WorkOrderTable.Page matches = partition.query(filters, List.of(), 0, 0);
+        assertEquals(1, matches.total);
+        assertEquals("wo-2", matches.rows.get(0)[partition.uuidIndex()]);
+
+        // The quoted text "null" is kept as text
+        filters.clear();
+        filters.put("category_name", List.of("null"));
+        assertEquals(1, partition.query(filters, List.of(), 0, 0).total);
+    }
+
+    private static final class Collector implements WorkOrderJsonReader.Handler {
+        final Map<String, String> headers = new HashMap<>();
+        final List<CharSequence[]> values = new ArrayList<>();
+        final List<boolean[]> nulls = new ArrayList<>();
+
+        @Override
+        public void headerField(String name, CharSequence value) {
+            headers.put(name, value.toString());
+        }
+
+        @Override
+        public void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls) {
+            CharSequence[] copy = new CharSequence[values.length];
+            for (int i = 0; i < values.length; i++) {
+                copy[i] = values[i] != null ? values[i].toString() : null;
+            }
+            this.values.add(copy);
+            this.nulls.add(nulls.clone());
+        }
+    }
+}
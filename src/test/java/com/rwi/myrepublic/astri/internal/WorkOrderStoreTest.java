@@ -0,0 +1,114 @@
+package com.rwi.myrepublic.astri.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkOrderStoreTest {
+    private static final String TYPE = "cluster";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void failedAppendDoesNotPersistALaterWatermark() throws IOException {
+        WorkOrderStore.Partition partition = new WorkOrderStore.Partition(TYPE);
+        partition.attach(dir.toString());
+        assertTrue(partition.isPersistent());
+
+        apply(partition, "wo-1", "2024-01-01T00:00:00Z");
+
+        // The log takes <type>.lock for every batch; a directory there makes the append fail
+        Path lock = dir.resolve(TYPE + ".lock");
+        Files.deleteIfExists(lock);
+        Files.createDirectory(lock);
+        apply(partition, "wo-2", "2024-01-02T00:00:00Z");
+
+        assertFalse(partition.isPersistent());
+        assertEquals(2, partition.size());
+        assertEquals("2024-01-02T00:00:00Z", partition.getWatermarkText());
+
+        // The lock works again, but this session must not write past the lost batch
+        Files.delete(lock);
+        apply(partition, "wo-3", "2024-01-03T00:00:00Z");
+        assertEquals(3, partition.size());
+
+        Replay replay = new Replay();
+        try (WorkOrderLog log = WorkOrderLog.open(dir, TYPE, partition.getFieldNames())) {
+            log.readNew(replay);
+        }
+        assertEquals("2024-01-01T00:00:00Z", replay.watermarkText);
+        assertEquals(List.of("wo-1"), new ArrayList<>(replay.records.keySet()));
+    }
+
+    @Test
+    void reopenedPartitionResumesFromTheLastPersistedBatch() throws IOException {
+        WorkOrderStore.Partition partition = new WorkOrderStore.Partition(TYPE);
+        partition.attach(dir.toString());
+        apply(partition, "wo-1", "2024-01-01T00:00:00Z");
+
+        Path lock = dir.resolve(TYPE + ".lock");
+        Files.deleteIfExists(lock);
+        Files.createDirectory(lock);
+        apply(partition, "wo-2", "2024-01-02T00:00:00Z");
+        Files.delete(lock);
+
+        WorkOrderStore.Partition reopened = new WorkOrderStore.Partition(TYPE);
+        reopened.attach(dir.toString());
+        assertTrue(reopened.isPersistent());
+        assertEquals(1, reopened.size());
+        assertEquals("2024-01-01T00:00:00Z", reopened.getWatermarkText());
+        assertNull(reopened.find("wo-2"));
+
+        // The next sync re-fetches the lost batch and persists it
+        apply(reopened, "wo-2", "2024-01-02T00:00:00Z");
+        assertEquals("wo-2", reopened.find("wo-2")[reopened.uuidIndex()]);
+    }
+
+    private static void apply(WorkOrderStore.Partition partition, String uuid, String updatedAt) {
+        String[] record = new String[partition.getFieldNames().length];
+        Arrays.fill(record, "");
+        record[partition.uuidIndex()] = uuid;
+        record[partition.updatedAtIndex()] = updatedAt;
+        partition.apply(List.<String[]>of(record), List.of(), WorkOrderStore.parseTime(updatedAt), updatedAt);
+    }
+
+    private static final class Replay implements WorkOrderLog.Visitor {
+        final Map<String, String[]> records = new HashMap<>();
+        String watermarkText;
+
+        @Override
+        public void reset() {
+            records.clear();
+            watermarkText = null;
+        }
+
+        @Override
+        public void put(String[] record) {
+            records.put(record[Arrays.asList(WorkOrderJsonReader.fieldsFor(TYPE)).indexOf("uuid")], record);
+        }
+
+        @Override
+        public void delete(String uuid) {
+            records.remove(uuid);
+        }
+
+        @Override
+        public void commit(String text) {
+            watermarkText = text;
+        }
+    }
+}
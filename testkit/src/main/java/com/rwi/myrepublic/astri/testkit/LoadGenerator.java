@@ -0,0 +1,501 @@
+package com.rwi.myrepublic.astri.testkit;
+
+import com.rwi.myrepublic.astri.internal.AstriMetrics;
+import com.rwi.myrepublic.astri.internal.BoqClient;
+import com.rwi.myrepublic.astri.internal.KmzDownloadClient;
+import com.rwi.myrepublic.astri.internal.WorkOrderClient;
+import com.rwi.myrepublic.astri.internal.WorkOrderJsonReader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Closed-loop load driver for the client layer.
+ * NOT exposed to Magik - run from the testkit jar.
+ *
+ * N workers call WorkOrderClient, BoqClient and KmzDownloadClient back to
+ * back, in a weighted mix, for a duration or a request count. The requests
+ * go through the shared AstriHttpTransport, so retries, circuit breakers,
+ * rate limits and compression all apply as they do in Smallworld. The
+ * report gives throughput, p50/p95/p99/max latency, errors and bytes for
+ * each operation. It is printed as a table and can also be written as CSV
+ * or JSON.
+ *
+ *   java -cp target/astri-testkit.jar com.rwi.myrepublic.astri.testkit.LoadGenerator \
+ *        --base-url http://localhost:18080/api --dm-base-url http://localhost:18080/dm \
+ *        --workers 16 --duration 60 --warmup 10 --format json --out run.json
+ *
+ * Options:
+ *   --base-url, --dm-base-url, --username, --password   override astri_config.properties
+ *   --workers 8          concurrent workers
+ *   --duration 30        measured seconds (ignored when --requests is given)
+ *   --requests N         stop after N measured requests instead
+ *   --warmup 5           seconds run first and left out of the report
+ *   --mix work_order_list=50,work_order_get=30,kmz_download=20
+ *                        operation weights; boq_add is only run when named,
+ *                        because it adds BOQ lines on the server
+ *   --infra-type cluster work order type and document type used
+ *   --page-size 50       limit of each work order list request
+ *   --format table|csv|json, --out file (default stdout)
+ *
+ * Other astri.* settings (timeouts, bulkheads, retries) can be passed as -D
+ * system properties. Client logging defaults to WARN here, so that the report
+ * is not buried under retry messages (-Dastri.log.level=INFO to see them).
+ */
+public final class LoadGenerator {
+    static final String[] OPERATIONS = {"work_order_list", "work_order_get", "boq_add", "kmz_download"};
+
+    private final String infraType;
+    private final int pageSize;
+    private final int[] weights = new int[OPERATIONS.length];
+    private final int totalWeight;
+    private final List<String> uuids = new ArrayList<>();
+    private int countAll;
+    private Path outputDir;
+
+    private LoadGenerator(String infraType, int pageSize, Map<String, Integer> mix) {
+        this.infraType = infraType;
+        this.pageSize = pageSize;
+        int total = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            weights[i] = mix.getOrDefault(OPERATIONS[i], 0);
+            total += weights[i];
+        }
+        this.totalWeight = total;
+    }
+
+    /**
+     * Latencies and outcomes of one operation, for one worker or merged.
+     */
+    static final class Recorder {
+        long[] latencies = new long[1024];
+        int count;
+        long errors;
+        long bytes;
+        final Map<String, Long> errorKinds = new TreeMap<>();
+
+        void record(long nanos, boolean ok, long responseBytes, String errorKind) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            bytes += responseBytes;
+            if (!ok) {
+                errors++;
+                errorKinds.merge(errorKind, 1L, Long::sum);
+            }
+        }
+
+        void merge(Recorder other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            }
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+            bytes += other.bytes;
+            other.errorKinds.forEach((kind, n) -> errorKinds.merge(kind, n, Long::sum));
+        }
+    }
+
+    /**
+     * Summary of one operation (or "all") over the measured run.
+     */
+    static final class Result {
+        final String operation;
+        final long requests;
+        final long errors;
+        final double throughput;
+        final double p50Ms;
+        final double p95Ms;
+        final double p99Ms;
+        final double maxMs;
+        final long bytes;
+        final Map<String, Long> errorKinds;
+
+        Result(String operation, Recorder recorder, double seconds) {
+            long[] sorted = Arrays.copyOf(recorder.latencies, recorder.count);
+            Arrays.sort(sorted);
+            this.operation = operation;
+            this.requests = recorder.count;
+            this.errors = recorder.errors;
+            this.throughput = seconds > 0 ? recorder.count / seconds : 0;
+            this.p50Ms = percentile(sorted, 0.50);
+            this.p95Ms = percentile(sorted, 0.95);
+            this.p99Ms = percentile(sorted, 0.99);
+            this.maxMs = sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0;
+            this.bytes = recorder.bytes;
+            this.errorKinds = recorder.errorKinds;
+        }
+
+        double errorRate() {
+            return requests > 0 ? (double) errors / requests : 0;
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+    }
+
+    /**
+     * Collect work order uuids (for gets and downloads) and the list size (for list offsets).
+     */
+    private void bootstrap() throws IOException, InterruptedException {
+        WorkOrderClient client = new WorkOrderClient();
+        int offset = 0;
+        while (uuids.size() < 1000) {
+            int before = uuids.size();
+            client.getWorkOrders(infraType, 100, offset, null, new WorkOrderJsonReader.Handler() {
+                @Override
+                public void headerField(String name, CharSequence value) {
+                    if ("count_all".equals(name)) {
+                        countAll = Integer.parseInt(value.toString());
+                    }
+                }
+
+                @Override
+                public void workOrder(String[] fieldNames, CharSequence[] values, boolean[] nulls) {
+                    if (values[0] != null) {
+                        uuids.add(values[0].toString());
+                    }
+                }
+            });
+            if (uuids.size() - before < 100) {
+                break;
+            }
+            offset += 100;
+        }
+        if (uuids.isEmpty() && (weights[1] > 0 || weights[3] > 0)) {
+            throw new IllegalStateException("No " + infraType + " work orders found - cannot run work_order_get or kmz_download");
+        }
+        outputDir = Files.createTempDirectory("astri-load-");
+    }
+
+    /**
+     * Run the workers until the deadline or until the request budget is used up.
+     */
+    private Recorder[][] run(int workers, long deadlineNanos, AtomicLong budget) throws InterruptedException {
+        Recorder[][] recorders = new Recorder[workers][OPERATIONS.length];
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int w = 0; w < workers; w++) {
+            Recorder[] mine = recorders[w];
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                mine[op] = new Recorder();
+            }
+            Thread thread = new Thread(() -> {
+                try {
+                    WorkOrderClient workOrders = new WorkOrderClient();
+                    BoqClient boq = new BoqClient();
+                    KmzDownloadClient kmz = new KmzDownloadClient();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadlineNanos && (budget == null || budget.getAndDecrement() > 0)) {
+                        int op = pick(random.nextInt(totalWeight));
+                        long started = System.nanoTime();
+                        String response = null;
+                        String errorKind = null;
+                        try {
+                            response = call(op, random, workOrders, boq, kmz);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            errorKind = e.getClass().getSimpleName();
+                        }
+                        long elapsed = System.nanoTime() - started;
+                        boolean ok = errorKind == null && isSuccess(response);
+                        if (!ok && errorKind == null) {
+                            errorKind = "success_false";
+                        }
+                        mine[op].record(elapsed, ok, response != null ? responseBytes(op, response) : 0, errorKind);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "astri-load-" + w);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return recorders;
+    }
+
+    private int pick(int ticket) {
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            ticket -= weights[op];
+            if (ticket < 0) {
+                return op;
+            }
+        }
+        return OPERATIONS.length - 1;
+    }
+
+    private String call(int op, ThreadLocalRandom random, WorkOrderClient workOrders, BoqClient boq,
+                        KmzDownloadClient kmz) throws IOException, InterruptedException {
+        switch (OPERATIONS[op]) {
+            case "work_order_list":
+                int pages = Math.max(1, (countAll + pageSize - 1) / pageSize);
+                return workOrders.getWorkOrders(infraType, pageSize, random.nextInt(pages) * pageSize, null);
+            case "work_order_get":
+                return workOrders.getWorkOrder(uuids.get(random.nextInt(uuids.size())));
+            case "boq_add":
+                return boq.addBoqDrm(infraType, "LOAD-" + random.nextInt(1000), "PT Telkom Akses", null,
+                                     "Kabel FO 24 Core ADSS", "Load test line", 100.0, 1.0, "astri load generator",
+                                     "Phase 1", "Jakarta Selatan", "P1024", null, null);
+            default:
+                String uuid = uuids.get(random.nextInt(uuids.size()));
+                String dir = outputDir.toString();
+                switch (infraType) {
+                    case "subfeeder":
+                        return kmz.downloadSubfeederDocument(uuid, dir);
+                    case "feeder":
+                        return kmz.downloadFeederDocument(uuid, dir);
+                    default:
+                        return kmz.downloadClusterDocument(uuid, dir);
+                }
+        }
+    }
+
+    /**
+     * Clients report API failures in the body: XML <success>false</success> or JSON "success":false.
+     */
+    private static boolean isSuccess(String response) {
+        return response != null
+            && (response.contains("<success>true</success>") || response.contains("\"success\":true"));
+    }
+
+    /**
+     * Bytes handed back to the caller; for downloads, the size of the KMZ written.
+     */
+    private long responseBytes(int op, String response) {
+        if ("kmz_download".equals(OPERATIONS[op])) {
+            int start = response.indexOf("<kmz_file_path>");
+            int end = response.indexOf("</kmz_file_path>");
+            if (start >= 0 && end > start) {
+                try {
+                    return Files.size(Paths.get(response.substring(start + "<kmz_file_path>".length(), end)));
+                } catch (IOException e) {
+                    return 0;
+                }
+            }
+        }
+        return response.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private void cleanUp() {
+        if (outputDir == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(outputDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            // Temp files only
+        }
+    }
+
+    private static List<Result> summarize(Recorder[][] recorders, double seconds) {
+        List<Result> results = new ArrayList<>();
+        Recorder all = new Recorder();
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Recorder merged = new Recorder();
+            for (Recorder[] worker : recorders) {
+                merged.merge(worker[op]);
+            }
+            if (merged.count > 0) {
+                results.add(new Result(OPERATIONS[op], merged, seconds));
+                all.merge(merged);
+            }
+        }
+        results.add(new Result("all", all, seconds));
+        return results;
+    }
+
+    static String table(List<Result> results, double seconds, int workers, Map<String, Long> wireBytes) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%d workers, %.1f s measured%n", workers, seconds));
+        out.append(String.format(Locale.ROOT, "%-16s %9s %9s %10s %9s %9s %9s %9s %12s%n",
+                                 "operation", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "bytes"));
+        for (Result r : results) {
+            out.append(String.format(Locale.ROOT, "%-16s %9d %9d %10.1f %9.1f %9.1f %9.1f %9.1f %12d%n",
+                                     r.operation, r.requests, r.errors, r.throughput,
+                                     r.p50Ms, r.p95Ms, r.p99Ms, r.maxMs, r.bytes));
+        }
+        for (Result r : results) {
+            if (!r.errorKinds.isEmpty() && !"all".equals(r.operation)) {
+                out.append(r.operation).append(" errors: ").append(r.errorKinds).append(System.lineSeparator());
+            }
+        }
+        if (!wireBytes.isEmpty()) {
+            out.append("wire bytes by endpoint: ").append(wireBytes).append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+
+    static String csv(List<Result> results) {
+        StringBuilder out = new StringBuilder(
+            "operation,requests,errors,error_rate,throughput_rps,p50_ms,p95_ms,p99_ms,max_ms,bytes\n");
+        for (Result r : results) {
+            out.append(String.format(Locale.ROOT, "%s,%d,%d,%.4f,%.2f,%.3f,%.3f,%.3f,%.3f,%d%n",
+                                     r.operation, r.requests, r.errors, r.errorRate(), r.throughput,
+                                     r.p50Ms, r.p95Ms, r.p99Ms, r.maxMs, r.bytes));
+        }
+        return out.toString();
+    }
+
+    static String json(List<Result> results, double seconds, int workers, Map<String, Long> wireBytes) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "{\"workers\":%d,\"seconds\":%.3f,\"operations\":{", workers, seconds));
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(String.format(Locale.ROOT,
+                "\"%s\":{\"requests\":%d,\"errors\":%d,\"error_rate\":%.4f,\"throughput_rps\":%.2f,"
+                    + "\"p50_ms\":%.3f,\"p95_ms\":%.3f,\"p99_ms\":%.3f,\"max_ms\":%.3f,\"bytes\":%d,\"error_kinds\":{",
+                r.operation, r.requests, r.errors, r.errorRate(), r.throughput, r.p50Ms, r.p95Ms, r.p99Ms, r.maxMs, r.bytes));
+            appendCounts(out, r.errorKinds);
+            out.append("}}");
+        }
+        out.append("},\"wire_bytes\":{");
+        appendCounts(out, wireBytes);
+        return out.append("}}\n").toString();
+    }
+
+    private static void appendCounts(StringBuilder out, Map<String, Long> counts) {
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+    }
+
+    /**
+     * Bytes received on the wire per endpoint since the last metrics reset.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> wireBytes() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        Object endpoints = AstriMetrics.getInstance().snapshot().get("endpoints");
+        if (endpoints instanceof Map) {
+            ((Map<String, Object>) endpoints).forEach((name, stats) -> {
+                Object wire = ((Map<String, Object>) stats).get("wire_bytes");
+                if (wire instanceof Long) {
+                    bytes.put(name, (Long) wire);
+                }
+            });
+        }
+        return bytes;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2 || !Arrays.asList(OPERATIONS).contains(kv[0].trim())) {
+                throw new IllegalArgumentException("Bad --mix entry '" + part + "', operations are " + Arrays.toString(OPERATIONS));
+            }
+            weights.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+
+        // Must be set before the first AstriConfig.getInstance()
+        setProperty(options, "base-url", "astri.api.base.url");
+        setProperty(options, "dm-base-url", "astri.dm.base.url");
+        setProperty(options, "username", "astri.username");
+        setProperty(options, "password", "astri.password");
+        if (System.getProperty("astri.log.level") == null) {
+            System.setProperty("astri.log.level", "WARN");
+        }
+
+        int workers = Integer.parseInt(options.getOrDefault("workers", "8"));
+        double duration = Double.parseDouble(options.getOrDefault("duration", "30"));
+        double warmup = Double.parseDouble(options.getOrDefault("warmup", "5"));
+        Long requests = options.containsKey("requests") ? Long.valueOf(options.get("requests")) : null;
+        String format = options.getOrDefault("format", "table");
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix", "work_order_list=50,work_order_get=30,kmz_download=20"));
+        LoadGenerator generator = new LoadGenerator(options.getOrDefault("infra-type", "cluster"),
+                                                    Integer.parseInt(options.getOrDefault("page-size", "50")), mix);
+        if (generator.totalWeight <= 0) {
+            throw new IllegalArgumentException("--mix has no operation with a positive weight");
+        }
+
+        PrintStream console = System.out;
+        if (mix.getOrDefault("boq_add", 0) > 0) {
+            console.println("WARNING: boq_add adds BOQ lines on the target server");
+        }
+        try {
+            generator.bootstrap();
+            if (warmup > 0) {
+                console.printf(Locale.ROOT, "Warming up for %.0f s...%n", warmup);
+                generator.run(workers, System.nanoTime() + (long) (warmup * 1e9), null);
+            }
+            AstriMetrics.getInstance().reset();
+            console.println(requests != null ? "Running " + requests + " requests..."
+                                             : String.format(Locale.ROOT, "Running for %.0f s...", duration));
+            long started = System.nanoTime();
+            long deadline = requests != null ? Long.MAX_VALUE : started + (long) (duration * 1e9);
+            Recorder[][] recorders = generator.run(workers, deadline, requests != null ? new AtomicLong(requests) : null);
+            double seconds = (System.nanoTime() - started) / 1e9;
+
+            List<Result> results = summarize(recorders, seconds);
+            Map<String, Long> wire = wireBytes();
+            String report;
+            if ("csv".equals(format)) {
+                report = csv(results);
+            } else if ("json".equals(format)) {
+                report = json(results, seconds, workers, wire);
+            } else {
+                report = table(results, seconds, workers, wire);
+            }
+            if (options.containsKey("out")) {
+                Files.writeString(Paths.get(options.get("out")), report, StandardCharsets.UTF_8);
+                console.print(table(results, seconds, workers, wire));
+                console.println("Report written to " + options.get("out"));
+            } else {
+                console.print(report);
+            }
+        } finally {
+            generator.cleanUp();
+        }
+        System.exit(0);
+    }
+
+    private static void setProperty(Map<String, String> options, String option, String property) {
+        if (options.containsKey(option)) {
+            System.setProperty(property, options.get(option));
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package com.rwi.myrepublic.astri.testkit;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stand-in for the ASTRI API and DM servers, for load and integration tests.
+ * NOT exposed to Magik - run from the testkit jar or embedded in a test.
+ *
+ * Serves the endpoints the clients call, under /api (astri.api.base.url) and
+ * /dm (astri.dm.base.url):
+ *   GET  /api/work-order/{type}/boq/simple/list/all/{limit}/{offset}
+ *   GET  /api/api/work-order/{uuid}
+ *   PUT  /api/work-order/update
+ *   POST /api/osp/cluster/boq/add[/subfeeder|/feeder]
+ *   GET  /api/device/price/list/all
+ *   POST /api/vendor/list/all/{limit}/{offset}
+ *   POST /api/olt/rollout/list/all/{limit}/{offset}
+ *   GET  /dm/osp/cluster/document/{cluster|subfeeder|feeder|olt/site}/download/{uuid}
+ *
+ * Latency, error responses and dropped connections can be injected for all
+ * routes or per route, and every route counts its requests. Both are reachable
+ * over HTTP:
+ *   GET /__admin/stats                      counters as JSON
+ *   GET /__admin/faults?latency_ms=50&jitter_ms=20&error_rate=0.1&error_status=503&drop_rate=0&route=olt_list
+ *   GET /__admin/reset                      zero the counters and clear all faults
+ *
+ * JSON responses are gzipped when the request accepts it; KMZ documents carry
+ * an ETag and Last-Modified and answer conditional requests with 304.
+ */
+public final class MockAstriServer implements AutoCloseable {
+    static final String API_PREFIX = "/api";
+    static final String DM_PREFIX = "/dm";
+
+    private static final String LAST_MODIFIED = DateTimeFormatter.RFC_1123_DATE_TIME
+        .format(ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MockData data;
+    private final List<Route> routes;
+    private final Map<String, RouteStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, Faults> routeFaults = new ConcurrentHashMap<>();
+    private volatile Faults faults = new Faults();
+    private volatile boolean compression = true;
+
+    /**
+     * Fault injection settings. Immutable; replaced as a whole.
+     */
+    public static final class Faults {
+        final long latencyMs;
+        final long jitterMs;
+        final double errorRate;
+        final int errorStatus;
+        final double dropRate;
+
+        public Faults() {
+            this(0, 0, 0, 503, 0);
+        }
+
+        /**
+         * @param latencyMs delay before every response
+         * @param jitterMs extra random delay, 0..jitterMs
+         * @param errorRate share of requests answered with errorStatus (0..1)
+         * @param errorStatus status of injected errors, e.g. 500, 502, 503
+         * @param dropRate share of requests whose connection is closed without a response (0..1)
+         */
+        public Faults(long latencyMs, long jitterMs, double errorRate, int errorStatus, double dropRate) {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.errorRate = errorRate;
+            this.errorStatus = errorStatus;
+            this.dropRate = dropRate;
+        }
+
+        Faults with(Map<String, String> params) {
+            return new Faults(
+                Long.parseLong(params.getOrDefault("latency_ms", String.valueOf(latencyMs))),
+                Long.parseLong(params.getOrDefault("jitter_ms", String.valueOf(jitterMs))),
+                Double.parseDouble(params.getOrDefault("error_rate", String.valueOf(errorRate))),
+                Integer.parseInt(params.getOrDefault("error_status", String.valueOf(errorStatus))),
+                Double.parseDouble(params.getOrDefault("drop_rate", String.valueOf(dropRate))));
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"latency_ms\":").append(latencyMs)
+                .append(",\"jitter_ms\":").append(jitterMs)
+                .append(",\"error_rate\":").append(errorRate)
+                .append(",\"error_status\":").append(errorStatus)
+                .append(",\"drop_rate\":").append(dropRate).append('}');
+        }
+    }
+
+    /**
+     * Counters of one route.
+     */
+    static final class RouteStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder injectedErrors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder notModified = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder handleNanos = new LongAdder();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException;
+    }
+
+    private static final class Route {
+        final String name;
+        final String method;
+        final Pattern pattern;
+        final Handler handler;
+
+        Route(String name, String method, String regex, Handler handler) {
+            this.name = name;
+            this.method = method;
+            this.pattern = Pattern.compile(regex);
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Start a server on the given port (0 = any free port).
+     *
+     * @param threads request threads; injected latency holds a thread, so size this for the load
+     */
+    public MockAstriServer(int port, MockData data, int threads) throws IOException {
+        this.data = data;
+        this.routes = List.of(
+            new Route("work_order_list", "GET",
+                      API_PREFIX + "/work-order/([a-z]+)/boq/simple/list/all/(\\d+)/(\\d+)", this::workOrderList),
+            new Route("work_order_get", "GET", API_PREFIX + "/api/work-order/([^/]+)", this::workOrderGet),
+            new Route("work_order_update", "PUT", API_PREFIX + "/work-order/update", this::workOrderUpdate),
+            new Route("boq_add", "POST", API_PREFIX + "/osp/cluster/boq/add(/subfeeder|/feeder)?", this::boqAdd),
+            new Route("price_list", "GET", API_PREFIX + "/device/price/list/all", this::priceList),
+            new Route("vendor_list", "POST", API_PREFIX + "/vendor/list/all/(\\d+)/(\\d+)", this::vendorList),
+            new Route("olt_list", "POST", API_PREFIX + "/olt/rollout/list/all/(\\d+)/(\\d+)", this::oltList),
+            new Route("kmz_download", "GET",
+                      DM_PREFIX + "/osp/cluster/document/(cluster|subfeeder|feeder|olt/site)/download/([^/]+)",
+                      this::kmzDownload));
+        for (Route route : routes) {
+            stats.put(route.name, new RouteStats());
+        }
+
+        // Headers and body go out in separate writes; without TCP_NODELAY a small
+        // body waits for the client's delayed ACK and every response gains ~40 ms.
+        // Read once per JVM, so it must be set before the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), 256);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mock-astri");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Value for astri.api.base.url.
+     */
+    public String getApiBaseUrl() {
+        return "http://localhost:" + getPort() + API_PREFIX;
+    }
+
+    /**
+     * Value for astri.dm.base.url.
+     */
+    public String getDmBaseUrl() {
+        return "http://localhost:" + getPort() + DM_PREFIX;
+    }
+
+    public MockData getData() {
+        return data;
+    }
+
+    public void setFaults(Faults faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * Faults for one route (e.g. "olt_list"), or null to use the global settings again.
+     */
+    public void setFaults(String route, Faults faults) {
+        if (faults == null) {
+            routeFaults.remove(route);
+        } else {
+            routeFaults.put(route, faults);
+        }
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public long getRequests(String route) {
+        RouteStats routeStats = stats.get(route);
+        return routeStats != null ? routeStats.requests.sum() : 0;
+    }
+
+    public void reset() {
+        for (Route route : routes) {
+            stats.put(route.name, new RouteStats());
+        }
+        routeFaults.clear();
+        faults = new Faults();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.startsWith("/__admin/")) {
+                admin(exchange, path, query);
+                return;
+            }
+            for (Route route : routes) {
+                Matcher matcher = route.pattern.matcher(path);
+                if (matcher.matches()) {
+                    handle(route, exchange, matcher, query);
+                    return;
+                }
+            }
+            sendJson(exchange, 404, "{\"success\":false,\"error\":\"No route for " + path + "\"}", null);
+        }
+    }
+
+    private void handle(Route route, HttpExchange exchange, Matcher matcher, Map<String, String> query)
+            throws IOException {
+        long started = System.nanoTime();
+        RouteStats routeStats = stats.get(route.name);
+        routeStats.requests.increment();
+        try {
+            Faults f = routeFaults.getOrDefault(route.name, faults);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = f.latencyMs + (f.jitterMs > 0 ? random.nextLong(f.jitterMs + 1) : 0);
+            if (delay > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (f.dropRate > 0 && random.nextDouble() < f.dropRate) {
+                // Closing without a status line looks like a reset connection to the client
+                routeStats.dropped.increment();
+                return;
+            }
+            if (f.errorRate > 0 && random.nextDouble() < f.errorRate) {
+                routeStats.injectedErrors.increment();
+                send(exchange, f.errorStatus, "text/html",
+                     ("<html><body><h1>" + f.errorStatus + " Injected error</h1></body></html>")
+                         .getBytes(StandardCharsets.UTF_8), routeStats);
+                return;
+            }
+            if (!route.method.equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, "{\"success\":false,\"error\":\"Method not allowed\"}", routeStats);
+                return;
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Basic ")) {
+                sendJson(exchange, 401, "{\"success\":false,\"error\":\"Unauthenticated\"}", routeStats);
+                return;
+            }
+            route.handler.handle(exchange, matcher, query);
+        } finally {
+            routeStats.handleNanos.add(System.nanoTime() - started);
+        }
+    }
+
+    private void workOrderList(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        List<Map<String, Object>> records = MockData.sort(MockData.filter(data.workOrders(path.group(1)), query), query);
+        sendJson(exchange, 200, MockData.listJson(records, Integer.parseInt(path.group(2)),
+                                                  Integer.parseInt(path.group(3))), stats.get("work_order_list"));
+    }
+
+    private void workOrderGet(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        Map<String, Object> wo = data.workOrderByUuid(path.group(1));
+        if (wo == null) {
+            sendJson(exchange, 404, "{\"success\":false,\"error\":\"Work order not found\"}", stats.get("work_order_get"));
+            return;
+        }
+        sendJson(exchange, 200, MockData.objectJson(wo), stats.get("work_order_get"));
+    }
+
+    private void workOrderUpdate(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        String body = readBody(exchange);
+        String number = jsonField(body, "number");
+        String status = jsonField(body, "latest_status_name");
+        if (number == null || status == null) {
+            sendJson(exchange, 422, "{\"success\":false,\"error\":\"number and latest_status_name are required\"}",
+                     stats.get("work_order_update"));
+        } else if (!data.updateWorkOrder(number, status)) {
+            sendJson(exchange, 404, "{\"success\":false,\"error\":\"Work order not found\"}", stats.get("work_order_update"));
+        } else {
+            sendJson(exchange, 200, "{\"success\":true,\"message\":\"Work order updated\"}", stats.get("work_order_update"));
+        }
+    }
+
+    private void boqAdd(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        String body = readBody(exchange);
+        String equipment = jsonField(body, "equipment_name");
+        if (equipment == null) {
+            sendJson(exchange, 422, "{\"success\":false,\"error\":\"equipment_name is required\"}", stats.get("boq_add"));
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"success\":true,\"message\":\"BOQ added\",\"data\":{\"id\":")
+            .append(data.nextBoqId()).append(",\"equipment_name\":");
+        MockData.appendString(json, equipment);
+        sendJson(exchange, 200, json.append("}}").toString(), stats.get("boq_add"));
+    }
+
+    private void priceList(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        sendJson(exchange, 200, MockData.listJson(MockData.filter(data.prices(), query), 0, 0), stats.get("price_list"));
+    }
+
+    private void vendorList(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        sendJson(exchange, 200, MockData.listJson(MockData.filter(data.vendors(), query),
+                                                  Integer.parseInt(path.group(1)), Integer.parseInt(path.group(2))),
+                 stats.get("vendor_list"));
+    }
+
+    private void oltList(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        sendJson(exchange, 200, MockData.listJson(MockData.filter(data.olts(), query),
+                                                  Integer.parseInt(path.group(1)), Integer.parseInt(path.group(2))),
+                 stats.get("olt_list"));
+    }
+
+    private void kmzDownload(HttpExchange exchange, Matcher path, Map<String, String> query) throws IOException {
+        RouteStats routeStats = stats.get("kmz_download");
+        String uuid = path.group(2);
+        // Every document is the same KMZ, but validators differ per uuid as they would on ASTRI
+        String etag = "\"" + Integer.toHexString(uuid.hashCode()) + "-" + data.kmz().length + "\"";
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Last-Modified", LAST_MODIFIED);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            routeStats.notModified.increment();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        headers.set("Content-Disposition", "attachment; filename=\"" + uuid + ".kmz\"");
+        // KMZ is already compressed - never gzipped
+        send(exchange, 200, "application/vnd.google-earth.kmz", data.kmz(), routeStats);
+    }
+
+    private void admin(HttpExchange exchange, String path, Map<String, String> query) throws IOException {
+        switch (path) {
+            case "/__admin/stats":
+                sendJson(exchange, 200, statsJson(), null);
+                break;
+            case "/__admin/faults":
+                try {
+                    String route = query.remove("route");
+                    if (route != null) {
+                        setFaults(route, routeFaults.getOrDefault(route, faults).with(query));
+                    } else if (!query.isEmpty()) {
+                        faults = faults.with(query);
+                    }
+                } catch (NumberFormatException e) {
+                    sendJson(exchange, 400, "{\"success\":false,\"error\":\"Bad number: " + e.getMessage() + "\"}", null);
+                    return;
+                }
+                sendJson(exchange, 200, statsJson(), null);
+                break;
+            case "/__admin/reset":
+                reset();
+                sendJson(exchange, 200, statsJson(), null);
+                break;
+            default:
+                sendJson(exchange, 404, "{\"success\":false,\"error\":\"Unknown admin path\"}", null);
+        }
+    }
+
+    /**
+     * Counters and fault settings as JSON (what /__admin/stats returns).
+     */
+    public String statsJson() {
+        StringBuilder json = new StringBuilder("{\"success\":true,\"faults\":");
+        faults.appendJson(json);
+        json.append(",\"routes\":{");
+        boolean first = true;
+        for (Route route : routes) {
+            RouteStats s = stats.get(route.name);
+            long requests = s.requests.sum();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(route.name).append("\":{\"requests\":").append(requests)
+                .append(",\"injected_errors\":").append(s.injectedErrors.sum())
+                .append(",\"dropped\":").append(s.dropped.sum())
+                .append(",\"not_modified\":").append(s.notModified.sum())
+                .append(",\"bytes_sent\":").append(s.bytesSent.sum())
+                .append(",\"mean_ms\":").append(requests > 0 ? s.handleNanos.sum() / requests / 1_000_000.0 : 0);
+            Faults f = routeFaults.get(route.name);
+            if (f != null) {
+                json.append(",\"faults\":");
+                f.appendJson(json);
+            }
+            json.append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String json, RouteStats routeStats) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (compression && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(body);
+            }
+            body = out.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        send(exchange, status, "application/json; charset=utf-8", body, routeStats);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body,
+                             RouteStats routeStats) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (routeStats != null) {
+            routeStats.bytesSent.add(body.length);
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Value of a top-level string field of a flat JSON object, or null.
+     * Enough for the request bodies the clients send.
+     */
+    static String jsonField(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + Pattern.quote(name) + "\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"")
+            .matcher(json);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1).replace("\\\"", "\"").replace("\\n", "\n").replace("\\\\", "\\");
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    /**
+     * Run the server until the process is stopped.
+     *
+     * Options: --port 18080, --work-orders 500 (per infrastructure type),
+     * --kml path (KML zipped into every document, default generated),
+     * --threads 64, --latency-ms 0, --jitter-ms 0, --error-rate 0,
+     * --error-status 503, --drop-rate 0, --no-gzip
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("no-gzip")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+
+        Path kml = options.containsKey("kml") ? Paths.get(options.get("kml")) : null;
+        MockData data = new MockData(Integer.parseInt(options.getOrDefault("work-orders", "500")), kml);
+        MockAstriServer server = new MockAstriServer(Integer.parseInt(options.getOrDefault("port", "18080")), data,
+                                                     Integer.parseInt(options.getOrDefault("threads", "64")));
+        server.setCompression(!options.containsKey("no-gzip"));
+        server.setFaults(new Faults(
+            Long.parseLong(options.getOrDefault("latency-ms", "0")),
+            Long.parseLong(options.getOrDefault("jitter-ms", "0")),
+            Double.parseDouble(options.getOrDefault("error-rate", "0")),
+            Integer.parseInt(options.getOrDefault("error-status", "503")),
+            Double.parseDouble(options.getOrDefault("drop-rate", "0"))));
+
+        System.out.println("Mock ASTRI server listening on port " + server.getPort());
+        System.out.println("Point the clients at it with:");
+        System.out.println("  -Dastri.api.base.url=" + server.getApiBaseUrl());
+        System.out.println("  -Dastri.dm.base.url=" + server.getDmBaseUrl());
+        System.out.println("Counters: http://localhost:" + server.getPort() + "/__admin/stats");
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,397 @@
+package com.rwi.myrepublic.astri.testkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic ASTRI data served by MockAstriServer.
+ * NOT exposed to Magik - used only by the testkit.
+ *
+ * Records are generated once from a fixed seed, so two runs with the same
+ * sizes serve the same bytes. Work orders are mutable: an update sets the
+ * status and moves updated_at forward, as ASTRI does.
+ */
+public final class MockData {
+    static final String[] INFRASTRUCTURE_TYPES = {"cluster", "subfeeder", "feeder"};
+
+    private static final String[] CATEGORIES = {"Design", "Construction", "As Built", "Documentation"};
+    private static final String[] STATUSES = {"draft", "submitted", "approved", "rejected", "in_progress", "done"};
+    private static final String[] VENDORS = {
+        "PT Telkom Akses", "PT Len Telekomunikasi Indonesia", "CV Karya \"Mandiri\" Utama",
+        "PT Fiber & Network Solusi", "PT Surya Optik Nusantara", "PT Jaringan Prima Élite"
+    };
+    private static final String[] AREAS = {"Jakarta Selatan", "Bekasi", "Tangerang", "Bandung", "Surabaya", "Medan"};
+    private static final String[] EQUIPMENT = {
+        "Kabel FO 24 Core ADSS", "Kabel FO 48 Core Duct", "ODP 16 Port", "ODC 144 Port",
+        "Tiang Besi 7m", "Closure 48 Core", "Splitter 1:8", "Handhole"
+    };
+
+    private final Map<String, List<Map<String, Object>>> workOrders = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> workOrdersByUuid = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> workOrdersByNumber = new ConcurrentHashMap<>();
+    private final List<Map<String, Object>> vendors;
+    private final List<Map<String, Object>> olts;
+    private final List<Map<String, Object>> prices;
+    private final byte[] kmz;
+    private final AtomicLong boqIds = new AtomicLong(1);
+
+    /**
+     * @param workOrdersPerType work orders generated for each of cluster, subfeeder and feeder
+     * @param kml KML zipped into every KMZ document, or null for a generated one
+     */
+    public MockData(int workOrdersPerType, Path kml) throws IOException {
+        Random random = new Random(42);
+        Instant base = Instant.parse("2025-01-01T00:00:00Z");
+        for (String type : INFRASTRUCTURE_TYPES) {
+            List<Map<String, Object>> list = new ArrayList<>(workOrdersPerType);
+            for (int i = 0; i < workOrdersPerType; i++) {
+                Map<String, Object> wo = workOrder(type, i, random, base);
+                list.add(wo);
+                workOrdersByUuid.put((String) wo.get("uuid"), wo);
+                workOrdersByNumber.put((String) wo.get("number"), wo);
+            }
+            workOrders.put(type, Collections.synchronizedList(list));
+        }
+        vendors = generate(60, i -> vendor(i, random));
+        olts = generate(200, i -> olt(i, random));
+        prices = generate(400, i -> price(i, random));
+        kmz = zip(kml != null ? Files.readAllBytes(kml) : generatedKml(random));
+    }
+
+    private interface Generator {
+        Map<String, Object> create(int i);
+    }
+
+    private static List<Map<String, Object>> generate(int count, Generator generator) {
+        List<Map<String, Object>> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(generator.create(i));
+        }
+        return list;
+    }
+
+    private static Map<String, Object> workOrder(String type, int i, Random random, Instant base) {
+        String prefix = "feeder".equals(type) ? "target_osp_route" : "target_" + type;
+        String area = AREAS[random.nextInt(AREAS.length)];
+        Instant created = base.plus(random.nextInt(300 * 24 * 60), ChronoUnit.MINUTES);
+
+        Map<String, Object> wo = new LinkedHashMap<>();
+        wo.put("id", 100000 + i);
+        wo.put("uuid", uuid(random));
+        wo.put("number", "WO/ALL/2025/DOCU/" + (1 + random.nextInt(52)) + "/" + type.charAt(0) + (50000 + i));
+        String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+        wo.put("category_label", category);
+        wo.put("category_name", category.toLowerCase(Locale.ROOT).replace(' ', '_'));
+        wo.put("latest_status_name", STATUSES[random.nextInt(STATUSES.length)]);
+        String vendor = VENDORS[random.nextInt(VENDORS.length)];
+        wo.put("assigned_vendor_label", vendor);
+        wo.put("assigned_vendor_name", vendor);
+        wo.put("assigned_subcont_vendor_name", random.nextInt(3) == 0 ? null : VENDORS[random.nextInt(VENDORS.length)]);
+        wo.put("created_at", created.toString());
+        wo.put("updated_at", created.plus(random.nextInt(30 * 24 * 60), ChronoUnit.MINUTES).toString());
+        wo.put(prefix + "_code", type.substring(0, 3).toUpperCase(Locale.ROOT) + "-" + (10000 + i));
+        wo.put(prefix + "_name", area + " " + type + " " + i + (random.nextInt(5) == 0 ? " / Phase 2" : ""));
+        if ("cluster".equals(type)) {
+            wo.put(prefix + "_topology", random.nextBoolean() ? "Ring" : "Star");
+        }
+        wo.put(prefix + "_area", area);
+        wo.put(prefix + "_area_plant_code", "P" + (1000 + random.nextInt(9000)));
+        if ("feeder".equals(type)) {
+            wo.put(prefix + "_asset_number", "AST-" + (700000 + i));
+        }
+        wo.put(prefix + "_olt_name", "OLT-" + area.substring(0, 3).toUpperCase(Locale.ROOT) + "-" + random.nextInt(40));
+        wo.put(prefix + "_olt_label", "OLT " + area + " " + random.nextInt(40));
+        // Fields ASTRI sends that the clients skip
+        wo.put("progress", random.nextInt(101));
+        wo.put("is_active", true);
+        return wo;
+    }
+
+    private static Map<String, Object> vendor(int i, Random random) {
+        Map<String, Object> v = new LinkedHashMap<>();
+        v.put("uuid", uuid(random));
+        v.put("name", VENDORS[i % VENDORS.length] + (i < VENDORS.length ? "" : " " + i));
+        v.put("label", VENDORS[i % VENDORS.length]);
+        v.put("subcont_vendor_name", random.nextBoolean() ? VENDORS[random.nextInt(VENDORS.length)] : null);
+        v.put("sap_vendor_code", String.valueOf(2000000 + i));
+        return v;
+    }
+
+    private static Map<String, Object> olt(int i, Random random) {
+        String area = AREAS[random.nextInt(AREAS.length)];
+        Map<String, Object> o = new LinkedHashMap<>();
+        o.put("uuid", uuid(random));
+        o.put("device_code", "OLT-" + area.substring(0, 3).toUpperCase(Locale.ROOT) + "-" + i);
+        o.put("name", "OLT " + area + " " + i);
+        o.put("label", "OLT " + area + " " + i);
+        o.put("area", area);
+        o.put("latitude", -6.2 - random.nextDouble());
+        o.put("longitude", 106.8 + random.nextDouble());
+        return o;
+    }
+
+    private static Map<String, Object> price(int i, Random random) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("project_type", i % 4 == 0 ? "ALL" : "FTTH");
+        p.put("vendor_name", VENDORS[random.nextInt(VENDORS.length)]);
+        p.put("equipment_name", EQUIPMENT[i % EQUIPMENT.length]);
+        p.put("price_material", Math.round(random.nextDouble() * 5000000) / 100.0);
+        p.put("price_service", Math.round(random.nextDouble() * 1000000) / 100.0);
+        p.put("valid_date_start", "2025-01-01");
+        p.put("valid_date_end", "2025-12-31");
+        return p;
+    }
+
+    private static String uuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private static byte[] generatedKml(Random random) {
+        StringBuilder kml = new StringBuilder(256 * 1024);
+        kml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+           .append("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document><name>ASTRI</name><Folder><name>CABLE</name>\n");
+        for (int i = 0; i < 500; i++) {
+            double lon = 106.8 + random.nextDouble() / 10;
+            double lat = -6.2 - random.nextDouble() / 10;
+            kml.append("<Placemark><name>CABLE-").append(i).append("</name><LineString><coordinates>")
+               .append(lon).append(',').append(lat).append(",0 ")
+               .append(lon + 0.001).append(',').append(lat + 0.001).append(",0")
+               .append("</coordinates></LineString></Placemark>\n");
+        }
+        kml.append("</Folder></Document></kml>\n");
+        return kml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] zip(byte[] kml) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(kml.length / 4);
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("doc.kml"));
+            zip.write(kml);
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Work orders of an infrastructure type, or an empty list for an unknown type.
+     */
+    List<Map<String, Object>> workOrders(String type) {
+        List<Map<String, Object>> list = workOrders.get(type);
+        return list != null ? list : Collections.emptyList();
+    }
+
+    Map<String, Object> workOrderByUuid(String uuid) {
+        return workOrdersByUuid.get(uuid);
+    }
+
+    List<Map<String, Object>> vendors() {
+        return vendors;
+    }
+
+    List<Map<String, Object>> olts() {
+        return olts;
+    }
+
+    List<Map<String, Object>> prices() {
+        return prices;
+    }
+
+    byte[] kmz() {
+        return kmz;
+    }
+
+    /**
+     * Any work order uuid, for documents and load generators.
+     */
+    public List<String> uuids(String type) {
+        List<String> uuids = new ArrayList<>();
+        synchronized (workOrders(type)) {
+            for (Map<String, Object> wo : workOrders(type)) {
+                uuids.add((String) wo.get("uuid"));
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Apply a work order update. Returns false if the number is unknown.
+     */
+    boolean updateWorkOrder(String number, String status) {
+        Map<String, Object> wo = workOrdersByNumber.get(number);
+        if (wo == null) {
+            return false;
+        }
+        synchronized (wo) {
+            wo.put("latest_status_name", status);
+            wo.put("updated_at", Instant.now().truncatedTo(ChronoUnit.MILLIS).toString());
+        }
+        return true;
+    }
+
+    long nextBoqId() {
+        return boqIds.getAndIncrement();
+    }
+
+    /**
+     * Records whose fields contain every filter value (case-insensitive), as ASTRI's list filters do.
+     */
+    static List<Map<String, Object>> filter(List<Map<String, Object>> records, Map<String, String> filters) {
+        if (filters.isEmpty()) {
+            return records;
+        }
+        List<Map<String, Object>> matches = new ArrayList<>();
+        synchronized (records) {
+            for (Map<String, Object> record : records) {
+                if (matches(record, filters)) {
+                    matches.add(record);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean matches(Map<String, Object> record, Map<String, String> filters) {
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (!record.containsKey(filter.getKey())) {
+                // Unknown filters are ignored, like the real API
+                continue;
+            }
+            Object value = record.get(filter.getKey());
+            if (value == null || !String.valueOf(value).toLowerCase(Locale.ROOT)
+                    .contains(filter.getValue().toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records ordered by the sort_by field (sort_order=desc for newest-first), or as
+     * given when there is no sort_by. Fields ending in _at are compared as instants.
+     */
+    static List<Map<String, Object>> sort(List<Map<String, Object>> records, Map<String, String> query) {
+        String field = query.get("sort_by");
+        if (field == null || field.isEmpty()) {
+            return records;
+        }
+        // Keys are read once, so an update landing mid-sort cannot break the ordering
+        boolean instants = field.endsWith("_at");
+        List<Map.Entry<Comparable<?>, Map<String, Object>>> keyed = new ArrayList<>();
+        synchronized (records) {
+            for (Map<String, Object> record : records) {
+                Object value = record.get(field);
+                Comparable<?> key = instants ? instantOf(value) : value != null ? String.valueOf(value) : null;
+                keyed.add(new AbstractMap.SimpleImmutableEntry<>(key, record));
+            }
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Comparator<Map.Entry<Comparable<?>, Map<String, Object>>> order =
+            Comparator.comparing(entry -> (Comparable) entry.getKey(), Comparator.nullsFirst(Comparator.naturalOrder()));
+        keyed.sort("desc".equalsIgnoreCase(query.get("sort_order")) ? order.reversed() : order);
+
+        List<Map<String, Object>> sorted = new ArrayList<>(keyed.size());
+        for (Map.Entry<Comparable<?>, Map<String, Object>> entry : keyed) {
+            sorted.add(entry.getValue());
+        }
+        return sorted;
+    }
+
+    private static Instant instantOf(Object value) {
+        try {
+            return value != null ? Instant.parse(String.valueOf(value)) : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {"success":true,"count":N,"count_all":M,"data":[...]} for one page of records.
+     */
+    static String listJson(List<Map<String, Object>> records, int limit, int offset) {
+        int total = records.size();
+        int from = Math.min(Math.max(offset, 0), total);
+        int to = limit > 0 ? Math.min(from + limit, total) : total;
+        StringBuilder json = new StringBuilder(128 + (to - from) * 600);
+        json.append("{\"success\":true,\"count\":").append(to - from)
+            .append(",\"count_all\":").append(total).append(",\"data\":[");
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                json.append(',');
+            }
+            appendObject(json, records.get(i));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static String objectJson(Map<String, Object> record) {
+        StringBuilder json = new StringBuilder("{\"success\":true,\"data\":");
+        appendObject(json, record);
+        return json.append('}').toString();
+    }
+
+    static void appendObject(StringBuilder json, Map<String, Object> record) {
+        json.append('{');
+        boolean first = true;
+        synchronized (record) {
+            for (Map.Entry<String, Object> field : record.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, field.getKey());
+                json.append(':');
+                Object value = field.getValue();
+                if (value == null || value instanceof Number || value instanceof Boolean) {
+                    json.append(value);
+                } else {
+                    appendString(json, value.toString());
+                }
+            }
+        }
+        json.append('}');
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                // ASTRI escapes slashes
+                case '/': json.append("\\/"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}